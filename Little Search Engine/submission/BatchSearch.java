@@ -0,0 +1,183 @@
+package search;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class answers many top5search queries at once, using several threads. A batch is
+ * answered in two phases:
+ *
+ * 1. The distinct keywords of all the queries are collected, and each keyword's first
+ *    occurrences are fetched from the index, decoding its posting list, exactly once,
+ *    however many queries share it. The keywords are split among the threads.
+ * 2. The queries are split among the threads, and each is answered by merging the two
+ *    lists fetched for it, with the same merge as top5search.
+ *
+ * Queries already in the engine's query cache are answered from it, and every new result
+ * is added to it, so a batch leaves the cache as the same queries run one at a time would.
+ *
+ */
+class BatchSearch {
+
+	/**
+	 * Minimum number of keywords or queries per task, so that tiny tasks do not cost
+	 * more to schedule than to run.
+	 */
+	static final int MIN_TASK = 256;
+
+	/**
+	 * Engine to search.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * Number of threads.
+	 */
+	int parallelism;
+
+	/**
+	 * Creates a batch searcher.
+	 *
+	 * @param engine Engine to search
+	 * @param parallelism Number of threads to use
+	 */
+	BatchSearch(LittleSearchEngine engine, int parallelism) {
+		this.engine = engine;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Answers a batch of queries.
+	 *
+	 * @param queries Queries, each a pair of keywords
+	 * @return Result of each query, in the order of the queries, as top5search would return it
+	 * @throws IllegalArgumentException If a query is not a pair of keywords
+	 */
+	ArrayList<ArrayList<String>> search(List<String[]> queries) {
+		int n = queries.size();
+		final String[] kw1 = new String[n], kw2 = new String[n];
+		final String[] keys = new String[n];
+		final ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>(Collections.nCopies(n, (ArrayList<String>)null));
+		final long gen = engine.generation.get();
+		final IndexReader reader = engine.reader();
+
+		// answer what the cache can, and collect the keywords of the rest
+		final HashMap<String,ArrayList<Occurrence>> lists = new HashMap<String,ArrayList<Occurrence>>();
+		final int[] pending = new int[n];
+		int pendingCount = 0;
+		for (int i=0; i < n; i++) {
+			String[] q = queries.get(i);
+			if (q == null || q.length != 2) {
+				throw new IllegalArgumentException("Query " + i + " is not a pair of keywords");
+			}
+			kw1[i] = q[0].toLowerCase();
+			kw2[i] = q[1].toLowerCase();
+			keys[i] = "top5\0" + kw1[i] + "\0" + kw2[i];
+			QueryCache.Entry hit = engine.cached(keys[i], gen);
+			if (hit != null) {
+				results.set(i, hit.copy());
+			} else {
+				pending[pendingCount++] = i;
+				lists.put(kw1[i], null);
+				lists.put(kw2[i], null);
+			}
+		}
+		if (pendingCount == 0) {
+			return results;
+		}
+
+		// a single thread runs the tasks itself, without the cost of starting a pool
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try {
+			// phase 1: fetch every keyword's occurrences once
+			final String[] kws = lists.keySet().toArray(new String[lists.size()]);
+			final ArrayList<ArrayList<Occurrence>> fetched = new ArrayList<ArrayList<Occurrence>>(Collections.nCopies(kws.length, (ArrayList<Occurrence>)null));
+			ArrayList<Callable<Void>> fetches = new ArrayList<Callable<Void>>();
+			int size = taskSize(kws.length);
+			for (int from=0; from < kws.length; from += size) {
+				final int start = from, end = Math.min(from + size, kws.length);
+				fetches.add(new Callable<Void>() {
+					public Void call() {
+						for (int k = start; k < end; k++) {
+							// as many occurrences as top5search reads
+							fetched.set(k, engine.occurrences(reader, kws[k], 10));
+						}
+						return null;
+					}
+				});
+			}
+			invoke(pool, fetches);
+			for (int k=0; k < kws.length; k++) {
+				lists.put(kws[k], fetched.get(k));
+			}
+
+			// phase 2: merge each query's two lists
+			ArrayList<Callable<Void>> merges = new ArrayList<Callable<Void>>();
+			size = taskSize(pendingCount);
+			for (int from=0; from < pendingCount; from += size) {
+				final int start = from, end = Math.min(from + size, pendingCount);
+				merges.add(new Callable<Void>() {
+					public Void call() {
+						for (int p = start; p < end; p++) {
+							int i = pending[p];
+							results.set(i, LittleSearchEngine.top5merge(lists.get(kw1[i]), lists.get(kw2[i])));
+						}
+						return null;
+					}
+				});
+			}
+			invoke(pool, merges);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+
+		for (int p=0; p < pendingCount; p++) {
+			int i = pending[p];
+			engine.cache(keys[i], gen, results.get(i));
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the number of items per task, so that each thread gets a few tasks to
+	 * balance the load.
+	 */
+	private int taskSize(int items) {
+		return Math.max(MIN_TASK, (items + parallelism*4 - 1) / (parallelism*4));
+	}
+
+	/**
+	 * Runs tasks on the pool and waits for all of them, rethrowing the first failure. With
+	 * no pool, runs them on this thread.
+	 */
+	private static void invoke(ForkJoinPool pool, List<Callable<Void>> tasks) {
+		if (pool == null) {
+			for (Callable<Void> task: tasks) {
+				try {
+					task.call();
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return;
+		}
+		for (Future<Void> f: pool.invokeAll(tasks)) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Batch search interrupted", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException)cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.*;
+
+/**
+ * This class is a Bloom filter over the keywords of an index segment, so that a lookup of
+ * a keyword the segment does not have can usually skip the segment without probing its
+ * dictionary. A keyword that is in the segment always passes; one that is not passes with
+ * about the false positive rate the filter was sized for.
+ *
+ * A filter of n keywords at false positive rate p takes n * log2(1/p) / ln 2 bits, about
+ * 1.2 bytes per keyword at 1%, and each lookup tests (ln 2) * log2(1/p) bits, derived from
+ * one 64-bit hash of the keyword's UTF-8 bytes by double hashing. The bits are read
+ * through a LongBuffer, so a filter stored in a mapped segment file is used in place.
+ *
+ */
+class BloomFilter {
+
+	/**
+	 * Bits of the filter.
+	 */
+	final LongBuffer bits;
+
+	/**
+	 * Number of bits, a multiple of 64.
+	 */
+	final long bitCount;
+
+	/**
+	 * Number of bits tested per keyword.
+	 */
+	final int hashes;
+
+	/**
+	 * Creates an empty filter, sized for a number of keywords and a false positive rate.
+	 *
+	 * @param expected Number of keywords to be added
+	 * @param falsePositiveRate Rate of false positives once they are added, between 0 and 1
+	 * @throws IllegalArgumentException If falsePositiveRate is not between 0 and 1
+	 */
+	BloomFilter(long expected, double falsePositiveRate) {
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+		}
+		double ln2 = Math.log(2);
+		long n = Math.max(expected, 1);
+		long m = (long)Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2));
+		long words = Math.max((m + 63) / 64, 1);
+		if (words > 1 << 26) {
+			throw new IllegalArgumentException("Bloom filter too large: " + m + " bits");
+		}
+		bits = LongBuffer.wrap(new long[(int)words]);
+		bitCount = words * 64;
+		hashes = (int)Math.max(1, Math.round((double)bitCount / n * ln2));
+	}
+
+	/**
+	 * Wraps the bits of a stored filter.
+	 */
+	private BloomFilter(LongBuffer bits, int hashes) {
+		this.bits = bits;
+		bitCount = bits.capacity() * 64L;
+		this.hashes = hashes;
+	}
+
+	/**
+	 * Builds a filter over keywords.
+	 *
+	 * @param keywords Keywords
+	 * @param falsePositiveRate Rate of false positives, between 0 and 1
+	 * @return Filter
+	 */
+	static BloomFilter build(Collection<String> keywords, double falsePositiveRate) {
+		BloomFilter filter = new BloomFilter(keywords.size(), falsePositiveRate);
+		for (String kw: keywords) {
+			filter.add(hash(kw));
+		}
+		return filter;
+	}
+
+	/**
+	 * Adds a keyword.
+	 *
+	 * @param hash Hash of the keyword, from hash
+	 */
+	void add(long hash) {
+		int h1 = (int)hash, h2 = (int)(hash >>> 32);
+		for (int i=0; i < hashes; i++) {
+			long bit = index(h1 + i * h2);
+			int w = (int)(bit >>> 6);
+			bits.put(w, bits.get(w) | (1L << bit));
+		}
+	}
+
+	/**
+	 * Tells whether a keyword may have been added.
+	 *
+	 * @param hash Hash of the keyword, from hash
+	 * @return False if the keyword was certainly not added
+	 */
+	boolean mightContain(long hash) {
+		int h1 = (int)hash, h2 = (int)(hash >>> 32);
+		for (int i=0; i < hashes; i++) {
+			long bit = index(h1 + i * h2);
+			if ((bits.get((int)(bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Maps a combined hash to a bit, by multiplying rather than dividing: there are at
+	 * most 2^32 bits, so the product fits in 64 bits.
+	 */
+	private long index(int h) {
+		return ((h & 0xffffffffL) * bitCount) >>> 32;
+	}
+
+	/**
+	 * Hashes a keyword: the hash of its UTF-8 bytes. A keyword of ASCII characters, as
+	 * most are, is hashed from its chars without encoding it.
+	 */
+	static long hash(String kw) {
+		long h = 0xcbf29ce484222325L;
+		for (int i=0; i < kw.length(); i++) {
+			char c = kw.charAt(i);
+			if (c >= 0x80) {
+				byte[] b = kw.getBytes(IndexSegment.UTF8);
+				return hash(b, 0, b.length);
+			}
+			h ^= c;
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Hashes bytes, with 64-bit FNV-1a and a final mix so that both halves are well spread.
+	 *
+	 * @param b Bytes
+	 * @param off Index of the first byte
+	 * @param len Number of bytes
+	 * @return Hash
+	 */
+	static long hash(byte[] b, int off, int len) {
+		long h = 0xcbf29ce484222325L;
+		for (int i=0; i < len; i++) {
+			h ^= b[off + i] & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Hashes bytes of a buffer, as hash(byte[], int, int) does.
+	 */
+	static long hash(ByteBuffer buf, int off, int len) {
+		long h = 0xcbf29ce484222325L;
+		for (int i=0; i < len; i++) {
+			h ^= buf.get(off + i) & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Returns the number of bytes the bits take.
+	 */
+	long bytes() {
+		return bitCount / 8;
+	}
+
+	/**
+	 * Writes the filter: the number of bits tested per keyword, the number of 64-bit
+	 * words, then the words.
+	 *
+	 * @param out Output
+	 * @throws IOException If it cannot be written
+	 */
+	void write(DataOutput out)
+	throws IOException {
+		out.writeInt(hashes);
+		out.writeInt(bits.capacity());
+		for (int w=0; w < bits.capacity(); w++) {
+			out.writeLong(bits.get(w));
+		}
+	}
+
+	/**
+	 * Returns the number of bytes write writes.
+	 */
+	long storedSize() {
+		return 8 + 8L * bits.capacity();
+	}
+
+	/**
+	 * Reads a filter written by write, using the buffer's bytes in place.
+	 *
+	 * @param buf Buffer, big endian
+	 * @param off Offset of the filter
+	 * @return Filter
+	 */
+	static BloomFilter read(ByteBuffer buf, int off) {
+		int hashes = buf.getInt(off);
+		int words = buf.getInt(off + 4);
+		ByteBuffer b = buf.duplicate();
+		b.position(off + 8);
+		b.limit(off + 8 + 8 * words);
+		return new BloomFilter(b.slice().asLongBuffer(), hashes);
+	}
+}
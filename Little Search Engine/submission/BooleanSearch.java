@@ -0,0 +1,222 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class evaluates boolean queries: keywords joined by AND, OR and NOT, where AND
+ * binds tighter than OR, NOT applies to the keyword after it, and two keywords with no
+ * operator between them are joined by AND. For example, "alice rabbit OR queen NOT king"
+ * matches the documents holding both alice and rabbit, and those holding queen but not king.
+ * Operators are recognized only in upper case; keywords are matched in lower case.
+ *
+ * A query is a disjunction of clauses, each a conjunction of required keywords less
+ * some excluded ones. A clause is evaluated over the keywords' lists in document order,
+ * rarest keyword first: it proposes candidates, and every other list is advanced straight
+ * to the candidate, skipping the postings in between (by galloping over an uncompressed
+ * list, or over whole compressed blocks). When a list overshoots the candidate, the rarest
+ * list is advanced to where it landed instead. So the cost follows the rarest list, not
+ * the most common one.
+ *
+ * Matching documents are ranked by the summed frequency of their clause's required
+ * keywords; a document matching several clauses gets the best of their sums. The best k
+ * are kept in a TopDocs heap, and ties go to the document indexed first.
+ *
+ */
+class BooleanSearch {
+
+	/**
+	 * Required and excluded keywords of one clause.
+	 */
+	static class Clause {
+		ArrayList<String> required = new ArrayList<String>();
+		ArrayList<String> excluded = new ArrayList<String>();
+	}
+
+	/**
+	 * Parses a query into clauses.
+	 *
+	 * @param query Query
+	 * @return Clauses, each with at least one required keyword
+	 * @throws IllegalArgumentException If the query is empty, an operator has no keyword
+	 *         after it, or a clause has no required keyword
+	 */
+	static ArrayList<Clause> parse(String query) {
+		if (query.trim().isEmpty()) {
+			throw new IllegalArgumentException("Empty query");
+		}
+		ArrayList<Clause> clauses = new ArrayList<Clause>();
+		Clause clause = new Clause();
+		boolean not = false, operand = true;
+		for (String token: query.trim().split("\\s+")) {
+			if (token.isEmpty()) {
+				continue;
+			}
+			if (token.equals("OR")) {
+				if (operand) {
+					throw new IllegalArgumentException("Missing keyword before OR: " + query);
+				}
+				addClause(clauses, clause, query);
+				clause = new Clause();
+				operand = true;
+			} else if (token.equals("AND")) {
+				if (operand) {
+					throw new IllegalArgumentException("Missing keyword before AND: " + query);
+				}
+				operand = true;
+			} else if (token.equals("NOT")) {
+				if (not) {
+					throw new IllegalArgumentException("Missing keyword after NOT: " + query);
+				}
+				not = true;
+				operand = true;
+			} else {
+				String kw = token.toLowerCase();
+				ArrayList<String> kws = not ? clause.excluded : clause.required;
+				if (!kws.contains(kw)) {
+					kws.add(kw);
+				}
+				not = false;
+				operand = false;
+			}
+		}
+		if (operand) {
+			throw new IllegalArgumentException("Missing keyword at end of query: " + query);
+		}
+		addClause(clauses, clause, query);
+		return clauses;
+	}
+
+	private static void addClause(ArrayList<Clause> clauses, Clause clause, String query) {
+		if (clause.required.isEmpty()) {
+			throw new IllegalArgumentException("Clause without a required keyword: " + query);
+		}
+		clauses.add(clause);
+	}
+
+	/**
+	 * Matching documents of a clause, in ascending order of document id, with their scores.
+	 */
+	static class Matches {
+		int[] docs = new int[16];
+		int[] scores = new int[16];
+		int size;
+
+		void add(int doc, int score) {
+			if (size == docs.length) {
+				docs = Arrays.copyOf(docs, size*2);
+				scores = Arrays.copyOf(scores, size*2);
+			}
+			docs[size] = doc;
+			scores[size] = score;
+			size++;
+		}
+
+		/**
+		 * Merges two sets of matches, keeping the better score of a document in both.
+		 */
+		static Matches union(Matches a, Matches b) {
+			Matches m = new Matches();
+			int i = 0, j = 0;
+			while (i < a.size || j < b.size) {
+				int da = i < a.size ? a.docs[i] : DocCursor.END;
+				int db = j < b.size ? b.docs[j] : DocCursor.END;
+				if (da < db) {
+					m.add(da, a.scores[i++]);
+				} else if (db < da) {
+					m.add(db, b.scores[j++]);
+				} else {
+					m.add(da, Math.max(a.scores[i++], b.scores[j++]));
+				}
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * Evaluates a parsed query.
+	 *
+	 * @param reader Index
+	 * @param clauses Parsed query
+	 * @param k Maximum number of documents
+	 * @return Names of up to k matching documents, best first
+	 */
+	static ArrayList<String> search(IndexReader reader, List<Clause> clauses, int k) {
+		Matches matches = null;
+		for (Clause clause: clauses) {
+			Matches m = evaluate(reader, clause);
+			matches = matches == null ? m : Matches.union(matches, m);
+		}
+		TopDocs top = new TopDocs(k);
+		for (int i=0; i < matches.size; i++) {
+			top.add(matches.docs[i], matches.scores[i]);
+		}
+		return top.names(reader);
+	}
+
+	/**
+	 * Finds the documents matching one clause.
+	 *
+	 * @param reader Index
+	 * @param clause Clause
+	 * @return Matches, with the summed frequency of the required keywords as score
+	 */
+	static Matches evaluate(IndexReader reader, Clause clause) {
+		Matches matches = new Matches();
+		int n = clause.required.size();
+		DocCursor[] cursors = new DocCursor[n];
+		for (int i=0; i < n; i++) {
+			cursors[i] = reader.cursor(clause.required.get(i));
+			if (cursors[i] == null) {
+				return matches;
+			}
+		}
+		// rarest first: it proposes the candidates, the others only skip to them
+		Arrays.sort(cursors, new Comparator<DocCursor>() {
+			public int compare(DocCursor a, DocCursor b) {
+				return a.size() - b.size();
+			}
+		});
+		ArrayList<DocCursor> excluded = new ArrayList<DocCursor>(clause.excluded.size());
+		for (String kw: clause.excluded) {
+			DocCursor c = reader.cursor(kw);
+			if (c != null) {
+				excluded.add(c);
+			}
+		}
+
+		DocCursor lead = cursors[0];
+		int doc = lead.doc();
+		candidates:
+		while (doc != DocCursor.END) {
+			int score = lead.frequency();
+			for (int i=1; i < n; i++) {
+				DocCursor c = cursors[i];
+				c.advance(doc);
+				int d = c.doc();
+				if (d != doc) {
+					if (d == DocCursor.END) {
+						return matches;
+					}
+					lead.advance(d);
+					doc = lead.doc();
+					continue candidates;
+				}
+				score += c.frequency();
+			}
+			boolean match = true;
+			for (DocCursor c: excluded) {
+				c.advance(doc);
+				if (c.doc() == doc) {
+					match = false;
+					break;
+				}
+			}
+			if (match) {
+				matches.add(doc, score);
+			}
+			lead.next();
+			doc = lead.doc();
+		}
+		return matches;
+	}
+}
@@ -0,0 +1,269 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class loads the keywords of one large document on several threads. The file is
+ * cut into chunks of about a chunk size each, every cut placed on an ASCII whitespace
+ * byte, so no word is split across chunks: such a byte is never part of a multi-byte
+ * character in any charset KeywordTokenizer supports. Each chunk is mapped on its own,
+ * so a file may be larger than one mapping can be, and tokenized by a KeywordTokenizer
+ * into its own table of occurrences.
+ *
+ * Chunks are tokenized on the common fork/join pool, which all documents share. A document
+ * loaded on a fork/join worker, such as ParallelIndexer's, has its chunks tokenized in
+ * turn on that worker instead: the indexer already keeps its threads busy with whole
+ * documents, and waiting there on other threads would only tie one up.
+ *
+ * The tables are then combined in file order. A keyword's frequency is the sum of its
+ * frequencies in the chunks, and its positions are those of each chunk shifted by the
+ * number of words in the chunks before it, so the result is exactly what a single scan
+ * of the file gives.
+ *
+ */
+class ChunkedTokenizer {
+
+	/**
+	 * Default chunk size: files at least twice this large are split.
+	 */
+	static final long CHUNK = 32L << 20;
+
+	/**
+	 * Number of bytes read at a time while looking for whitespace to cut at.
+	 */
+	static final int SCAN = 4096;
+
+	/**
+	 * Keywords of one chunk, or of the whole document once combined.
+	 */
+	static class Result {
+
+		/**
+		 * Occurrence of each keyword.
+		 */
+		HashMap<String,Occurrence> keywords = new HashMap<String,Occurrence>();
+
+		/**
+		 * Number of words, keywords or not.
+		 */
+		int words;
+
+		/**
+		 * Number of keywords, counting repeats.
+		 */
+		int length;
+
+		/**
+		 * True if some chunk has input that is malformed in the default charset, in which
+		 * case the keywords are not those Scanner would give.
+		 */
+		boolean malformed;
+	}
+
+	/**
+	 * Engine whose term table and noise words are used.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * Approximate size of a chunk, in bytes.
+	 */
+	long chunkSize;
+
+	/**
+	 * Creates a tokenizer.
+	 *
+	 * @param engine Engine whose noise words decide which words are keywords
+	 * @param chunkSize Approximate size of a chunk, in bytes
+	 */
+	ChunkedTokenizer(LittleSearchEngine engine, long chunkSize) {
+		this.engine = engine;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Loads the keywords of a document.
+	 *
+	 * @param docFile Name of the document file
+	 * @param keepPositions True to record the position of every keyword
+	 * @return Keywords of the document, with its word and keyword counts
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	Result load(final String docFile, final boolean keepPositions)
+	throws FileNotFoundException {
+		FileInputStream in = new FileInputStream(docFile);
+		try {
+			final FileChannel ch = in.getChannel();
+			long[] cuts = cuts(ch, ch.size());
+			Result all = new Result();
+			if (ForkJoinTask.inForkJoinPool()) {
+				// on an indexing worker: the chunks one at a time, on this thread
+				for (int c=0; c+1 < cuts.length; c++) {
+					combine(all, tokenize(ch.map(FileChannel.MapMode.READ_ONLY, cuts[c], cuts[c+1] - cuts[c]), docFile, keepPositions), keepPositions);
+				}
+				return all;
+			}
+			ArrayList<Callable<Result>> chunks = new ArrayList<Callable<Result>>(cuts.length - 1);
+			for (int c=0; c+1 < cuts.length; c++) {
+				final long start = cuts[c], end = cuts[c+1];
+				chunks.add(new Callable<Result>() {
+					public Result call()
+					throws IOException {
+						return tokenize(ch.map(FileChannel.MapMode.READ_ONLY, start, end - start), docFile, keepPositions);
+					}
+				});
+			}
+			for (Future<Result> f: ForkJoinPool.commonPool().invokeAll(chunks)) {
+				combine(all, join(f, docFile), keepPositions);
+			}
+			return all;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error reading " + docFile, e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing was written, so there is nothing to lose
+			}
+		}
+	}
+
+	/**
+	 * Finds where to cut a file into chunks: the first whitespace byte at or after each
+	 * chunk size past the previous cut.
+	 *
+	 * @param ch File
+	 * @param size Size of the file
+	 * @return Offsets of the cuts, starting with 0 and ending with size
+	 * @throws IOException If the file cannot be read
+	 */
+	long[] cuts(FileChannel ch, long size)
+	throws IOException {
+		long[] cuts = new long[16];
+		int n = 0;
+		cuts[n++] = 0;
+		ByteBuffer buf = ByteBuffer.allocate(SCAN);
+		for (long at = chunkSize; at < size; ) {
+			long cut = nextWhitespace(ch, at, size, buf);
+			if (cut >= size) {
+				break;
+			}
+			if (n + 1 >= cuts.length) {
+				cuts = Arrays.copyOf(cuts, cuts.length * 2);
+			}
+			cuts[n++] = cut;
+			at = cut + chunkSize;
+		}
+		cuts[n++] = size;
+		return Arrays.copyOf(cuts, n);
+	}
+
+	/**
+	 * Returns the offset of the first whitespace byte at or after an offset, or size if
+	 * there is none.
+	 */
+	private static long nextWhitespace(FileChannel ch, long at, long size, ByteBuffer buf)
+	throws IOException {
+		while (at < size) {
+			buf.clear();
+			int read = ch.read(buf, at);
+			if (read < 0) {
+				break;
+			}
+			for (int i=0; i < read; i++) {
+				if (KeywordTokenizer.isWhitespace(buf.get(i))) {
+					return at + i;
+				}
+			}
+			at += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Tokenizes one chunk, as loadKeyWords tokenizes a whole document. Positions are
+	 * counted from the start of the chunk.
+	 */
+	Result tokenize(ByteBuffer bytes, String docFile, boolean keepPositions) {
+		Result r = new Result();
+		KeywordTokenizer tokenizer = new KeywordTokenizer(engine, bytes);
+		String word;
+		while ((word = tokenizer.nextKeyWord()) != null) {
+			r.length++;
+			Occurrence occ = r.keywords.get(word);
+			if (occ != null) {
+				occ.frequency++;
+			} else {
+				occ = new Occurrence(docFile, 1);
+				r.keywords.put(word, occ);
+			}
+			if (keepPositions) {
+				occ.addPosition(tokenizer.position);
+			}
+		}
+		r.words = tokenizer.words;
+		r.malformed = tokenizer.malformed;
+		return r;
+	}
+
+	/**
+	 * Adds the keywords of the next chunk to those of the chunks before it.
+	 *
+	 * @param all Keywords of the chunks before, added to
+	 * @param chunk Keywords of the next chunk
+	 * @param keepPositions True if positions are recorded
+	 */
+	static void combine(Result all, Result chunk, boolean keepPositions) {
+		int offset = all.words;
+		for (Map.Entry<String,Occurrence> e: chunk.keywords.entrySet()) {
+			Occurrence occ = e.getValue();
+			Occurrence into = all.keywords.get(e.getKey());
+			if (into == null) {
+				if (keepPositions && offset > 0) {
+					for (int i=0; i < occ.frequency; i++) {
+						occ.positions[i] += offset;
+					}
+				}
+				all.keywords.put(e.getKey(), occ);
+			} else if (keepPositions) {
+				for (int i=0; i < occ.frequency; i++) {
+					into.frequency++;
+					into.addPosition(occ.positions[i] + offset);
+				}
+			} else {
+				into.frequency += occ.frequency;
+			}
+		}
+		all.words += chunk.words;
+		all.length += chunk.length;
+		all.malformed |= chunk.malformed;
+	}
+
+	/**
+	 * Returns the result of a chunk's task, rethrowing its failure.
+	 */
+	private static Result join(Future<Result> f, String docFile) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Tokenizing " + docFile + " interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw new UncheckedIOException("Error reading " + docFile, (IOException)cause);
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+}
@@ -0,0 +1,632 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is a compact form of keywordsIndex. Documents are numbered by a
+ * DocumentDictionary, and each keyword maps to a PostingList of (document id, frequency)
+ * pairs in descending order of frequency. A posting costs 8 bytes, against 40 or more
+ * for an Occurrence object and its reference in an ArrayList.
+ *
+ * Each uncompressed list is also kept in ascending order of document id, in byDocument,
+ * extended as postings are merged, so that cursors for boolean and ranked search read
+ * it in place and skip through it. The two orders take 16 bytes per posting.
+ *
+ * Lists can be further compressed, once built, with compress. Compressed lists are
+ * read-only; merging into a keyword with a compressed list first decodes it back into
+ * a PostingList.
+ *
+ * Documents can be deleted after the index is built. A deleted document is only marked
+ * with a tombstone; its postings stay in the lists, are skipped by reads, and are removed
+ * later by compactKeyword.
+ *
+ * An index can also keep the position of every keyword in every document, in a
+ * PositionList per keyword, for phrase and proximity search. Positions are off unless
+ * keepPositions is called before the first merge, so an index without them pays nothing.
+ *
+ */
+class CompactIndex implements IndexReader {
+
+	/**
+	 * Posting list of every keyword.
+	 */
+	HashMap<String,PostingList> postings;
+
+	/**
+	 * Postings of every keyword in postings, again, in ascending order of document id.
+	 * A keyword is in byDocument exactly when it is in postings.
+	 */
+	HashMap<String,PostingList> byDocument;
+
+	/**
+	 * Compressed posting lists. A keyword is in either postings or compressed, not both.
+	 */
+	HashMap<String,CompressedPostingList> compressed;
+
+	/**
+	 * Document names and ids.
+	 */
+	DocumentDictionary docs;
+
+	/**
+	 * Ids of deleted documents whose postings have not all been removed yet.
+	 */
+	BitSet deleted;
+
+	/**
+	 * Number of postings of deleted documents still in the lists.
+	 */
+	long deletedPostings;
+
+	/**
+	 * Number of postings in the lists, including those of deleted documents.
+	 */
+	long totalPostings;
+
+	/**
+	 * Number of keywords (hence postings) of each document, indexed by id.
+	 */
+	int[] docPostings;
+
+	/**
+	 * Length of each document, in keywords counted with repetition, indexed by id.
+	 */
+	int[] docLengths;
+
+	/**
+	 * Sum of the lengths of all documents, including deleted ones.
+	 */
+	long totalLength;
+
+	/**
+	 * Position list of every keyword, or null if the index keeps no positions.
+	 */
+	HashMap<String,PositionList> positions;
+
+	/**
+	 * Keywords whose lists have had postings appended, out of order, by a bulk build,
+	 * each with the number of postings at the head of its list that are in order. Null
+	 * unless a bulk build is running.
+	 */
+	HashMap<String,Integer> unordered;
+
+	/**
+	 * Bloom filter of the keywords, or null. Set only on a new segment, before the first
+	 * snapshot holding it is published, and never changed afterwards.
+	 */
+	BloomFilter filter;
+
+	/**
+	 * Creates an empty index.
+	 */
+	CompactIndex() {
+		postings = new HashMap<String,PostingList>(1000,2.0f);
+		byDocument = new HashMap<String,PostingList>(1000,2.0f);
+		compressed = new HashMap<String,CompressedPostingList>();
+		docs = new DocumentDictionary();
+		deleted = new BitSet();
+		docPostings = new int[16];
+		docLengths = new int[16];
+	}
+
+	/**
+	 * Makes the index keep the positions of keywords, which merge then takes from the
+	 * occurrences. Must be called before any keywords are merged.
+	 */
+	void keepPositions() {
+		if (positions == null) {
+			positions = new HashMap<String,PositionList>(1000,2.0f);
+		}
+	}
+
+	/**
+	 * Merges the keywords of a single document into the index. Each keyword's posting
+	 * is inserted in its place in descending order of frequency, or, during a bulk build,
+	 * appended. If the index keeps positions, each occurrence's positions are added too.
+	 *
+	 * @param kws Keywords hash table for a document, as built by loadKeyWords
+	 * @throws IllegalArgumentException If the index keeps positions and an occurrence has none
+	 */
+	void merge(HashMap<String,Occurrence> kws) {
+		if (kws.isEmpty()) {
+			return;
+		}
+		int length = 0;
+		for (Occurrence occ: kws.values()) {
+			length += occ.frequency;
+		}
+		int doc = addDocument(kws.values().iterator().next().document, kws.size(), length);
+		for (Map.Entry<String,Occurrence> e: kws.entrySet()) {
+			String kw = e.getKey();
+			CompressedPostingList frozen = compressed.remove(kw);
+			if (frozen != null) {
+				postings.put(kw, frozen.decode());
+				byDocument.put(kw, frozen.decodeByDocument());
+			}
+			if (unordered != null) {
+				append(postings, unordered, kw, doc, e.getValue().frequency);
+			} else {
+				merge(postings, kw, doc, e.getValue().frequency);
+			}
+			addByDocument(byDocument, kw, doc, e.getValue().frequency);
+			if (positions != null) {
+				addPositions(positions, kw, doc, e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Adds the positions of an occurrence to a keyword's position list in the given table.
+	 *
+	 * @param table Table of position lists
+	 * @param kw Keyword
+	 * @param doc Document id, higher than any already in the keyword's list
+	 * @param occ Occurrence, with its positions
+	 * @throws IllegalArgumentException If the occurrence has no positions
+	 */
+	static void addPositions(HashMap<String,PositionList> table, String kw, int doc, Occurrence occ) {
+		if (occ.positions == null) {
+			throw new IllegalArgumentException("No positions for " + kw + " in " + occ.document);
+		}
+		PositionList list = table.get(kw);
+		if (list == null) {
+			list = new PositionList();
+			table.put(kw, list);
+		}
+		list.add(doc, occ.positions, occ.frequency);
+	}
+
+	/**
+	 * Numbers a document, if it is new, and records how many keywords it has and its
+	 * length. A document added again has both added to what it already has.
+	 *
+	 * @param name Document name
+	 * @param keywords Number of distinct keywords in the document
+	 * @param length Number of keywords in the document, counted with repetition
+	 * @return Document id
+	 */
+	int addDocument(String name, int keywords, int length) {
+		int doc = docs.add(name);
+		if (doc >= docPostings.length) {
+			docPostings = Arrays.copyOf(docPostings, Math.max(doc+1, docPostings.length*2));
+			docLengths = Arrays.copyOf(docLengths, docPostings.length);
+		}
+		docPostings[doc] += keywords;
+		totalPostings += keywords;
+		docLengths[doc] += length;
+		totalLength += length;
+		return doc;
+	}
+
+	/**
+	 * Returns the length of a document in keywords, counted with repetition.
+	 *
+	 * @param doc Document id
+	 * @return Number of keywords in the document
+	 */
+	int documentLength(int doc) {
+		return docLengths[doc];
+	}
+
+	/**
+	 * Deletes a document. Its id is marked with a tombstone, and the name is freed, so
+	 * that adding a document with the same name gives it a new id.
+	 *
+	 * @param name Document name
+	 * @return True if the document was in the index, false otherwise
+	 */
+	boolean delete(String name) {
+		int doc = docs.id(name);
+		if (doc < 0) {
+			return false;
+		}
+		docs.remove(name);
+		deleted.set(doc);
+		deletedPostings += docPostings[doc];
+		return true;
+	}
+
+	/**
+	 * Removes the postings of deleted documents from a keyword's list. Only documents
+	 * in the given set are removed, so that deletes made while a compaction is running
+	 * are left for the next one. A keyword left with no postings is removed.
+	 *
+	 * @param kw Keyword
+	 * @param gone Ids of deleted documents to remove
+	 */
+	void compactKeyword(String kw, BitSet gone) {
+		PostingList list = postings.get(kw);
+		CompressedPostingList c = null;
+		if (list == null) {
+			c = compressed.get(kw);
+			if (c == null) {
+				return;
+			}
+			list = c.decode();
+		}
+		PostingList kept = new PostingList(list.size());
+		for (int i=0; i < list.size(); i++) {
+			if (!gone.get(list.docs[i])) {
+				kept.add(list.docs[i], list.freqs[i]);
+			}
+		}
+		if (positions != null && positions.containsKey(kw)) {
+			PositionList p = positions.get(kw).without(gone);
+			if (p.size == 0) {
+				positions.remove(kw);
+			} else {
+				positions.put(kw, p);
+			}
+		}
+		if (kept.size() == list.size()) {
+			return;
+		}
+		deletedPostings -= list.size() - kept.size();
+		totalPostings -= list.size() - kept.size();
+		if (kept.size() == 0) {
+			postings.remove(kw);
+			byDocument.remove(kw);
+			compressed.remove(kw);
+		} else if (c != null) {
+			compressed.put(kw, CompressedPostingList.encode(kept));
+		} else {
+			kept.trim();
+			postings.put(kw, kept);
+			PostingList sorted = byDocument.get(kw);
+			PostingList keptSorted = new PostingList(kept.size());
+			for (int i=0; i < sorted.size(); i++) {
+				if (!gone.get(sorted.docs[i])) {
+					keptSorted.add(sorted.docs[i], sorted.freqs[i]);
+				}
+			}
+			byDocument.put(kw, keptSorted);
+		}
+	}
+
+	/**
+	 * Forgets the tombstones of deleted documents once all their postings are removed.
+	 *
+	 * @param gone Ids of deleted documents that compactKeyword has removed from every list
+	 */
+	void clearDeleted(BitSet gone) {
+		deleted.andNot(gone);
+	}
+
+	/**
+	 * Returns a list without the postings of deleted documents.
+	 *
+	 * @param list Posting list
+	 * @param limit Number of live postings needed
+	 * @return The list itself if no documents are deleted, otherwise a filtered copy
+	 *         with at least the first min(limit, live postings) live postings
+	 */
+	private PostingList live(PostingList list, int limit) {
+		if (list == null || deleted.isEmpty()) {
+			return list;
+		}
+		PostingList kept = new PostingList(Math.min(limit, list.size()));
+		for (int i=0; i < list.size() && kept.size() < limit; i++) {
+			if (!deleted.get(list.docs[i])) {
+				kept.add(list.docs[i], list.freqs[i]);
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * Adds one posting to a keyword's list in the given table, keeping the list in
+	 * descending order of frequency.
+	 *
+	 * @param table Table of posting lists
+	 * @param kw Keyword
+	 * @param doc Document id
+	 * @param freq Frequency of kw in doc
+	 */
+	static void merge(HashMap<String,PostingList> table, String kw, int doc, int freq) {
+		PostingList list = table.get(kw);
+		if (list == null) {
+			list = new PostingList(1);
+			table.put(kw, list);
+		}
+		list.add(doc, freq);
+		list.insertLast();
+	}
+
+	/**
+	 * Adds one posting to a keyword's list in the given table, keeping the list in
+	 * ascending order of document id.
+	 *
+	 * @param table Table of posting lists in document order
+	 * @param kw Keyword
+	 * @param doc Document id
+	 * @param freq Frequency of kw in doc
+	 */
+	static void addByDocument(HashMap<String,PostingList> table, String kw, int doc, int freq) {
+		PostingList list = table.get(kw);
+		if (list == null) {
+			list = new PostingList(1);
+			table.put(kw, list);
+		}
+		list.addByDocument(doc, freq);
+	}
+
+	/**
+	 * Sets a keyword's uncompressed list, replacing any list it has.
+	 *
+	 * @param kw Keyword
+	 * @param list Postings in descending order of frequency
+	 * @param sorted The same postings in ascending order of document id, or null if the
+	 *        index is compressed before it is read
+	 */
+	void put(String kw, PostingList list, PostingList sorted) {
+		compressed.remove(kw);
+		postings.put(kw, list);
+		if (sorted != null) {
+			byDocument.put(kw, sorted);
+		}
+	}
+
+	/**
+	 * Returns all of a keyword's postings in ascending order of document id, those of
+	 * deleted documents included: the list kept for an uncompressed keyword, or a
+	 * decoded copy of a compressed one.
+	 *
+	 * @param kw Keyword
+	 * @return Posting list, or null if the keyword is not in the index
+	 */
+	PostingList allByDocument(String kw) {
+		CompressedPostingList c = compressed.get(kw);
+		return c != null ? c.decodeByDocument() : byDocument.get(kw);
+	}
+
+	/**
+	 * Appends a posting to the end of a keyword's posting list in the given table, for a
+	 * bulk build. The first time a keyword's list is appended to, the number of postings
+	 * it already has, which are in order, is recorded.
+	 *
+	 * @param table Table of posting lists
+	 * @param unordered Keywords appended to, with the number of postings in order
+	 * @param kw Keyword
+	 * @param doc Document id
+	 * @param freq Frequency of the keyword in the document
+	 */
+	static void append(HashMap<String,PostingList> table, HashMap<String,Integer> unordered, String kw, int doc, int freq) {
+		PostingList list = table.get(kw);
+		if (list == null) {
+			list = new PostingList(1);
+			table.put(kw, list);
+		}
+		if (!unordered.containsKey(kw)) {
+			unordered.put(kw, list.size);
+		}
+		list.add(doc, freq);
+	}
+
+	/**
+	 * Puts every list appended to in the given table in order, as if each of its postings
+	 * had been merged in its place.
+	 *
+	 * @param table Table of posting lists
+	 * @param unordered Keywords appended to, with the number of postings in order; emptied
+	 */
+	static void order(HashMap<String,PostingList> table, HashMap<String,Integer> unordered) {
+		for (Map.Entry<String,Integer> e: unordered.entrySet()) {
+			table.get(e.getKey()).insertAll(e.getValue());
+		}
+		unordered.clear();
+	}
+
+	/**
+	 * Starts a bulk build: merge appends postings to the ends of their lists, until
+	 * finishBulk puts the lists in order.
+	 */
+	void startBulk() {
+		unordered = new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Ends a bulk build, putting the lists appended to in order.
+	 */
+	void finishBulk() {
+		if (unordered != null) {
+			order(postings, unordered);
+			unordered = null;
+		}
+	}
+
+	/**
+	 * Returns the posting list of a keyword.
+	 *
+	 * @param kw Keyword
+	 * @return Posting list, or null if the keyword is not in the index
+	 */
+	PostingList postings(String kw) {
+		return postings(kw, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the first postings of a keyword's list. For a compressed list, only those
+	 * postings are decoded.
+	 *
+	 * @param kw Keyword
+	 * @param limit Maximum number of postings needed
+	 * @return Posting list holding at least the first min(limit, size) postings, or null
+	 *         if the keyword is not in the index
+	 */
+	public PostingList postings(String kw, int limit) {
+		PostingList list = postings.get(kw);
+		if (list != null) {
+			return live(list, limit);
+		}
+		CompressedPostingList c = compressed.get(kw);
+		if (c == null) {
+			return null;
+		}
+		// with deletes, decode past the deleted postings until limit live ones are kept
+		return deleted.isEmpty() ? c.decode(limit) : c.decode(limit, deleted);
+	}
+
+	public Set<String> keywords() {
+		HashSet<String> kws = new HashSet<String>(postings.keySet());
+		kws.addAll(compressed.keySet());
+		return kws;
+	}
+
+	public PostingList postingsByDocument(String kw) {
+		return live(allByDocument(kw), Integer.MAX_VALUE);
+	}
+
+	public int size(String kw) {
+		PostingList list = postings.get(kw);
+		if (list != null) {
+			return list.size;
+		}
+		CompressedPostingList c = compressed.get(kw);
+		return c == null ? 0 : c.size;
+	}
+
+	/**
+	 * Returns a cursor in document order over a keyword's postings, read in place: a
+	 * compressed list skipping blocks, an uncompressed one galloping over its list in
+	 * document order. Deleted documents are stepped over.
+	 */
+	public DocCursor cursor(String kw) {
+		DocCursor cursor;
+		CompressedPostingList c = compressed.get(kw);
+		if (c != null) {
+			cursor = new DocCursor.CompressedCursor(c);
+		} else {
+			PostingList list = byDocument.get(kw);
+			if (list == null) {
+				return null;
+			}
+			cursor = new DocCursor.ArrayCursor(list);
+		}
+		return deleted.isEmpty() ? cursor : new DocCursor.LiveCursor(cursor, deleted);
+	}
+
+	public boolean hasPositions() {
+		return positions != null;
+	}
+
+	public int[] positions(String kw, int doc) {
+		if (positions == null || deleted.get(doc)) {
+			return null;
+		}
+		PositionList list = positions.get(kw);
+		return list == null ? null : list.positions(doc);
+	}
+
+	public String documentName(int doc) {
+		return docs.name(doc);
+	}
+
+	public int documentCount() {
+		return docs.size();
+	}
+
+	/**
+	 * Builds a compact index holding the same postings as an index of occurrence lists.
+	 * Documents are numbered in the order they are first met.
+	 *
+	 * @param index Keywords index
+	 * @return Compact index
+	 */
+	static CompactIndex fromOccurrences(HashMap<String,ArrayList<Occurrence>> index) {
+		CompactIndex c = new CompactIndex();
+		for (Map.Entry<String,ArrayList<Occurrence>> e: index.entrySet()) {
+			ArrayList<Occurrence> occs = e.getValue();
+			PostingList list = new PostingList(occs.size());
+			for (Occurrence occ: occs) {
+				list.add(c.addDocument(occ.document, 1, occ.frequency), occ.frequency);
+			}
+			c.put(e.getKey(), list, list.sortedByDocument());
+		}
+		return c;
+	}
+
+	/**
+	 * Releases unused capacity in all posting lists, once the index is built.
+	 */
+	void trim() {
+		for (PostingList list: postings.values()) {
+			list.trim();
+		}
+		for (PostingList list: byDocument.values()) {
+			list.trim();
+		}
+		trimPositions();
+	}
+
+	/**
+	 * Releases unused capacity in all position lists.
+	 */
+	void trimPositions() {
+		if (positions != null) {
+			for (PositionList list: positions.values()) {
+				list.trim();
+			}
+		}
+	}
+
+	/**
+	 * Compresses all posting lists that are not already compressed.
+	 */
+	void compress() {
+		for (Map.Entry<String,PostingList> e: postings.entrySet()) {
+			compressed.put(e.getKey(), CompressedPostingList.encode(e.getValue()));
+		}
+		postings.clear();
+		byDocument.clear();
+		trimPositions();
+	}
+
+	/**
+	 * Returns the number of bytes taken by postings: 16 per posting for uncompressed lists,
+	 * kept in both orders, the encoded size for compressed ones.
+	 *
+	 * @return Posting bytes, not counting keywords and map overhead
+	 */
+	long postingBytes() {
+		long n = 0;
+		for (PostingList list: postings.values()) {
+			n += 16L * list.size();
+		}
+		for (CompressedPostingList c: compressed.values()) {
+			n += c.bytes();
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the number of bytes taken by positions, including the document ids and
+	 * offsets of the position lists.
+	 *
+	 * @return Position bytes, or 0 if the index keeps no positions
+	 */
+	long positionBytes() {
+		long n = 0;
+		if (positions != null) {
+			for (PositionList list: positions.values()) {
+				n += list.bytes();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the total number of postings in the index.
+	 *
+	 * @return Number of postings
+	 */
+	long postingCount() {
+		long n = 0;
+		for (PostingList list: postings.values()) {
+			n += list.size();
+		}
+		for (CompressedPostingList c: compressed.values()) {
+			n += c.size();
+		}
+		return n;
+	}
+}
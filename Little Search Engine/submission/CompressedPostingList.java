@@ -0,0 +1,252 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is a read-only, compressed form of a PostingList. It keeps two layers,
+ * both variable-byte encoded (7 bits per byte, high bit set on all but the last byte
+ * of a number):
+ *
+ * - The frequency layer keeps the postings in the list's own descending frequency order,
+ *   as runs of equal frequency: the frequency, the run length, then the document ids of
+ *   the run. Frequencies are mostly small and runs long, so this costs little more than
+ *   one small number per posting, and the first k postings can be decoded without
+ *   touching the rest.
+ * - The document layer keeps the postings in ascending document id order, as gaps between
+ *   consecutive ids each followed by the frequency. It is cut into blocks of BLOCK
+ *   postings, with the last document id and byte offset of each block kept uncompressed,
+ *   so whole blocks can be skipped when looking for a document.
+ *
+ */
+class CompressedPostingList {
+
+	/**
+	 * Number of postings in a block of the document layer.
+	 */
+	static final int BLOCK = 128;
+
+	/**
+	 * Number of postings.
+	 */
+	int size;
+
+	/**
+	 * Frequency layer.
+	 */
+	byte[] byFrequency;
+
+	/**
+	 * Document layer.
+	 */
+	byte[] byDocument;
+
+	/**
+	 * Last document id in each block of the document layer.
+	 */
+	int[] blockLastDoc;
+
+	/**
+	 * Offset in byDocument at which each block starts.
+	 */
+	int[] blockOffset;
+
+	/**
+	 * Compresses a posting list.
+	 *
+	 * @param list Posting list, in descending order of frequency
+	 * @return Compressed list
+	 */
+	static CompressedPostingList encode(PostingList list) {
+		CompressedPostingList c = new CompressedPostingList();
+		int n = list.size();
+		c.size = n;
+
+		// frequency layer, runs of equal frequency
+		ByteWriter out = new ByteWriter(n*2 + 8);
+		for (int i=0; i < n; ) {
+			int freq = list.freqs[i];
+			int j = i;
+			while (j < n && list.freqs[j] == freq) {
+				j++;
+			}
+			out.writeVInt(freq);
+			out.writeVInt(j - i);
+			for (; i < j; i++) {
+				out.writeVInt(list.docs[i]);
+			}
+		}
+		c.byFrequency = out.toArray();
+
+		// document layer, sorted by document id
+		PostingList sorted = list.sortedByDocument();
+		int blocks = (n + BLOCK - 1) / BLOCK;
+		c.blockLastDoc = new int[blocks];
+		c.blockOffset = new int[blocks];
+		out = new ByteWriter(n*2 + 8);
+		int prev = 0;
+		for (int i=0; i < n; i++) {
+			if (i % BLOCK == 0) {
+				// gaps restart at each block, so a block can be decoded on its own
+				c.blockOffset[i / BLOCK] = out.size;
+				prev = 0;
+			}
+			int doc = sorted.docs[i];
+			out.writeVInt(doc - prev);
+			out.writeVInt(sorted.freqs[i]);
+			prev = doc;
+			c.blockLastDoc[i / BLOCK] = doc;
+		}
+		c.byDocument = out.toArray();
+		return c;
+	}
+
+	/**
+	 * Returns the number of postings.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Decodes the whole list, in descending order of frequency.
+	 *
+	 * @return Posting list
+	 */
+	PostingList decode() {
+		return decode(size);
+	}
+
+	/**
+	 * Decodes the first postings of the list, in descending order of frequency.
+	 *
+	 * @param limit Maximum number of postings to decode
+	 * @return Posting list with the first min(limit, size) postings
+	 */
+	PostingList decode(int limit) {
+		int n = Math.min(limit, size);
+		PostingList list = new PostingList(n);
+		byte[] in = byFrequency;
+		int[] pos = {0};
+		while (list.size < n) {
+			int freq = readVInt(in, pos);
+			int run = readVInt(in, pos);
+			for (int i=0; i < run && list.size < n; i++) {
+				list.docs[list.size] = readVInt(in, pos);
+				list.freqs[list.size] = freq;
+				list.size++;
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Decodes the first postings of the list that are not of deleted documents, in
+	 * descending order of frequency. Decoding stops as soon as limit postings are kept,
+	 * so only as much of the list is read as the deleted postings among the first ones
+	 * require.
+	 *
+	 * @param limit Maximum number of postings to keep
+	 * @param deleted Ids of deleted documents, whose postings are left out
+	 * @return Posting list with up to limit postings
+	 */
+	PostingList decode(int limit, BitSet deleted) {
+		PostingList list = new PostingList(Math.min(limit, size));
+		byte[] in = byFrequency;
+		int[] pos = {0};
+		for (int read = 0; read < size && list.size < limit; ) {
+			int freq = readVInt(in, pos);
+			int run = readVInt(in, pos);
+			for (int i=0; i < run && list.size < limit; i++, read++) {
+				int doc = readVInt(in, pos);
+				if (!deleted.get(doc)) {
+					list.add(doc, freq);
+				}
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Decodes the whole list in ascending order of document id.
+	 *
+	 * @return Posting list sorted by document id
+	 */
+	PostingList decodeByDocument() {
+		PostingList list = new PostingList(size);
+		for (int b=0; b < blockOffset.length; b++) {
+			decodeBlock(b, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Decodes one block of the document layer, appending it to a list.
+	 *
+	 * @param block Block number
+	 * @param list List to append to
+	 */
+	void decodeBlock(int block, PostingList list) {
+		int end = Math.min((block+1) * BLOCK, size);
+		int[] pos = {blockOffset[block]};
+		int doc = 0;
+		for (int i = block * BLOCK; i < end; i++) {
+			doc += readVInt(byDocument, pos);
+			list.add(doc, readVInt(byDocument, pos));
+		}
+	}
+
+	/**
+	 * Returns the number of bytes taken by the encoded postings, including the block table.
+	 *
+	 * @return Encoded size in bytes
+	 */
+	long bytes() {
+		return byFrequency.length + byDocument.length + 8L * blockOffset.length;
+	}
+
+	/**
+	 * Reads a variable-byte number.
+	 *
+	 * @param in Bytes
+	 * @param pos One-element array holding the read position, advanced past the number
+	 * @return Number read
+	 */
+	static int readVInt(byte[] in, int[] pos) {
+		int p = pos[0];
+		int b = in[p++];
+		int v = b & 0x7f;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = in[p++];
+			v |= (b & 0x7f) << shift;
+		}
+		pos[0] = p;
+		return v;
+	}
+
+	/**
+	 * Growable byte array for encoding.
+	 */
+	static class ByteWriter {
+		byte[] buf;
+		int size;
+
+		ByteWriter(int capacity) {
+			buf = new byte[Math.max(capacity, 16)];
+		}
+
+		void writeVInt(int v) {
+			if (size + 5 > buf.length) {
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			}
+			while ((v & ~0x7f) != 0) {
+				buf[size++] = (byte)((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			buf[size++] = (byte)v;
+		}
+
+		byte[] toArray() {
+			return Arrays.copyOf(buf, size);
+		}
+	}
+}
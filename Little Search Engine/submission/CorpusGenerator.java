@@ -0,0 +1,166 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class writes a synthetic corpus of documents for benchmarking. Words are drawn
+ * from a fixed vocabulary with a Zipfian distribution, so a few words are very common
+ * and most are rare, as in natural text. Some words are capitalized or followed by
+ * punctuation, to exercise getKeyWord. The same parameters and seed always produce
+ * the same corpus.
+ *
+ * Usage: java search.CorpusGenerator dir docs minWords maxWords vocabulary [exponent [seed]]
+ *
+ */
+public class CorpusGenerator {
+
+	/**
+	 * Punctuation that may follow a word.
+	 */
+	static final char[] PUNCTUATION = {'.', ',', '?', ':', ';', '!'};
+
+	/**
+	 * Source of randomness.
+	 */
+	Random random;
+
+	/**
+	 * Vocabulary, most frequent word first.
+	 */
+	String[] vocabulary;
+
+	/**
+	 * Cumulative probability of drawing each vocabulary word or one before it.
+	 */
+	double[] cumulative;
+
+	/**
+	 * Creates a generator.
+	 *
+	 * @param vocabularySize Number of distinct words
+	 * @param exponent Zipf exponent; 1.0 is typical of natural language
+	 * @param seed Random seed
+	 */
+	public CorpusGenerator(int vocabularySize, double exponent, long seed) {
+		random = new Random(seed);
+		vocabulary = new String[vocabularySize];
+		HashSet<String> seen = new HashSet<String>();
+		for (int i=0; i < vocabularySize; i++) {
+			String w;
+			do {
+				w = randomWord(3 + Math.min(i/1000, 3) + random.nextInt(6));
+			} while (!seen.add(w));
+			vocabulary[i] = w;
+		}
+		cumulative = new double[vocabularySize];
+		double sum = 0;
+		for (int i=0; i < vocabularySize; i++) {
+			sum += 1.0 / Math.pow(i+1, exponent);
+			cumulative[i] = sum;
+		}
+		for (int i=0; i < vocabularySize; i++) {
+			cumulative[i] /= sum;
+		}
+	}
+
+	/**
+	 * Draws a word from the vocabulary, with Zipfian probability.
+	 *
+	 * @return Vocabulary word
+	 */
+	public String nextWord() {
+		int i = Arrays.binarySearch(cumulative, random.nextDouble());
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return vocabulary[Math.min(i, vocabulary.length-1)];
+	}
+
+	/**
+	 * Writes a corpus, and a docs file listing its documents.
+	 *
+	 * @param dir Directory to write into; created if needed
+	 * @param docs Number of documents
+	 * @param minWords Minimum number of words per document
+	 * @param maxWords Maximum number of words per document
+	 * @return Name of the docs file
+	 * @throws IOException If the files cannot be written
+	 */
+	public String write(File dir, int docs, int minWords, int maxWords)
+	throws IOException {
+		dir.mkdirs();
+		File docsFile = new File(dir, "docs.txt");
+		PrintWriter list = new PrintWriter(new BufferedWriter(new FileWriter(docsFile)));
+		try {
+			for (int d=0; d < docs; d++) {
+				File doc = new File(dir, "doc" + d + ".txt");
+				list.println(doc.getPath());
+				int words = minWords + random.nextInt(maxWords - minWords + 1);
+				Writer out = new BufferedWriter(new FileWriter(doc));
+				try {
+					writeDocument(out, words);
+				} finally {
+					out.close();
+				}
+			}
+		} finally {
+			list.close();
+		}
+		return docsFile.getPath();
+	}
+
+	/**
+	 * Writes the words of one document, about ten to a line.
+	 *
+	 * @param out Destination
+	 * @param words Number of words
+	 * @throws IOException If the document cannot be written
+	 */
+	void writeDocument(Writer out, int words)
+	throws IOException {
+		for (int i=0; i < words; i++) {
+			out.write(nextToken());
+			out.write(i % 10 == 9 ? '\n' : ' ');
+		}
+	}
+
+	/**
+	 * Draws a word as it appears in a document: a vocabulary word, sometimes capitalized,
+	 * sometimes followed by punctuation.
+	 *
+	 * @return Word
+	 */
+	public String nextToken() {
+		String w = nextWord();
+		if (random.nextInt(20) == 0) {
+			w = Character.toUpperCase(w.charAt(0)) + w.substring(1);
+		}
+		if (random.nextInt(10) == 0) {
+			w += PUNCTUATION[random.nextInt(PUNCTUATION.length)];
+		}
+		return w;
+	}
+
+	private String randomWord(int len) {
+		char[] w = new char[len];
+		for (int i=0; i < len; i++) {
+			w[i] = (char)('a' + random.nextInt(26));
+		}
+		return new String(w);
+	}
+
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 5) {
+			System.err.println("Usage: java search.CorpusGenerator dir docs minWords maxWords vocabulary [exponent [seed]]");
+			System.exit(1);
+		}
+		double exponent = args.length > 5 ? Double.parseDouble(args[5]) : 1.0;
+		long seed = args.length > 6 ? Long.parseLong(args[6]) : 112;
+		CorpusGenerator gen = new CorpusGenerator(Integer.parseInt(args[4]), exponent, seed);
+		String docsFile = gen.write(new File(args[0]), Integer.parseInt(args[1]),
+				Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+		System.out.println("Wrote " + docsFile);
+	}
+}
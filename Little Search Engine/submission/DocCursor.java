@@ -0,0 +1,366 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class walks one keyword's postings in ascending order of document id, for
+ * intersecting lists. Besides stepping to the next posting, a cursor can advance
+ * straight to the first document at or after a target, skipping what lies between:
+ * an uncompressed list gallops (doubling steps, then binary search), and a compressed
+ * list skips whole blocks using their last document ids, without decoding them. The
+ * postings of deleted documents are stepped over as they are met, so lists are never
+ * copied to drop them.
+ *
+ */
+abstract class DocCursor {
+
+	/**
+	 * Document id of an exhausted cursor. Greater than any real document id.
+	 */
+	static final int END = Integer.MAX_VALUE;
+
+	/**
+	 * Returns the current document id, or END if the cursor is exhausted.
+	 */
+	abstract int doc();
+
+	/**
+	 * Returns the frequency of the keyword in the current document.
+	 */
+	abstract int frequency();
+
+	/**
+	 * Moves to the next posting.
+	 */
+	abstract void next();
+
+	/**
+	 * Moves to the first posting whose document id is at least target. Does nothing
+	 * if the current document is already at or past target.
+	 *
+	 * @param target Document id
+	 */
+	abstract void advance(int target);
+
+	/**
+	 * Returns the total number of postings, for planning the order of intersection.
+	 */
+	abstract int size();
+
+	/**
+	 * Cursor over an uncompressed posting list sorted by document id.
+	 */
+	static class ArrayCursor extends DocCursor {
+		PostingList list;
+		int pos;
+
+		/**
+		 * @param list Posting list in ascending order of document id
+		 */
+		ArrayCursor(PostingList list) {
+			this.list = list;
+		}
+
+		int doc() {
+			return pos < list.size ? list.docs[pos] : END;
+		}
+
+		int frequency() {
+			return list.freqs[pos];
+		}
+
+		void next() {
+			pos++;
+		}
+
+		void advance(int target) {
+			int[] docs = list.docs;
+			int n = list.size;
+			if (pos >= n || docs[pos] >= target) {
+				return;
+			}
+			// gallop to a bound, then binary search between the last two probes
+			int low = pos, step = 1, high = pos + 1;
+			while (high < n && docs[high] < target) {
+				low = high;
+				step <<= 1;
+				high = pos + step;
+			}
+			if (high > n) {
+				high = n;
+			}
+			// docs[low] < target, and docs[high] >= target or high == n
+			while (low + 1 < high) {
+				int mid = (low + high) >>> 1;
+				if (docs[mid] < target) {
+					low = mid;
+				} else {
+					high = mid;
+				}
+			}
+			pos = high;
+		}
+
+		int size() {
+			return list.size;
+		}
+	}
+
+	/**
+	 * Cursor that passes over the postings of deleted documents in another cursor, so
+	 * that a list with deletes is still read in place, and still skips.
+	 */
+	static class LiveCursor extends DocCursor {
+		DocCursor cursor;
+		BitSet deleted;
+
+		/**
+		 * @param cursor Cursor over all postings
+		 * @param deleted Ids of deleted documents, numbered as the cursor's are; must not
+		 *        change while the cursor is in use
+		 */
+		LiveCursor(DocCursor cursor, BitSet deleted) {
+			this.cursor = cursor;
+			this.deleted = deleted;
+			skipDeleted();
+		}
+
+		private void skipDeleted() {
+			int d = cursor.doc();
+			while (d != END && deleted.get(d)) {
+				cursor.next();
+				d = cursor.doc();
+			}
+		}
+
+		int doc() {
+			return cursor.doc();
+		}
+
+		int frequency() {
+			return cursor.frequency();
+		}
+
+		void next() {
+			cursor.next();
+			skipDeleted();
+		}
+
+		void advance(int target) {
+			cursor.advance(target);
+			skipDeleted();
+		}
+
+		/**
+		 * Returns the number of postings, deleted ones included.
+		 */
+		int size() {
+			return cursor.size();
+		}
+	}
+
+	/**
+	 * Cursor that reads several cursors one after the other, adding a base to each one's
+	 * document ids. The parts' id ranges must follow each other, as segments' do.
+	 */
+	static class ChainedCursor extends DocCursor {
+		DocCursor[] parts;
+		int[] bases;
+		int part;
+		int size;
+
+		/**
+		 * @param parts Cursors, in ascending order of base
+		 * @param bases Base added to each cursor's document ids
+		 */
+		ChainedCursor(DocCursor[] parts, int[] bases) {
+			this.parts = parts;
+			this.bases = bases;
+			for (DocCursor c: parts) {
+				size += c.size();
+			}
+			skipExhausted();
+		}
+
+		private void skipExhausted() {
+			while (part < parts.length && parts[part].doc() == END) {
+				part++;
+			}
+		}
+
+		int doc() {
+			return part < parts.length ? bases[part] + parts[part].doc() : END;
+		}
+
+		int frequency() {
+			return parts[part].frequency();
+		}
+
+		void next() {
+			parts[part].next();
+			skipExhausted();
+		}
+
+		void advance(int target) {
+			// parts that end before the target's base are skipped whole
+			while (part + 1 < parts.length && bases[part+1] <= target) {
+				part++;
+			}
+			if (part < parts.length) {
+				parts[part].advance(target - bases[part]);
+				skipExhausted();
+			}
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Cursor over a block compressed document layer. Only blocks that may hold the
+	 * target of an advance are decoded. Subclasses call loadBlock(0) once their fields
+	 * are set.
+	 */
+	static abstract class BlockCursor extends DocCursor {
+		int size;
+		int blocks;
+		int block;
+		int[] docs = new int[CompressedPostingList.BLOCK];
+		int[] freqs = new int[CompressedPostingList.BLOCK];
+		int count;
+		int pos;
+
+		/**
+		 * @param size Number of postings
+		 * @param blocks Number of blocks
+		 */
+		BlockCursor(int size, int blocks) {
+			this.size = size;
+			this.blocks = blocks;
+		}
+
+		/**
+		 * Returns the last document id of a block.
+		 */
+		abstract int lastDoc(int block);
+
+		/**
+		 * Decodes a block into docs and freqs.
+		 *
+		 * @return Number of postings in the block
+		 */
+		abstract int decode(int block);
+
+		void loadBlock(int b) {
+			block = b;
+			pos = 0;
+			count = b < blocks ? decode(b) : 0;
+		}
+
+		int doc() {
+			return pos < count ? docs[pos] : END;
+		}
+
+		int frequency() {
+			return freqs[pos];
+		}
+
+		void next() {
+			pos++;
+			if (pos >= count && block < blocks) {
+				loadBlock(block + 1);
+			}
+		}
+
+		void advance(int target) {
+			if (block >= blocks || doc() >= target) {
+				return;
+			}
+			if (lastDoc(block) < target) {
+				// skip blocks that end before the target, without decoding them
+				int b = block + 1;
+				while (b < blocks && lastDoc(b) < target) {
+					b++;
+				}
+				loadBlock(b);
+			}
+			while (pos < count && docs[pos] < target) {
+				pos++;
+			}
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Block cursor over a CompressedPostingList held in memory.
+	 */
+	static class CompressedCursor extends BlockCursor {
+		CompressedPostingList list;
+
+		CompressedCursor(CompressedPostingList list) {
+			super(list.size, list.blockOffset.length);
+			this.list = list;
+			loadBlock(0);
+		}
+
+		int lastDoc(int b) {
+			return list.blockLastDoc[b];
+		}
+
+		int decode(int b) {
+			int n = Math.min(CompressedPostingList.BLOCK, size - b*CompressedPostingList.BLOCK);
+			int[] pos = {list.blockOffset[b]};
+			int doc = 0;
+			for (int i=0; i < n; i++) {
+				doc += CompressedPostingList.readVInt(list.byDocument, pos);
+				docs[i] = doc;
+				freqs[i] = CompressedPostingList.readVInt(list.byDocument, pos);
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * Block cursor over a keyword's document layer in a mapped index segment.
+	 */
+	static class SegmentCursor extends BlockCursor {
+		IndexSegment segment;
+		int layer;
+		int table;
+
+		/**
+		 * @param segment Segment
+		 * @param size Number of postings
+		 * @param layer Offset of the document layer
+		 * @param blocks Number of blocks
+		 * @param table Offset of the block table
+		 */
+		SegmentCursor(IndexSegment segment, int size, int layer, int blocks, int table) {
+			super(size, blocks);
+			this.segment = segment;
+			this.layer = layer;
+			this.table = table;
+			loadBlock(0);
+		}
+
+		int lastDoc(int b) {
+			return segment.buf.getInt(table + 8*b);
+		}
+
+		int decode(int b) {
+			int n = Math.min(CompressedPostingList.BLOCK, size - b*CompressedPostingList.BLOCK);
+			int[] pos = {layer + segment.buf.getInt(table + 8*b + 4)};
+			int doc = 0;
+			for (int i=0; i < n; i++) {
+				doc += segment.readVInt(pos);
+				docs[i] = doc;
+				freqs[i] = segment.readVInt(pos);
+			}
+			return n;
+		}
+	}
+}
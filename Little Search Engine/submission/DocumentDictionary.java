@@ -0,0 +1,86 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class assigns dense integer ids to document names, so that postings can refer
+ * to documents by id instead of holding a reference to the name. Ids are assigned in
+ * the order documents are first seen, starting at 0.
+ *
+ */
+class DocumentDictionary {
+
+	/**
+	 * Document names, indexed by id.
+	 */
+	ArrayList<String> names;
+
+	/**
+	 * Mapping from document name to id.
+	 */
+	HashMap<String,Integer> ids;
+
+	/**
+	 * Creates an empty dictionary.
+	 */
+	DocumentDictionary() {
+		names = new ArrayList<String>();
+		ids = new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Returns the id of a document, assigning the next id if the document is new.
+	 *
+	 * @param name Document name
+	 * @return Document id
+	 */
+	synchronized int add(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			names.add(name);
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a document.
+	 *
+	 * @param name Document name
+	 * @return Document id, or -1 if the document has not been added
+	 */
+	synchronized int id(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Removes a document's name, so that adding it again assigns a new id. The old id
+	 * keeps its name, for postings that still refer to it.
+	 *
+	 * @param name Document name
+	 */
+	synchronized void remove(String name) {
+		ids.remove(name);
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	synchronized String name(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Returns the number of documents.
+	 *
+	 * @return Number of documents
+	 */
+	synchronized int size() {
+		return names.size();
+	}
+}
@@ -0,0 +1,122 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class keeps the postings of an engine's keywordsIndex a second time, in ascending
+ * order of document id, so that boolean search can walk them with cursors that skip, as
+ * it does the compact index's lists. Documents are numbered by the engine's documentIds.
+ * The lists are extended as mergeKeyWords and makeIndex add occurrences to keywordsIndex;
+ * documents are merged in about the order they were numbered, so a posting is nearly
+ * always appended. A search reads the lists in place, without copying or sorting them.
+ *
+ * Postings in descending order of frequency are read from keywordsIndex itself. Changes
+ * made to keywordsIndex directly, not through the engine, are not seen here.
+ *
+ */
+class DocumentOrderIndex implements IndexReader {
+
+	/**
+	 * Occurrence lists, in descending order of frequency, that this index follows.
+	 */
+	HashMap<String,ArrayList<Occurrence>> index;
+
+	/**
+	 * Postings of every keyword, in ascending order of document id.
+	 */
+	HashMap<String,PostingList> lists;
+
+	/**
+	 * Document names, indexed by id; null for an id with no postings yet.
+	 */
+	ArrayList<String> names;
+
+	/**
+	 * Creates an empty index following a keywords index.
+	 *
+	 * @param index Keywords index
+	 */
+	DocumentOrderIndex(HashMap<String,ArrayList<Occurrence>> index) {
+		this.index = index;
+		lists = new HashMap<String,PostingList>(1000,2.0f);
+		names = new ArrayList<String>();
+	}
+
+	/**
+	 * Adds an occurrence of a keyword that has been merged into the keywords index.
+	 *
+	 * @param kw Keyword
+	 * @param occ Occurrence, numbered by documentIds
+	 */
+	void add(String kw, Occurrence occ) {
+		name(occ.id, occ.document);
+		CompactIndex.addByDocument(lists, kw, occ.id, occ.frequency);
+	}
+
+	/**
+	 * Records the name of a document.
+	 *
+	 * @param id Document id
+	 * @param name Document name
+	 */
+	void name(int id, String name) {
+		while (names.size() <= id) {
+			names.add(null);
+		}
+		names.set(id, name);
+	}
+
+	/**
+	 * Forgets all postings, when the keywords index is emptied.
+	 */
+	void clear() {
+		lists.clear();
+	}
+
+	public PostingList postings(String kw, int limit) {
+		ArrayList<Occurrence> occs = index.get(kw);
+		if (occs == null) {
+			return null;
+		}
+		int n = Math.min(occs.size(), limit);
+		PostingList list = new PostingList(n);
+		for (int i=0; i < n; i++) {
+			list.add(occs.get(i).id, occs.get(i).frequency);
+		}
+		return list;
+	}
+
+	public PostingList postingsByDocument(String kw) {
+		return lists.get(kw);
+	}
+
+	public int size(String kw) {
+		PostingList list = lists.get(kw);
+		return list == null ? 0 : list.size;
+	}
+
+	public DocCursor cursor(String kw) {
+		PostingList list = lists.get(kw);
+		return list == null ? null : new DocCursor.ArrayCursor(list);
+	}
+
+	public Collection<String> keywords() {
+		return lists.keySet();
+	}
+
+	public boolean hasPositions() {
+		return false;
+	}
+
+	public int[] positions(String kw, int doc) {
+		return null;
+	}
+
+	public String documentName(int doc) {
+		return names.get(doc);
+	}
+
+	public int documentCount() {
+		return names.size();
+	}
+}
@@ -0,0 +1,388 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class finds the keywords of a term dictionary within a few edits (insertions,
+ * deletions or substitutions of one character) of a word, for matching misspelled
+ * query words.
+ *
+ * The word is turned into a Levenshtein automaton, simulated bit-parallel: a state is
+ * maxEdits+1 words of bits, where bit j of word i is set if the characters read so far
+ * are within i edits of the first j characters of the word. Reading a character is a
+ * few shifts, ands and ors of each word with the character's mask, the positions at
+ * which it occurs in the word, so a step costs the same whatever the length of the word.
+ * A state is dead once its last word is zero, since no string that starts with what was
+ * read can then match.
+ *
+ * Only the keywords that may match are run through the automaton. They are found in
+ * the dictionary's partition table, where every keyword of n characters is filed under
+ * each of its PIECES pieces. The edits that turn a keyword into the word leave one of
+ * its pieces intact, and there is a piece i that has at most i edits before it and at
+ * most PIECES-1-i after. Such a piece appears in the word shifted by at most i places,
+ * and by at most PIECES-1-i places from where the difference in length puts it. So for
+ * each length n within maxEdits of the word's, each piece is looked up under the few
+ * substrings of the word of its length that start within those bounds. The keywords
+ * found are few, and the work does not grow with the keywords that share a prefix with
+ * the word, as a walk of the sorted dictionary does.
+ *
+ * Words longer than a word of bits can hold are checked with the rows of edit distances
+ * that the bits encode, one step per character of the word.
+ *
+ */
+class FuzzySearch {
+
+	/**
+	 * Largest number of edits allowed. Beyond two, nearly every short keyword matches.
+	 */
+	static final int MAX_EDITS = 2;
+
+	/**
+	 * Characters of the word.
+	 */
+	char[] word;
+
+	/**
+	 * Maximum number of edits.
+	 */
+	int maxEdits;
+
+	/**
+	 * Distinct characters of the word, ascending.
+	 */
+	char[] alphabet;
+
+	/**
+	 * Longest word matched with bits; bit j for j from 0 to its length must fit in a long.
+	 */
+	static final int MAX_BITS = 62;
+
+	/**
+	 * Mask of each ASCII character: bit j+1 set for every j at which it is in the word.
+	 */
+	long[] asciiMasks;
+
+	/**
+	 * Mask of each character of alphabet.
+	 */
+	long[] masks;
+
+	/**
+	 * Bits of the positions 0 to the length of the word.
+	 */
+	long full;
+
+	/**
+	 * States of the automaton: the state after the first c characters of the keyword
+	 * checked is held in maxEdits+1 longs from c*(maxEdits+1).
+	 */
+	long[] states;
+
+	/**
+	 * Characters of the keyword checked.
+	 */
+	char[] chars;
+
+	/**
+	 * Indexes of the keywords that may match, the first found of them filled.
+	 */
+	int[] candidates;
+
+	/**
+	 * Number of candidates.
+	 */
+	int found;
+
+	/**
+	 * Creates the automaton for a word.
+	 *
+	 * @param word Word
+	 * @param maxEdits Maximum number of edits, from 0 to MAX_EDITS
+	 * @throws IllegalArgumentException If maxEdits is out of range
+	 */
+	FuzzySearch(String word, int maxEdits) {
+		if (maxEdits < 0 || maxEdits > MAX_EDITS) {
+			throw new IllegalArgumentException("maxEdits must be from 0 to " + MAX_EDITS + ": " + maxEdits);
+		}
+		this.word = word.toCharArray();
+		this.maxEdits = maxEdits;
+		alphabet = this.word.clone();
+		Arrays.sort(alphabet);
+		int n = 0;
+		for (int i=0; i < alphabet.length; i++) {
+			if (n == 0 || alphabet[i] != alphabet[n-1]) {
+				alphabet[n++] = alphabet[i];
+			}
+		}
+		alphabet = Arrays.copyOf(alphabet, n);
+		if (this.word.length <= MAX_BITS) {
+			asciiMasks = new long[128];
+			masks = new long[alphabet.length];
+			for (int j=0; j < this.word.length; j++) {
+				char c = this.word[j];
+				if (c < 128) {
+					asciiMasks[c] |= 1L << (j+1);
+				}
+				masks[Arrays.binarySearch(alphabet, c)] |= 1L << (j+1);
+			}
+			full = (1L << (this.word.length + 1)) - 1;
+		}
+	}
+
+	/**
+	 * Returns the start state: the distances of the empty string to every prefix of the word.
+	 */
+	int[] start() {
+		int[] row = new int[word.length + 1];
+		for (int j=0; j < row.length; j++) {
+			row[j] = Math.min(j, maxEdits + 1);
+		}
+		return row;
+	}
+
+	/**
+	 * Advances a state by one character.
+	 *
+	 * @param row Current state
+	 * @param ch Character read
+	 * @param next Array that receives the next state
+	 * @return True if the next state is live: some string starting with what was read
+	 *         may still match
+	 */
+	boolean step(int[] row, char ch, int[] next) {
+		int cap = maxEdits + 1;
+		next[0] = Math.min(row[0] + 1, cap);
+		int best = next[0];
+		for (int j=1; j < next.length; j++) {
+			int d = row[j-1] + (word[j-1] == ch ? 0 : 1);
+			d = Math.min(d, row[j] + 1);
+			d = Math.min(d, next[j-1] + 1);
+			next[j] = Math.min(d, cap);
+			best = Math.min(best, next[j]);
+		}
+		return best <= maxEdits;
+	}
+
+	/**
+	 * Finds the keywords of a dictionary within maxEdits of the word.
+	 *
+	 * @param dict Term dictionary
+	 * @param limit Maximum number of keywords to return
+	 * @return Up to limit keywords, fewest edits first, then in sorted order
+	 */
+	ArrayList<String> expand(TermDictionary dict, int limit) {
+		TermDictionary.Partitions p = dict.partitions();
+		findCandidates(p);
+		// in keyword order, each once: a keyword is found under each of its intact pieces
+		Arrays.sort(candidates, 0, found);
+		// one list of matches for each number of edits
+		ArrayList<ArrayList<String>> byEdits = new ArrayList<ArrayList<String>>();
+		for (int e=0; e <= maxEdits; e++) {
+			byEdits.add(new ArrayList<String>());
+		}
+		if (masks != null) {
+			int k1 = maxEdits + 1;
+			states = new long[(word.length + maxEdits + 1) * k1];
+			for (int i=0; i < k1; i++) {
+				// i deletions from the start of the word
+				states[i] = ((1L << (i+1)) - 1) & full;
+			}
+		}
+		chars = new char[word.length + maxEdits];
+		for (int c=0; c < found; c++) {
+			int id = candidates[c];
+			if (c > 0 && id == candidates[c-1]) {
+				continue;
+			}
+			int edits = check(p, id);
+			if (edits >= 0) {
+				byEdits.get(edits).add(p.term(id));
+			}
+		}
+		ArrayList<String> matches = new ArrayList<String>();
+		for (ArrayList<String> list: byEdits) {
+			for (String kw: list) {
+				if (matches.size() == limit) {
+					return matches;
+				}
+				matches.add(kw);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Collects into candidates every keyword that has a piece filed under a substring of
+	 * the word where a match could have it, and every keyword too short to have pieces
+	 * whose length is within maxEdits of the word's.
+	 *
+	 * @param p Partition table
+	 */
+	private void findCandidates(TermDictionary.Partitions p) {
+		int pieces = TermDictionary.PIECES, most = pieces - 1;
+		int len = word.length;
+		candidates = new int[64];
+		found = 0;
+		if (len - maxEdits < pieces) {
+			for (int id: p.shortTerms) {
+				add(id);
+			}
+		}
+		for (int n = Math.max(pieces, len - maxEdits); n <= len + maxEdits; n++) {
+			int delta = len - n;
+			for (int i=0; i < pieces; i++) {
+				int start = TermDictionary.Partitions.pieceStart(n, i);
+				int length = TermDictionary.Partitions.pieceLength(n, i);
+				// at most i edits before the piece, at most most-i after it
+				int from = Math.max(-i, delta - (most - i));
+				int to = Math.min(i, delta + (most - i));
+				for (int shift = from; shift <= to; shift++) {
+					int at = start + shift;
+					if (Math.abs(shift) + Math.abs(delta - shift) > maxEdits || at < 0 || at + length > len) {
+						continue;
+					}
+					int hash = TermDictionary.Partitions.hash(n, i, word, at, length);
+					for (int e = p.first(hash); e < p.hashes.length && p.hashes[e] == hash; e++) {
+						add(p.ids[e]);
+					}
+				}
+			}
+		}
+	}
+
+	private void add(int id) {
+		if (found == candidates.length) {
+			candidates = Arrays.copyOf(candidates, found * 2);
+		}
+		candidates[found++] = id;
+	}
+
+	/**
+	 * Runs a keyword through the automaton.
+	 *
+	 * @param p Partition table
+	 * @param id Index of the keyword
+	 * @return Edits between the keyword and the word, or -1 if they are more than maxEdits
+	 */
+	private int check(TermDictionary.Partitions p, int id) {
+		int off = p.offsets[id], end = p.offsets[id+1];
+		int length = end - off;
+		if (length > word.length + maxEdits) {
+			// too long, unless it has characters of several bytes
+			String kw = p.term(id);
+			if (kw.length() > word.length + maxEdits) {
+				return -1;
+			}
+		}
+		int n = 0;
+		for (int i = off; i < end; i++) {
+			byte b = p.terms[i];
+			if (b < 0) {
+				String kw = p.term(id);
+				n = kw.length();
+				if (n > chars.length) {
+					return -1;
+				}
+				kw.getChars(0, n, chars, 0);
+				break;
+			}
+			chars[n++] = (char)b;
+		}
+		if (Math.abs(n - word.length) > maxEdits) {
+			return -1;
+		}
+		if (masks == null) {
+			int[] row = start(), next = new int[row.length];
+			for (int c=0; c < n; c++) {
+				if (!step(row, chars[c], next)) {
+					return -1;
+				}
+				int[] t = row;
+				row = next;
+				next = t;
+			}
+			return row[word.length] <= maxEdits ? row[word.length] : -1;
+		}
+		for (int c=0; c < n; c++) {
+			if (!advance(c, mask(chars[c]))) {
+				return -1;
+			}
+		}
+		return edits(n);
+	}
+
+	/**
+	 * Returns the mask of a character: bit j+1 set for every j at which it is in the word.
+	 */
+	private long mask(char c) {
+		if (c < 128) {
+			return asciiMasks[c];
+		}
+		int a = Arrays.binarySearch(alphabet, c);
+		return a < 0 ? 0 : masks[a];
+	}
+
+	/**
+	 * Computes the state after c+1 characters from the state after c, reading a character.
+	 *
+	 * @param c Number of characters read
+	 * @param mask Mask of the next character
+	 * @return True if the new state is live
+	 */
+	private boolean advance(int c, long mask) {
+		int k1 = maxEdits + 1;
+		int from = c * k1, to = from + k1;
+		if (to + k1 > states.length) {
+			states = Arrays.copyOf(states, states.length * 2);
+		}
+		// within 0 edits: the word's next character matches
+		long r = (states[from] << 1) & mask;
+		states[to] = r;
+		for (int i=1; i < k1; i++) {
+			long had = states[from + i], fewer = states[from + i - 1];
+			// match, insertion, substitution, deletion, or fewer edits
+			r = (((had << 1) & mask) | fewer | (fewer << 1) | (r << 1) | r) & full;
+			states[to + i] = r;
+		}
+		return r != 0;
+	}
+
+	/**
+	 * Returns the edits between the first c characters read and the word, or -1 if they
+	 * are more than maxEdits.
+	 */
+	private int edits(int c) {
+		int k1 = maxEdits + 1;
+		for (int i=0; i < k1; i++) {
+			if ((states[c * k1 + i] >>> word.length & 1) != 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the edit distance between two strings, computed in full. Used to check the
+	 * automaton.
+	 *
+	 * @param a First string
+	 * @param b Second string
+	 * @return Number of insertions, deletions and substitutions that turn a into b
+	 */
+	static int distance(String a, String b) {
+		int[] row = new int[b.length() + 1];
+		for (int j=0; j < row.length; j++) {
+			row[j] = j;
+		}
+		for (int i=1; i <= a.length(); i++) {
+			int diag = row[0];
+			row[0] = i;
+			for (int j=1; j <= b.length(); j++) {
+				int up = row[j];
+				row[j] = Math.min(Math.min(up + 1, row[j-1] + 1), diag + (a.charAt(i-1) == b.charAt(j-1) ? 0 : 1));
+				diag = up;
+			}
+		}
+		return row[b.length()];
+	}
+}
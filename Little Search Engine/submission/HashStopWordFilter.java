@@ -0,0 +1,165 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is a stop word filter backed by an open addressing hash table. All stop
+ * words are case folded and packed into one character array; the table holds the offset
+ * of each word in that array. A test folds and hashes the candidate in one pass, then
+ * compares it against the (usually single) word in its slot, so it costs O(length of
+ * word) no matter how many stop words there are.
+ *
+ * Case folding is the same as String.equalsIgnoreCase, which compares characters after
+ * converting them to upper case and then to lower case.
+ *
+ */
+public class HashStopWordFilter implements StopWordFilter {
+
+	/**
+	 * All stop words, folded, one after the other.
+	 */
+	char[] pool;
+
+	/**
+	 * Hash table of stop words. Slot i holds 1 + the offset of a word in the pool,
+	 * or 0 if it is empty. Its length is a power of 2.
+	 */
+	int[] slots;
+
+	/**
+	 * Length of the word in each slot.
+	 */
+	int[] lengths;
+
+	/**
+	 * Builds a filter for the given stop words.
+	 *
+	 * @param words Stop words, in any case
+	 */
+	public HashStopWordFilter(Collection<String> words) {
+		int chars = 0;
+		for (String w: words) {
+			chars += w.length();
+		}
+		pool = new char[chars];
+		int capacity = 4;
+		while (capacity < 2*words.size()) {
+			capacity *= 2;
+		}
+		slots = new int[capacity];
+		lengths = new int[capacity];
+
+		int off = 0;
+		for (String w: words) {
+			int len = w.length();
+			for (int i=0; i < len; i++) {
+				pool[off+i] = fold(w.charAt(i));
+			}
+			int hash = hash(pool, off, len);
+			if (find(pool, off, len, hash) < 0) {
+				int mask = slots.length - 1;
+				int i = hash & mask;
+				while (slots[i] != 0) {
+					i = (i+1) & mask;
+				}
+				slots[i] = off + 1;
+				lengths[i] = len;
+				off += len;
+			}
+		}
+	}
+
+	public boolean isStopWord(CharSequence word) {
+		int len = word.length();
+		int h = 0;
+		for (int i=0; i < len; i++) {
+			h = 31*h + fold(word.charAt(i));
+		}
+		int mask = slots.length - 1;
+		for (int i = mix(h) & mask; slots[i] != 0; i = (i+1) & mask) {
+			if (lengths[i] == len && matches(slots[i]-1, word)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isStopWord(char[] chars, int off, int len) {
+		int h = 0;
+		for (int i=0; i < len; i++) {
+			h = 31*h + fold(chars[off+i]);
+		}
+		int mask = slots.length - 1;
+		for (int i = mix(h) & mask; slots[i] != 0; i = (i+1) & mask) {
+			if (lengths[i] == len && matches(slots[i]-1, chars, off, len)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds a folded word in the table.
+	 *
+	 * @return Slot index, or -1 if the word is not in the table
+	 */
+	private int find(char[] chars, int off, int len, int hash) {
+		int mask = slots.length - 1;
+		for (int i = hash & mask; slots[i] != 0; i = (i+1) & mask) {
+			if (lengths[i] == len && matchesFolded(slots[i]-1, chars, off, len)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean matches(int start, CharSequence word) {
+		for (int i=0, n=word.length(); i < n; i++) {
+			if (pool[start+i] != fold(word.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean matches(int start, char[] chars, int off, int len) {
+		for (int i=0; i < len; i++) {
+			if (pool[start+i] != fold(chars[off+i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean matchesFolded(int start, char[] chars, int off, int len) {
+		for (int i=0; i < len; i++) {
+			if (pool[start+i] != chars[off+i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Folds a character for case-insensitive comparison, as equalsIgnoreCase does.
+	 */
+	static char fold(char c) {
+		if (c < 0x80) {
+			return (c >= 'A' && c <= 'Z') ? (char)(c + ('a'-'A')) : c;
+		}
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	private static int hash(char[] chars, int off, int len) {
+		int h = 0;
+		for (int i=0; i < len; i++) {
+			h = 31*h + chars[off+i];
+		}
+		return mix(h);
+	}
+
+	private static int mix(int h) {
+		h *= 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
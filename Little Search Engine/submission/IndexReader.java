@@ -0,0 +1,90 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This interface is implemented by the read-only views of a built index that searches
+ * run against: the in-memory compact index, and index segments mapped from disk.
+ * Documents are identified by integer ids, which can be turned back into names.
+ *
+ */
+interface IndexReader {
+
+	/**
+	 * Returns the first postings of a keyword's list, in descending order of frequency.
+	 * The returned list may hold more than limit postings, and must not be modified.
+	 *
+	 * @param kw Keyword
+	 * @param limit Number of postings needed
+	 * @return Posting list, or null if the keyword is not in the index
+	 */
+	PostingList postings(String kw, int limit);
+
+	/**
+	 * Returns all postings of a keyword's list, in ascending order of document id. The
+	 * returned list must not be modified.
+	 *
+	 * @param kw Keyword
+	 * @return Posting list sorted by document id, or null if the keyword is not in the index
+	 */
+	PostingList postingsByDocument(String kw);
+
+	/**
+	 * Returns a cursor over a keyword's postings in ascending order of document id, which
+	 * can skip ahead without reading the postings it passes over.
+	 *
+	 * @param kw Keyword
+	 * @return Cursor, or null if the keyword is not in the index
+	 */
+	DocCursor cursor(String kw);
+
+	/**
+	 * Returns the number of postings in a keyword's list, those of deleted documents not
+	 * yet removed included, without reading the list.
+	 *
+	 * @param kw Keyword
+	 * @return Number of postings, or 0 if the keyword is not in the index
+	 */
+	int size(String kw);
+
+	/**
+	 * Returns all keywords in the index, in no particular order. A keyword whose documents
+	 * have all been deleted may still be included.
+	 *
+	 * @return Keywords
+	 */
+	Collection<String> keywords();
+
+	/**
+	 * Tells whether the index keeps the positions of keywords in documents.
+	 *
+	 * @return True if positions can be read
+	 */
+	boolean hasPositions();
+
+	/**
+	 * Returns the positions of a keyword in a document: the number of words before each
+	 * of its occurrences.
+	 *
+	 * @param kw Keyword
+	 * @param doc Document id
+	 * @return Positions, ascending, or null if the document does not have the keyword or
+	 *         the index keeps no positions
+	 */
+	int[] positions(String kw, int doc);
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param doc Document id
+	 * @return Document name
+	 */
+	String documentName(int doc);
+
+	/**
+	 * Returns the number of documents in the index.
+	 *
+	 * @return Number of documents
+	 */
+	int documentCount();
+}
@@ -0,0 +1,622 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * This class is an index stored in a file, and read through a memory mapped buffer,
+ * so that opening it costs next to nothing and its pages are shared, through the
+ * operating system's page cache, by every process that opens it. Searches decode
+ * postings straight from the mapped file; nothing is loaded up front.
+ *
+ * File layout (all numbers big endian):
+ *
+ *   header      magic "LSEG", version, document count, keyword count,
+ *               offset of document table, offset of keyword table
+ *   data        posting lists, document names and keywords
+ *   documents   for each document id: offset and length of its UTF-8 name, and its
+ *               length in keywords
+ *   keywords    for each keyword, in ascending order of UTF-8 bytes: offset and length
+ *               of the keyword, number of postings, offset and length of its frequency
+ *               layer, offset of its document layer, number of blocks and offset of its
+ *               block table
+ *   filter      optional: at the next multiple of 8, a BloomFilter of the keywords'
+ *               UTF-8 bytes, as written by BloomFilter.write
+ *
+ * Posting lists are stored in the two layers of CompressedPostingList. A block table
+ * holds, for each block of the document layer, the last document id and the offset of
+ * the block relative to the start of the layer. Keyword positions are not stored, so
+ * phrase and proximity search need the in-memory index.
+ *
+ * The filter lets a lookup of a keyword the segment does not have return without a
+ * binary search of the keyword table, which would touch about log2(keywords) pages of
+ * it. Segments written without one still open, and are searched as before.
+ *
+ */
+class IndexSegment implements IndexReader {
+
+	/**
+	 * First four bytes of every segment file: "LSEG".
+	 */
+	static final int MAGIC = 0x4c534547;
+
+	/**
+	 * Version of the format written by this class.
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * Size of the header in bytes.
+	 */
+	static final int HEADER = 32;
+
+	/**
+	 * Size of an entry in the document table.
+	 */
+	static final int DOC_ENTRY = 16;
+
+	/**
+	 * Size of an entry in the keyword table.
+	 */
+	static final int TERM_ENTRY = 44;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The mapped file. Only absolute gets are used, so it can be shared by threads.
+	 */
+	ByteBuffer buf;
+
+	/**
+	 * Number of documents.
+	 */
+	int docCount;
+
+	/**
+	 * Number of keywords.
+	 */
+	int termCount;
+
+	/**
+	 * Offset of the document table.
+	 */
+	int docTable;
+
+	/**
+	 * Offset of the keyword table.
+	 */
+	int termTable;
+
+	/**
+	 * Bloom filter of the keywords, read in place from the file, or null if it has none.
+	 */
+	BloomFilter filter;
+
+	/**
+	 * Opens a segment file.
+	 *
+	 * @param file Segment file
+	 * @return Segment
+	 * @throws IOException If the file cannot be read or is not a segment of a supported version
+	 */
+	static IndexSegment open(File file)
+	throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel ch = in.getChannel();
+			if (ch.size() > Integer.MAX_VALUE) {
+				throw new IOException("Segment larger than 2GB: " + file);
+			}
+			MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			return new IndexSegment(mapped, file);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the header of a mapped segment.
+	 *
+	 * @param buf Mapped file
+	 * @param file File, for error messages
+	 * @throws IOException If the file is not a segment of a supported version
+	 */
+	IndexSegment(ByteBuffer buf, File file)
+	throws IOException {
+		if (buf.limit() < HEADER || buf.getInt(0) != MAGIC) {
+			throw new IOException("Not an index segment: " + file);
+		}
+		if (buf.getInt(4) != VERSION) {
+			throw new IOException("Unsupported index segment version " + buf.getInt(4) + ": " + file);
+		}
+		this.buf = buf;
+		docCount = buf.getInt(8);
+		termCount = buf.getInt(12);
+		docTable = (int)buf.getLong(16);
+		termTable = (int)buf.getLong(24);
+		long at = ((long)termTable + (long)termCount * TERM_ENTRY + 7) & ~7L;
+		if (buf.limit() >= at + 8) {
+			int words = buf.getInt((int)at + 4);
+			if (buf.limit() < at + 8 + 8L * words) {
+				throw new IOException("Truncated Bloom filter: " + file);
+			}
+			filter = BloomFilter.read(buf, (int)at);
+		}
+	}
+
+	/**
+	 * Writes an index to a segment file.
+	 *
+	 * @param index Index to write
+	 * @param keywords Keywords of the index
+	 * @param lengths Length of each document in keywords, indexed by document id
+	 * @param file Segment file, replaced if it exists
+	 * @param falsePositiveRate False positive rate of the segment's Bloom filter, or 0 for none
+	 * @throws IOException If the file cannot be written
+	 */
+	static void write(IndexReader index, Collection<String> keywords, int[] lengths, File file, double falsePositiveRate)
+	throws IOException {
+		// keywords in the order of their UTF-8 bytes, which is the order lookups compare in
+		byte[][] terms = new byte[keywords.size()][];
+		int t = 0;
+		for (String kw: keywords) {
+			terms[t++] = kw.getBytes(UTF8);
+		}
+		Arrays.sort(terms, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return compareBytes(a, b);
+			}
+		});
+
+		Writer out = new Writer(file, falsePositiveRate);
+		try {
+			for (byte[] term: terms) {
+				out.add(term, index.postings(new String(term, UTF8), Integer.MAX_VALUE));
+			}
+			int docs = index.documentCount();
+			for (int d=0; d < docs; d++) {
+				out.addDocument(index.documentName(d), lengths[d]);
+			}
+			out.finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a segment file one keyword at a time, so that only the posting list being
+	 * written has to be in memory. Keywords must be added in ascending order of their
+	 * UTF-8 bytes, then documents in order of id, then finish called. The keyword table
+	 * is spooled to a temporary file until the end, and so are the keywords' hashes, so
+	 * that the Bloom filter can be sized for the exact number of keywords. The segment is
+	 * written to a temporary file that only replaces the target once it is complete.
+	 */
+	static class Writer {
+
+		/**
+		 * Segment file.
+		 */
+		File file;
+
+		/**
+		 * Temporary files for the segment, its keyword table and its keyword hashes.
+		 */
+		File tmp, termsTmp, hashesTmp;
+
+		/**
+		 * Output to the segment, the keyword table and the keyword hashes.
+		 */
+		DataOutputStream out, terms, hashes;
+
+		/**
+		 * False positive rate of the Bloom filter, or 0 to write none.
+		 */
+		double falsePositiveRate;
+
+		/**
+		 * Current offset in the segment.
+		 */
+		long pos;
+
+		/**
+		 * Number of keywords added.
+		 */
+		int termCount;
+
+		/**
+		 * Last keyword added, to check the order.
+		 */
+		byte[] last;
+
+		/**
+		 * Offset and length of each document name, and each document's length.
+		 */
+		long[] names = new long[48];
+
+		/**
+		 * Number of documents added.
+		 */
+		int docCount;
+
+		/**
+		 * True once finish has succeeded.
+		 */
+		boolean done;
+
+		/**
+		 * Starts a segment file.
+		 *
+		 * @param file Segment file, replaced when finish is called
+		 * @param falsePositiveRate False positive rate of the Bloom filter, or 0 for none
+		 * @throws IOException If the temporary files cannot be created
+		 * @throws IllegalArgumentException If falsePositiveRate is not 0 and not between 0 and 1
+		 */
+		Writer(File file, double falsePositiveRate)
+		throws IOException {
+			if (falsePositiveRate != 0 && !(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+				throw new IllegalArgumentException("False positive rate must be 0 or between 0 and 1: " + falsePositiveRate);
+			}
+			this.file = file;
+			this.falsePositiveRate = falsePositiveRate;
+			tmp = new File(file.getPath() + ".tmp");
+			termsTmp = new File(file.getPath() + ".terms.tmp");
+			hashesTmp = new File(file.getPath() + ".hashes.tmp");
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+			terms = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(termsTmp), 1 << 16));
+			if (falsePositiveRate > 0) {
+				hashes = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(hashesTmp), 1 << 16));
+			}
+			out.write(new byte[HEADER]);
+			pos = HEADER;
+		}
+
+		/**
+		 * Writes a keyword and its postings.
+		 *
+		 * @param term UTF-8 bytes of the keyword, above those of the keyword added before
+		 * @param list Posting list, in descending order of frequency
+		 * @throws IOException If the file cannot be written
+		 * @throws IllegalArgumentException If the keyword is out of order
+		 */
+		void add(byte[] term, PostingList list)
+		throws IOException {
+			if (last != null && compareBytes(last, term) >= 0) {
+				throw new IllegalArgumentException("Keyword out of order: " + new String(term, UTF8));
+			}
+			last = term;
+			CompressedPostingList c = CompressedPostingList.encode(list);
+			long off = pos;
+			out.write(term);
+			pos += term.length;
+			long freqOff = pos;
+			out.write(c.byFrequency);
+			pos += c.byFrequency.length;
+			long docOff = pos;
+			out.write(c.byDocument);
+			pos += c.byDocument.length;
+			long blockTable = pos;
+			for (int b=0; b < c.blockOffset.length; b++) {
+				out.writeInt(c.blockLastDoc[b]);
+				out.writeInt(c.blockOffset[b]);
+			}
+			pos += 8L * c.blockOffset.length;
+
+			terms.writeLong(off);
+			terms.writeInt(term.length);
+			terms.writeInt(c.size);
+			terms.writeLong(freqOff);
+			terms.writeInt(c.byFrequency.length);
+			terms.writeLong(docOff);
+			terms.writeInt(c.blockOffset.length);
+			terms.writeInt((int)(blockTable - docOff));
+			if (hashes != null) {
+				hashes.writeLong(BloomFilter.hash(term, 0, term.length));
+			}
+			termCount++;
+		}
+
+		/**
+		 * Writes the name of the next document.
+		 *
+		 * @param name Document name
+		 * @param length Length of the document in keywords
+		 * @throws IOException If the file cannot be written
+		 */
+		void addDocument(String name, int length)
+		throws IOException {
+			byte[] bytes = name.getBytes(UTF8);
+			if (docCount*3 + 3 > names.length) {
+				names = Arrays.copyOf(names, names.length * 2);
+			}
+			names[docCount*3] = pos;
+			names[docCount*3+1] = bytes.length;
+			names[docCount*3+2] = length;
+			docCount++;
+			out.write(bytes);
+			pos += bytes.length;
+		}
+
+		/**
+		 * Writes the document and keyword tables, the Bloom filter and the header, and
+		 * replaces the segment file with the new one.
+		 *
+		 * @throws IOException If the file cannot be written or replaced
+		 */
+		void finish()
+		throws IOException {
+			// document table
+			long docTable = pos;
+			for (int d=0; d < docCount; d++) {
+				out.writeLong(names[d*3]);
+				out.writeInt((int)names[d*3+1]);
+				out.writeInt((int)names[d*3+2]);
+			}
+			pos += (long)DOC_ENTRY * docCount;
+
+			// keyword table, copied from its spool file
+			long termTable = pos;
+			terms.close();
+			InputStream in = new FileInputStream(termsTmp);
+			try {
+				byte[] chunk = new byte[1 << 16];
+				for (int n; (n = in.read(chunk)) > 0; ) {
+					out.write(chunk, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+			pos += (long)TERM_ENTRY * termCount;
+
+			// Bloom filter, built from the spooled hashes and aligned for its LongBuffer
+			if (hashes != null) {
+				hashes.close();
+				BloomFilter filter = new BloomFilter(termCount, falsePositiveRate);
+				DataInputStream hin = new DataInputStream(new BufferedInputStream(new FileInputStream(hashesTmp), 1 << 16));
+				try {
+					for (int t=0; t < termCount; t++) {
+						filter.add(hin.readLong());
+					}
+				} finally {
+					hin.close();
+				}
+				for (; (pos & 7) != 0; pos++) {
+					out.write(0);
+				}
+				filter.write(out);
+				pos += filter.storedSize();
+			}
+			if (pos > Integer.MAX_VALUE) {
+				throw new IOException("Segment larger than 2GB: " + file);
+			}
+			out.close();
+
+			RandomAccessFile header = new RandomAccessFile(tmp, "rw");
+			try {
+				header.writeInt(MAGIC);
+				header.writeInt(VERSION);
+				header.writeInt(docCount);
+				header.writeInt(termCount);
+				header.writeLong(docTable);
+				header.writeLong(termTable);
+			} finally {
+				header.close();
+			}
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Cannot replace " + file);
+				}
+			}
+			done = true;
+		}
+
+		/**
+		 * Closes the files and deletes the temporary ones. If finish was not called or
+		 * failed, the segment file is left as it was.
+		 */
+		void close() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// nothing more can be done with it
+			}
+			try {
+				terms.close();
+			} catch (IOException e) {
+				// nothing more can be done with it
+			}
+			if (hashes != null) {
+				try {
+					hashes.close();
+				} catch (IOException e) {
+					// nothing more can be done with it
+				}
+			}
+			termsTmp.delete();
+			hashesTmp.delete();
+			if (!done) {
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Finds a keyword in the keyword table by binary search.
+	 *
+	 * @param kw Keyword
+	 * @return Offset of the keyword's entry, or -1 if it is not in the segment
+	 */
+	int find(String kw) {
+		byte[] key = kw.getBytes(UTF8);
+		if (filter != null && !filter.mightContain(BloomFilter.hash(key, 0, key.length))) {
+			return -1;
+		}
+		int low = 0, high = termCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int entry = termTable + mid * TERM_ENTRY;
+			int c = compareTerm(entry, key);
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	public PostingList postings(String kw, int limit) {
+		int entry = find(kw);
+		if (entry < 0) {
+			return null;
+		}
+		int size = buf.getInt(entry + 12);
+		int n = Math.min(size, limit);
+		int[] pos = {(int)buf.getLong(entry + 16)};
+		PostingList list = new PostingList(n);
+		while (list.size < n) {
+			int freq = readVInt(pos);
+			int run = readVInt(pos);
+			for (int i=0; i < run && list.size < n; i++) {
+				list.docs[list.size] = readVInt(pos);
+				list.freqs[list.size] = freq;
+				list.size++;
+			}
+		}
+		return list;
+	}
+
+	public int size(String kw) {
+		int entry = find(kw);
+		return entry < 0 ? 0 : buf.getInt(entry + 12);
+	}
+
+	public PostingList postingsByDocument(String kw) {
+		int entry = find(kw);
+		if (entry < 0) {
+			return null;
+		}
+		int size = buf.getInt(entry + 12);
+		int[] pos = {(int)buf.getLong(entry + 28)};
+		PostingList list = new PostingList(size);
+		int doc = 0;
+		for (int i=0; i < size; i++) {
+			if (i % CompressedPostingList.BLOCK == 0) {
+				doc = 0;
+			}
+			doc += readVInt(pos);
+			list.add(doc, readVInt(pos));
+		}
+		return list;
+	}
+
+	public DocCursor cursor(String kw) {
+		int entry = find(kw);
+		if (entry < 0) {
+			return null;
+		}
+		int layer = (int)buf.getLong(entry + 28);
+		return new DocCursor.SegmentCursor(this, buf.getInt(entry + 12), layer,
+				buf.getInt(entry + 36), layer + buf.getInt(entry + 40));
+	}
+
+	/**
+	 * Reads every keyword from the keyword table, in the table's sorted order.
+	 */
+	public List<String> keywords() {
+		ArrayList<String> kws = new ArrayList<String>(termCount);
+		for (int i=0; i < termCount; i++) {
+			int entry = termTable + i * TERM_ENTRY;
+			int off = (int)buf.getLong(entry);
+			byte[] kw = new byte[buf.getInt(entry + 8)];
+			for (int j=0; j < kw.length; j++) {
+				kw[j] = buf.get(off + j);
+			}
+			kws.add(new String(kw, UTF8));
+		}
+		return kws;
+	}
+
+	public boolean hasPositions() {
+		return false;
+	}
+
+	public int[] positions(String kw, int doc) {
+		return null;
+	}
+
+	public String documentName(int doc) {
+		int entry = docTable + doc * DOC_ENTRY;
+		int off = (int)buf.getLong(entry);
+		byte[] name = new byte[buf.getInt(entry + 8)];
+		for (int i=0; i < name.length; i++) {
+			name[i] = buf.get(off + i);
+		}
+		return new String(name, UTF8);
+	}
+
+	/**
+	 * Returns the length of a document in keywords.
+	 *
+	 * @param doc Document id
+	 * @return Number of keywords in the document
+	 */
+	int documentLength(int doc) {
+		return buf.getInt(docTable + doc * DOC_ENTRY + 12);
+	}
+
+	public int documentCount() {
+		return docCount;
+	}
+
+	/**
+	 * Compares the keyword of a table entry with a key, as unsigned bytes.
+	 */
+	private int compareTerm(int entry, byte[] key) {
+		int off = (int)buf.getLong(entry);
+		int len = buf.getInt(entry + 8);
+		int n = Math.min(len, key.length);
+		for (int i=0; i < n; i++) {
+			int c = (buf.get(off + i) & 0xff) - (key[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return len - key.length;
+	}
+
+	static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i=0; i < n; i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Reads a variable-byte number from the mapped file.
+	 *
+	 * @param pos One-element array holding the read position, advanced past the number
+	 * @return Number read
+	 */
+	int readVInt(int[] pos) {
+		int p = pos[0];
+		int b = buf.get(p++);
+		int v = b & 0x7f;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = buf.get(p++);
+			v |= (b & 0x7f) << shift;
+		}
+		pos[0] = p;
+		return v;
+	}
+}
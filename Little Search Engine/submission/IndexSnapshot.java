@@ -0,0 +1,451 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is an immutable view of an index made of segments, for searching while
+ * the index is being updated. Each segment is a CompactIndex that is never modified once
+ * it is in a snapshot. Documents are numbered across segments: a segment's documents
+ * take the ids from its base onward, in the order the segments were added. A document
+ * deleted after its segment was built is marked in the snapshot's own set of deleted ids.
+ *
+ * An update never touches a snapshot. It makes a new one, sharing the unchanged segments
+ * with the old, and the engine publishes it with a single volatile write. A search reads
+ * the current snapshot once and runs entirely against it, so it never waits for an update
+ * and never sees one half done.
+ *
+ * Lists are read segment by segment. In frequency order, the segments' lists are merged
+ * by frequency, ties going to the older segment; in document order, they are concatenated.
+ *
+ */
+class IndexSnapshot implements IndexReader {
+
+	/**
+	 * Segments, oldest first.
+	 */
+	final CompactIndex[] segments;
+
+	/**
+	 * Id of the first document of each segment.
+	 */
+	final int[] bases;
+
+	/**
+	 * Ids of deleted documents. Never modified; a delete copies it.
+	 */
+	final BitSet deleted;
+
+	/**
+	 * Number of documents in all segments, including deleted ones.
+	 */
+	final int documentCount;
+
+	/**
+	 * Number of documents that are not deleted.
+	 */
+	final int liveDocuments;
+
+	/**
+	 * Sum of the lengths of the documents that are not deleted.
+	 */
+	final long totalLength;
+
+	/**
+	 * Creates a snapshot of one segment.
+	 *
+	 * @param segment Segment, which must not be modified afterwards
+	 */
+	IndexSnapshot(CompactIndex segment) {
+		this(new CompactIndex[] {segment}, new BitSet());
+	}
+
+	/**
+	 * Creates a snapshot.
+	 *
+	 * @param segments Segments, oldest first, which must not be modified afterwards
+	 * @param deleted Ids of deleted documents, which must not be modified afterwards
+	 */
+	IndexSnapshot(CompactIndex[] segments, BitSet deleted) {
+		this.segments = segments;
+		this.deleted = deleted;
+		bases = new int[segments.length];
+		int count = 0;
+		long length = 0;
+		for (int i=0; i < segments.length; i++) {
+			bases[i] = count;
+			count += segments[i].documentCount();
+			length += segments[i].totalLength;
+		}
+		documentCount = count;
+		for (int d = deleted.nextSetBit(0); d >= 0 && d < count; d = deleted.nextSetBit(d+1)) {
+			length -= documentLength(d);
+		}
+		liveDocuments = count - deleted.get(0, count).cardinality();
+		totalLength = length;
+	}
+
+	/**
+	 * Returns a new snapshot with a segment added, and documents of the same names in the
+	 * older segments deleted.
+	 *
+	 * @param segment New segment, which must not be modified afterwards
+	 * @return New snapshot
+	 */
+	IndexSnapshot add(CompactIndex segment) {
+		BitSet gone = (BitSet)deleted.clone();
+		for (int d=0; d < segment.documentCount(); d++) {
+			int old = id(segment.documentName(d));
+			if (old >= 0) {
+				gone.set(old);
+			}
+		}
+		CompactIndex[] added = Arrays.copyOf(segments, segments.length + 1);
+		added[segments.length] = segment;
+		return new IndexSnapshot(added, gone);
+	}
+
+	/**
+	 * Returns a new snapshot with a document deleted.
+	 *
+	 * @param name Document name
+	 * @return New snapshot, or this one if the document is not in it
+	 */
+	IndexSnapshot delete(String name) {
+		int doc = id(name);
+		if (doc < 0) {
+			return this;
+		}
+		BitSet gone = (BitSet)deleted.clone();
+		gone.set(doc);
+		return new IndexSnapshot(segments, gone);
+	}
+
+	/**
+	 * Returns a snapshot with the segments from a given one onward merged into one,
+	 * without their deleted documents. The older segments are kept as they are. Documents
+	 * keep their relative order, so the merged lists are in the same order as this
+	 * snapshot's.
+	 *
+	 * @param from First segment to merge
+	 * @param compress True to compress the merged segment's posting lists
+	 * @return New snapshot
+	 */
+	IndexSnapshot merge(int from, boolean compress) {
+		CompactIndex merged = new CompactIndex();
+		if (hasPositions()) {
+			merged.keepPositions();
+		}
+		int base = bases[from];
+		int[] ids = new int[documentCount - base];
+		for (int d = base; d < documentCount; d++) {
+			ids[d - base] = deleted.get(d) ? -1 : merged.addDocument(documentName(d), 0, documentLength(d));
+		}
+		HashSet<String> kws = new HashSet<String>();
+		for (int i = from; i < segments.length; i++) {
+			kws.addAll(segments[i].keywords());
+		}
+		for (String kw: kws) {
+			PostingList list = postings(kw, Integer.MAX_VALUE, from);
+			if (list == null || list.size == 0) {
+				continue;
+			}
+			PostingList renumbered = new PostingList(list.size);
+			for (int i=0; i < list.size; i++) {
+				int doc = ids[list.docs[i] - base];
+				renumbered.add(doc, list.freqs[i]);
+				merged.docPostings[doc]++;
+			}
+			merged.totalPostings += list.size;
+			// a merged segment that is compressed gets its document order from the encoding
+			merged.put(kw, renumbered, compress ? null : byDocument(kw, from, ids));
+		}
+		if (merged.positions != null) {
+			for (int i = from; i < segments.length; i++) {
+				addPositions(merged, segments[i], ids, bases[i] - base);
+			}
+		}
+		if (compress) {
+			merged.compress();
+		} else {
+			merged.trimPositions();
+		}
+		CompactIndex[] kept = Arrays.copyOf(segments, from + 1);
+		kept[from] = merged;
+		return new IndexSnapshot(kept, deleted.get(0, base));
+	}
+
+	/**
+	 * Returns a keyword's postings in the segments from a given one onward, renumbered
+	 * for a merged segment, in ascending order of the new ids.
+	 *
+	 * @param kw Keyword
+	 * @param from First segment merged
+	 * @param ids New id of every merged document, or -1 if it is deleted
+	 * @return Posting list in document order
+	 */
+	private PostingList byDocument(String kw, int from, int[] ids) {
+		PostingList sorted = new PostingList();
+		for (int i = from; i < segments.length; i++) {
+			PostingList list = segments[i].allByDocument(kw);
+			if (list == null) {
+				continue;
+			}
+			// ids keep their relative order, so the renumbered list stays sorted
+			int offset = bases[i] - bases[from];
+			for (int j=0; j < list.size; j++) {
+				int doc = ids[offset + list.docs[j]];
+				if (doc >= 0) {
+					sorted.add(doc, list.freqs[j]);
+				}
+			}
+		}
+		return sorted;
+	}
+
+	/**
+	 * Appends a segment's positions to a merged segment's, renumbered. Segments are
+	 * appended oldest first, so each list stays in ascending order of id.
+	 *
+	 * @param merged Merged segment
+	 * @param segment Segment being merged
+	 * @param ids New id of every merged document, or -1 if it is deleted
+	 * @param offset Offset in ids of the segment's first document
+	 */
+	private static void addPositions(CompactIndex merged, CompactIndex segment, int[] ids, int offset) {
+		for (Map.Entry<String,PositionList> e: segment.positions.entrySet()) {
+			PositionList from = e.getValue();
+			PositionList to = merged.positions.get(e.getKey());
+			for (int i=0; i < from.size; i++) {
+				int doc = ids[offset + from.docs[i]];
+				if (doc < 0) {
+					continue;
+				}
+				if (to == null) {
+					to = new PositionList();
+					merged.positions.put(e.getKey(), to);
+				}
+				int[] p = from.positions(from.docs[i]);
+				to.add(doc, p, p.length);
+			}
+		}
+	}
+
+	/**
+	 * Returns the id of a live document.
+	 *
+	 * @param name Document name
+	 * @return Document id, or -1 if the document is not in the snapshot or is deleted
+	 */
+	int id(String name) {
+		for (int i = segments.length - 1; i >= 0; i--) {
+			int doc = segments[i].docs.id(name);
+			if (doc >= 0 && !deleted.get(bases[i] + doc)) {
+				return bases[i] + doc;
+			}
+		}
+		return -1;
+	}
+
+	public PostingList postings(String kw, int limit) {
+		return postings(kw, limit, 0);
+	}
+
+	/**
+	 * Returns the first postings of a keyword's list in the segments from a given one
+	 * onward, in descending order of frequency, without deleted documents.
+	 *
+	 * @param kw Keyword
+	 * @param limit Number of postings needed
+	 * @param from First segment to read
+	 * @return Posting list, or null if the keyword is in none of the segments
+	 */
+	PostingList postings(String kw, int limit, int from) {
+		PostingList[] lists = new PostingList[segments.length];
+		boolean found = false;
+		long hash = BloomFilter.hash(kw);
+		for (int i = from; i < segments.length; i++) {
+			if (!mayHave(i, hash)) {
+				continue;
+			}
+			// the first limit postings may hold deleted documents, but no more than the
+			// segment has
+			int end = i+1 < segments.length ? bases[i+1] : documentCount;
+			int gone = deleted.isEmpty() ? 0 : deleted.get(bases[i], end).cardinality();
+			lists[i] = segments[i].postings(kw, limit > Integer.MAX_VALUE - gone ? Integer.MAX_VALUE : limit + gone);
+			found |= lists[i] != null;
+		}
+		if (!found) {
+			return null;
+		}
+		if (from == segments.length - 1 && deleted.isEmpty() && bases[from] == 0) {
+			return lists[from];
+		}
+		int[] pos = new int[segments.length];
+		PostingList merged = new PostingList(Math.min(limit, 16));
+		while (merged.size < limit) {
+			// the highest frequency among the segments' next postings, oldest segment on ties
+			int best = -1;
+			for (int i = from; i < lists.length; i++) {
+				if (lists[i] != null && pos[i] < lists[i].size
+						&& (best < 0 || lists[i].freqs[pos[i]] > lists[best].freqs[pos[best]])) {
+					best = i;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			int doc = bases[best] + lists[best].docs[pos[best]];
+			if (!deleted.get(doc)) {
+				merged.add(doc, lists[best].freqs[pos[best]]);
+			}
+			pos[best]++;
+		}
+		return merged;
+	}
+
+	public int size(String kw) {
+		int size = 0;
+		long hash = BloomFilter.hash(kw);
+		for (int i=0; i < segments.length; i++) {
+			if (mayHave(i, hash)) {
+				size += segments[i].size(kw);
+			}
+		}
+		return size;
+	}
+
+	public PostingList postingsByDocument(String kw) {
+		PostingList merged = null;
+		long hash = BloomFilter.hash(kw);
+		for (int i=0; i < segments.length; i++) {
+			PostingList list = mayHave(i, hash) ? segments[i].postingsByDocument(kw) : null;
+			if (list == null) {
+				continue;
+			}
+			if (merged == null) {
+				merged = new PostingList(list.size);
+			}
+			for (int j=0; j < list.size; j++) {
+				int doc = bases[i] + list.docs[j];
+				if (!deleted.get(doc)) {
+					merged.add(doc, list.freqs[j]);
+				}
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns a cursor in document order. The segments' own cursors are chained, so
+	 * skipping still works inside each segment, and deleted documents are stepped over.
+	 */
+	public DocCursor cursor(String kw) {
+		DocCursor cursor = chain(kw);
+		return cursor == null || deleted.isEmpty() ? cursor : new DocCursor.LiveCursor(cursor, deleted);
+	}
+
+	/**
+	 * Returns the segments' cursors for a keyword chained into one, deleted documents
+	 * included.
+	 */
+	private DocCursor chain(String kw) {
+		ArrayList<DocCursor> parts = new ArrayList<DocCursor>(segments.length);
+		ArrayList<Integer> partBases = new ArrayList<Integer>(segments.length);
+		long hash = BloomFilter.hash(kw);
+		for (int i=0; i < segments.length; i++) {
+			DocCursor c = mayHave(i, hash) ? segments[i].cursor(kw) : null;
+			if (c != null) {
+				parts.add(c);
+				partBases.add(bases[i]);
+			}
+		}
+		if (parts.isEmpty()) {
+			return null;
+		}
+		if (parts.size() == 1 && partBases.get(0) == 0) {
+			return parts.get(0);
+		}
+		int[] b = new int[parts.size()];
+		for (int i=0; i < b.length; i++) {
+			b[i] = partBases.get(i);
+		}
+		return new DocCursor.ChainedCursor(parts.toArray(new DocCursor[parts.size()]), b);
+	}
+
+	/**
+	 * Tells whether a segment may have a keyword: false only if its Bloom filter rules
+	 * the keyword out.
+	 *
+	 * @param i Segment
+	 * @param hash Hash of the keyword, from BloomFilter.hash
+	 */
+	private boolean mayHave(int i, long hash) {
+		BloomFilter filter = segments[i].filter;
+		return filter == null || filter.mightContain(hash);
+	}
+
+	public Set<String> keywords() {
+		HashSet<String> kws = new HashSet<String>();
+		for (CompactIndex segment: segments) {
+			kws.addAll(segment.keywords());
+		}
+		return kws;
+	}
+
+	/**
+	 * Tells whether every segment keeps positions.
+	 */
+	public boolean hasPositions() {
+		for (CompactIndex segment: segments) {
+			if (segment.positions == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int[] positions(String kw, int doc) {
+		if (deleted.get(doc)) {
+			return null;
+		}
+		int i = segment(doc);
+		return segments[i].positions(kw, doc - bases[i]);
+	}
+
+	public String documentName(int doc) {
+		int i = segment(doc);
+		return segments[i].documentName(doc - bases[i]);
+	}
+
+	/**
+	 * Returns the length of a document in keywords, counted with repetition, as its
+	 * segment recorded it. A deleted document keeps its length.
+	 *
+	 * @param doc Document id
+	 * @return Number of keywords in the document
+	 */
+	int documentLength(int doc) {
+		int i = segment(doc);
+		return segments[i].documentLength(doc - bases[i]);
+	}
+
+	/**
+	 * Returns the segment holding a document.
+	 */
+	private int segment(int doc) {
+		int i = Arrays.binarySearch(bases, doc);
+		if (i < 0) {
+			i = -i - 2;
+		} else {
+			// empty segments share a base with the next one
+			while (i+1 < bases.length && bases[i+1] == doc) {
+				i++;
+			}
+		}
+		return i;
+	}
+
+	public int documentCount() {
+		return documentCount;
+	}
+}
@@ -0,0 +1,319 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class reads the keywords of a document straight from its bytes. Words are
+ * separated by whitespace, as with Scanner.next, and each word is put through the same
+ * test as getKeyWord: trailing punctuation is stripped, the word is lower cased into a
+ * reusable buffer, and it must consist only of letters and not be a noise word.
+ *
+ * Words are looked up in the engine's term table, so a String is only created the first
+ * time a word is seen. Words containing non-ASCII or control characters are decoded
+ * and handed to getKeyWord, so the accept/reject decisions always match getKeyWord.
+ * They are decoded as Scanner decodes, with the default charset, reporting malformed
+ * input rather than replacing it. Scanner stops reading at malformed input, at a point
+ * that depends on its buffering, so a document that has any is not tokenized here: the
+ * tokenizer stops and sets malformed, and the caller reads the document with Scanner.
+ *
+ */
+class KeywordTokenizer {
+
+	/**
+	 * Files at least this large are memory mapped; smaller ones are read into the heap.
+	 */
+	static final int MAP_THRESHOLD = 64 * 1024;
+
+	/**
+	 * True if byte level scanning is equivalent to Scanner + getKeyWord in this JVM: a
+	 * byte below 0x80 must always be the ASCII character of that code, never part of a
+	 * longer character, which holds for UTF-8 and for charsets of one byte per character
+	 * that agree with ASCII, and lower casing an ASCII letter in the default locale must
+	 * give the ASCII lower case letter.
+	 */
+	private static final boolean SUPPORTED;
+
+	static {
+		Charset cs = Charset.defaultCharset();
+		boolean supported;
+		try {
+			byte[] ascii = new byte[0x80];
+			for (int i=0; i < ascii.length; i++) {
+				ascii[i] = (byte)i;
+			}
+			String decoded = cs.newDecoder().decode(ByteBuffer.wrap(ascii)).toString();
+			supported = decoded.equals(new String(ascii, StandardCharsets.US_ASCII))
+				&& (cs.equals(StandardCharsets.UTF_8) || (cs.canEncode() && cs.newEncoder().maxBytesPerChar() == 1));
+		} catch (CharacterCodingException e) {
+			// some ASCII byte is not a character on its own
+			supported = false;
+		}
+		for (char c='A'; c <= 'Z'; c++) {
+			supported &= String.valueOf(c).toLowerCase().equals(String.valueOf((char)(c + ('a'-'A'))));
+		}
+		SUPPORTED = supported;
+	}
+
+	/**
+	 * Engine whose term table and noise words are used.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * The engine's term table, fetched once per document.
+	 */
+	TermTable terms;
+
+	/**
+	 * Document bytes.
+	 */
+	ByteBuffer bytes;
+
+	/**
+	 * Reusable buffer holding the current word, lower cased.
+	 */
+	char[] chars;
+
+	/**
+	 * Words left over from a non-ASCII token that had several whitespace separated parts.
+	 */
+	String[] pending;
+
+	/**
+	 * Index of the next word in pending.
+	 */
+	int pendingIndex;
+
+	/**
+	 * Number of words read so far, keywords or not.
+	 */
+	int words;
+
+	/**
+	 * Position of the last keyword returned: the number of words before it.
+	 */
+	int position;
+
+	/**
+	 * Decoder of the default charset for non-ASCII words, made when first needed. Like
+	 * the one Scanner uses, it reports malformed input.
+	 */
+	CharsetDecoder decoder;
+
+	/**
+	 * True if the document has input that is malformed in the default charset. The
+	 * tokenizer then stops, and its keywords are not those Scanner would give.
+	 */
+	boolean malformed;
+
+	/**
+	 * Opens a document for tokenizing.
+	 *
+	 * @param engine Engine whose noise words decide which words are keywords
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	KeywordTokenizer(LittleSearchEngine engine, String docFile)
+	throws FileNotFoundException {
+		this.engine = engine;
+		terms = engine.terms();
+		chars = new char[32];
+		FileInputStream in = new FileInputStream(docFile);
+		try {
+			FileChannel ch = in.getChannel();
+			long size = ch.size();
+			if (size >= MAP_THRESHOLD) {
+				MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				bytes = mapped;
+			} else {
+				bytes = ByteBuffer.allocate((int)size);
+				while (bytes.hasRemaining() && ch.read(bytes) >= 0);
+				bytes.flip();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error reading " + docFile, e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing was written, so there is nothing to lose
+			}
+		}
+	}
+
+	/**
+	 * Opens a range of a document's bytes for tokenizing, such as a chunk of a large
+	 * file. The range must start and end at word boundaries.
+	 *
+	 * @param engine Engine whose noise words decide which words are keywords
+	 * @param bytes Bytes, from their position to their limit
+	 */
+	KeywordTokenizer(LittleSearchEngine engine, ByteBuffer bytes) {
+		this.engine = engine;
+		terms = engine.terms();
+		chars = new char[32];
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Tells whether byte level tokenizing can be used in this JVM. If not, callers
+	 * should use Scanner and getKeyWord instead.
+	 *
+	 * @return True if tokenizing gives the same keywords as Scanner and getKeyWord
+	 */
+	static boolean isSupported() {
+		return SUPPORTED;
+	}
+
+	/**
+	 * Returns the next keyword in the document.
+	 *
+	 * @return Next keyword, or null if there are no more keywords
+	 */
+	String nextKeyWord() {
+		while (true) {
+			if (pending != null) {
+				String kw = nextPending();
+				if (kw != null) {
+					return kw;
+				}
+				continue;
+			}
+			// skip whitespace
+			ByteBuffer b = bytes;
+			int pos = b.position(), limit = b.limit();
+			while (pos < limit && isWhitespace(b.get(pos))) {
+				pos++;
+			}
+			if (pos == limit) {
+				b.position(pos);
+				return null;
+			}
+			// read one word, lower casing into the buffer
+			int start = pos, len = 0;
+			boolean ascii = true;
+			while (pos < limit) {
+				byte c = b.get(pos);
+				if (isWhitespace(c)) {
+					break;
+				}
+				if (c < 0x20 || c > 0x7e) {
+					ascii = false;
+				}
+				if (len == chars.length) {
+					chars = Arrays.copyOf(chars, len*2);
+				}
+				chars[len++] = (c >= 'A' && c <= 'Z') ? (char)(c + ('a'-'A')) : (char)c;
+				pos++;
+			}
+			b.position(pos);
+			if (!ascii) {
+				if (!decodePending(start, pos - start)) {
+					malformed = true;
+					b.position(limit);
+					return null;
+				}
+				continue;
+			}
+			position = words++;
+			String kw = keyWord(len);
+			if (kw != null) {
+				return kw;
+			}
+		}
+	}
+
+	/**
+	 * Applies the keyword test to the ASCII word in the buffer, exactly as getKeyWord does.
+	 *
+	 * @param len Length of the word
+	 * @return Keyword, or null if the word is not a keyword
+	 */
+	private String keyWord(int len) {
+		// strip trailing punctuation
+		char lc = chars[len-1];
+		while (isPunctuation(lc)) {
+			len--;
+			if (len > 1) {
+				lc = chars[len-1];
+			} else {
+				break;
+			}
+		}
+		for (int i=0; i < len; i++) {
+			char c = chars[i];
+			if (c < 'a' || c > 'z') {
+				return null;
+			}
+		}
+		int hash = TermTable.hash(chars, len);
+		TermTable.Term t = terms.get(chars, len, hash);
+		if (t == null) {
+			t = terms.add(chars, len, hash);
+		}
+		return t.keyword ? t.word : null;
+	}
+
+	/**
+	 * Decodes a word that is not plain ASCII. Such a word may still contain
+	 * non-ASCII whitespace, so it is split the way Scanner would split it, and the
+	 * parts are queued for getKeyWord.
+	 *
+	 * @param start Index of the first byte of the word
+	 * @param len Number of bytes in the word
+	 * @return True if the word was decoded, false if it is malformed in the default charset
+	 */
+	private boolean decodePending(int start, int len) {
+		ByteBuffer raw = bytes.duplicate();
+		raw.limit(start + len);
+		raw.position(start);
+		String s;
+		if (decoder == null) {
+			decoder = Charset.defaultCharset().newDecoder();
+		}
+		try {
+			s = decoder.decode(raw).toString();
+		} catch (CharacterCodingException e) {
+			return false;
+		}
+		pending = s.split("\\p{javaWhitespace}+");
+		pendingIndex = 0;
+		return true;
+	}
+
+	private String nextPending() {
+		while (pendingIndex < pending.length) {
+			String word = pending[pendingIndex++];
+			if (word.length() == 0) {
+				continue;
+			}
+			position = words++;
+			String kw = engine.getKeyWord(word);
+			if (kw != null) {
+				return kw;
+			}
+		}
+		pending = null;
+		return null;
+	}
+
+	/**
+	 * Tells whether an ASCII byte is whitespace in the sense of Character.isWhitespace,
+	 * which is what Scanner uses to separate words.
+	 */
+	static boolean isWhitespace(byte c) {
+		return c == ' ' || (c >= 0x09 && c <= 0x0d) || (c >= 0x1c && c <= 0x1f);
+	}
+
+	static boolean isPunctuation(char c) {
+		return (c == '.') || (c == ',') || (c == '?') || (c == ':') || (c == ';') || (c == '!');
+	}
+}
@@ -2,258 +2,1918 @@ package search;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 
 /**
- * This class encapsulates an occurrence of a keyword in a document. It stores the
- * document name, and the frequency of occurrence in that document. Occurrences are
- * associated with keywords in an index hash table.
- * 
- * @author Sesh Venugopal
- * 
+ * This class builds an index of keywords. Each keyword maps to a set of documents in
+ * which it occurs, with frequency of occurrence in each document. Once the index is built,
+ * the documents can searched on for keywords.
+ *
  */
-class Occurrence {
+public class LittleSearchEngine {
+	
+	/**
+	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
+	 * an array list of all occurrences of the keyword in documents. The array list is maintained in descending
+	 * order of occurrence frequencies.
+	 */
+	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	
+	/**
+	 * The hash table of all noise words - mapping is from word to itself.
+	 */
+	HashMap<String,String> noiseWords;
+	
+	/**
+	 * Number of worker threads used by makeIndex. A value of 1 (the default) indexes
+	 * the documents one at a time on the calling thread.
+	 */
+	int parallelism;
+	
+	/**
+	 * Filter used to recognize noise words. Unless one is set with setStopWordFilter,
+	 * a HashStopWordFilter is built from noiseWords when first needed, and rebuilt if
+	 * noiseWords changes size.
+	 */
+	volatile StopWordFilter stopWords;
+	
+	/**
+	 * True if stopWords was set with setStopWordFilter rather than built from noiseWords.
+	 */
+	boolean customStopWords;
+	
+	/**
+	 * Number of noise words the built-in filter was made from.
+	 */
+	int filterSize;
+	
+	/**
+	 * Every distinct word the tokenizer has seen, each with its keyword/noise word
+	 * verdict, so that a String is only created the first time a word is seen.
+	 * Discarded whenever the noise words change.
+	 */
+	TermTable terms;
+	
+	/**
+	 * Compact form of the index, with integer document ids and primitive posting arrays.
+	 * When it is not null, keywords are merged here instead of into keywordsIndex.
+	 */
+	CompactIndex compactIndex;
+	
+	/**
+	 * True if makeIndex compresses the compact index's posting lists when it is done.
+	 */
+	boolean compressPostings;
+	
+	/**
+	 * Index segment opened from disk with openIndex. When it is not null, searches run
+	 * against it instead of the in-memory index.
+	 */
+	IndexSegment segment;
+	
+	/**
+	 * Guards the compact index against concurrent incremental updates: searches read under
+	 * the read lock, and updates and compaction write under the write lock.
+	 */
+	ReentrantReadWriteLock indexLock;
+	
+	/**
+	 * Fraction of postings that may belong to deleted documents before a background
+	 * compaction is started.
+	 */
+	double compactionThreshold;
+	
+	/**
+	 * Single background thread that runs compactions, created when first needed.
+	 */
+	ExecutorService compactor;
+	
+	/**
+	 * True while a background compaction is scheduled or running.
+	 */
+	boolean compactionPending;
+	
+	/**
+	 * Length of every indexed document, in keywords, recorded by loadKeyWords for
+	 * ranked search.
+	 */
+	ConcurrentHashMap<String,Integer> documentLengths;
+	
+	/**
+	 * Id of every document loadKeyWords has seen, numbered from 0 in the order they were
+	 * first loaded, so that ranked search over keywordsIndex can keep document norms in an
+	 * array. An id is never reused, and a document keeps its id when it is loaded again.
+	 * Ids are added holding the map's lock.
+	 */
+	ConcurrentHashMap<String,Integer> documentIds;
+	
+	/**
+	 * Postings of keywordsIndex in ascending order of documentIds id, for boolean search,
+	 * kept up to date by mergeKeyWords and makeIndex.
+	 */
+	DocumentOrderIndex documentOrder;
+	
+	/**
+	 * BM25 statistics of the index, computed when makeIndex is done, and again on the
+	 * next ranked search after the index changes.
+	 */
+	volatile RankedSearch ranking;
+	
+	/**
+	 * Number of changes made to the index. Cached results are only served for the
+	 * generation they were computed from.
+	 */
+	AtomicLong generation;
+	
+	/**
+	 * Cache of search results, or null if results are not cached.
+	 */
+	volatile QueryCache queryCache;
+	
+	/**
+	 * True if the index is kept as immutable snapshots, which updates replace instead of
+	 * modifying.
+	 */
+	boolean snapshots;
+	
+	/**
+	 * Current snapshot of the index, when snapshots are on. Searches read it once, without
+	 * a lock; updates publish a new one.
+	 */
+	volatile IndexSnapshot snapshot;
+	
+	/**
+	 * Held by updates while they make and publish a new snapshot, so that they take turns.
+	 * Searches never take it.
+	 */
+	Object snapshotLock;
+	
+	/**
+	 * Number of segments a snapshot may have before newer segments are merged.
+	 */
+	static final int MAX_SEGMENTS = 8;
+	
+	/**
+	 * True if loadKeyWords records the position of every keyword, and the index keeps
+	 * them for phrase and proximity search.
+	 */
+	boolean positions;
+	
+	/**
+	 * Sorted dictionary of the index's keywords, for prefix and wildcard search. Built on
+	 * the first such search after the index changes.
+	 */
+	volatile TermDictionary dictionary;
+	
+	/**
+	 * True if makeIndex appends postings and puts the lists in order once at the end.
+	 */
+	boolean bulkBuild;
+	
+	/**
+	 * Keywords of keywordsIndex whose lists have had occurrences appended, out of order,
+	 * by a bulk makeIndex, each with the number of occurrences at the head of its list
+	 * that are in order. Null unless a bulk build is running.
+	 */
+	HashMap<String,Integer> unordered;
+	
+	/**
+	 * Approximate size of the chunks loadKeyWords splits a large document into, to
+	 * tokenize them in parallel; 0 if documents are never split.
+	 */
+	long chunkSize;
+	
+	/**
+	 * False positive rate of the Bloom filter built over each segment's keywords, or 0
+	 * if segments have none.
+	 */
+	double bloomFalsePositiveRate;
+	
+	/**
+	 * Listener that receives indexing and search metrics, or null if none are collected.
+	 * With none, each instrumented call costs a read of this field.
+	 */
+	volatile MetricsListener metrics;
+	
+	/**
+	 * Creates the keyWordsIndex and noiseWords hash tables.
+	 */
+	public LittleSearchEngine() {
+		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
+		documentOrder = new DocumentOrderIndex(keywordsIndex);
+		noiseWords = new HashMap<String,String>(100,2.0f);
+		parallelism = 1;
+		chunkSize = ChunkedTokenizer.CHUNK;
+		bloomFalsePositiveRate = 0.01;
+		indexLock = new ReentrantReadWriteLock();
+		compactionThreshold = 0.2;
+		documentLengths = new ConcurrentHashMap<String,Integer>();
+		documentIds = new ConcurrentHashMap<String,Integer>();
+		generation = new AtomicLong();
+		snapshotLock = new Object();
+	}
+	
+	/**
+	 * Sets the number of threads makeIndex uses to load and merge documents. With more
+	 * than one thread, documents are tokenized concurrently and their keywords are merged
+	 * into the index in parallel, partitioned by keyword, so that no lock is needed on the
+	 * index. The resulting index is identical to the one built with a single thread.
+	 * 
+	 * @param threads Number of indexing threads, at least 1
+	 * @throws IllegalArgumentException If threads is less than 1
+	 */
+	public void setParallelism(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1: " + threads);
+		}
+		parallelism = threads;
+	}
+	
+	/**
+	 * Chooses between keywordsIndex and the compact index as the store for merged keywords.
+	 * The compact index numbers documents and keeps each keyword's postings in two int
+	 * arrays, which takes a fraction of the memory of Occurrence lists. Searches return
+	 * document names either way. Must be called before any keywords are merged.
+	 * 
+	 * @param compact True to use the compact index, false to use keywordsIndex
+	 */
+	public void setCompactPostings(boolean compact) {
+		if (compact && compactIndex == null && !snapshots) {
+			compactIndex = newIndex();
+		} else if (!compact) {
+			compactIndex = null;
+			compressPostings = false;
+			positions = false;
+		}
+	}
+	
+	/**
+	 * Chooses whether makeIndex compresses posting lists once it has built them. Compressed
+	 * lists take a few bytes per posting instead of 8, and are decoded on demand by searches;
+	 * top5search only decodes the first few postings of each list. Turning compression on
+	 * also turns on the compact index.
+	 * 
+	 * @param compress True to compress posting lists
+	 */
+	public void setCompressedPostings(boolean compress) {
+		if (compress) {
+			setCompactPostings(true);
+		}
+		compressPostings = compress;
+	}
+	
+	/**
+	 * Chooses whether the index is kept as immutable snapshots, so that it can be searched
+	 * while it is being updated without either side waiting for the other. Each makeIndex,
+	 * addDocument or addDocuments builds a new segment, and deleteDocument marks a document
+	 * deleted, in a new snapshot that shares the unchanged segments with the current one;
+	 * the new snapshot is then published at once. A search reads the snapshot current when
+	 * it starts and sees nothing of updates published after that. Once a snapshot has more
+	 * than MAX_SEGMENTS segments, the newer ones are merged by the update that added the last.
+	 * 
+	 * Snapshots use the compact index format for their segments, compressed if
+	 * setCompressedPostings is on. Must be called before makeIndex.
+	 * 
+	 * @param on True to keep the index as snapshots
+	 */
+	public void setSnapshots(boolean on) {
+		snapshots = on;
+		if (on) {
+			// segments are built by the updates themselves
+			compactIndex = null;
+		}
+	}
+	
+	/**
+	 * Sets the listener that receives the time of each indexing phase, each document
+	 * loaded, and the latency of each top5search. Metrics are off unless a listener is
+	 * set, and cost next to nothing then.
+	 * 
+	 * @param listener Listener, or null to stop collecting metrics
+	 */
+	public void setMetricsListener(MetricsListener listener) {
+		metrics = listener;
+	}
+	
+	/**
+	 * Starts collecting metrics with a new SearchMetrics, and registers it with the
+	 * platform MBean server, so that the metrics can be watched with any JMX client. To
+	 * stop, set the metrics listener to null and unregister the metrics.
+	 * 
+	 * @return Metrics
+	 * @throws IllegalStateException If the MBean cannot be registered
+	 */
+	public SearchMetrics enableMetrics() {
+		SearchMetrics m = new SearchMetrics(this);
+		try {
+			m.register();
+		} catch (javax.management.JMException e) {
+			throw new IllegalStateException("Cannot register metrics MBean", e);
+		}
+		metrics = m;
+		return m;
+	}
+	
+	/**
+	 * Counts the posting lists of the index by size, for SearchMetrics. The sizes are read
+	 * from the lists' headers, not by decoding them, and include the postings of deleted
+	 * documents until they are removed. The index is read under the index lock, which
+	 * merges into keywordsIndex and the compact index take.
+	 * 
+	 * @param sizes Counts to add the lists to
+	 */
+	void postingSizes(SearchMetrics.Sizes sizes) {
+		IndexReader reader = reader();
+		indexLock.readLock().lock();
+		try {
+			if (reader == null) {
+				for (ArrayList<Occurrence> occs: keywordsIndex.values()) {
+					sizes.add(occs.size());
+				}
+				return;
+			}
+			for (String kw: reader.keywords()) {
+				int size = reader.size(kw);
+				if (size > 0) {
+					sizes.add(size);
+				}
+			}
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Turns bulk building on or off. With bulk building, makeIndex appends each document's
+	 * occurrences to the ends of their lists, and puts each list in order once all the
+	 * documents are in, instead of inserting every occurrence in its place as it is merged.
+	 * An insertion shifts the part of the list after it, so for keywords found in most
+	 * documents the build takes time quadratic in the number of documents; ordering a list
+	 * at once takes O(n log n). The lists end up exactly as insertLastOccurrence would
+	 * leave them, ties included. Searches run while makeIndex is still going may see lists
+	 * out of order. Documents added with addDocument are always inserted in place.
+	 * 
+	 * @param on True to build in bulk
+	 */
+	public void setBulkBuild(boolean on) {
+		bulkBuild = on;
+	}
+	
+	/**
+	 * Sets how loadKeyWords splits very large documents. A document at least twice the
+	 * chunk size is cut, at whitespace, into chunks of about that size, which are
+	 * tokenized in parallel on the common fork/join pool, or one after another when the
+	 * document is loaded on an indexing worker, and combined into the same keywords,
+	 * counts and positions a single scan gives. The default is 32 MB.
+	 * 
+	 * @param bytes Approximate chunk size in bytes, or 0 to never split documents
+	 * @throws IllegalArgumentException If bytes is negative
+	 */
+	public void setChunkSize(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("Chunk size must not be negative: " + bytes);
+		}
+		chunkSize = bytes;
+	}
+	
+	/**
+	 * Sets the false positive rate of the Bloom filters over segment keywords. Each
+	 * segment of a snapshot, and each segment file written by saveIndex or a bounded
+	 * makeIndex, gets a filter, so a search for a keyword a segment does not have usually
+	 * skips the segment without looking in its dictionary. A filter takes about
+	 * 1.44 * log2(1 / rate) bits per keyword: 1.2 bytes at the default of 1%, 1.8 bytes
+	 * at 0.1%. A new rate applies only to segments built or written afterwards: the
+	 * segments already published keep the filters they have, or have none, until they
+	 * are merged into new ones.
+	 * 
+	 * @param falsePositiveRate Rate, between 0 and 1, or 0 for no filters
+	 * @throws IllegalArgumentException If falsePositiveRate is not 0 and not between 0 and 1
+	 */
+	public void setBloomFilter(double falsePositiveRate) {
+		if (falsePositiveRate != 0 && !(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("False positive rate must be 0 or between 0 and 1: " + falsePositiveRate);
+		}
+		bloomFalsePositiveRate = falsePositiveRate;
+	}
+	
+	/**
+	 * Returns the number of bytes taken by the Bloom filters of the index's segments.
+	 * 
+	 * @return Filter bytes, or 0 if the segments have none
+	 */
+	public long bloomFilterBytes() {
+		IndexReader reader = reader();
+		long n = 0;
+		if (reader instanceof IndexSnapshot) {
+			for (CompactIndex segment: ((IndexSnapshot)reader).segments) {
+				if (segment.filter != null) {
+					n += segment.filter.bytes();
+				}
+			}
+		} else if (reader instanceof IndexSegment && ((IndexSegment)reader).filter != null) {
+			n = ((IndexSegment)reader).filter.bytes();
+		}
+		return n;
+	}
+	
+	/**
+	 * Chooses whether the index keeps the position of every keyword in every document,
+	 * so that phraseSearch and nearSearch can match words by position instead of
+	 * reading the documents again. Positions are delta encoded, about one byte each;
+	 * positionBytes reports what they take. Without them, loadKeyWords and the index do
+	 * no extra work. Turning positions on also turns on the compact index. Must be called
+	 * before makeIndex.
+	 * 
+	 * @param on True to keep positions
+	 */
+	public void setPositions(boolean on) {
+		positions = on;
+		if (on) {
+			setCompactPostings(true);
+			if (compactIndex != null) {
+				compactIndex.keepPositions();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes taken by keyword positions, including their document
+	 * ids and offsets.
+	 * 
+	 * @return Position bytes, or 0 if positions are off
+	 */
+	public long positionBytes() {
+		IndexReader reader = reader();
+		if (reader instanceof IndexSnapshot) {
+			long n = 0;
+			for (CompactIndex segment: ((IndexSnapshot)reader).segments) {
+				n += segment.positionBytes();
+			}
+			return n;
+		}
+		return reader instanceof CompactIndex ? ((CompactIndex)reader).positionBytes() : 0;
+	}
+	
+	/**
+	 * Creates an empty compact index, keeping positions if they are on.
+	 */
+	private CompactIndex newIndex() {
+		CompactIndex index = new CompactIndex();
+		if (positions) {
+			index.keepPositions();
+		}
+		return index;
+	}
+	
+	/**
+	 * Turns on caching of search results, replacing any cache already in use. Results of
+	 * top5search, topK, wildcardSearch, fuzzySearch, rankedSearch, booleanSearch,
+	 * phraseSearch and nearSearch are kept until the cache is full, then the least recently
+	 * used are evicted. Any change to the index, through mergeKeyWords, makeIndex, the
+	 * incremental updates or openIndex, makes all cached results stale, so a search never
+	 * returns a result the current index would not.
+	 * 
+	 * @param maxEntries Maximum number of cached results, or 0 to turn caching off
+	 * @param maxBytes Maximum estimated size of the cached results in bytes
+	 * @throws IllegalArgumentException If maxEntries is negative, or maxBytes is less than 1
+	 */
+	public void setQueryCache(int maxEntries, long maxBytes) {
+		if (maxEntries < 0) {
+			throw new IllegalArgumentException("Cache entries must not be negative: " + maxEntries);
+		}
+		queryCache = maxEntries == 0 ? null : new QueryCache(maxEntries, maxBytes);
+	}
+	
+	/**
+	 * Returns the cache of search results, for its hit and miss statistics.
+	 * 
+	 * @return Query cache, or null if results are not cached
+	 */
+	public QueryCache queryCache() {
+		return queryCache;
+	}
+	
+	/**
+	 * Sets the filter used to recognize noise words, in place of the one built from
+	 * the noise words file.
+	 * 
+	 * @param filter Noise word filter
+	 */
+	public synchronized void setStopWordFilter(StopWordFilter filter) {
+		stopWords = filter;
+		customStopWords = true;
+		terms = null;
+	}
+	
+	/**
+	 * This method indexes all keywords found in all the input documents. When this
+	 * method is done, the keywordsIndex hash table will be filled with all keywords,
+	 * each of which is associated with an array list of Occurrence objects, arranged
+	 * in decreasing frequencies of occurrence.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile) 
+	throws FileNotFoundException {
+		// load noise words to hash table
+		loadNoiseWords(noiseWordsFile);
+		
+		if (snapshots) {
+			// build a new segment, while searches go on against the published snapshot
+			synchronized (snapshotLock) {
+				compactIndex = newIndex();
+				try {
+					indexDocuments(docsFile);
+					publish(compactIndex);
+				} finally {
+					compactIndex = null;
+				}
+			}
+		} else {
+			indexDocuments(docsFile);
+			indexChanged();
+		}
+		ranking = computeRanking(reader());
+	}
+	
+	/**
+	 * Builds the index within a memory budget, for document sets whose index does not
+	 * fit in the heap, and opens it as openIndex does. Postings are gathered in memory
+	 * until their estimated size passes the budget, then sorted and spilled to a
+	 * temporary run file beside the segment file; when all documents are loaded, the
+	 * runs are merged into the segment. The segment is the same one makeIndex with
+	 * compact postings followed by saveIndex would write. Keyword positions are not kept.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param segmentFile Name of the segment file; replaced if it exists
+	 * @param memoryBudget Estimated heap, in bytes, postings may take before they are spilled
+	 * @throws IOException If an input file cannot be read, or the runs or segment cannot be written
+	 * @throws IllegalArgumentException If memoryBudget is not positive
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile, String segmentFile, long memoryBudget) 
+	throws IOException {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+		}
+		loadNoiseWords(noiseWordsFile);
+		File file = new File(segmentFile).getAbsoluteFile();
+		new SpimiIndexer(this, memoryBudget, file.getParentFile()).index(readDocNames(docsFile), file);
+		openIndex(segmentFile);
+	}
+	
+	/**
+	 * Indexes all documents listed in the docs file into keywordsIndex or the compact index.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	private void indexDocuments(String docsFile) 
+	throws FileNotFoundException {
+		// index all keywords
+		if (parallelism > 1) {
+			new ParallelIndexer(this, parallelism).index(readDocNames(docsFile));
+		} else {
+			if (bulkBuild) {
+				if (compactIndex != null) {
+					compactIndex.startBulk();
+				} else {
+					unordered = new HashMap<String,Integer>();
+				}
+			}
+			try {
+				Scanner sc = new Scanner(new File(docsFile));
+				while (sc.hasNext()) {
+					String docFile = sc.next();
+					HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+					MetricsListener m = metrics;
+					long start = m == null ? 0 : System.nanoTime();
+					mergeKeyWords(kws);
+					if (m != null) {
+						m.phaseTimed(MetricsListener.Phase.MERGE, System.nanoTime() - start);
+					}
+				}
+			} finally {
+				// even after a failure, leave what was merged in order
+				MetricsListener m = metrics;
+				long start = m == null ? 0 : System.nanoTime();
+				if (compactIndex != null) {
+					compactIndex.finishBulk();
+				} else if (unordered != null) {
+					for (Map.Entry<String,Integer> e: unordered.entrySet()) {
+						insertAllOccurrences(keywordsIndex.get(e.getKey()), e.getValue());
+					}
+					unordered = null;
+				}
+				if (m != null && bulkBuild) {
+					m.phaseTimed(MetricsListener.Phase.SORT, System.nanoTime() - start);
+				}
+			}
+		}
+		if (compactIndex != null) {
+			indexLock.writeLock().lock();
+			try {
+				if (compressPostings) {
+					compactIndex.compress();
+				} else {
+					compactIndex.trim();
+				}
+			} finally {
+				indexLock.writeLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Loads the noise words file into the noiseWords hash table.
+	 * 
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 */
+	void loadNoiseWords(String noiseWordsFile) 
+	throws FileNotFoundException {
+		MetricsListener m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) {
+			String word = sc.next();
+			noiseWords.put(word,word);
+		}
+		synchronized (this) {
+			if (!customStopWords) {
+				stopWords = null;
+			}
+			terms = null;
+		}
+		if (m != null) {
+			m.phaseTimed(MetricsListener.Phase.NOISE_WORDS, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Reads the names of all documents listed in the docs file, in the order listed.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @return Document file names
+	 * @throws FileNotFoundException If the docs file is not found on disk
+	 */
+	ArrayList<String> readDocNames(String docsFile) 
+	throws FileNotFoundException {
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			docs.add(sc.next());
+		}
+		return docs;
+	}
+
+	/**
+	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
+	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * If positions are on, each occurrence also gets the positions of its keyword.
+	 * 
+	 * @param docFile Name of the document file to be scanned and loaded
+	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public HashMap<String,Occurrence> loadKeyWords(String docFile) 
+	throws FileNotFoundException {
+		// COMPLETE THIS METHOD
+		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
+		HashMap<String, Occurrence> keyWords = new HashMap<String, Occurrence>();
+		int length = 0;
+		boolean keepPositions = positions;
+		MetricsListener m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		int id = documentId(docFile);
+		
+		if (KeywordTokenizer.isSupported() && chunkSize > 0 && new File(docFile).length() >= 2*chunkSize){
+			// a very large document: tokenize its chunks in parallel
+			ChunkedTokenizer.Result all = new ChunkedTokenizer(this, chunkSize).load(docFile, keepPositions);
+			if (!all.malformed) {
+				documentLengths.put(docFile, all.length);
+				for (Occurrence occ: all.keywords.values()) {
+					occ.id = id;
+				}
+				if (m != null) {
+					m.phaseTimed(MetricsListener.Phase.TOKENIZE, System.nanoTime() - start);
+					m.documentLoaded(docFile, all.words, all.length);
+				}
+				return all.keywords;
+			}
+		}
+		else if (KeywordTokenizer.isSupported()){
+			KeywordTokenizer tokenizer = new KeywordTokenizer(this, docFile);
+			String word;
+			while ((word = tokenizer.nextKeyWord()) != null){
+				length++;
+				Occurrence occ = keyWords.get(word);
+				if (occ != null){
+					occ.frequency++;
+				}
+				else{
+					occ = new Occurrence(docFile, 1);
+					occ.id = id;
+					keyWords.put(word, occ);
+				}
+				if (keepPositions){
+					occ.addPosition(tokenizer.position);
+				}
+			}
+			if (!tokenizer.malformed){
+				documentLengths.put(docFile, length);
+				if (m != null) {
+					m.phaseTimed(MetricsListener.Phase.TOKENIZE, System.nanoTime() - start);
+					m.documentLoaded(docFile, tokenizer.words, length);
+				}
+				return keyWords;
+			}
+			keyWords.clear();
+			length = 0;
+		}
+		
+		// no byte level tokenizing in this JVM, or input that is malformed in the default
+		// charset, where only Scanner itself knows which words it reads
+		Scanner sc = new Scanner(new File(docFile));
+		int words = 0;
+		while (sc.hasNext()){
+			String word = sc.next();
+			word = getKeyWord(word);
+			words++;
+			if(word != null){
+				length++;
+				Occurrence visited = keyWords.get(word);
+				if(visited != null){
+					visited.frequency++;
+				}
+				else{
+					visited = new Occurrence(docFile, 1);
+					visited.id = id;
+					keyWords.put(word, visited);
+				}
+				if (keepPositions){
+					visited.addPosition(words - 1);
+				}
+			}
+		}
+		documentLengths.put(docFile, length);
+		if (m != null) {
+			m.phaseTimed(MetricsListener.Phase.TOKENIZE, System.nanoTime() - start);
+			m.documentLoaded(docFile, words, length);
+		}
+		return keyWords;
+	}
+	
+	/**
+	 * Returns the id of a document, numbering it if it has none.
+	 * 
+	 * @param docFile Document name
+	 * @return Id in documentIds
+	 */
+	int documentId(String docFile) {
+		Integer id = documentIds.get(docFile);
+		if (id == null) {
+			synchronized (documentIds) {
+				id = documentIds.get(docFile);
+				if (id == null) {
+					id = documentIds.size();
+					documentIds.put(docFile, id);
+				}
+			}
+		}
+		return id;
+	}
+	
+	/**
+	 * Merges the keywords for a single document into the master keywordsIndex
+	 * hash table. For each keyword, its Occurrence in the current document
+	 * must be inserted in the correct place (according to descending order of
+	 * frequency) in the same keyword's Occurrence list in the master hash table. 
+	 * This is done by calling the insertLastOccurrence method.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	public void mergeKeyWords(HashMap<String,Occurrence> kws) {
+		// COMPLETE THIS METHOD
+		if (snapshots) {
+			synchronized (snapshotLock) {
+				if (compactIndex != null) {
+					// makeIndex is building a segment on this thread
+					compactIndex.merge(kws);
+				} else if (!kws.isEmpty()) {
+					CompactIndex added = newIndex();
+					added.merge(kws);
+					publish(added);
+				}
+			}
+			return;
+		}
+		indexLock.writeLock().lock();
+		try {
+			if (compactIndex != null){
+				compactIndex.merge(kws);
+			} else {
+				mergeOccurrences(kws);
+			}
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+		// after the change, so a search that read the old generation is never cached under the new one
+		indexChanged();
+	}
+	
+	/**
+	 * Merges the keywords for a single document into keywordsIndex, and into the
+	 * document order lists kept with it.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	private void mergeOccurrences(HashMap<String,Occurrence> kws) {
+		for (Occurrence occ: kws.values()){
+			if (occ.id < 0){
+				// not from loadKeyWords: number its document once, here, not per search
+				occ.id = documentId(occ.document);
+			}
+		}
+		if (unordered != null){
+			// bulk makeIndex: append, and order the lists when all documents are in
+			for (Map.Entry<String,Occurrence> e: kws.entrySet()){
+				ArrayList<Occurrence> occs = keywordsIndex.get(e.getKey());
+				if (occs == null){
+					occs = new ArrayList<Occurrence>();
+					keywordsIndex.put(e.getKey(), occs);
+				}
+				if (!unordered.containsKey(e.getKey())){
+					unordered.put(e.getKey(), occs.size());
+				}
+				occs.add(e.getValue());
+				documentOrder.add(e.getKey(), e.getValue());
+			}
+			return;
+		}
+		ArrayList<Occurrence> iloList = new ArrayList<Occurrence>();
+		
+		for(String ck: kws.keySet()){
+			Occurrence now = kws.get(ck);
+			
+			if(keywordsIndex.containsKey(ck)){
+				iloList = keywordsIndex.get(ck);
+				iloList.add(now);
+				insertLastOccurrence(iloList);
+				keywordsIndex.put(ck, iloList);
+			}
+			else{
+				ArrayList<Occurrence> oList = new ArrayList<Occurrence>();
+				oList.add(now);
+				keywordsIndex.put(ck, oList);
+			}
+			documentOrder.add(ck, now);
+		}
+	}
+	
+	/**
+	 * Given a word, returns it as a keyword if it passes the keyword test,
+	 * otherwise returns null. A keyword is any word that, after being stripped of any
+	 * TRAILING punctuation, consists only of alphabetic letters, and is not
+	 * a noise word. All words are treated in a case-INsensitive manner.
+	 * 
+	 * Punctuation characters are the following: '.', ',', '?', ':', ';' and '!'
+	 * 
+	 * @param word Candidate word
+	 * @return Keyword (word without trailing punctuation, LOWER CASE)
+	 */
+	public String getKeyWord(String word) {
+		// COMPLETE THIS METHOD
+		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
+		word = word.trim();
+		word = word.toLowerCase();
+		char lc = word.charAt(word.length()-1);
+		
+		while ((lc == '.') || (lc == ',') || (lc == '?') || (lc == ':') || (lc == ';') || (lc == '!')){
+			word = word.substring(0, word.length()-1);
+			if (word.length() > 1){
+				lc = word.charAt(word.length()-1);
+			}
+			else{
+				break;
+			}
+		}
+		
+		for (int x = 0; x < word.length(); x++){
+			if (!Character.isLetter(word.charAt(x))){
+				return null;
+			}
+		}
+		
+		if (isNoiseWord(word)){
+			return null;
+		}
+
+		return word;
+	}
+	
+	/**
+	 * Tells whether a word is a noise word. The test is case-INsensitive.
+	 * 
+	 * @param word Word to test
+	 * @return True if word is a noise word, false otherwise
+	 */
+	boolean isNoiseWord(String word) {
+		return stopWordFilter().isStopWord(word);
+	}
+	
+	/**
+	 * Returns the noise word filter, building it from noiseWords if needed.
+	 * 
+	 * @return Noise word filter
+	 */
+	StopWordFilter stopWordFilter() {
+		StopWordFilter filter = stopWords;
+		if (filter == null || (!customStopWords && filterSize != noiseWords.size())) {
+			synchronized (this) {
+				if (stopWords == null || (!customStopWords && filterSize != noiseWords.size())) {
+					filterSize = noiseWords.size();
+					stopWords = new HashStopWordFilter(noiseWords.keySet());
+				}
+				filter = stopWords;
+			}
+		}
+		return filter;
+	}
+	
+	/**
+	 * Returns the table of all words seen by the tokenizer, creating it if needed.
+	 * 
+	 * @return Term table
+	 */
+	synchronized TermTable terms() {
+		StopWordFilter filter = stopWordFilter();
+		if (terms == null || terms.filter != filter) {
+			terms = new TermTable(filter);
+		}
+		return terms;
+	}
+	
+	/**
+	 * Inserts the last occurrence in the parameter list in the correct position in the
+	 * same list, based on ordering occurrences on descending frequencies. The elements
+	 * 0..n-2 in the list are already in the correct order. Insertion of the last element
+	 * (the one at index n-1) is done by first finding the correct spot using binary search, 
+	 * then inserting at that spot.
+	 * 
+	 * @param occs List of Occurrences
+	 * @return Sequence of mid point indexes in the input list checked by the binary search process,
+	 *         null if the size of the input list is 1. This returned array list is only used to test
+	 *         your code - it is not used elsewhere in the program.
+	 */
+	public ArrayList<Integer> insertLastOccurrence(ArrayList<Occurrence> occs) {
+		// COMPLETE THIS METHOD
+		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
+		if (occs.size() == 1){
+			return null;
+		}
+		int lF = occs.get(occs.size()-1).frequency;
+		Occurrence hold = occs.get(occs.size()-1);
+		int low = 0;
+		int high = occs.size()-1;
+		int mid;
+		boolean found = false;
+		ArrayList<Integer> mids = new ArrayList<Integer>();
+		
+		while(low <= high){
+			mid = (low + high) / 2;
+			mids.add(mid);
+			
+			if(lF > occs.get(mid).frequency){
+				high = mid-1;
+			}
+			else if(lF < occs.get(mid).frequency){
+				low = mid+1;
+			}
+			else{
+				found = true;
+				break;
+			}
+		}
+		
+		// an equal frequency was found at the last mid point; otherwise the spot is where
+		// the search closed, after every larger frequency
+		int spot = found ? mids.get(mids.size()-1) : low;
+		occs.add(spot, hold);
+		occs.remove(occs.size()-1);
+		
+		return mids;
+	}
+	
+	/**
+	 * Puts occurrences appended to the end of a list where insertLastOccurrence would
+	 * have put them, had it been called after each one.
+	 * 
+	 * @param occs List of occurrences
+	 * @param sorted Number of occurrences at the head of the list that are already in order
+	 */
+	static void insertAllOccurrences(ArrayList<Occurrence> occs, int sorted) {
+		int n = occs.size();
+		if (n - sorted < 1 || n < 2) {
+			return;
+		}
+		int[] freqs = new int[n];
+		for (int i=0; i < n; i++) {
+			freqs[i] = occs.get(i).frequency;
+		}
+		int[] order = PostingList.insertionOrder(freqs, sorted, n);
+		Occurrence[] appended = occs.toArray(new Occurrence[n]);
+		for (int i=0; i < n; i++) {
+			occs.set(i, appended[order[i]]);
+		}
+	}
+	
+	/**
+	 * Returns the occurrences of a keyword, in descending order of frequency. With the
+	 * compact index, only the first limit occurrences are materialized; otherwise the
+	 * keyword's full list in keywordsIndex is returned.
+	 * 
+	 * @param reader Index to read, from reader(), or null to read keywordsIndex
+	 * @param kw Keyword
+	 * @param limit Number of occurrences the caller needs
+	 * @return Occurrences, or null if the keyword is not in the index
+	 */
+	ArrayList<Occurrence> occurrences(IndexReader reader, String kw, int limit) {
+		if (reader != null) {
+			indexLock.readLock().lock();
+			try {
+				PostingList list = reader.postings(kw, limit);
+				return list == null ? null : list.toOccurrences(reader, limit);
+			} finally {
+				indexLock.readLock().unlock();
+			}
+		}
+		return keywordsIndex.get(kw);
+	}
+	
+	/**
+	 * Adds a document to a built index, without reindexing the other documents. If a
+	 * document with the same name is already in the index, it is replaced. Noise words
+	 * must have been loaded, by makeIndex or loadNoiseWords.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws IllegalStateException If the index is not a compact index
+	 */
+	public void addDocument(String docFile) 
+	throws FileNotFoundException {
+		if (snapshots) {
+			addDocuments(Collections.singletonList(docFile));
+			return;
+		}
+		CompactIndex index = updatableIndex();
+		HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+		MetricsListener m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		indexLock.writeLock().lock();
+		try {
+			index.delete(docFile);
+			index.merge(kws);
+			indexChanged();
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+		if (m != null) {
+			m.phaseTimed(MetricsListener.Phase.MERGE, System.nanoTime() - start);
+		}
+		scheduleCompaction();
+	}
+	
+	/**
+	 * Adds several documents to a built index, as addDocument does. With snapshots, the
+	 * documents go into one new segment, and searches see either none of them or all. A
+	 * document listed more than once is added once.
+	 * 
+	 * @param docFiles Names of the document files
+	 * @throws FileNotFoundException If a document file is not found on disk; no document
+	 *         is added then if snapshots are on
+	 * @throws IllegalStateException If the index is not a compact index
+	 */
+	public void addDocuments(Collection<String> docFiles) 
+	throws FileNotFoundException {
+		if (!snapshots) {
+			for (String docFile: docFiles) {
+				addDocument(docFile);
+			}
+			return;
+		}
+		if (segment != null) {
+			throw new IllegalStateException("An opened index segment is read-only");
+		}
+		CompactIndex added = newIndex();
+		ArrayList<String> empty = new ArrayList<String>();
+		// a name listed twice would otherwise get two ids, and two postings per keyword
+		for (String docFile: new LinkedHashSet<String>(docFiles)) {
+			HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+			if (kws.isEmpty()) {
+				// nothing to add, but an older version must still go
+				empty.add(docFile);
+			} else {
+				added.merge(kws);
+			}
+		}
+		if (compressPostings) {
+			added.compress();
+		} else {
+			added.trim();
+		}
+		synchronized (snapshotLock) {
+			IndexSnapshot s = snapshot;
+			for (String docFile: empty) {
+				if (s != null) {
+					s = s.delete(docFile);
+				}
+			}
+			if (added.documentCount() > 0) {
+				s = s == null ? new IndexSnapshot(added) : s.add(added);
+			}
+			publish(s);
+		}
+		scheduleCompaction();
+	}
+	
+	/**
+	 * Replaces a document in a built index with the current contents of its file.
+	 * This is the same as addDocument, which replaces a document it already has.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws IllegalStateException If the index is not a compact index
+	 */
+	public void replaceDocument(String docFile) 
+	throws FileNotFoundException {
+		addDocument(docFile);
+	}
+	
+	/**
+	 * Deletes a document from a built index. The document stops appearing in search
+	 * results at once; its postings are reclaimed by a later compaction, which is started
+	 * in the background once deleted postings pass the compaction threshold.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document was in the index, false otherwise
+	 * @throws IllegalStateException If the index is not a compact index
+	 */
+	public boolean deleteDocument(String docFile) {
+		boolean found;
+		if (snapshots) {
+			synchronized (snapshotLock) {
+				IndexSnapshot s = snapshot;
+				found = s != null && s.id(docFile) >= 0;
+				if (found) {
+					documentLengths.remove(docFile);
+					publish(s.delete(docFile));
+				}
+			}
+			scheduleCompaction();
+			return found;
+		}
+		CompactIndex index = updatableIndex();
+		indexLock.writeLock().lock();
+		try {
+			found = index.delete(docFile);
+			if (found) {
+				documentLengths.remove(docFile);
+				indexChanged();
+			}
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+		scheduleCompaction();
+		return found;
+	}
+	
+	/**
+	 * Removes the postings of all deleted documents from the index. Each keyword is
+	 * compacted under its own short hold of the write lock, so searches are not held up
+	 * for the whole compaction.
+	 */
+	public void compactDeletes() {
+		if (snapshots) {
+			synchronized (snapshotLock) {
+				IndexSnapshot s = snapshot;
+				if (s != null && !s.deleted.isEmpty()) {
+					publish(s.merge(0, compressPostings));
+				}
+			}
+			return;
+		}
+		CompactIndex index = compactIndex;
+		if (index == null) {
+			return;
+		}
+		BitSet gone;
+		ArrayList<String> kws;
+		indexLock.readLock().lock();
+		try {
+			gone = (BitSet)index.deleted.clone();
+			kws = new ArrayList<String>(index.keywords());
+		} finally {
+			indexLock.readLock().unlock();
+		}
+		if (gone.isEmpty()) {
+			return;
+		}
+		for (String kw: kws) {
+			indexLock.writeLock().lock();
+			try {
+				index.compactKeyword(kw, gone);
+			} finally {
+				indexLock.writeLock().unlock();
+			}
+		}
+		indexLock.writeLock().lock();
+		try {
+			index.clearDeleted(gone);
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Sets the fraction of postings that may belong to deleted documents before a
+	 * background compaction is started.
+	 * 
+	 * @param fraction Fraction of postings, between 0 and 1
+	 */
+	public void setCompactionThreshold(double fraction) {
+		if (fraction < 0 || fraction > 1) {
+			throw new IllegalArgumentException("Compaction threshold must be between 0 and 1: " + fraction);
+		}
+		compactionThreshold = fraction;
+	}
+	
+	/**
+	 * Returns the compact index, for incremental updates.
+	 * 
+	 * @return Compact index
+	 * @throws IllegalStateException If the index is kept in keywordsIndex or is an opened segment
+	 */
+	private CompactIndex updatableIndex() {
+		if (segment != null) {
+			throw new IllegalStateException("An opened index segment is read-only");
+		}
+		if (compactIndex == null) {
+			throw new IllegalStateException("Incremental updates need the compact index; call setCompactPostings(true) before makeIndex");
+		}
+		return compactIndex;
+	}
+	
+	/**
+	 * Starts a background compaction if deleted postings have passed the threshold and
+	 * one is not already pending.
+	 */
+	private void scheduleCompaction() {
+		if (snapshots) {
+			// deleted documents rather than postings, which a snapshot does not count
+			IndexSnapshot s = snapshot;
+			if (s == null || s.documentCount == 0 || s.deleted.cardinality() <= compactionThreshold * s.documentCount) {
+				return;
+			}
+		} else {
+			CompactIndex index = compactIndex;
+			indexLock.readLock().lock();
+			try {
+				long total = index.totalPostings;
+				if (total == 0 || index.deletedPostings <= compactionThreshold * total) {
+					return;
+				}
+			} finally {
+				indexLock.readLock().unlock();
+			}
+		}
+		synchronized (this) {
+			if (compactionPending) {
+				return;
+			}
+			compactionPending = true;
+			if (compactor == null) {
+				compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "LittleSearchEngine-compactor");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+		}
+		compactor.execute(new Runnable() {
+			public void run() {
+				try {
+					compactDeletes();
+				} finally {
+					synchronized (LittleSearchEngine.this) {
+						compactionPending = false;
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwn". A document is in the result set if any of
+	 * the keywords occurs in it. As with top5search, the result set is arranged in descending
+	 * order of occurrence frequencies, a matching document appears only once, and ties in
+	 * frequency are broken in favor of the keyword that comes first in the list.
+	 * 
+	 * The keywords' lists are merged through a heap, and the merge stops as soon as it has
+	 * k documents, so only the first few occurrences of each list are ever read.
+	 * 
+	 * @param terms Keywords, in order of precedence for ties
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of up to k documents in which any of the keywords occurs, arranged
+	 *         in descending order of frequencies. If there are no matching documents, the result is null.
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> topK(List<String> terms, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		ArrayList<String> kws = new ArrayList<String>(terms.size());
+		for (String term: terms) {
+			String kw = term.toLowerCase();
+			if (!kws.contains(kw)) {
+				kws.add(kw);
+			}
+		}
+		String key = "topK " + k + "\0" + String.join("\0", kws);
+		long gen = generation.get();
+		QueryCache.Entry hit = cached(key, gen);
+		if (hit != null) {
+			return hit.copy();
+		}
+		ArrayList<String> result = mergeTopK(kws, k);
+		return cache(key, gen, result.isEmpty() ? null : result);
+	}
+	
+	/**
+	 * Merges the lists of distinct keywords into the top k documents, as topK does.
+	 * 
+	 * @param kws Keywords, lower case, without duplicates, in order of precedence for ties
+	 * @param k Maximum number of documents
+	 * @return Names of up to k documents, possibly none
+	 */
+	private ArrayList<String> mergeTopK(List<String> kws, int k) {
+		ArrayList<TopKSearch.Cursor> cursors = new ArrayList<TopKSearch.Cursor>(kws.size());
+		ArrayList<String> result;
+		IndexReader reader = reader();
+		if (reader != null) {
+			// each list can give at most k new documents, and k already taken from other lists
+			int limit = k > Integer.MAX_VALUE/2 ? Integer.MAX_VALUE : 2*k;
+			indexLock.readLock().lock();
+			try {
+				for (int i=0; i < kws.size(); i++) {
+					PostingList list = reader.postings(kws.get(i), limit);
+					if (list != null) {
+						TopKSearch.Cursor c = new TopKSearch.PostingCursor(list, reader);
+						c.term = i;
+						cursors.add(c);
+					}
+				}
+				result = TopKSearch.merge(cursors, k);
+			} finally {
+				indexLock.readLock().unlock();
+			}
+		} else {
+			for (int i=0; i < kws.size(); i++) {
+				ArrayList<Occurrence> occs = keywordsIndex.get(kws.get(i));
+				if (occs != null) {
+					TopKSearch.Cursor c = new TopKSearch.OccurrenceCursor(occs);
+					c.term = i;
+					cursors.add(c);
+				}
+			}
+			result = TopKSearch.merge(cursors, k);
+		}
+		return result;
+	}
+	
 	/**
-	 * Document in which a keyword occurs.
+	 * Search result for "kw1 or kw2 or ... or kwn" where any keyword may end with a '*'
+	 * wildcard, as in "rabb*", standing for every keyword in the index that starts with
+	 * what comes before it. Each pattern is replaced by its matching keywords, in sorted
+	 * order, and the lists of all keywords are merged as in topK: a matching document
+	 * appears only once, and ties in frequency go to the keyword from the earlier pattern,
+	 * then to the keyword that sorts first.
+	 * 
+	 * Patterns are expanded through a sorted term dictionary, which finds the keywords with a
+	 * prefix in time proportional to their number, not to the size of the index.
+	 * 
+	 * @param terms Keywords and patterns, in order of precedence for ties
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of up to k documents in which any of the keywords occurs, arranged
+	 *         in descending order of frequencies. If there are no matching documents, the result is null.
+	 * @throws IllegalArgumentException If k is less than 1, or a term has a '*' other than at its end
 	 */
-	String document;
+	public ArrayList<String> wildcardSearch(List<String> terms, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		ArrayList<String> patterns = new ArrayList<String>(terms.size());
+		for (String term: terms) {
+			String pattern = term.toLowerCase();
+			int star = pattern.indexOf('*');
+			if (star >= 0 && star != pattern.length() - 1) {
+				throw new IllegalArgumentException("Only a trailing '*' is supported: " + term);
+			}
+			if (!patterns.contains(pattern)) {
+				patterns.add(pattern);
+			}
+		}
+		String key = "wildcard " + k + "\0" + String.join("\0", patterns);
+		long gen = generation.get();
+		QueryCache.Entry hit = cached(key, gen);
+		if (hit != null) {
+			return hit.copy();
+		}
+		TermDictionary dict = null;
+		LinkedHashSet<String> kws = new LinkedHashSet<String>();
+		for (String pattern: patterns) {
+			if (pattern.endsWith("*")) {
+				if (dict == null) {
+					dict = termDictionary();
+				}
+				kws.addAll(dict.prefix(pattern.substring(0, pattern.length() - 1), Integer.MAX_VALUE));
+			} else {
+				kws.add(pattern);
+			}
+		}
+		ArrayList<String> result = mergeTopK(new ArrayList<String>(kws), k);
+		return cache(key, gen, result.isEmpty() ? null : result);
+	}
 	
 	/**
-	 * The frequency (number of times) the keyword occurs in the above document.
+	 * Search result for "kw1 or kw2 or ... or kwn" that tolerates misspelled keywords. Each
+	 * word stands for every keyword in the index within maxEdits insertions, deletions or
+	 * substitutions of a letter of it, so "rabit" finds "rabbit". The matching keywords of
+	 * each word, fewest edits first, then in sorted order, are merged as in topK: a matching
+	 * document appears only once, and ties in frequency go to the keyword from the earlier
+	 * word, then to the closer keyword.
+	 * 
+	 * Words are matched through a Levenshtein automaton run over the sorted term dictionary,
+	 * which skips every range of keywords that cannot match, instead of computing the edit
+	 * distance to every keyword in the index.
+	 * 
+	 * @param terms Words, in order of precedence for ties
+	 * @param maxEdits Maximum number of edits, from 0 to 2
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of up to k documents in which any of the matching keywords occurs,
+	 *         arranged in descending order of frequencies. If there are no matching documents,
+	 *         the result is null.
+	 * @throws IllegalArgumentException If k is less than 1, or maxEdits is out of range
 	 */
-	int frequency;
+	public ArrayList<String> fuzzySearch(List<String> terms, int maxEdits, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		ArrayList<FuzzySearch> words = new ArrayList<FuzzySearch>(terms.size());
+		ArrayList<String> seen = new ArrayList<String>(terms.size());
+		for (String term: terms) {
+			String word = term.toLowerCase();
+			if (!seen.contains(word)) {
+				seen.add(word);
+				words.add(new FuzzySearch(word, maxEdits));
+			}
+		}
+		String key = "fuzzy " + maxEdits + " " + k + "\0" + String.join("\0", seen);
+		long gen = generation.get();
+		QueryCache.Entry hit = cached(key, gen);
+		if (hit != null) {
+			return hit.copy();
+		}
+		TermDictionary dict = termDictionary();
+		LinkedHashSet<String> kws = new LinkedHashSet<String>();
+		for (FuzzySearch word: words) {
+			kws.addAll(word.expand(dict, Integer.MAX_VALUE));
+		}
+		ArrayList<String> result = mergeTopK(new ArrayList<String>(kws), k);
+		return cache(key, gen, result.isEmpty() ? null : result);
+	}
 	
 	/**
-	 * Initializes this occurrence with the given document,frequency pair.
+	 * Returns the keywords in the index within a number of edits of a word, fewest edits
+	 * first, then in sorted order.
 	 * 
-	 * @param doc Document name
-	 * @param freq Frequency
+	 * @param word Word; case does not matter
+	 * @param maxEdits Maximum number of edits, from 0 to 2
+	 * @param limit Maximum number of keywords to return
+	 * @return Up to limit matching keywords
+	 * @throws IllegalArgumentException If maxEdits is out of range
 	 */
-	public Occurrence(String doc, int freq) {
-		document = doc;
-		frequency = freq;
+	public ArrayList<String> expandFuzzy(String word, int maxEdits, int limit) {
+		return new FuzzySearch(word.toLowerCase(), maxEdits).expand(termDictionary(), limit);
 	}
 	
-	/* (non-Javadoc)
-	 * @see java.lang.Object#toString()
+	/**
+	 * Returns the keywords in the index that start with a prefix, in sorted order.
+	 * 
+	 * @param prefix Prefix; case does not matter
+	 * @param limit Maximum number of keywords to return
+	 * @return Up to limit matching keywords
 	 */
-	public String toString() {
-		return "(" + document + "," + frequency + ")";
+	public ArrayList<String> expandPrefix(String prefix, int limit) {
+		return termDictionary().prefix(prefix.toLowerCase(), limit);
 	}
-}
-
-/**
- * This class builds an index of keywords. Each keyword maps to a set of documents in
- * which it occurs, with frequency of occurrence in each document. Once the index is built,
- * the documents can searched on for keywords.
- *
- */
-public class LittleSearchEngine {
 	
 	/**
-	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
-	 * an array list of all occurrences of the keyword in documents. The array list is maintained in descending
-	 * order of occurrence frequencies.
+	 * Returns the number of bytes taken by the sorted term dictionary, building it if the
+	 * index has changed since it was last built.
+	 * 
+	 * @return Dictionary bytes
 	 */
-	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	public long termDictionaryBytes() {
+		return termDictionary().bytes();
+	}
 	
 	/**
-	 * The hash table of all noise words - mapping is from word to itself.
+	 * Returns the sorted term dictionary of the index, building it if the index has
+	 * changed since it was last built.
+	 * 
+	 * @return Term dictionary
 	 */
-	HashMap<String,String> noiseWords;
+	TermDictionary termDictionary() {
+		TermDictionary dict = dictionary;
+		long gen = generation.get();
+		if (dict != null && dict.generation == gen) {
+			return dict;
+		}
+		IndexReader reader = reader();
+		if (reader != null) {
+			indexLock.readLock().lock();
+			try {
+				dict = TermDictionary.build(reader.keywords());
+			} finally {
+				indexLock.readLock().unlock();
+			}
+		} else {
+			dict = TermDictionary.build(keywordsIndex.keySet());
+		}
+		// stamped with the generation read before the keywords, so a change made meanwhile
+		// makes the next search build it again
+		dict.generation = gen;
+		dictionary = dict;
+		return dict;
+	}
 	
 	/**
-	 * Creates the keyWordsIndex and noiseWords hash tables.
+	 * Search result for a boolean query: keywords joined by AND, OR and NOT, where AND binds
+	 * tighter than OR, NOT excludes the keyword after it, and keywords with no operator between
+	 * them are joined by AND. For example, "alice rabbit OR queen NOT king". Operators must be
+	 * in upper case. Matching documents are arranged in descending order of the summed frequency
+	 * of the required keywords they matched.
+	 *
+	 * The keywords' lists are intersected in document order starting from the rarest, skipping
+	 * over the postings of the more common lists, so a query costs about as much as its rarest
+	 * keyword's list. Without a compact index, the lists in document order kept beside
+	 * keywordsIndex are read.
+	 *
+	 * @param query Boolean query
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of up to k matching documents, arranged in descending order of
+	 *         summed frequencies. If there are no matching documents, the result is null.
+	 * @throws IllegalArgumentException If the query is malformed, or k is less than 1
 	 */
-	public LittleSearchEngine() {
-		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
-		noiseWords = new HashMap<String,String>(100,2.0f);
+	public ArrayList<String> booleanSearch(String query, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		ArrayList<BooleanSearch.Clause> clauses = BooleanSearch.parse(query);
+		String key = "boolean " + k + "\0" + query;
+		long gen = generation.get();
+		QueryCache.Entry hit = cached(key, gen);
+		if (hit != null) {
+			return hit.copy();
+		}
+		ArrayList<String> result;
+		IndexReader reader = reader();
+		if (reader != null) {
+			indexLock.readLock().lock();
+			try {
+				result = BooleanSearch.search(reader, clauses, k);
+			} finally {
+				indexLock.readLock().unlock();
+			}
+		} else {
+			result = BooleanSearch.search(documentOrder, clauses, k);
+		}
+		return cache(key, gen, result.isEmpty() ? null : result);
+	}
+
+	/**
+	 * Finds the documents holding a phrase, such as "the white rabbit": its keywords at the
+	 * same distances from each other as in the phrase. Words of the phrase that are not
+	 * keywords must be matched by some word, not necessarily the same one. Documents are
+	 * ranked by how many times they hold the phrase, ties going to the document indexed
+	 * first. Needs the positions kept with setPositions.
+	 * 
+	 * @param phrase Phrase
+	 * @param k Maximum number of documents to return
+	 * @return List of up to k document names, or null if no document holds the phrase
+	 * @throws IllegalArgumentException If k is less than 1, or the phrase has no keywords
+	 * @throws IllegalStateException If the index keeps no positions
+	 */
+	public ArrayList<String> phraseSearch(String phrase, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		PhraseSearch.Phrase parsed = PhraseSearch.parsePhrase(this, phrase);
+		String key = "phrase " + k + "\0" + phrase;
+		long gen = generation.get();
+		QueryCache.Entry hit = cached(key, gen);
+		if (hit != null) {
+			return hit.copy();
+		}
+		IndexReader reader = positionalReader();
+		ArrayList<String> result;
+		indexLock.readLock().lock();
+		try {
+			result = PhraseSearch.phrase(reader, parsed, k);
+		} finally {
+			indexLock.readLock().unlock();
+		}
+		return cache(key, gen, result.isEmpty() ? null : result);
 	}
 	
 	/**
-	 * This method indexes all keywords found in all the input documents. When this
-	 * method is done, the keywordsIndex hash table will be filled with all keywords,
-	 * each of which is associated with an array list of Occurrence objects, arranged
-	 * in decreasing frequencies of occurrence.
+	 * Finds the documents where two keywords occur near each other. The query is of the
+	 * form "alice NEAR/3 rabbit": the keywords at most 3 words apart, in either order.
+	 * Documents are ranked by how many occurrences of the first keyword have the second
+	 * near them, ties going to the document indexed first. Needs the positions kept with
+	 * setPositions.
 	 * 
-	 * @param docsFile Name of file that has a list of all the document file names, one name per line
-	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
-	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 * @param query Query
+	 * @param k Maximum number of documents to return
+	 * @return List of up to k document names, or null if no document matches
+	 * @throws IllegalArgumentException If k is less than 1, or the query is not of the form
+	 *         "keyword NEAR/n keyword"
+	 * @throws IllegalStateException If the index keeps no positions
 	 */
-	public void makeIndex(String docsFile, String noiseWordsFile) 
-	throws FileNotFoundException {
-		// load noise words to hash table
-		Scanner sc = new Scanner(new File(noiseWordsFile));
-		while (sc.hasNext()) {
-			String word = sc.next();
-			noiseWords.put(word,word);
+	public ArrayList<String> nearSearch(String query, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
 		}
-		
-		// index all keywords
-		sc = new Scanner(new File(docsFile));
-		while (sc.hasNext()) {
-			String docFile = sc.next();
-			HashMap<String,Occurrence> kws = loadKeyWords(docFile);
-			mergeKeyWords(kws);
+		PhraseSearch.Near parsed = PhraseSearch.parseNear(this, query);
+		String key = "near " + k + "\0" + query;
+		long gen = generation.get();
+		QueryCache.Entry hit = cached(key, gen);
+		if (hit != null) {
+			return hit.copy();
 		}
-		
+		IndexReader reader = positionalReader();
+		ArrayList<String> result;
+		indexLock.readLock().lock();
+		try {
+			result = PhraseSearch.near(reader, parsed, k);
+		} finally {
+			indexLock.readLock().unlock();
+		}
+		return cache(key, gen, result.isEmpty() ? null : result);
 	}
-
+	
 	/**
-	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * Returns the index searches read, checking that it keeps positions.
 	 * 
-	 * @param docFile Name of the document file to be scanned and loaded
-	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
-	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws IllegalStateException If the index keeps no positions
 	 */
-	public HashMap<String,Occurrence> loadKeyWords(String docFile) 
-	throws FileNotFoundException {
-		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-		HashMap<String, Occurrence> keyWords = new HashMap<String, Occurrence>();
+	private IndexReader positionalReader() {
+		IndexReader reader = reader();
+		if (reader == null || !reader.hasPositions()) {
+			throw new IllegalStateException("The index keeps no positions; call setPositions(true) before makeIndex");
+		}
+		return reader;
+	}
+	
+	/**
+	 * Ranked search for "kw1 or kw2 or ... or kwn" under Okapi BM25. Unlike topK, which
+	 * ranks by raw frequency, a keyword counts for less the more documents hold it, and
+	 * a frequency counts for less the longer the document is, with diminishing returns as
+	 * the frequency grows. Document lengths and the other statistics the scores need are
+	 * computed when the index is built, not at query time.
+	 * 
+	 * @param terms Keywords
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of up to k documents in which any of the keywords occurs, arranged
+	 *         in descending order of score. If there are no matching documents, the result is null.
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> rankedSearch(List<String> terms, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		ArrayList<String> kws = new ArrayList<String>(terms.size());
+		for (String term: terms) {
+			String kw = term.toLowerCase();
+			if (!kws.contains(kw)) {
+				kws.add(kw);
+			}
+		}
+		String key = "ranked " + k + "\0" + String.join("\0", kws);
+		long gen = generation.get();
+		QueryCache.Entry hit = cached(key, gen);
+		if (hit != null) {
+			return hit.copy();
+		}
 		
-		Scanner sc = new Scanner(new File(docFile));
-		while (sc.hasNext()){
-			String word = sc.next();
-			word = getKeyWord(word);
-			if(word != null){
-				if(keyWords.containsKey(word)){
-					keyWords.get(word).frequency++;
-				}
-				else{
-					Occurrence visited = new Occurrence(docFile, 1);
-					keyWords.put(word, visited);
+		ArrayList<String> result;
+		IndexReader reader = reader();
+		if (reader != null) {
+			indexLock.readLock().lock();
+			try {
+				RankedSearch r = ranking;
+				if (r == null || r.source != reader) {
+					r = computeRanking(reader);
+					ranking = r;
 				}
+				result = r.search(reader, r.norms, kws, k);
+			} finally {
+				indexLock.readLock().unlock();
+			}
+		} else {
+			RankedSearch r = ranking;
+			if (r == null || r.names == null || r.names.length < documentIds.size()) {
+				r = computeRanking(null);
+				ranking = r;
 			}
+			result = r.search(keywordsIndex, kws, k);
 		}
-		return keyWords;
+		return cache(key, gen, result.isEmpty() ? null : result);
 	}
 	
 	/**
-	 * Merges the keywords for a single document into the master keywordsIndex
-	 * hash table. For each keyword, its Occurrence in the current document
-	 * must be inserted in the correct place (according to descending order of
-	 * frequency) in the same keyword's Occurrence list in the master hash table. 
-	 * This is done by calling the insertLastOccurrence method.
+	 * Computes the BM25 statistics of an index: the number of documents, their average
+	 * length, and the norm of each, indexed by the reader's document ids or, for
+	 * keywordsIndex, by documentIds.
 	 * 
-	 * @param kws Keywords hash table for a document
+	 * @param reader Index searches read, from reader(), or null for keywordsIndex
+	 * @return Ranking for that index
 	 */
-	public void mergeKeyWords(HashMap<String,Occurrence> kws) {
-		// COMPLETE THIS METHOD
-		ArrayList<Occurrence> iloList = new ArrayList<Occurrence>();
-		
-		for(String ck: kws.keySet()){
-			Occurrence now = kws.get(ck);
-			
-			if(keywordsIndex.containsKey(ck)){
-				iloList = keywordsIndex.get(ck);
-				iloList.add(now);
-				insertLastOccurrence(iloList);
-				keywordsIndex.put(ck, iloList);
+	private RankedSearch computeRanking(IndexReader reader) {
+		RankedSearch r;
+		if (reader instanceof IndexSegment) {
+			IndexSegment seg = (IndexSegment)reader;
+			long total = 0;
+			for (int d=0; d < seg.documentCount(); d++) {
+				total += seg.documentLength(d);
 			}
-			else{
-				ArrayList<Occurrence> oList = new ArrayList<Occurrence>();
-				oList.add(now);
-				keywordsIndex.put(ck, oList);
+			r = new RankedSearch(seg.documentCount(), total);
+			r.norms = r.norms(seg);
+		} else if (reader instanceof IndexSnapshot) {
+			// from the snapshot itself: documentLengths may already hold documents an
+			// update is still adding, or have lost ones this snapshot still has
+			IndexSnapshot s = (IndexSnapshot)reader;
+			r = new RankedSearch(s.liveDocuments, s.totalLength);
+			r.norms = r.norms(s);
+		} else {
+			r = RankedSearch.fromLengths(documentLengths.values());
+			if (reader != null) {
+				r.norms = r.norms(reader, documentLengths);
+			} else {
+				synchronized (documentIds) {
+					r.number(documentIds, documentLengths);
+				}
 			}
 		}
+		r.source = reader;
+		return r;
 	}
 	
 	/**
-	 * Given a word, returns it as a keyword if it passes the keyword test,
-	 * otherwise returns null. A keyword is any word that, after being stripped of any
-	 * TRAILING punctuation, consists only of alphabetic letters, and is not
-	 * a noise word. All words are treated in a case-INsensitive manner.
+	 * Publishes a snapshot with a new segment added to the current one.
+	 * Called holding snapshotLock.
 	 * 
-	 * Punctuation characters are the following: '.', ',', '?', ':', ';' and '!'
+	 * @param added New segment, which must not be modified afterwards
+	 */
+	private void publish(CompactIndex added) {
+		IndexSnapshot s = snapshot;
+		publish(s == null ? new IndexSnapshot(added) : s.add(added));
+	}
+	
+	/**
+	 * Publishes a snapshot, first merging its newer segments if it has too many. The newer
+	 * segments are merged into one, until together they hold as many documents as the
+	 * oldest; then all are merged, so each document is merged about log(n) times over n
+	 * updates. Called holding snapshotLock.
 	 * 
-	 * @param word Candidate word
-	 * @return Keyword (word without trailing punctuation, LOWER CASE)
+	 * @param s New snapshot
 	 */
-	public String getKeyWord(String word) {
-		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-		word = word.trim();
-		word = word.toLowerCase();
-		char lc = word.charAt(word.length()-1);
-		
-		while ((lc == '.') || (lc == ',') || (lc == '?') || (lc == ':') || (lc == ';') || (lc == '!')){
-			word = word.substring(0, word.length()-1);
-			if (word.length() > 1){
-				lc = word.charAt(word.length()-1);
-			}
-			else{
-				break;
-			}
+	private void publish(IndexSnapshot s) {
+		if (s.segments.length > MAX_SEGMENTS) {
+			int newer = s.documentCount - s.bases[1];
+			s = s.merge(newer >= s.bases[1] ? 0 : 1, compressPostings);
 		}
-		
-		for (int x = 0; x < word.length(); x++){
-			if (!Character.isLetter(word.charAt(x))){
-				return null;
+		if (bloomFalsePositiveRate > 0) {
+			// only segments no reader has seen: a published one is never written to
+			Set<CompactIndex> published = Collections.newSetFromMap(new IdentityHashMap<CompactIndex,Boolean>());
+			if (snapshot != null) {
+				published.addAll(Arrays.asList(snapshot.segments));
 			}
-		}
-		
-		for (String noise: noiseWords.keySet()){
-			if (word.equalsIgnoreCase(noise)){
-				return null;
+			for (CompactIndex segment: s.segments) {
+				if (segment.filter == null && !published.contains(segment)) {
+					segment.filter = BloomFilter.build(segment.keywords(), bloomFalsePositiveRate);
+				}
 			}
 		}
-
-		return word;
+		snapshot = s;
+		indexChanged();
 	}
 	
 	/**
-	 * Inserts the last occurrence in the parameter list in the correct position in the
-	 * same list, based on ordering occurrences on descending frequencies. The elements
-	 * 0..n-2 in the list are already in the correct order. Insertion of the last element
-	 * (the one at index n-1) is done by first finding the correct spot using binary search, 
-	 * then inserting at that spot.
+	 * Records a change to the index: cached results and BM25 statistics become stale.
+	 */
+	private void indexChanged() {
+		generation.incrementAndGet();
+		ranking = null;
+	}
+	
+	/**
+	 * Looks a search up in the query cache.
 	 * 
-	 * @param occs List of Occurrences
-	 * @return Sequence of mid point indexes in the input list checked by the binary search process,
-	 *         null if the size of the input list is 1. This returned array list is only used to test
-	 *         your code - it is not used elsewhere in the program.
+	 * @param key Search, with its kind and parameters
+	 * @param gen Generation of the index, read before the index is
+	 * @return Cached result, or null if caching is off or there is no result for this generation
 	 */
-	public ArrayList<Integer> insertLastOccurrence(ArrayList<Occurrence> occs) {
-		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-		if (occs.size() == 1){
-			return null;
+	QueryCache.Entry cached(String key, long gen) {
+		QueryCache cache = queryCache;
+		return cache == null ? null : cache.get(key, gen);
+	}
+	
+	/**
+	 * Stores a search result in the query cache, if caching is on.
+	 * 
+	 * @param key Search, with its kind and parameters
+	 * @param gen Generation of the index the result was computed from
+	 * @param result Result
+	 * @return The result
+	 */
+	ArrayList<String> cache(String key, long gen, ArrayList<String> result) {
+		QueryCache cache = queryCache;
+		if (cache != null) {
+			cache.put(key, gen, result);
 		}
-		int lF = occs.get(occs.size()-1).frequency;
-		Occurrence hold = occs.get(occs.size()-1);
-		int low = 0;
-		int high = occs.size()-1;
-		int mid;
-		ArrayList<Integer> mids = new ArrayList<Integer>();
-		
-		while(low <= high){
-			mid = (low + high) / 2;
-			mids.add(mid);
-			
-			if(lF > occs.get(mid).frequency){
-				high = mid-1;
-			}
-			else if(lF < occs.get(mid).frequency){
-				low = mid+1;
-			}
-			else{
-				break;
-			}
+		return result;
+	}
+	
+	/**
+	 * Returns the index searches run against: the opened segment if there is one,
+	 * otherwise the compact index.
+	 * 
+	 * @return Index reader, or null if the index is kept in keywordsIndex
+	 */
+	IndexReader reader() {
+		if (segment != null) {
+			return segment;
 		}
-		
-		if(mids.get(mids.size() - 1) == 0){
-			if(hold.frequency < occs.get(0).frequency){
-				occs.add(1, hold);
-				occs.remove(occs.size() - 1);
-				return mids;
-			}
+		if (snapshots) {
+			return snapshot;
 		}
-		
-		occs.add(mids.get(mids.size()-1), hold);
-		occs.remove(occs.size()-1);
-		
-		return mids;
+		return compactIndex;
+	}
+	
+	/**
+	 * Writes the index to a segment file, which a later process can open with openIndex
+	 * instead of running makeIndex again.
+	 * 
+	 * @param segmentFile Name of the segment file; replaced if it exists
+	 * @throws IOException If the file cannot be written
+	 */
+	public void saveIndex(String segmentFile) 
+	throws IOException {
+		CompactIndex index = compactIndex;
+		if (snapshots) {
+			IndexSnapshot s = snapshot;
+			index = s == null ? new CompactIndex() : s.merge(0, false).segments[0];
+		} else if (index == null) {
+			index = CompactIndex.fromOccurrences(keywordsIndex);
+		}
+		int[] lengths = new int[index.documentCount()];
+		for (int d=0; d < lengths.length; d++) {
+			Integer length = documentLengths.get(index.documentName(d));
+			lengths[d] = length == null ? 0 : length;
+		}
+		IndexSegment.write(index, index.keywords(), lengths, new File(segmentFile), bloomFalsePositiveRate);
+	}
+	
+	/**
+	 * Opens an index segment written by saveIndex. The file is memory mapped, not read,
+	 * so this returns almost at once; searches then decode postings straight from the
+	 * mapped file.
+	 * 
+	 * @param segmentFile Name of the segment file
+	 * @throws IOException If the file cannot be read, or is not a segment
+	 */
+	public void openIndex(String segmentFile) 
+	throws IOException {
+		segment = IndexSegment.open(new File(segmentFile));
+		indexChanged();
 	}
 	
 	/**
@@ -273,18 +1933,67 @@ public class LittleSearchEngine {
 	public ArrayList<String> top5search(String kw1, String kw2) {
 		// COMPLETE THIS METHOD
 		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
+		MetricsListener m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
 		kw1 = kw1.toLowerCase();
 		kw2 = kw2.toLowerCase();
+		String key = "top5\0" + kw1 + "\0" + kw2;
+		long gen = generation.get();
+		QueryCache.Entry hit = cached(key, gen);
+		ArrayList<String> result;
+		if (hit != null) {
+			result = hit.copy();
+		} else {
+			// each list can contribute at most 5 new documents and 5 already taken from the other list
+			IndexReader reader = reader();
+			ArrayList<Occurrence> occs1 = occurrences(reader, kw1, 10);
+			ArrayList<Occurrence> occs2 = occurrences(reader, kw2, 10);
+			result = cache(key, gen, top5merge(occs1, occs2));
+		}
+		if (m != null) {
+			m.searched("top5search", System.nanoTime() - start);
+		}
+		return result;
+	}
+	
+	/**
+	 * Runs many top5search queries at once, on several threads. Each keyword's list is read
+	 * from the index once for the whole batch, however many queries share it, and every
+	 * query then gets exactly the result top5search would give it, from the index as it
+	 * is when the batch starts.
+	 * 
+	 * @param queries Queries, each a pair of keywords
+	 * @param threads Number of threads to use, at least 1
+	 * @return Result of each query, in the order of the queries; null for a query with
+	 *         no matching documents
+	 * @throws IllegalArgumentException If threads is less than 1, or a query is not a pair
+	 *         of keywords
+	 */
+	public ArrayList<ArrayList<String>> batchTop5search(List<String[]> queries, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1: " + threads);
+		}
+		return new BatchSearch(this, threads).search(queries);
+	}
+	
+	/**
+	 * Merges the occurrences of two keywords into the result of top5search.
+	 * 
+	 * @param occs1 Occurrences of the first keyword, in descending order of frequency, or null
+	 * @param occs2 Occurrences of the second keyword, in descending order of frequency, or null
+	 * @return List of NAMES of up to 5 documents, or null if there are none
+	 */
+	static ArrayList<String> top5merge(ArrayList<Occurrence> occs1, ArrayList<Occurrence> occs2) {
 		ArrayList<String> finalList = new ArrayList<String>();
 		ArrayList<Occurrence> list1 = new ArrayList<Occurrence>();
 		ArrayList<Occurrence> list2 = new ArrayList<Occurrence>();
 		int tracker = 0;
 		
-		if (keywordsIndex.get(kw1) != null){
-			list1 = keywordsIndex.get(kw1);
+		if (occs1 != null){
+			list1 = occs1;
 		}
-		if (keywordsIndex.get(kw2) != null){
-			list2 = keywordsIndex.get(kw2);
+		if (occs2 != null){
+			list2 = occs2;
 		}
 		
 		if ((list1 == null) && (list2 == null)){
@@ -309,7 +2018,7 @@ public class LittleSearchEngine {
 		else{
 			int c = 0;
 			int d = 0;
-			while ((c < list1.size()) && (d < list2.size()) && (tracker < 5)){
+			while ((c < list1.size()) && (d < list2.size()) && (finalList.size() < 5)){
 				if (list1.get(c).frequency > list2.get(d).frequency){
 					if (!finalList.contains(list1.get(c).document)){
 						finalList.add(list1.get(c).document);
@@ -318,7 +2027,7 @@ public class LittleSearchEngine {
 				}
 				else if (list1.get(c).frequency < list2.get(d).frequency){
 					if (!finalList.contains(list2.get(d).document)){
-						finalList.add(list1.get(d).document);
+						finalList.add(list2.get(d).document);
 					}
 					d++;
 				}
@@ -0,0 +1,145 @@
+package search;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Load generator for SearchServer. Several client connections each send top5 requests,
+ * one after another, for a fixed time, and the latency of every request is recorded as
+ * the client sees it, network included. At the end it prints the queries per second,
+ * the latency percentiles, the number of "busy" answers, and the server's own stats.
+ *
+ * Queries are random pairs of keywords from the first few documents of a docs file, so
+ * they hit the index; lists are shared by many queries, as hot keywords are in practice.
+ *
+ * Usage: java search.LoadGenerator docsFile noiseWordsFile [port [connections [seconds]]]
+ *
+ */
+public class LoadGenerator {
+
+	/**
+	 * Number of documents whose keywords are used in queries.
+	 */
+	static final int SAMPLE_DOCS = 50;
+
+	public static void main(String[] args)
+	throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.err.println("Usage: java search.LoadGenerator docsFile noiseWordsFile [port [connections [seconds]]]");
+			System.exit(1);
+		}
+		final int port = args.length > 2 ? Integer.parseInt(args[2]) : SearchServer.PORT;
+		int connections = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+		final long seconds = args.length > 4 ? Long.parseLong(args[4]) : 10;
+
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.loadNoiseWords(args[1]);
+		ArrayList<String> docs = engine.readDocNames(args[0]);
+		TreeSet<String> sample = new TreeSet<String>();
+		for (int d=0; d < Math.min(SAMPLE_DOCS, docs.size()); d++) {
+			sample.addAll(engine.loadKeyWords(docs.get(d)).keySet());
+		}
+		if (sample.isEmpty()) {
+			System.err.println("No keywords in the first " + SAMPLE_DOCS + " documents");
+			System.exit(1);
+		}
+		final ArrayList<String[]> queries = SearchBenchmark.randomQueries(sample, 100000);
+
+		final long[][] latencies = new long[connections][];
+		final int[] counts = new int[connections];
+		final int[] busy = new int[connections];
+		final IOException[] failures = new IOException[connections];
+		Thread[] clients = new Thread[connections];
+		final long end = System.nanoTime() + seconds * 1000000000L;
+		for (int c=0; c < connections; c++) {
+			final int client = c;
+			clients[c] = new Thread() {
+				public void run() {
+					long[] times = new long[1 << 16];
+					int n = 0;
+					try {
+						Socket s = new Socket(InetAddress.getLoopbackAddress(), port);
+						try {
+							s.setTcpNoDelay(true);
+							BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+							Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+							for (int i = client; System.nanoTime() < end; i += 7) {
+								String[] q = queries.get(i % queries.size());
+								long start = System.nanoTime();
+								out.write("top5 " + q[0] + " " + q[1] + "\n");
+								out.flush();
+								String reply = in.readLine();
+								long t = System.nanoTime() - start;
+								if (reply == null) {
+									throw new EOFException("Server closed the connection");
+								}
+								if (reply.equals("busy")) {
+									busy[client]++;
+									continue;
+								}
+								if (!reply.startsWith("ok")) {
+									throw new IOException("Server answered: " + reply);
+								}
+								if (n == times.length) {
+									times = Arrays.copyOf(times, n * 2);
+								}
+								times[n++] = t;
+							}
+							out.write("quit\n");
+							out.flush();
+						} finally {
+							s.close();
+						}
+					} catch (IOException e) {
+						failures[client] = e;
+					}
+					latencies[client] = Arrays.copyOf(times, n);
+					counts[client] = n;
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread t: clients) {
+			t.start();
+		}
+		for (Thread t: clients) {
+			t.join();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		int total = 0, rejected = 0;
+		for (int c=0; c < connections; c++) {
+			if (failures[c] != null) {
+				System.err.println("Connection " + c + " failed: " + failures[c]);
+			}
+			total += counts[c];
+			rejected += busy[c];
+		}
+		long[] all = new long[total];
+		int at = 0;
+		for (int c=0; c < connections; c++) {
+			System.arraycopy(latencies[c], 0, all, at, counts[c]);
+			at += counts[c];
+		}
+		Arrays.sort(all);
+		System.out.printf("%d connections, %d requests in %.1f s: %.1f queries/s, %d busy%n",
+				connections, total, elapsed / 1e9, total / (elapsed / 1e9), rejected);
+		if (total > 0) {
+			System.out.printf("latency p50 %.1f us   p99 %.1f us   p999 %.1f us   max %.1f us%n",
+					SearchBenchmark.percentile(all, 0.5) / 1e3, SearchBenchmark.percentile(all, 0.99) / 1e3,
+					SearchBenchmark.percentile(all, 0.999) / 1e3, all[total-1] / 1e3);
+		}
+
+		Socket s = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+			out.write("stats\nquit\n");
+			out.flush();
+			System.out.println("server: " + new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)).readLine());
+		} finally {
+			s.close();
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package search;
+
+/**
+ * This interface is implemented by listeners that receive timings and counts from a
+ * LittleSearchEngine as it indexes and searches. A listener is set with
+ * setMetricsListener; SearchMetrics is the one behind the engine's MBean. Methods are
+ * called on the threads doing the work, several at a time when indexing runs in
+ * parallel, so they must be thread safe and quick.
+ *
+ */
+public interface MetricsListener {
+
+	/**
+	 * Phases of building an index.
+	 */
+	enum Phase {
+		/**
+		 * Loading the noise words file.
+		 */
+		NOISE_WORDS,
+
+		/**
+		 * Reading a document and finding its keywords, in loadKeyWords.
+		 */
+		TOKENIZE,
+
+		/**
+		 * Merging a document's keywords into the index.
+		 */
+		MERGE,
+
+		/**
+		 * Putting lists in order at the end of a bulk build, or sorting and writing a
+		 * run spilled by the bounded-memory build.
+		 */
+		SORT
+	}
+
+	/**
+	 * Reports the time taken by one run of an indexing phase.
+	 *
+	 * @param phase Phase
+	 * @param nanos Elapsed time, in nanoseconds
+	 */
+	void phaseTimed(Phase phase, long nanos);
+
+	/**
+	 * Reports a document loaded by loadKeyWords.
+	 *
+	 * @param docFile Document name
+	 * @param words Number of words read, keywords or not
+	 * @param keywords Number of keywords found
+	 */
+	void documentLoaded(String docFile, int words, int keywords);
+
+	/**
+	 * Reports a search answered.
+	 *
+	 * @param kind Kind of search, such as "top5search"
+	 * @param nanos Elapsed time, in nanoseconds, including any cache lookup
+	 */
+	void searched(String kind, long nanos);
+}
@@ -0,0 +1,287 @@
+package search;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Microbenchmarks of the core methods of LittleSearchEngine, over a synthetic corpus
+ * written by CorpusGenerator, so that a change to one of them can be measured on its
+ * own. The corpus is the same for the same parameters, so runs can be compared.
+ *
+ * Each benchmark is run in the manner of JMH: untimed warmup iterations, then timed
+ * iterations of at least ITERATION_MILLIS each, on a fresh state prepared outside the
+ * timing. For each it reports the mean throughput with its 99.9% confidence interval,
+ * and the bytes allocated per operation and per second by the benchmark thread. Results
+ * are folded into a sink, so the JIT cannot drop the work as dead code.
+ *
+ * Usage: java search.MicroBenchmark noiseWordsFile [docs [minWords [maxWords [vocabulary [exponent [seed]]]]]]
+ *
+ * The benchmarks are getKeyWord, loadKeyWords, mergeKeyWords, insertLastOccurrence,
+ * top5search and makeIndex. Set the system property "bench" to a comma separated list
+ * of names to run only those.
+ *
+ */
+public class MicroBenchmark {
+
+	/**
+	 * Number of untimed iterations.
+	 */
+	static final int WARMUP = 5;
+
+	/**
+	 * Number of timed iterations.
+	 */
+	static final int ITERATIONS = 10;
+
+	/**
+	 * Minimum length of an iteration, in milliseconds.
+	 */
+	static final long ITERATION_MILLIS = 500;
+
+	/**
+	 * Two-sided 99.9% quantile of Student's t distribution, for ITERATIONS-1 degrees of freedom.
+	 */
+	static final double T_999 = 4.781;
+
+	/**
+	 * Folds in every result, so that no benchmarked call can be optimized away.
+	 */
+	static volatile long sink;
+
+	/**
+	 * A benchmark: a state set up before each iteration, and an operation run repeatedly
+	 * against it.
+	 */
+	static abstract class Benchmark {
+
+		/**
+		 * Name of the benchmark.
+		 */
+		String name;
+
+		/**
+		 * Name of the unit of work one call to run does.
+		 */
+		String unit;
+
+		Benchmark(String name, String unit) {
+			this.name = name;
+			this.unit = unit;
+		}
+
+		/**
+		 * Prepares the state for an iteration. Not timed.
+		 */
+		void setup()
+		throws IOException {
+		}
+
+		/**
+		 * Runs one batch of operations.
+		 *
+		 * @return Number of operations run
+		 */
+		abstract long run()
+		throws IOException;
+	}
+
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java search.MicroBenchmark noiseWordsFile [docs [minWords [maxWords [vocabulary [exponent [seed]]]]]]");
+			System.exit(1);
+		}
+		final String noiseWordsFile = args[0];
+		int docs = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int minWords = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		int maxWords = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+		int vocabulary = args.length > 4 ? Integer.parseInt(args[4]) : 50000;
+		double exponent = args.length > 5 ? Double.parseDouble(args[5]) : 1.0;
+		long seed = args.length > 6 ? Long.parseLong(args[6]) : 112;
+
+		File dir = new File(System.getProperty("java.io.tmpdir"), "corpus-" + docs + "-" + minWords + "-" + maxWords + "-" + vocabulary + "-" + exponent + "-" + seed);
+		CorpusGenerator gen = new CorpusGenerator(vocabulary, exponent, seed);
+		final String docsFile = new File(dir, "docs.txt").exists() ? new File(dir, "docs.txt").getPath() : gen.write(dir, docs, minWords, maxWords);
+		System.out.printf("corpus: %d documents of %d-%d words, %d word Zipfian vocabulary (exponent %.2f, seed %d), in %s%n%n",
+				docs, minWords, maxWords, vocabulary, exponent, seed, dir);
+
+		// state shared by the benchmarks, built once
+		final LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(docsFile, noiseWordsFile);
+		final ArrayList<String> docNames = engine.readDocNames(docsFile);
+		final ArrayList<HashMap<String,Occurrence>> loaded = new ArrayList<HashMap<String,Occurrence>>();
+		for (String doc: docNames) {
+			loaded.add(engine.loadKeyWords(doc));
+		}
+		final String[] tokens = new String[100000];
+		for (int i=0; i < tokens.length; i++) {
+			tokens[i] = gen.nextToken();
+		}
+		// frequencies of the commonest keyword, in document order: the longest insertions
+		String hot = null;
+		for (Map.Entry<String,ArrayList<Occurrence>> e: engine.keywordsIndex.entrySet()) {
+			if (hot == null || e.getValue().size() > engine.keywordsIndex.get(hot).size()) {
+				hot = e.getKey();
+			}
+		}
+		final ArrayList<Occurrence> hotOccurrences = new ArrayList<Occurrence>();
+		for (HashMap<String,Occurrence> kws: loaded) {
+			if (kws.containsKey(hot)) {
+				hotOccurrences.add(kws.get(hot));
+			}
+		}
+		// query keywords drawn as the corpus draws words, so common keywords are asked for most
+		final ArrayList<String[]> queries = new ArrayList<String[]>();
+		CorpusGenerator queryGen = new CorpusGenerator(vocabulary, exponent, seed);
+		while (queries.size() < 10000) {
+			queries.add(new String[] {queryGen.nextWord(), queryGen.nextWord()});
+		}
+
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Benchmark("getKeyWord", "words") {
+			long run() {
+				long h = 0;
+				for (String token: tokens) {
+					String kw = engine.getKeyWord(token);
+					if (kw != null) {
+						h += kw.length();
+					}
+				}
+				sink += h;
+				return tokens.length;
+			}
+		});
+		benchmarks.add(new Benchmark("loadKeyWords", "docs") {
+			long run()
+			throws IOException {
+				long h = 0;
+				for (String doc: docNames) {
+					h += engine.loadKeyWords(doc).size();
+				}
+				sink += h;
+				return docNames.size();
+			}
+		});
+		benchmarks.add(new Benchmark("mergeKeyWords", "docs") {
+			LittleSearchEngine target;
+
+			void setup() {
+				target = new LittleSearchEngine();
+			}
+
+			long run() {
+				// each batch merges every document into an empty index
+				target.keywordsIndex.clear();
+				target.documentOrder.clear();
+				for (HashMap<String,Occurrence> kws: loaded) {
+					target.mergeKeyWords(kws);
+				}
+				sink += target.keywordsIndex.size();
+				return loaded.size();
+			}
+		});
+		if (!hotOccurrences.isEmpty()) {
+			benchmarks.add(new Benchmark("insertLastOccurrence (" + hotOccurrences.size() + " postings)", "inserts") {
+				long run() {
+					ArrayList<Occurrence> occs = new ArrayList<Occurrence>(hotOccurrences.size());
+					for (Occurrence occ: hotOccurrences) {
+						occs.add(occ);
+						engine.insertLastOccurrence(occs);
+					}
+					sink += occs.get(0).frequency;
+					return occs.size();
+				}
+			});
+		}
+		benchmarks.add(new Benchmark("top5search", "queries") {
+			long run() {
+				long h = 0;
+				for (String[] q: queries) {
+					ArrayList<String> result = engine.top5search(q[0], q[1]);
+					if (result != null) {
+						h += result.size();
+					}
+				}
+				sink += h;
+				return queries.size();
+			}
+		});
+		benchmarks.add(new Benchmark("makeIndex", "docs") {
+			long run()
+			throws IOException {
+				LittleSearchEngine built = new LittleSearchEngine();
+				built.makeIndex(docsFile, noiseWordsFile);
+				sink += built.keywordsIndex.size();
+				return docNames.size();
+			}
+		});
+
+		String only = System.getProperty("bench");
+		List<String> selected = only == null ? null : Arrays.asList(only.split(","));
+		System.out.printf("%-42s %14s %12s %-10s %12s %10s%n", "benchmark", "ops/s", "99.9% +-", "unit", "bytes/op", "MB/s");
+		for (Benchmark b: benchmarks) {
+			if (selected == null || selected.contains(b.name.split(" ")[0])) {
+				measure(b);
+			}
+		}
+	}
+
+	/**
+	 * Runs a benchmark's warmup and timed iterations, and prints its throughput and
+	 * allocation rate.
+	 */
+	static void measure(Benchmark b)
+	throws IOException {
+		double[] rates = new double[ITERATIONS];
+		long allocated = 0, ops = 0, nanos = 0;
+		for (int it=0; it < WARMUP + ITERATIONS; it++) {
+			b.setup();
+			long bytes = allocatedBytes();
+			long n = 0;
+			long start = System.nanoTime(), t;
+			do {
+				n += b.run();
+				t = System.nanoTime() - start;
+			} while (t < ITERATION_MILLIS * 1000000);
+			bytes = allocatedBytes() - bytes;
+			if (it >= WARMUP) {
+				rates[it - WARMUP] = n / (t / 1e9);
+				allocated += bytes;
+				ops += n;
+				nanos += t;
+			}
+		}
+		double mean = 0;
+		for (double r: rates) {
+			mean += r;
+		}
+		mean /= rates.length;
+		double var = 0;
+		for (double r: rates) {
+			var += (r - mean) * (r - mean);
+		}
+		double error = T_999 * Math.sqrt(var / (rates.length - 1)) / Math.sqrt(rates.length);
+		if (allocated < 0) {
+			System.out.printf("%-42s %14.1f %12.1f %-10s %12s %10s%n", b.name, mean, error, b.unit, "n/a", "n/a");
+		} else {
+			System.out.printf("%-42s %14.1f %12.1f %-10s %12.1f %10.1f%n", b.name, mean, error, b.unit,
+					(double)allocated / ops, allocated / 1048576.0 / (nanos / 1e9));
+		}
+	}
+
+	/**
+	 * Returns the number of bytes the current thread has allocated, or a negative number
+	 * if the JVM does not count them.
+	 */
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean)threads;
+			if (counting.isThreadAllocatedMemorySupported()) {
+				return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+}
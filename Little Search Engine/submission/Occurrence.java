@@ -0,0 +1,68 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class encapsulates an occurrence of a keyword in a document. It stores the
+ * document name, and the frequency of occurrence in that document. Occurrences are
+ * associated with keywords in an index hash table.
+ * 
+ * @author Sesh Venugopal
+ * 
+ */
+class Occurrence {
+	/**
+	 * Document in which a keyword occurs.
+	 */
+	String document;
+	
+	/**
+	 * The frequency (number of times) the keyword occurs in the above document.
+	 */
+	int frequency;
+	
+	/**
+	 * Positions of the keyword in the document, ascending, when the engine keeps
+	 * positions; the first frequency entries are used. Null otherwise.
+	 */
+	int[] positions;
+	
+	/**
+	 * Id of the document in the engine's documentIds, for ranked search over
+	 * keywordsIndex; -1 until the engine numbers it.
+	 */
+	int id;
+	
+	/**
+	 * Initializes this occurrence with the given document,frequency pair.
+	 * 
+	 * @param doc Document name
+	 * @param freq Frequency
+	 */
+	public Occurrence(String doc, int freq) {
+		document = doc;
+		frequency = freq;
+		id = -1;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "(" + document + "," + frequency + ")";
+	}
+	
+	/**
+	 * Records the position of the occurrence just counted in frequency.
+	 * 
+	 * @param position Number of words before it in the document
+	 */
+	void addPosition(int position) {
+		if (positions == null) {
+			positions = new int[2];
+		} else if (frequency > positions.length) {
+			positions = Arrays.copyOf(positions, positions.length*2);
+		}
+		positions[frequency-1] = position;
+	}
+}
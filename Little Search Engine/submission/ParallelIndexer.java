@@ -0,0 +1,403 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class builds the keywords index of a LittleSearchEngine using several threads.
+ * Indexing happens in batches of documents, each in two phases:
+ *
+ * 1. Every document in the batch is scanned concurrently with loadKeyWords, and its
+ *    keywords are split into partitions by keyword hash.
+ * 2. Every partition is merged concurrently. A partition owns all the keywords that hash
+ *    to it, and merges the documents of the batch in their original order, so each
+ *    keyword's occurrence list sees exactly the same sequence of insertLastOccurrence
+ *    calls as in a single threaded build. No two threads ever touch the same list, so
+ *    no locking is needed.
+ *
+ * In a bulk build, occurrences are appended to the ends of their lists instead, and each
+ * partition's lists are put in order, concurrently, once all batches are done.
+ *
+ * Each partition also keeps its keywords' postings in document order, for boolean search.
+ * When all batches are done, the partitions are copied into the engine's keywordsIndex,
+ * or into its compact index if it has one. For the compact index, document ids are
+ * assigned on the calling thread in document order, as a sequential build would.
+ *
+ */
+class ParallelIndexer {
+
+	/**
+	 * Number of documents scanned per thread in each batch. Bounds the number of
+	 * per-document keyword tables held in memory at any time.
+	 */
+	static final int DOCS_PER_THREAD = 8;
+
+	/**
+	 * Engine whose index is being built.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * Number of threads, which is also the number of keyword partitions.
+	 */
+	int parallelism;
+
+	/**
+	 * Keyword partitions. Partition i holds the occurrence lists for all keywords
+	 * whose partition number is i.
+	 */
+	ArrayList<HashMap<String,ArrayList<Occurrence>>> partitions;
+
+	/**
+	 * Keyword partitions of posting lists, used instead of partitions when the
+	 * engine has a compact index.
+	 */
+	ArrayList<HashMap<String,PostingList>> compactPartitions;
+
+	/**
+	 * Keyword partitions of position lists, used alongside compactPartitions when the
+	 * compact index keeps positions.
+	 */
+	ArrayList<HashMap<String,PositionList>> positionPartitions;
+
+	/**
+	 * Keyword partitions of posting lists in document order, kept beside partitions or
+	 * compactPartitions.
+	 */
+	ArrayList<HashMap<String,PostingList>> documentPartitions;
+
+	/**
+	 * The engine's compact index, or null if it uses keywordsIndex.
+	 */
+	CompactIndex compact;
+
+	/**
+	 * For a bulk build, the keywords of each partition whose lists have been appended to,
+	 * with the number of occurrences at the head of each list that are in order; null
+	 * otherwise.
+	 */
+	ArrayList<HashMap<String,Integer>> unordered;
+
+	/**
+	 * Initializes an indexer for the given engine.
+	 *
+	 * @param engine Engine whose keywordsIndex is to be filled
+	 * @param parallelism Number of threads to use
+	 */
+	public ParallelIndexer(LittleSearchEngine engine, int parallelism) {
+		this.engine = engine;
+		this.parallelism = parallelism;
+		compact = engine.compactIndex;
+		partitions = new ArrayList<HashMap<String,ArrayList<Occurrence>>>(parallelism);
+		compactPartitions = new ArrayList<HashMap<String,PostingList>>(parallelism);
+		positionPartitions = new ArrayList<HashMap<String,PositionList>>(parallelism);
+		documentPartitions = new ArrayList<HashMap<String,PostingList>>(parallelism);
+		if (engine.bulkBuild) {
+			unordered = new ArrayList<HashMap<String,Integer>>(parallelism);
+		}
+		for (int i=0; i < parallelism; i++) {
+			if (unordered != null) {
+				unordered.add(new HashMap<String,Integer>());
+			}
+			documentPartitions.add(new HashMap<String,PostingList>(1000,2.0f));
+			if (compact != null) {
+				compactPartitions.add(new HashMap<String,PostingList>(1000,2.0f));
+				if (compact.positions != null) {
+					positionPartitions.add(new HashMap<String,PositionList>(1000,2.0f));
+				}
+			} else {
+				partitions.add(new HashMap<String,ArrayList<Occurrence>>(1000,2.0f));
+			}
+		}
+	}
+
+	/**
+	 * Indexes the given documents, in order, into the engine's keywordsIndex.
+	 *
+	 * @param docs Names of document files
+	 * @throws FileNotFoundException If any of the documents is not found on disk
+	 */
+	public void index(List<String> docs)
+	throws FileNotFoundException {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			int batch = parallelism * DOCS_PER_THREAD;
+			for (int from=0; from < docs.size(); from += batch) {
+				List<String> batchDocs = docs.subList(from, Math.min(from+batch, docs.size()));
+
+				// phase 1: scan documents, numbered first in their order, as a sequential
+				// build numbers them, rather than in the order the scans finish
+				ArrayList<ScanTask> scans = new ArrayList<ScanTask>(batchDocs.size());
+				for (String doc: batchDocs) {
+					engine.documentId(doc);
+					scans.add(new ScanTask(doc));
+				}
+				for (Future<List<List<Map.Entry<String,Occurrence>>>> f: pool.invokeAll(scans)) {
+					join(f);
+				}
+				for (ScanTask scan: scans) {
+					if (scan.empty) {
+						continue;
+					}
+					if (compact != null) {
+						scan.docId = compact.addDocument(scan.doc, scan.keywords, scan.length);
+					} else {
+						engine.documentOrder.name(engine.documentId(scan.doc), scan.doc);
+					}
+				}
+
+				// phase 2: merge partitions
+				MetricsListener m = engine.metrics;
+				long start = m == null ? 0 : System.nanoTime();
+				ArrayList<MergeTask> merges = new ArrayList<MergeTask>(parallelism);
+				for (int p=0; p < parallelism; p++) {
+					merges.add(new MergeTask(p, scans));
+				}
+				for (Future<Void> f: pool.invokeAll(merges)) {
+					join(f);
+				}
+				if (m != null) {
+					m.phaseTimed(MetricsListener.Phase.MERGE, System.nanoTime() - start);
+				}
+			}
+
+			if (unordered != null) {
+				// phase 3, for a bulk build: order the lists of every partition
+				MetricsListener m = engine.metrics;
+				long start = m == null ? 0 : System.nanoTime();
+				ArrayList<Callable<Void>> orders = new ArrayList<Callable<Void>>(parallelism);
+				for (int p=0; p < parallelism; p++) {
+					final int partition = p;
+					orders.add(new Callable<Void>() {
+						public Void call() {
+							order(partition);
+							return null;
+						}
+					});
+				}
+				for (Future<Void> f: pool.invokeAll(orders)) {
+					join(f);
+				}
+				if (m != null) {
+					m.phaseTimed(MetricsListener.Phase.SORT, System.nanoTime() - start);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		MetricsListener m = engine.metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		engine.indexLock.writeLock().lock();
+		try {
+			for (int p=0; p < partitions.size(); p++) {
+				engine.keywordsIndex.putAll(partitions.get(p));
+				engine.documentOrder.lists.putAll(documentPartitions.get(p));
+			}
+			for (int p=0; p < compactPartitions.size(); p++) {
+				HashMap<String,PostingList> sorted = documentPartitions.get(p);
+				for (Map.Entry<String,PostingList> e: compactPartitions.get(p).entrySet()) {
+					compact.put(e.getKey(), e.getValue(), sorted.get(e.getKey()));
+				}
+			}
+			for (HashMap<String,PositionList> partition: positionPartitions) {
+				compact.positions.putAll(partition);
+			}
+		} finally {
+			engine.indexLock.writeLock().unlock();
+		}
+		if (m != null) {
+			m.phaseTimed(MetricsListener.Phase.MERGE, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Puts the lists of a partition appended to by a bulk build in order.
+	 *
+	 * @param partition Partition number
+	 */
+	void order(int partition) {
+		HashMap<String,Integer> appended = unordered.get(partition);
+		if (compact != null) {
+			CompactIndex.order(compactPartitions.get(partition), appended);
+			return;
+		}
+		HashMap<String,ArrayList<Occurrence>> index = partitions.get(partition);
+		for (Map.Entry<String,Integer> e: appended.entrySet()) {
+			LittleSearchEngine.insertAllOccurrences(index.get(e.getKey()), e.getValue());
+		}
+		appended.clear();
+	}
+
+	/**
+	 * Waits for a task to complete, rethrowing its failure.
+	 *
+	 * @param f Future of the task
+	 * @throws FileNotFoundException If the task failed to find a document
+	 */
+	private static void join(Future<?> f)
+	throws FileNotFoundException {
+		try {
+			f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Indexing interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof FileNotFoundException) {
+				throw (FileNotFoundException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Returns the partition a keyword belongs to.
+	 *
+	 * @param kw Keyword
+	 * @return Partition number, 0..parallelism-1
+	 */
+	int partitionOf(String kw) {
+		int h = kw.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % parallelism;
+	}
+
+	/**
+	 * Scans one document, and splits its keywords into partitions.
+	 */
+	class ScanTask implements Callable<List<List<Map.Entry<String,Occurrence>>>> {
+
+		String doc;
+
+		List<List<Map.Entry<String,Occurrence>>> parts;
+
+		/**
+		 * True if the document has no keywords.
+		 */
+		boolean empty;
+
+		/**
+		 * Number of keywords in the document.
+		 */
+		int keywords;
+
+		/**
+		 * Length of the document, in keywords counted with repetition.
+		 */
+		int length;
+
+		/**
+		 * Id of the document in the compact index.
+		 */
+		int docId;
+
+		ScanTask(String doc) {
+			this.doc = doc;
+		}
+
+		public List<List<Map.Entry<String,Occurrence>>> call()
+		throws FileNotFoundException {
+			HashMap<String,Occurrence> kws = engine.loadKeyWords(doc);
+			empty = kws.isEmpty();
+			keywords = kws.size();
+			for (Occurrence occ: kws.values()) {
+				length += occ.frequency;
+			}
+			parts = new ArrayList<List<Map.Entry<String,Occurrence>>>(parallelism);
+			for (int p=0; p < parallelism; p++) {
+				parts.add(new ArrayList<Map.Entry<String,Occurrence>>());
+			}
+			for (Map.Entry<String,Occurrence> e: kws.entrySet()) {
+				parts.get(partitionOf(e.getKey())).add(e);
+			}
+			return parts;
+		}
+	}
+
+	/**
+	 * Merges one partition of every document in a batch, in document order.
+	 */
+	class MergeTask implements Callable<Void> {
+
+		int partition;
+
+		ArrayList<ScanTask> scans;
+
+		MergeTask(int partition, ArrayList<ScanTask> scans) {
+			this.partition = partition;
+			this.scans = scans;
+		}
+
+		public Void call() {
+			if (compact != null) {
+				mergeCompact();
+				return null;
+			}
+			HashMap<String,ArrayList<Occurrence>> index = partitions.get(partition);
+			HashMap<String,PostingList> sorted = documentPartitions.get(partition);
+			for (ScanTask scan: scans) {
+				for (Map.Entry<String,Occurrence> e: scan.parts.get(partition)) {
+					String kw = e.getKey();
+					ArrayList<Occurrence> occs = index.get(kw);
+					if (occs == null) {
+						// keywords indexed before this build continue their existing lists
+						occs = engine.keywordsIndex.get(kw);
+						if (occs == null) {
+							occs = new ArrayList<Occurrence>();
+						}
+						index.put(kw, occs);
+						PostingList existing = engine.documentOrder.lists.get(kw);
+						if (existing != null) {
+							sorted.put(kw, existing);
+						}
+						if (unordered != null) {
+							unordered.get(partition).put(kw, occs.size());
+						}
+					}
+					occs.add(e.getValue());
+					CompactIndex.addByDocument(sorted, kw, e.getValue().id, e.getValue().frequency);
+					if (unordered == null && occs.size() > 1) {
+						engine.insertLastOccurrence(occs);
+					}
+				}
+			}
+			return null;
+		}
+
+		private void mergeCompact() {
+			HashMap<String,PostingList> index = compactPartitions.get(partition);
+			HashMap<String,PositionList> positions = compact.positions == null ? null : positionPartitions.get(partition);
+			HashMap<String,PostingList> sorted = documentPartitions.get(partition);
+			for (ScanTask scan: scans) {
+				for (Map.Entry<String,Occurrence> e: scan.parts.get(partition)) {
+					String kw = e.getKey();
+					if (!index.containsKey(kw)) {
+						// read only here; a compressed list is decoded into a new copy
+						PostingList existing = compact.postings(kw);
+						if (existing != null) {
+							index.put(kw, existing);
+							sorted.put(kw, existing.sortedByDocument());
+						}
+					}
+					CompactIndex.addByDocument(sorted, kw, scan.docId, e.getValue().frequency);
+					if (unordered != null) {
+						CompactIndex.append(index, unordered.get(partition), kw, scan.docId, e.getValue().frequency);
+					} else {
+						CompactIndex.merge(index, kw, scan.docId, e.getValue().frequency);
+					}
+					if (positions != null) {
+						if (!positions.containsKey(kw) && compact.positions.containsKey(kw)) {
+							positions.put(kw, compact.positions.get(kw));
+						}
+						CompactIndex.addPositions(positions, kw, scan.docId, e.getValue());
+					}
+				}
+			}
+		}
+	}
+}
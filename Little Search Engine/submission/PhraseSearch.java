@@ -0,0 +1,224 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class evaluates phrase and proximity queries against an index that keeps keyword
+ * positions. A phrase matches where its keywords occur at the same distances from each
+ * other as in the phrase, words that are not keywords (noise words, numbers) leaving gaps
+ * of their own length; "the white rabbit" thus matches "a white rabbit" but not "white
+ * and rabbit". A query "alice NEAR/3 rabbit" matches where the two keywords are at most
+ * 3 words apart, in either order.
+ *
+ * Candidate documents are those holding every keyword, found by intersecting the
+ * keywords' lists as a boolean AND clause does. Only for them are positions decoded, and
+ * the keywords' position lists are then merged, each pointer only moving forward.
+ *
+ * A document's score is its number of matches: phrase occurrences, or occurrences of the
+ * first keyword with the second near it. The best k are kept in a TopDocs heap.
+ *
+ */
+class PhraseSearch {
+
+	/**
+	 * Keywords of a phrase, with their positions in it. Keywords may repeat.
+	 */
+	static class Phrase {
+		ArrayList<String> keywords = new ArrayList<String>();
+		int[] offsets;
+	}
+
+	/**
+	 * A parsed NEAR query.
+	 */
+	static class Near {
+		String first;
+		String second;
+		int distance;
+	}
+
+	/**
+	 * Parses a phrase, putting each word through getKeyWord.
+	 *
+	 * @param engine Engine that decides which words are keywords
+	 * @param phrase Phrase
+	 * @return Keywords with their offsets from the first keyword
+	 * @throws IllegalArgumentException If the phrase has no keywords
+	 */
+	static Phrase parsePhrase(LittleSearchEngine engine, String phrase) {
+		Phrase p = new Phrase();
+		String[] words = phrase.trim().split("\\s+");
+		int[] offsets = new int[words.length];
+		int first = -1;
+		for (int i=0; i < words.length; i++) {
+			if (words[i].isEmpty()) {
+				continue;
+			}
+			String kw = engine.getKeyWord(words[i]);
+			if (kw != null) {
+				if (first < 0) {
+					first = i;
+				}
+				offsets[p.keywords.size()] = i - first;
+				p.keywords.add(kw);
+			}
+		}
+		if (p.keywords.isEmpty()) {
+			throw new IllegalArgumentException("Phrase has no keywords: " + phrase);
+		}
+		p.offsets = Arrays.copyOf(offsets, p.keywords.size());
+		return p;
+	}
+
+	/**
+	 * Parses a query of the form "keyword NEAR/n keyword".
+	 *
+	 * @param engine Engine that decides which words are keywords
+	 * @param query Query
+	 * @return Parsed query
+	 * @throws IllegalArgumentException If the query is not of that form, or either word is
+	 *         not a keyword
+	 */
+	static Near parseNear(LittleSearchEngine engine, String query) {
+		String[] tokens = query.trim().split("\\s+");
+		if (tokens.length != 3 || !tokens[1].matches("NEAR/\\d{1,9}")) {
+			throw new IllegalArgumentException("Expected \"keyword NEAR/n keyword\": " + query);
+		}
+		Near near = new Near();
+		near.first = engine.getKeyWord(tokens[0]);
+		near.second = engine.getKeyWord(tokens[2]);
+		if (near.first == null || near.second == null) {
+			throw new IllegalArgumentException("Not a keyword: " + (near.first == null ? tokens[0] : tokens[2]));
+		}
+		near.distance = Integer.parseInt(tokens[1].substring(5));
+		return near;
+	}
+
+	/**
+	 * Finds the documents holding a phrase.
+	 *
+	 * @param reader Index, with positions
+	 * @param phrase Parsed phrase
+	 * @param k Maximum number of documents
+	 * @return Names of up to k documents, most occurrences first
+	 */
+	static ArrayList<String> phrase(IndexReader reader, Phrase phrase, int k) {
+		int n = phrase.keywords.size();
+		TopDocs top = new TopDocs(k);
+		BooleanSearch.Matches candidates = candidates(reader, phrase.keywords);
+		int[][] positions = new int[n][];
+		for (int c=0; c < candidates.size; c++) {
+			int doc = candidates.docs[c];
+			for (int i=0; i < n; i++) {
+				positions[i] = reader.positions(phrase.keywords.get(i), doc);
+			}
+			int count = countPhrase(positions, phrase.offsets);
+			if (count > 0) {
+				top.add(doc, count);
+			}
+		}
+		return top.names(reader);
+	}
+
+	/**
+	 * Finds the documents where two keywords occur near each other.
+	 *
+	 * @param reader Index, with positions
+	 * @param near Parsed query
+	 * @param k Maximum number of documents
+	 * @return Names of up to k documents, most matches first
+	 */
+	static ArrayList<String> near(IndexReader reader, Near near, int k) {
+		TopDocs top = new TopDocs(k);
+		BooleanSearch.Matches candidates = candidates(reader, Arrays.asList(near.first, near.second));
+		for (int c=0; c < candidates.size; c++) {
+			int doc = candidates.docs[c];
+			int count = countNear(reader.positions(near.first, doc), reader.positions(near.second, doc), near.distance);
+			if (count > 0) {
+				top.add(doc, count);
+			}
+		}
+		return top.names(reader);
+	}
+
+	/**
+	 * Returns the documents holding all the given keywords, in ascending order of id.
+	 */
+	private static BooleanSearch.Matches candidates(IndexReader reader, List<String> kws) {
+		BooleanSearch.Clause clause = new BooleanSearch.Clause();
+		for (String kw: kws) {
+			if (!clause.required.contains(kw)) {
+				clause.required.add(kw);
+			}
+		}
+		return BooleanSearch.evaluate(reader, clause);
+	}
+
+	/**
+	 * Counts the occurrences of a phrase in a document. The keyword with the fewest
+	 * positions anchors the phrase; for each of its positions, every other keyword's
+	 * pointer moves forward to where the keyword should be.
+	 *
+	 * @param positions Positions of each keyword of the phrase
+	 * @param offsets Offset of each keyword in the phrase
+	 * @return Number of occurrences
+	 */
+	static int countPhrase(int[][] positions, int[] offsets) {
+		int n = positions.length;
+		int anchor = 0;
+		for (int i=1; i < n; i++) {
+			if (positions[i].length < positions[anchor].length) {
+				anchor = i;
+			}
+		}
+		int[] next = new int[n];
+		int count = 0;
+		occurrences:
+		for (int p: positions[anchor]) {
+			int start = p - offsets[anchor];
+			for (int i=0; i < n; i++) {
+				int[] list = positions[i];
+				int target = start + offsets[i];
+				int j = next[i];
+				while (j < list.length && list[j] < target) {
+					j++;
+				}
+				next[i] = j;
+				if (j == list.length) {
+					break occurrences;
+				}
+				if (list[j] != target) {
+					continue occurrences;
+				}
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the positions of one keyword that have another keyword at most a given
+	 * number of words away. A keyword is not near itself at the same position.
+	 *
+	 * @param first Positions of the first keyword
+	 * @param second Positions of the second keyword
+	 * @param distance Maximum distance in words
+	 * @return Number of positions of the first keyword with the second near
+	 */
+	static int countNear(int[] first, int[] second, int distance) {
+		int count = 0, j = 0;
+		for (int p: first) {
+			long low = (long)p - distance;
+			while (j < second.length && second[j] < low) {
+				j++;
+			}
+			for (int i=j; i < second.length && second[i] <= (long)p + distance; i++) {
+				if (second[i] != p) {
+					count++;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+}
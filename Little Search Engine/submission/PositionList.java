@@ -0,0 +1,142 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class holds the positions of one keyword in every document that has it, for
+ * phrase and proximity search. A position is the number of words before the keyword in
+ * its document, counting every whitespace separated word, keyword or not.
+ *
+ * Documents are kept in ascending order of id, each with the offset at which its
+ * positions start in a shared byte array. A document's positions are variable-byte
+ * encoded as gaps, in ascending order, so a position mostly costs one byte. Finding a
+ * document's positions is a binary search over the ids.
+ *
+ */
+class PositionList {
+
+	/**
+	 * Document ids, ascending.
+	 */
+	int[] docs;
+
+	/**
+	 * Offset in data at which each document's positions start.
+	 */
+	int[] offsets;
+
+	/**
+	 * Number of documents.
+	 */
+	int size;
+
+	/**
+	 * Encoded positions of all documents.
+	 */
+	CompressedPostingList.ByteWriter data;
+
+	/**
+	 * Creates an empty list.
+	 */
+	PositionList() {
+		docs = new int[1];
+		offsets = new int[1];
+		data = new CompressedPostingList.ByteWriter(16);
+	}
+
+	/**
+	 * Adds the positions of the keyword in a document with a higher id than any already
+	 * in the list.
+	 *
+	 * @param doc Document id
+	 * @param positions Positions, ascending
+	 * @param count Number of positions to take from the array
+	 * @throws IllegalArgumentException If doc is not greater than the last id in the list
+	 */
+	void add(int doc, int[] positions, int count) {
+		if (size > 0 && doc <= docs[size-1]) {
+			throw new IllegalArgumentException("Document " + doc + " added after " + docs[size-1]);
+		}
+		if (size == docs.length) {
+			docs = Arrays.copyOf(docs, size*2);
+			offsets = Arrays.copyOf(offsets, size*2);
+		}
+		docs[size] = doc;
+		offsets[size] = data.size;
+		size++;
+		if (data.size + 5L*count > data.buf.length) {
+			// a trimmed list has no room to spare
+			data.buf = Arrays.copyOf(data.buf, Math.max(data.buf.length*2, data.size + 5*count));
+		}
+		int prev = 0;
+		for (int i=0; i < count; i++) {
+			data.writeVInt(positions[i] - prev);
+			prev = positions[i];
+		}
+	}
+
+	/**
+	 * Returns the positions of the keyword in a document.
+	 *
+	 * @param doc Document id
+	 * @return Positions, ascending, or null if the document is not in the list
+	 */
+	int[] positions(int doc) {
+		int i = Arrays.binarySearch(docs, 0, size, doc);
+		if (i < 0) {
+			return null;
+		}
+		int end = i+1 < size ? offsets[i+1] : data.size;
+		// every position takes at least one byte
+		int[] positions = new int[end - offsets[i]];
+		int n = 0, p = 0;
+		int[] pos = {offsets[i]};
+		while (pos[0] < end) {
+			p += CompressedPostingList.readVInt(data.buf, pos);
+			positions[n++] = p;
+		}
+		return n == positions.length ? positions : Arrays.copyOf(positions, n);
+	}
+
+	/**
+	 * Returns a copy of the list without the given documents.
+	 *
+	 * @param gone Ids of documents to drop
+	 * @return New list, or this one if it has none of the documents
+	 */
+	PositionList without(BitSet gone) {
+		boolean any = false;
+		for (int i=0; i < size && !any; i++) {
+			any = gone.get(docs[i]);
+		}
+		if (!any) {
+			return this;
+		}
+		PositionList kept = new PositionList();
+		for (int i=0; i < size; i++) {
+			if (!gone.get(docs[i])) {
+				int[] p = positions(docs[i]);
+				kept.add(docs[i], p, p.length);
+			}
+		}
+		kept.trim();
+		return kept;
+	}
+
+	/**
+	 * Releases unused capacity, once the list is built.
+	 */
+	void trim() {
+		docs = Arrays.copyOf(docs, Math.max(size, 1));
+		offsets = Arrays.copyOf(offsets, Math.max(size, 1));
+		data.buf = data.toArray();
+	}
+
+	/**
+	 * Returns the number of bytes taken by the list: 8 per document, plus the encoded
+	 * positions.
+	 */
+	long bytes() {
+		return 8L * docs.length + data.buf.length;
+	}
+}
@@ -0,0 +1,391 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is the list of occurrences of one keyword, stored as two parallel arrays
+ * of document ids and frequencies instead of a list of Occurrence objects. Like an
+ * occurrence list in keywordsIndex, it is kept in descending order of frequency.
+ *
+ */
+class PostingList {
+
+	/**
+	 * Length up to which insertAll simply calls insertLast for each appended posting.
+	 */
+	static final int REPLAY = 64;
+
+	/**
+	 * Document ids, in the same order as freqs.
+	 */
+	int[] docs;
+
+	/**
+	 * Frequencies, in descending order.
+	 */
+	int[] freqs;
+
+	/**
+	 * Number of postings.
+	 */
+	int size;
+
+	/**
+	 * Creates an empty posting list.
+	 */
+	PostingList() {
+		this(2);
+	}
+
+	/**
+	 * Creates an empty posting list with room for the given number of postings.
+	 *
+	 * @param capacity Initial capacity
+	 */
+	PostingList(int capacity) {
+		docs = new int[Math.max(capacity, 1)];
+		freqs = new int[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Returns the number of postings.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the document id of the i-th posting.
+	 */
+	int doc(int i) {
+		return docs[i];
+	}
+
+	/**
+	 * Returns the frequency of the i-th posting.
+	 */
+	int frequency(int i) {
+		return freqs[i];
+	}
+
+	/**
+	 * Appends a posting at the end of the list, without reordering.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency
+	 */
+	void add(int doc, int freq) {
+		if (size == docs.length) {
+			int capacity = size + (size >> 1) + 1;
+			docs = Arrays.copyOf(docs, capacity);
+			freqs = Arrays.copyOf(freqs, capacity);
+		}
+		docs[size] = doc;
+		freqs[size] = freq;
+		size++;
+	}
+
+	/**
+	 * Moves the last posting to its place in descending order of frequency. The
+	 * position is found with exactly the same binary search as insertLastOccurrence,
+	 * so a list built this way is in the same order as the equivalent occurrence list.
+	 */
+	void insertLast() {
+		int n = size;
+		if (n <= 1) {
+			return;
+		}
+		int lastDoc = docs[n-1], lastFreq = freqs[n-1];
+		int low = 0, high = n-1, pos = -1;
+		while (low <= high) {
+			int mid = (low + high) / 2;
+			if (lastFreq > freqs[mid]) {
+				high = mid-1;
+			} else if (lastFreq < freqs[mid]) {
+				low = mid+1;
+			} else {
+				pos = mid;
+				break;
+			}
+		}
+		if (pos < 0) {
+			pos = low;
+		}
+		if (pos >= n-1) {
+			return;
+		}
+		System.arraycopy(docs, pos, docs, pos+1, n-1-pos);
+		System.arraycopy(freqs, pos, freqs, pos+1, n-1-pos);
+		docs[pos] = lastDoc;
+		freqs[pos] = lastFreq;
+	}
+
+	/**
+	 * Adds a posting to a list kept in ascending order of document id, in its place. A
+	 * posting for a document newer than the others, the usual case, is simply appended.
+	 * Postings of the same document stay in the order they were added.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency
+	 */
+	void addByDocument(int doc, int freq) {
+		add(doc, freq);
+		int n = size;
+		if (n <= 1 || docs[n-2] <= doc) {
+			return;
+		}
+		// first posting of a later document
+		int low = 0, high = n-1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (docs[mid] <= doc) {
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		System.arraycopy(docs, low, docs, low+1, n-1-low);
+		System.arraycopy(freqs, low, freqs, low+1, n-1-low);
+		docs[low] = doc;
+		freqs[low] = freq;
+	}
+
+	/**
+	 * Puts postings appended with add into the places insertLast would have moved them
+	 * to, had it been called after each one, for a bulk build that appends first and
+	 * orders once. The result is the same, but no posting is shifted more than once.
+	 *
+	 * @param sorted Number of postings at the head of the list that are already in order;
+	 *               the rest were appended after them, in order
+	 */
+	void insertAll(int sorted) {
+		if (size - sorted < 1 || size < 2) {
+			return;
+		}
+		if (size <= REPLAY) {
+			// a short list costs less to insert into than to work out
+			int n = size;
+			for (size = sorted; size < n; ) {
+				size++;
+				insertLast();
+			}
+			return;
+		}
+		int[] order = insertionOrder(freqs, sorted, size);
+		int[] d = new int[docs.length], f = new int[freqs.length];
+		for (int i=0; i < size; i++) {
+			d[i] = docs[order[i]];
+			f[i] = freqs[order[i]];
+		}
+		docs = d;
+		freqs = f;
+	}
+
+	/**
+	 * Returns the order that insertLast, called after each posting is appended, leaves
+	 * postings in, without moving any. The order within a run of equal frequencies
+	 * depends on where the binary search first lands in the run, and that depends only
+	 * on how many postings each frequency has. So a first pass replays each binary
+	 * search against counts per frequency, kept in a Fenwick tree, and records how far
+	 * into its run each posting went in. Postings inserted later only push earlier ones
+	 * further back, so a second pass, from the last posting to the first, puts each one
+	 * in the free slot of its run that it would have been pushed to. Both passes take
+	 * O(log n) per posting, where the insertions take O(n).
+	 *
+	 * @param freqs Frequencies; the first sorted are in descending order, and the rest
+	 *              were appended after them, in order
+	 * @param sorted Number of postings already in order
+	 * @param n Number of postings
+	 * @return For each position of the ordered list, the index in freqs of the posting there
+	 */
+	static int[] insertionOrder(int[] freqs, int sorted, int n) {
+		if (n <= REPLAY) {
+			PostingList list = new PostingList(n);
+			for (int i=0; i < n; i++) {
+				list.add(i, freqs[i]);
+				if (i >= sorted) {
+					list.insertLast();
+				}
+			}
+			return list.docs;
+		}
+		// distinct frequencies, descending; a frequency's rank is its index here
+		int[] ascending = Arrays.copyOf(freqs, n);
+		Arrays.sort(ascending);
+		int[] distinct = new int[n];
+		int d = 0;
+		for (int i = n-1; i >= 0; i--) {
+			if (d == 0 || ascending[i] != distinct[d-1]) {
+				distinct[d++] = ascending[i];
+			}
+		}
+		int[] rank = new int[n];
+		for (int i=0; i < n; i++) {
+			rank[i] = rankOf(distinct, d, freqs[i]);
+		}
+
+		// first pass: the offset into its run at which each appended posting is inserted
+		int[] counts = new int[d+1];
+		for (int i=0; i < sorted; i++) {
+			add(counts, rank[i], 1);
+		}
+		int[] offset = new int[n];
+		for (int i = sorted; i < n; i++) {
+			int freq = freqs[i];
+			// the search of insertLast, over i postings in order and this one last
+			int low = 0, high = i, pos = -1;
+			while (low <= high) {
+				int mid = (low + high) / 2;
+				int midFreq = mid == i ? freq : distinct[find(counts, d, mid)];
+				if (freq > midFreq) {
+					high = mid-1;
+				} else if (freq < midFreq) {
+					low = mid+1;
+				} else {
+					pos = mid;
+					break;
+				}
+			}
+			if (pos < 0) {
+				pos = low;
+			}
+			offset[i] = pos - sum(counts, rank[i]);
+			add(counts, rank[i], 1);
+		}
+
+		// second pass: slots, from the last posting back; each takes the offset-th free slot of its run
+		int[] start = new int[d];
+		for (int r=1; r < d; r++) {
+			start[r] = sum(counts, r);
+		}
+		int[] free = new int[n+1];
+		for (int i=1; i <= n; i++) {
+			free[i] = i & -i;
+		}
+		int[] order = new int[n];
+		boolean[] taken = new boolean[n];
+		for (int i = n-1; i >= sorted; i--) {
+			int slot = find(free, n, sum(free, start[rank[i]]) + offset[i]);
+			add(free, slot, -1);
+			taken[slot] = true;
+			order[slot] = i;
+		}
+		// postings that were in order fill the slots left, in order
+		for (int i = 0, slot = 0; i < sorted; i++, slot++) {
+			while (taken[slot]) {
+				slot++;
+			}
+			order[slot] = i;
+		}
+		return order;
+	}
+
+	/**
+	 * Returns the index of a frequency in an array of d distinct frequencies, descending.
+	 */
+	private static int rankOf(int[] distinct, int d, int freq) {
+		int low = 0, high = d-1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (distinct[mid] > freq) {
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Adds to the count at index i of a Fenwick tree.
+	 */
+	private static void add(int[] tree, int i, int delta) {
+		for (i++; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * Returns the sum of the counts at indexes below i of a Fenwick tree.
+	 */
+	private static int sum(int[] tree, int i) {
+		int s = 0;
+		for (; i > 0; i -= i & -i) {
+			s += tree[i];
+		}
+		return s;
+	}
+
+	/**
+	 * Returns the index holding the k-th unit (from 0) of the counts of a Fenwick tree
+	 * over n indexes: the index i with sum(i) <= k < sum(i+1).
+	 */
+	private static int find(int[] tree, int n, int k) {
+		int pos = 0;
+		for (int step = Integer.highestOneBit(n); step > 0; step >>= 1) {
+			if (pos + step <= n && tree[pos + step] <= k) {
+				pos += step;
+				k -= tree[pos];
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Returns a copy of this list sorted in ascending order of document id.
+	 *
+	 * @return Sorted copy
+	 */
+	PostingList sortedByDocument() {
+		long[] sorted = new long[size];
+		for (int i=0; i < size; i++) {
+			sorted[i] = ((long)docs[i] << 32) | (freqs[i] & 0xffffffffL);
+		}
+		Arrays.sort(sorted);
+		PostingList list = new PostingList(size);
+		for (long p: sorted) {
+			list.add((int)(p >>> 32), (int)p);
+		}
+		return list;
+	}
+
+	/**
+	 * Releases unused capacity.
+	 */
+	void trim() {
+		if (docs.length != size) {
+			docs = Arrays.copyOf(docs, size);
+			freqs = Arrays.copyOf(freqs, size);
+		}
+	}
+
+	/**
+	 * Returns the first postings of this list as Occurrence objects.
+	 *
+	 * @param index Index that numbered the documents
+	 * @param limit Maximum number of occurrences to return
+	 * @return Occurrences, in the order of this list
+	 */
+	ArrayList<Occurrence> toOccurrences(IndexReader index, int limit) {
+		int n = Math.min(size, limit);
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(n);
+		for (int i=0; i < n; i++) {
+			occs.add(new Occurrence(index.documentName(docs[i]), freqs[i]));
+		}
+		return occs;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i=0; i < size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append("(").append(docs[i]).append(",").append(freqs[i]).append(")");
+		}
+		return sb.append("]").toString();
+	}
+}
@@ -0,0 +1,202 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class caches search results, so that a query asked again is answered without
+ * touching the index. It is bounded both in entries and in (estimated) bytes, and evicts
+ * the least recently used entries first. All methods are synchronized, so one cache can
+ * be shared by every thread searching an engine.
+ *
+ * Every result is stored with the generation of the index it was computed from. The
+ * engine bumps its generation whenever the index changes, and a result from an older
+ * generation is treated as a miss and dropped, so the cache never needs to be cleared
+ * by hand. A search reads the generation before it reads the index, so a result computed
+ * while the index was changing is stored under the older generation and never served.
+ *
+ */
+public class QueryCache {
+
+	/**
+	 * A cached result.
+	 */
+	static class Entry {
+		long generation;
+		ArrayList<String> result;
+		long bytes;
+
+		/**
+		 * Returns a copy of the result, which the caller may modify.
+		 */
+		ArrayList<String> copy() {
+			return result == null ? null : new ArrayList<String>(result);
+		}
+	}
+
+	/**
+	 * Entries in order of use, least recently used first.
+	 */
+	LinkedHashMap<String,Entry> entries;
+
+	int maxEntries;
+
+	long maxBytes;
+
+	/**
+	 * Estimated bytes taken by the entries.
+	 */
+	long bytes;
+
+	long hits;
+
+	long misses;
+
+	long evictions;
+
+	long invalidations;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxEntries Maximum number of results
+	 * @param maxBytes Maximum estimated size of the results in bytes
+	 * @throws IllegalArgumentException If either limit is less than 1
+	 */
+	QueryCache(int maxEntries, long maxBytes) {
+		if (maxEntries < 1 || maxBytes < 1) {
+			throw new IllegalArgumentException("Cache limits must be at least 1: " + maxEntries + " entries, " + maxBytes + " bytes");
+		}
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Looks up a query.
+	 *
+	 * @param key Query, including the kind of search and its parameters
+	 * @param generation Current generation of the index
+	 * @return Cached result, or null if there is none for this generation
+	 */
+	synchronized Entry get(String key, long generation) {
+		Entry e = entries.get(key);
+		if (e != null && e.generation != generation) {
+			entries.remove(key);
+			bytes -= e.bytes;
+			invalidations++;
+			e = null;
+		}
+		if (e == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return e;
+	}
+
+	/**
+	 * Stores a result, evicting the least recently used entries if the cache is full.
+	 * A result too big for the cache on its own is not stored.
+	 *
+	 * @param key Query
+	 * @param generation Generation of the index the result was computed from
+	 * @param result Result, possibly null; the cache keeps its own copy
+	 */
+	synchronized void put(String key, long generation, ArrayList<String> result) {
+		Entry e = new Entry();
+		e.generation = generation;
+		e.result = result == null ? null : new ArrayList<String>(result);
+		e.bytes = estimate(key, result);
+		if (e.bytes > maxBytes) {
+			return;
+		}
+		Entry old = entries.put(key, e);
+		if (old != null) {
+			bytes -= old.bytes;
+		}
+		bytes += e.bytes;
+		Iterator<Entry> it = entries.values().iterator();
+		while (entries.size() > maxEntries || bytes > maxBytes) {
+			Entry lru = it.next();
+			it.remove();
+			bytes -= lru.bytes;
+			evictions++;
+		}
+	}
+
+	/**
+	 * Estimates the bytes an entry takes: the map node, the key's characters, the entry,
+	 * and the result list's array of references. Document names are shared with the
+	 * index, so they are not counted.
+	 */
+	static long estimate(String key, ArrayList<String> result) {
+		long size = 48 + 40 + 2L * key.length() + 32;
+		if (result != null) {
+			size += 24 + 16 + 8L * result.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Removes every entry. Statistics are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache.
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that found no result for the current index.
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of lookups answered from the cache.
+	 */
+	public synchronized double hitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double)hits / lookups;
+	}
+
+	/**
+	 * Returns the number of entries evicted to stay within the limits.
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of entries dropped because the index had changed.
+	 */
+	public synchronized long invalidations() {
+		return invalidations;
+	}
+
+	/**
+	 * Returns the number of cached results.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the estimated size of the cached results in bytes.
+	 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	public synchronized String toString() {
+		return String.format("%d entries, %d bytes, %d hits, %d misses (%.1f%% hits), %d evictions, %d invalidations",
+				entries.size(), bytes, hits, misses, 100*hitRate(), evictions, invalidations);
+	}
+}
@@ -0,0 +1,289 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class ranks documents against a set of keywords under Okapi BM25. A keyword
+ * with frequency tf in a document of length dl adds
+ *
+ *   idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * dl / avgdl))
+ *
+ * to the document's score, where idf = ln(1 + (N - df + 0.5) / (df + 0.5)), N is the
+ * number of documents, df the number of documents holding the keyword, and avgdl the
+ * average document length. A document's length is its number of keywords, noise words
+ * left out, as counted by loadKeyWords.
+ *
+ * Everything that does not depend on the query is computed once, when the index is
+ * built: N, avgdl, and for every document the norm K1 * (1 - B + B * dl / avgdl). The df
+ * of a keyword is the length of its list. A query then costs one division per posting.
+ *
+ * The keywords' lists are read together in document order, each document's score is
+ * summed across them, and the best k are kept in a TopDocs heap.
+ *
+ */
+class RankedSearch {
+
+	/**
+	 * Saturation of term frequency.
+	 */
+	static final float K1 = 1.2f;
+
+	/**
+	 * Strength of document length normalization.
+	 */
+	static final float B = 0.75f;
+
+	/**
+	 * Number of documents.
+	 */
+	int documents;
+
+	/**
+	 * Average document length.
+	 */
+	double averageLength;
+
+	/**
+	 * Norm of each document, indexed by document id: the reader's ids, or for
+	 * keywordsIndex the engine's documentIds.
+	 */
+	float[] norms;
+
+	/**
+	 * Name of each document, indexed by the engine's documentIds. Null unless the index
+	 * is kept in keywordsIndex.
+	 */
+	String[] names;
+
+	/**
+	 * Index the norms were computed for. A snapshot search must not use the norms of
+	 * another snapshot.
+	 */
+	IndexReader source;
+
+	/**
+	 * Computes the collection statistics.
+	 *
+	 * @param documents Number of documents
+	 * @param totalLength Sum of all document lengths
+	 */
+	RankedSearch(int documents, long totalLength) {
+		this.documents = documents;
+		averageLength = documents == 0 ? 0 : (double)totalLength / documents;
+	}
+
+	/**
+	 * Computes the collection statistics from document lengths.
+	 *
+	 * @param lengths Length of every document
+	 * @return Ranking, without norms
+	 */
+	static RankedSearch fromLengths(Collection<Integer> lengths) {
+		long total = 0;
+		for (int length: lengths) {
+			total += length;
+		}
+		return new RankedSearch(lengths.size(), total);
+	}
+
+	/**
+	 * Returns the norm of a document of the given length.
+	 */
+	float norm(int length) {
+		if (averageLength == 0) {
+			return K1;
+		}
+		return (float)(K1 * (1 - B + B * length / averageLength));
+	}
+
+	/**
+	 * Computes the norm of every document of an index, from lengths by document name.
+	 * Documents without a length, such as deleted ones, get the norm of length 0.
+	 *
+	 * @param reader Index
+	 * @param lengths Document lengths by name
+	 * @return Norms, indexed by document id
+	 */
+	float[] norms(IndexReader reader, Map<String,Integer> lengths) {
+		float[] norms = new float[reader.documentCount()];
+		for (int d=0; d < norms.length; d++) {
+			Integer length = lengths.get(reader.documentName(d));
+			norms[d] = norm(length == null ? 0 : length);
+		}
+		return norms;
+	}
+
+	/**
+	 * Numbers the documents of keywordsIndex: fills names and norms, indexed by the
+	 * engine's document ids. Documents without a length, such as deleted ones, get the
+	 * norm of length 0.
+	 *
+	 * @param ids Document ids by name, numbered from 0 without gaps
+	 * @param lengths Document lengths by name
+	 */
+	void number(Map<String,Integer> ids, Map<String,Integer> lengths) {
+		names = new String[ids.size()];
+		norms = new float[ids.size()];
+		for (Map.Entry<String,Integer> e: ids.entrySet()) {
+			Integer length = lengths.get(e.getKey());
+			names[e.getValue()] = e.getKey();
+			norms[e.getValue()] = norm(length == null ? 0 : length);
+		}
+	}
+
+	/**
+	 * Computes the norm of every document of a snapshot, from the lengths its segments
+	 * recorded. Deleted documents get the norm of length 0.
+	 *
+	 * @param snapshot Snapshot
+	 * @return Norms, indexed by document id
+	 */
+	float[] norms(IndexSnapshot snapshot) {
+		float[] norms = new float[snapshot.documentCount()];
+		for (int d=0; d < norms.length; d++) {
+			norms[d] = norm(snapshot.deleted.get(d) ? 0 : snapshot.documentLength(d));
+		}
+		return norms;
+	}
+
+	/**
+	 * Computes the norm of every document of a segment, from the lengths stored in it.
+	 *
+	 * @param segment Segment
+	 * @return Norms, indexed by document id
+	 */
+	float[] norms(IndexSegment segment) {
+		float[] norms = new float[segment.documentCount()];
+		for (int d=0; d < norms.length; d++) {
+			norms[d] = norm(segment.documentLength(d));
+		}
+		return norms;
+	}
+
+	/**
+	 * Returns the inverse document frequency of a keyword.
+	 *
+	 * @param df Number of documents holding the keyword
+	 * @return Idf, always positive
+	 */
+	float idf(int df) {
+		return (float)Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+	}
+
+	/**
+	 * Counts the postings of a cursor by reading them all.
+	 */
+	private static int count(DocCursor c) {
+		int n = 0;
+		for (; c.doc() != DocCursor.END; c.next()) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Finds the k documents that score highest against the keywords.
+	 *
+	 * @param reader Index
+	 * @param norms Norms of the index's documents
+	 * @param kws Distinct keywords
+	 * @param k Maximum number of documents
+	 * @return Names of up to k documents, best first
+	 */
+	ArrayList<String> search(IndexReader reader, float[] norms, List<String> kws, int k) {
+		DocCursor[] cursors = new DocCursor[kws.size()];
+		float[] weights = new float[kws.size()];
+		int n = 0;
+		for (String kw: kws) {
+			DocCursor c = reader.cursor(kw);
+			if (c == null) {
+				continue;
+			}
+			// a cursor that steps over deleted documents counts them in its size
+			int df = c instanceof DocCursor.LiveCursor ? count(reader.cursor(kw)) : c.size();
+			if (df > 0) {
+				weights[n] = idf(df) * (K1 + 1);
+				cursors[n++] = c;
+			}
+		}
+
+		TopDocs top = new TopDocs(k);
+		while (true) {
+			int doc = DocCursor.END;
+			for (int i=0; i < n; i++) {
+				doc = Math.min(doc, cursors[i].doc());
+			}
+			if (doc == DocCursor.END) {
+				break;
+			}
+			float norm = norms[doc], score = 0;
+			for (int i=0; i < n; i++) {
+				DocCursor c = cursors[i];
+				if (c.doc() == doc) {
+					int tf = c.frequency();
+					score += weights[i] * tf / (tf + norm);
+					c.next();
+				}
+			}
+			top.add(doc, Float.floatToIntBits(score));
+		}
+		return top.names(reader);
+	}
+
+	/**
+	 * Finds the k documents that score highest against the keywords, straight from the
+	 * lists of keywordsIndex, which are in order of frequency, not of document. Each
+	 * posting's part of its document's score is computed and tagged with the document's
+	 * id and its own place, so that sorting the tags brings a document's parts together,
+	 * in keyword order, to be summed as search sums them. The norms and names are those
+	 * from number.
+	 *
+	 * @param index Lists of keywordsIndex, whose occurrences have ids below names.length
+	 * @param kws Distinct keywords
+	 * @param k Maximum number of documents
+	 * @return Names of up to k documents, best first
+	 */
+	ArrayList<String> search(Map<String,ArrayList<Occurrence>> index, List<String> kws, int k) {
+		int total = 0;
+		for (String kw: kws) {
+			ArrayList<Occurrence> occs = index.get(kw);
+			if (occs != null) {
+				total += occs.size();
+			}
+		}
+		long[] tags = new long[total];
+		float[] parts = new float[total];
+		int p = 0;
+		for (String kw: kws) {
+			ArrayList<Occurrence> occs = index.get(kw);
+			if (occs == null || occs.isEmpty()) {
+				continue;
+			}
+			float weight = idf(occs.size()) * (K1 + 1);
+			for (int i=0; i < occs.size() && p < total; i++) {
+				Occurrence occ = occs.get(i);
+				int tf = occ.frequency;
+				parts[p] = weight * tf / (tf + norms[occ.id]);
+				tags[p] = ((long)occ.id << 32) | p;
+				p++;
+			}
+		}
+		Arrays.sort(tags, 0, p);
+
+		TopDocs top = new TopDocs(k);
+		for (int i=0; i < p; ) {
+			int doc = (int)(tags[i] >>> 32);
+			float score = 0;
+			for (; i < p && (int)(tags[i] >>> 32) == doc; i++) {
+				score += parts[(int)tags[i]];
+			}
+			top.add(doc, Float.floatToIntBits(score));
+		}
+		int[] docs = top.documents();
+		ArrayList<String> result = new ArrayList<String>(docs.length);
+		for (int doc: docs) {
+			result.add(names[doc]);
+		}
+		return result;
+	}
+}
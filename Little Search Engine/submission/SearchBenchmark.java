@@ -0,0 +1,1778 @@
+package search;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * Timing driver for LittleSearchEngine. Each benchmark builds or queries an index over a
+ * set of documents, and prints elapsed times and throughput.
+ *
+ * Usage: java search.SearchBenchmark benchmark docsFile noiseWordsFile [args...]
+ *
+ */
+public class SearchBenchmark {
+
+	/**
+	 * Number of untimed runs before the timed ones, to let the JIT compile the code.
+	 */
+	static final int WARMUP = 3;
+
+	/**
+	 * Number of timed runs. The best of these is reported.
+	 */
+	static final int RUNS = 5;
+
+	public static void main(String[] args)
+	throws IOException, JMException {
+		if (args.length < 3) {
+			System.err.println("Usage: java search.SearchBenchmark benchmark docsFile noiseWordsFile [args...]");
+			System.err.println("Benchmarks: index [threads], noise, memory, compression, segment, spimi [budgetMB], topk, prefix,");
+			System.err.println("            boolean, ranked, bulk, metrics, chunked [fileMB],");
+			System.err.println("            fuzzy [vocabulary], phrase, cache, batch [threads], shards [maxShards [clients]],");
+			System.err.println("            snapshot [readers [writers [seconds]]], bloom [falsePositiveRate]");
+			System.exit(1);
+		}
+		String benchmark = args[0];
+		String docsFile = args[1];
+		String noiseWordsFile = args[2];
+		if (benchmark.equals("index")) {
+			int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+			indexThroughput(docsFile, noiseWordsFile, threads);
+		} else if (benchmark.equals("bulk")) {
+			bulkBuild(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("metrics")) {
+			metrics(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("noise")) {
+			noiseWordFilter(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("memory")) {
+			postingMemory(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("compression")) {
+			compression(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("segment")) {
+			segment(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("spimi")) {
+			long budget = (args.length > 3 ? Long.parseLong(args[3]) : 4) << 20;
+			spimi(docsFile, noiseWordsFile, budget);
+		} else if (benchmark.equals("chunked")) {
+			long size = (args.length > 3 ? Long.parseLong(args[3]) : 256) << 20;
+			chunkedTokenize(docsFile, noiseWordsFile, size);
+		} else if (benchmark.equals("topk")) {
+			topK(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("prefix")) {
+			prefixSearch(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("fuzzy")) {
+			int vocabulary = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+			fuzzySearch(docsFile, noiseWordsFile, vocabulary);
+		} else if (benchmark.equals("boolean")) {
+			booleanSearch(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("ranked")) {
+			rankedSearch(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("phrase")) {
+			phraseSearch(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("cache")) {
+			queryCache(docsFile, noiseWordsFile);
+		} else if (benchmark.equals("batch")) {
+			int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+			batchSearch(docsFile, noiseWordsFile, threads);
+		} else if (benchmark.equals("shards")) {
+			int maxShards = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+			int clients = args.length > 4 ? Integer.parseInt(args[4]) : 2 * maxShards;
+			shards(docsFile, noiseWordsFile, maxShards, clients);
+		} else if (benchmark.equals("snapshot")) {
+			int readers = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+			int writers = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+			int seconds = args.length > 5 ? Integer.parseInt(args[5]) : 5;
+			snapshotStress(docsFile, noiseWordsFile, readers, writers, seconds);
+		} else if (benchmark.equals("bloom")) {
+			double rate = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+			bloomFilter(docsFile, noiseWordsFile, rate);
+		} else {
+			System.err.println("Unknown benchmark: " + benchmark);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Compares sequential and parallel makeIndex, and checks that both build the same index.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @param threads Number of threads for the parallel build
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void indexThroughput(String docsFile, String noiseWordsFile, int threads)
+	throws FileNotFoundException {
+		int docs = new LittleSearchEngine().readDocNames(docsFile).size();
+		long seq = Long.MAX_VALUE, par = Long.MAX_VALUE;
+		LittleSearchEngine seqEngine = null, parEngine = null;
+		for (int run=0; run < WARMUP+RUNS; run++) {
+			long start = System.nanoTime();
+			seqEngine = new LittleSearchEngine();
+			seqEngine.makeIndex(docsFile, noiseWordsFile);
+			long t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				seq = Math.min(seq, t);
+			}
+
+			start = System.nanoTime();
+			parEngine = new LittleSearchEngine();
+			parEngine.setParallelism(threads);
+			parEngine.makeIndex(docsFile, noiseWordsFile);
+			t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				par = Math.min(par, t);
+			}
+		}
+		report("sequential", docs, seq);
+		report("parallel (" + threads + " threads)", docs, par);
+		System.out.printf("speedup: %.2fx%n", (double)seq / par);
+		System.out.println("indexes match: " + sameIndex(seqEngine.keywordsIndex, parEngine.keywordsIndex));
+	}
+
+	/**
+	 * Compares makeIndex with each occurrence inserted in place against a bulk build, for
+	 * occurrence lists and compact postings, and checks that both build the same index.
+	 * Then times the two ways of ordering a single hot keyword's list, one found in every
+	 * document, as the number of documents grows.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws IOException If any input file is not found on disk
+	 */
+	static void bulkBuild(String docsFile, String noiseWordsFile)
+	throws IOException {
+		int docs = new LittleSearchEngine().readDocNames(docsFile).size();
+		for (boolean compact: new boolean[] {false, true}) {
+			long inPlace = Long.MAX_VALUE, bulk = Long.MAX_VALUE;
+			LittleSearchEngine a = null, b = null;
+			for (int run=0; run < WARMUP+RUNS; run++) {
+				long start = System.nanoTime();
+				a = new LittleSearchEngine();
+				a.setCompactPostings(compact);
+				a.makeIndex(docsFile, noiseWordsFile);
+				long t = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					inPlace = Math.min(inPlace, t);
+				}
+
+				start = System.nanoTime();
+				b = new LittleSearchEngine();
+				b.setCompactPostings(compact);
+				b.setBulkBuild(true);
+				b.makeIndex(docsFile, noiseWordsFile);
+				t = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					bulk = Math.min(bulk, t);
+				}
+			}
+			String kind = compact ? "compact" : "occurrence lists";
+			report("in place, " + kind, docs, inPlace);
+			report("bulk, " + kind, docs, bulk);
+			boolean same;
+			if (compact) {
+				File fa = File.createTempFile("inplace", ".seg"), fb = File.createTempFile("bulk", ".seg");
+				a.saveIndex(fa.getPath());
+				b.saveIndex(fb.getPath());
+				same = sameFile(fa, fb);
+				fa.delete();
+				fb.delete();
+			} else {
+				same = sameIndex(a.keywordsIndex, b.keywordsIndex);
+			}
+			System.out.println("indexes match: " + same);
+		}
+
+		// one keyword in every document, mostly once or twice, as the commonest words are
+		System.out.printf("%n%-12s %14s %14s %10s%n", "postings", "in place ms", "bulk ms", "match");
+		Random random = new Random(18);
+		for (int n: new int[] {10000, 30000, 100000, 300000}) {
+			int[] freqs = new int[n];
+			for (int i=0; i < n; i++) {
+				int f = 1;
+				while (f < 50 && random.nextInt(3) == 0) {
+					f++;
+				}
+				freqs[i] = f;
+			}
+			long start = System.nanoTime();
+			PostingList inPlace = new PostingList();
+			for (int i=0; i < n; i++) {
+				inPlace.add(i, freqs[i]);
+				inPlace.insertLast();
+			}
+			long inPlaceTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			PostingList bulk = new PostingList();
+			for (int i=0; i < n; i++) {
+				bulk.add(i, freqs[i]);
+			}
+			bulk.insertAll(0);
+			long bulkTime = System.nanoTime() - start;
+			boolean same = Arrays.equals(Arrays.copyOf(inPlace.docs, n), Arrays.copyOf(bulk.docs, n));
+			System.out.printf("%-12d %14.1f %14.1f %10s%n", n, inPlaceTime/1e6, bulkTime/1e6, same);
+		}
+	}
+
+	/**
+	 * Measures what metrics cost: makeIndex and top5search with no metrics listener and
+	 * with SearchMetrics, then prints the metrics as a JMX client reads them from the
+	 * platform MBean server.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws IOException If any input file is not found on disk
+	 * @throws JMException If the MBean cannot be registered or read
+	 */
+	static void metrics(String docsFile, String noiseWordsFile)
+	throws IOException, JMException {
+		int docs = new LittleSearchEngine().readDocNames(docsFile).size();
+		LittleSearchEngine off = null, on = null;
+		SearchMetrics metrics = null;
+		long offTime = Long.MAX_VALUE, onTime = Long.MAX_VALUE;
+		for (int run=0; run < WARMUP+RUNS; run++) {
+			long start = System.nanoTime();
+			off = new LittleSearchEngine();
+			off.setCompactPostings(true);
+			off.makeIndex(docsFile, noiseWordsFile);
+			long t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				offTime = Math.min(offTime, t);
+			}
+
+			start = System.nanoTime();
+			on = new LittleSearchEngine();
+			metrics = new SearchMetrics(on);
+			on.setMetricsListener(metrics);
+			on.setCompactPostings(true);
+			on.makeIndex(docsFile, noiseWordsFile);
+			t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				onTime = Math.min(onTime, t);
+			}
+		}
+		report("makeIndex, metrics off", docs, offTime);
+		report("makeIndex, metrics on", docs, onTime);
+
+		ArrayList<String[]> queries = randomQueries(off.compactIndex.keywords(), 20000);
+		long offQueries = timeQueries(off, queries);
+		long onQueries = timeQueries(on, queries);
+		reportRate("top5search, metrics off", "queries", queries.size(), offQueries);
+		reportRate("top5search, metrics on", "queries", queries.size(), onQueries);
+
+		// one more pass, half of it repeated queries, for the latencies and cache statistics
+		metrics.top5search = new SearchMetrics.Latencies();
+		on.setQueryCache(10000, 1 << 22);
+		for (String[] q: queries.subList(0, queries.size() / 2)) {
+			on.top5search(q[0], q[1]);
+		}
+		for (String[] q: queries) {
+			on.top5search(q[0], q[1]);
+		}
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = metrics.register();
+		System.out.println();
+		System.out.println(name);
+		for (MBeanAttributeInfo attribute: server.getMBeanInfo(name).getAttributes()) {
+			Object value = server.getAttribute(name, attribute.getName());
+			System.out.printf("  %-26s %s%n", attribute.getName(), value instanceof long[] ? Arrays.toString((long[])value) : value);
+		}
+		metrics.unregister();
+	}
+
+	/**
+	 * Compares getKeyWord with the hash noise word filter against a linear scan of the
+	 * noise words, over every word of the given documents.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void noiseWordFilter(String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		ArrayList<String> words = new ArrayList<String>();
+		for (String doc: new LittleSearchEngine().readDocNames(docsFile)) {
+			Scanner sc = new Scanner(new File(doc));
+			while (sc.hasNext()) {
+				words.add(sc.next());
+			}
+		}
+
+		final LittleSearchEngine hashed = new LittleSearchEngine();
+		hashed.loadNoiseWords(noiseWordsFile);
+		final LittleSearchEngine linear = new LittleSearchEngine();
+		linear.loadNoiseWords(noiseWordsFile);
+		final Set<String> noise = linear.noiseWords.keySet();
+		linear.setStopWordFilter(new StopWordFilter() {
+			public boolean isStopWord(CharSequence word) {
+				for (String n: noise) {
+					if (n.equalsIgnoreCase(word.toString())) {
+						return true;
+					}
+				}
+				return false;
+			}
+			public boolean isStopWord(char[] chars, int off, int len) {
+				return isStopWord(new String(chars, off, len));
+			}
+		});
+
+		long hash = Long.MAX_VALUE, scan = Long.MAX_VALUE;
+		int kept = 0;
+		for (int run=0; run < WARMUP+RUNS; run++) {
+			long start = System.nanoTime();
+			for (String w: words) {
+				if (linear.getKeyWord(w) != null) {
+					kept++;
+				}
+			}
+			long t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				scan = Math.min(scan, t);
+			}
+
+			start = System.nanoTime();
+			for (String w: words) {
+				if (hashed.getKeyWord(w) != null) {
+					kept--;
+				}
+			}
+			t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				hash = Math.min(hash, t);
+			}
+		}
+		System.out.println(words.size() + " words, " + linear.noiseWords.size() + " noise words");
+		reportRate("linear scan", "words", words.size(), scan);
+		reportRate("hash filter", "words", words.size(), hash);
+		System.out.printf("speedup: %.2fx%n", (double)scan / hash);
+		System.out.println("same keywords: " + (kept == 0));
+	}
+
+	/**
+	 * Measures the heap taken by the index, per posting, with Occurrence lists and with
+	 * the compact index. A synthetic corpus from CorpusGenerator makes a good input.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void postingMemory(String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		long base = usedHeap();
+		LittleSearchEngine lists = new LittleSearchEngine();
+		lists.makeIndex(docsFile, noiseWordsFile);
+		long listBytes = usedHeap() - base;
+		long postings = 0;
+		for (ArrayList<Occurrence> occs: lists.keywordsIndex.values()) {
+			postings += occs.size();
+		}
+		int keywords = lists.keywordsIndex.size();
+		lists = null;
+
+		base = usedHeap();
+		LittleSearchEngine compact = new LittleSearchEngine();
+		compact.setCompactPostings(true);
+		compact.makeIndex(docsFile, noiseWordsFile);
+		long compactBytes = usedHeap() - base;
+
+		System.out.println(keywords + " keywords, " + postings + " postings");
+		System.out.printf("%-30s %12d bytes %8.1f bytes/posting%n", "occurrence lists", listBytes, (double)listBytes/postings);
+		System.out.printf("%-30s %12d bytes %8.1f bytes/posting%n", "compact postings", compactBytes, (double)compactBytes/postings);
+		System.out.println("postings match: " + (compact.compactIndex.postingCount() == postings));
+	}
+
+	/**
+	 * Reports the compression ratio of compressed posting lists, their decode throughput,
+	 * and top5search latency with and without compression.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void compression(String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		LittleSearchEngine plain = new LittleSearchEngine();
+		plain.setCompactPostings(true);
+		plain.makeIndex(docsFile, noiseWordsFile);
+		LittleSearchEngine packed = new LittleSearchEngine();
+		packed.setCompressedPostings(true);
+		packed.makeIndex(docsFile, noiseWordsFile);
+
+		long postings = plain.compactIndex.postingCount();
+		long rawBytes = plain.compactIndex.postingBytes();
+		long packedBytes = packed.compactIndex.postingBytes();
+		System.out.println(postings + " postings");
+		System.out.printf("%-30s %12d bytes %8.2f bytes/posting%n", "int arrays", rawBytes, (double)rawBytes/postings);
+		System.out.printf("%-30s %12d bytes %8.2f bytes/posting%n", "compressed", packedBytes, (double)packedBytes/postings);
+		System.out.printf("compression ratio: %.2fx%n", (double)rawBytes/packedBytes);
+
+		Collection<CompressedPostingList> lists = packed.compactIndex.compressed.values();
+		long byFreq = Long.MAX_VALUE, byDoc = Long.MAX_VALUE;
+		long check = 0;
+		for (int run=0; run < WARMUP+RUNS; run++) {
+			long start = System.nanoTime();
+			for (CompressedPostingList c: lists) {
+				check += c.decode().size();
+			}
+			long t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				byFreq = Math.min(byFreq, t);
+			}
+			start = System.nanoTime();
+			for (CompressedPostingList c: lists) {
+				check -= c.decodeByDocument().size();
+			}
+			t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				byDoc = Math.min(byDoc, t);
+			}
+		}
+		reportRate("decode, frequency order", "postings", postings, byFreq);
+		reportRate("decode, document order", "postings", postings, byDoc);
+
+		ArrayList<String[]> queries = randomQueries(plain.compactIndex.postings.keySet(), 20000);
+		reportRate("top5search, int arrays", "queries", queries.size(), timeQueries(plain, queries));
+		reportRate("top5search, compressed", "queries", queries.size(), timeQueries(packed, queries));
+		boolean same = check == 0;
+		for (String[] q: queries) {
+			same &= String.valueOf(plain.top5search(q[0], q[1])).equals(String.valueOf(packed.top5search(q[0], q[1])));
+		}
+		System.out.println("same results: " + same);
+	}
+
+	/**
+	 * Compares the startup time of makeIndex with opening a saved index segment, and the
+	 * query rate of the in-memory index with the mapped segment.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws IOException If any input file is not found, or the segment cannot be written
+	 */
+	static void segment(String docsFile, String noiseWordsFile)
+	throws IOException {
+		File file = File.createTempFile("index", ".seg");
+		file.deleteOnExit();
+
+		long start = System.nanoTime();
+		LittleSearchEngine built = new LittleSearchEngine();
+		built.setCompactPostings(true);
+		built.makeIndex(docsFile, noiseWordsFile);
+		long build = System.nanoTime() - start;
+		built.saveIndex(file.getPath());
+
+		start = System.nanoTime();
+		LittleSearchEngine opened = new LittleSearchEngine();
+		opened.openIndex(file.getPath());
+		long open = System.nanoTime() - start;
+
+		System.out.println("segment size: " + file.length() + " bytes");
+		System.out.printf("%-30s %10.2f ms%n", "makeIndex", build/1e6);
+		System.out.printf("%-30s %10.2f ms%n", "openIndex", open/1e6);
+
+		ArrayList<String[]> queries = randomQueries(built.compactIndex.keywords(), 20000);
+		reportRate("top5search, in memory", "queries", queries.size(), timeQueries(built, queries));
+		reportRate("top5search, mapped segment", "queries", queries.size(), timeQueries(opened, queries));
+		boolean same = true;
+		for (String[] q: queries) {
+			same &= String.valueOf(built.top5search(q[0], q[1])).equals(String.valueOf(opened.top5search(q[0], q[1])));
+		}
+		System.out.println("same results: " + same);
+	}
+
+	/**
+	 * Compares makeIndex followed by saveIndex with the bounded-memory build, over the
+	 * first quarter, half and all of the documents: time, peak heap, and whether the two
+	 * segment files are identical. Peak heap counts garbage not yet collected, so it is
+	 * clearest with a small -Xmx, under which makeIndex eventually runs out of memory.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @param budget Memory budget of the bounded build, in bytes
+	 * @throws IOException If an input file cannot be read or a segment cannot be written
+	 */
+	static void spimi(String docsFile, String noiseWordsFile, long budget)
+	throws IOException {
+		ArrayList<String> docs = new LittleSearchEngine().readDocNames(docsFile);
+		File part = File.createTempFile("docs", ".txt");
+		File inMemory = File.createTempFile("memory", ".seg");
+		File bounded = File.createTempFile("bounded", ".seg");
+		part.deleteOnExit();
+		inMemory.deleteOnExit();
+		bounded.deleteOnExit();
+		System.out.printf("%-12s %-20s %10s %14s%n", "documents", "build", "ms", "peak heap MB");
+		for (int n: new int[] {docs.size() / 4, docs.size() / 2, docs.size()}) {
+			PrintWriter pw = new PrintWriter(part);
+			for (String doc: docs.subList(0, n)) {
+				pw.println(new File(doc).getAbsolutePath());
+			}
+			pw.close();
+
+			usedHeap();
+			resetPeakHeap();
+			long start = System.nanoTime();
+			LittleSearchEngine memory = new LittleSearchEngine();
+			memory.setCompactPostings(true);
+			memory.makeIndex(part.getPath(), noiseWordsFile);
+			memory.saveIndex(inMemory.getPath());
+			long time = System.nanoTime() - start;
+			memory = null;
+			System.out.printf("%-12d %-20s %10.1f %14.1f%n", n, "makeIndex+saveIndex", time/1e6, peakHeap()/1048576.0);
+
+			usedHeap();
+			resetPeakHeap();
+			start = System.nanoTime();
+			new LittleSearchEngine().makeIndex(part.getPath(), noiseWordsFile, bounded.getPath(), budget);
+			time = System.nanoTime() - start;
+			System.out.printf("%-12d %-20s %10.1f %14.1f%n", n, "bounded (" + (budget >> 20) + " MB)", time/1e6, peakHeap()/1048576.0);
+			System.out.println("segments identical: " + sameFile(inMemory, bounded));
+		}
+	}
+
+	/**
+	 * Times loadKeyWords on one large document, made by joining the documents over and
+	 * over, scanned whole and split into chunks tokenized in parallel, and checks that both
+	 * give the same keywords with the same frequencies.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @param size Size of the large document, in bytes
+	 * @throws IOException If an input file cannot be read or the large document cannot be written
+	 */
+	static void chunkedTokenize(String docsFile, String noiseWordsFile, long size)
+	throws IOException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.loadNoiseWords(noiseWordsFile);
+		ArrayList<String> docs = engine.readDocNames(docsFile);
+		File big = File.createTempFile("large", ".txt");
+		big.deleteOnExit();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(big), 1 << 16);
+		try {
+			byte[] buf = new byte[1 << 16];
+			for (long written = 0; written < size; ) {
+				for (String doc: docs) {
+					InputStream in = new FileInputStream(doc);
+					try {
+						for (int n; (n = in.read(buf)) > 0; ) {
+							out.write(buf, 0, n);
+							written += n;
+						}
+					} finally {
+						in.close();
+					}
+					out.write('\n');
+					written++;
+					if (written >= size) {
+						break;
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+		System.out.printf("%.1f MB document, %d processors%n", big.length() / 1048576.0, Runtime.getRuntime().availableProcessors());
+
+		HashMap<String,Occurrence> whole = null, chunked = null;
+		for (long chunk: new long[] {0, ChunkedTokenizer.CHUNK, ChunkedTokenizer.CHUNK / 4}) {
+			engine.setChunkSize(chunk);
+			long best = Long.MAX_VALUE;
+			HashMap<String,Occurrence> kws = null;
+			for (int run=0; run < 1+RUNS; run++) {
+				long start = System.nanoTime();
+				kws = engine.loadKeyWords(big.getPath());
+				long t = System.nanoTime() - start;
+				if (run >= 1) {
+					best = Math.min(best, t);
+				}
+			}
+			reportRate(chunk == 0 ? "single scan" : "chunks of " + (chunk >> 20) + " MB", "MB", big.length() >> 20, best);
+			if (chunk == 0) {
+				whole = kws;
+			} else {
+				chunked = kws;
+				boolean same = whole.size() == chunked.size();
+				for (Map.Entry<String,Occurrence> e: whole.entrySet()) {
+					Occurrence occ = chunked.get(e.getKey());
+					same &= occ != null && occ.frequency == e.getValue().frequency;
+				}
+				System.out.println("  same keywords and frequencies: " + same);
+			}
+		}
+	}
+
+	/**
+	 * Resets the peak usage of every heap memory pool.
+	 */
+	static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * Returns the sum of the peak usage of the heap memory pools since they were reset.
+	 */
+	static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Tells whether two files have the same contents.
+	 */
+	static boolean sameFile(File a, File b)
+	throws IOException {
+		if (a.length() != b.length()) {
+			return false;
+		}
+		DataInputStream ina = new DataInputStream(new BufferedInputStream(new FileInputStream(a)));
+		DataInputStream inb = new DataInputStream(new BufferedInputStream(new FileInputStream(b)));
+		try {
+			for (long i=0; i < a.length(); i++) {
+				if (ina.read() != inb.read()) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			ina.close();
+			inb.close();
+		}
+	}
+
+	/**
+	 * Times top5search with and without Bloom filters over segment keywords, on a mapped
+	 * segment file and on a snapshot of eight segments, for queries whose keywords are in
+	 * no document, queries with one such keyword, and queries whose keywords are all in the
+	 * index. Also reports the memory the filters take, the share of missing keywords that
+	 * pass a filter, and whether results are the same.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @param rate False positive rate of the filters
+	 * @throws IOException If any input file is not found, or a segment cannot be written
+	 */
+	static void bloomFilter(String docsFile, String noiseWordsFile, double rate)
+	throws IOException {
+		ArrayList<String> docs = new LittleSearchEngine().readDocNames(docsFile);
+		int parts = LittleSearchEngine.MAX_SEGMENTS;
+		File first = File.createTempFile("docs", ".txt");
+		first.deleteOnExit();
+		PrintWriter pw = new PrintWriter(first);
+		for (String doc: docs.subList(0, Math.max(1, docs.size() / parts))) {
+			pw.println(new File(doc).getAbsolutePath());
+		}
+		pw.close();
+
+		// words of the same letters and lengths as keywords, but in no document
+		LittleSearchEngine built = new LittleSearchEngine();
+		built.setCompactPostings(true);
+		built.makeIndex(docsFile, noiseWordsFile);
+		Set<String> keywords = built.compactIndex.keywords();
+		ArrayList<String> kws = new ArrayList<String>(keywords);
+		Collections.sort(kws);
+		Random random = new Random(112);
+		ArrayList<String> missing = new ArrayList<String>();
+		while (missing.size() < 20000) {
+			char[] w = kws.get(random.nextInt(kws.size())).toCharArray();
+			for (int i=0; i < w.length; i++) {
+				w[i] = (char)('a' + random.nextInt(26));
+			}
+			String word = new String(w);
+			if (!keywords.contains(word)) {
+				missing.add(word);
+			}
+		}
+		ArrayList<String[]> absent = new ArrayList<String[]>(), mixed = new ArrayList<String[]>();
+		ArrayList<String[]> present = randomQueries(keywords, 20000);
+		for (int i=0; i < missing.size(); i++) {
+			absent.add(new String[] {missing.get(i), missing.get((i * 7 + 1) % missing.size())});
+			mixed.add(new String[] {present.get(i)[0], missing.get(i)});
+		}
+
+		for (boolean snapshots: new boolean[] {false, true}) {
+			System.out.println(snapshots ? "snapshot of " + parts + " segments:" : "mapped segment file:");
+			LittleSearchEngine[] engines = new LittleSearchEngine[2];
+			for (int e=0; e < 2; e++) {
+				LittleSearchEngine engine = new LittleSearchEngine();
+				engine.setBloomFilter(e == 0 ? 0 : rate);
+				if (snapshots) {
+					engine.setSnapshots(true);
+					engine.setCompressedPostings(true);
+					engine.makeIndex(first.getPath(), noiseWordsFile);
+					int per = Math.max(1, docs.size() / parts);
+					for (int from = per; from < docs.size(); from += per) {
+						engine.addDocuments(docs.subList(from, Math.min(from + per, docs.size())));
+					}
+				} else {
+					File file = File.createTempFile("index", ".seg");
+					file.deleteOnExit();
+					built.setBloomFilter(e == 0 ? 0 : rate);
+					built.saveIndex(file.getPath());
+					engine.openIndex(file.getPath());
+				}
+				engines[e] = engine;
+			}
+
+			// share of missing keywords each filter lets through
+			long tests = 0, passed = 0;
+			IndexReader reader = engines[1].reader();
+			ArrayList<BloomFilter> filters = new ArrayList<BloomFilter>();
+			if (reader instanceof IndexSnapshot) {
+				for (CompactIndex segment: ((IndexSnapshot)reader).segments) {
+					filters.add(segment.filter);
+				}
+			} else {
+				filters.add(((IndexSegment)reader).filter);
+			}
+			for (String word: missing) {
+				long hash = BloomFilter.hash(word);
+				for (BloomFilter filter: filters) {
+					tests++;
+					if (filter.mightContain(hash)) {
+						passed++;
+					}
+				}
+			}
+			System.out.printf("filters: %d bytes for %d keywords, %.2f bits per keyword; false positives %.3f%% (target %.3f%%)%n",
+					engines[1].bloomFilterBytes(), keywords.size(), engines[1].bloomFilterBytes() * 8.0 / keywords.size(),
+					100.0 * passed / tests, 100.0 * rate);
+
+			String[] labels = {"missing keywords", "one missing keyword", "present keywords"};
+			ArrayList<ArrayList<String[]>> sets = new ArrayList<ArrayList<String[]>>();
+			sets.add(absent);
+			sets.add(mixed);
+			sets.add(present);
+			boolean same = true;
+			for (int q=0; q < labels.length; q++) {
+				ArrayList<String[]> queries = sets.get(q);
+				reportRate(labels[q] + ", no filter", "queries", queries.size(), timeQueries(engines[0], queries));
+				reportRate(labels[q] + ", filter", "queries", queries.size(), timeQueries(engines[1], queries));
+				for (String[] query: queries) {
+					same &= String.valueOf(engines[0].top5search(query[0], query[1])).equals(
+							String.valueOf(engines[1].top5search(query[0], query[1])));
+				}
+			}
+			System.out.println("same results: " + same);
+		}
+	}
+
+	/**
+	 * Compares top5search with topK for two keywords and k=5, and reports topK latency for
+	 * larger k and more keywords.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void topK(String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(docsFile, noiseWordsFile);
+		// the most frequent keywords, so that lists are long and ties are common
+		ArrayList<String> kws = new ArrayList<String>(engine.keywordsIndex.keySet());
+		final HashMap<String,ArrayList<Occurrence>> index = engine.keywordsIndex;
+		Collections.sort(kws, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return index.get(b).size() - index.get(a).size();
+			}
+		});
+		List<String> common = kws.subList(0, Math.min(200, kws.size()));
+		ArrayList<String[]> pairs = randomQueries(common, 20000);
+		reportRate("top5search", "queries", pairs.size(), timeQueries(engine, pairs));
+		for (int k: new int[] {5, 50, 500}) {
+			reportRate("topK, 2 keywords, k=" + k, "queries", pairs.size(), timeTopK(engine, pairs, k));
+		}
+		ArrayList<String[]> quads = new ArrayList<String[]>();
+		for (int i=0; i+1 < pairs.size(); i += 2) {
+			quads.add(new String[] {pairs.get(i)[0], pairs.get(i)[1], pairs.get(i+1)[0], pairs.get(i+1)[1]});
+		}
+		for (int k: new int[] {5, 50}) {
+			reportRate("topK, 4 keywords, k=" + k, "queries", quads.size(), timeTopK(engine, quads, k));
+		}
+	}
+
+	/**
+	 * Runs topK on every query, returning the best time over several runs.
+	 */
+	static long timeTopK(LittleSearchEngine engine, ArrayList<String[]> queries, int k) {
+		long best = Long.MAX_VALUE;
+		for (int run=0; run < WARMUP+RUNS; run++) {
+			long start = System.nanoTime();
+			for (String[] q: queries) {
+				engine.topK(Arrays.asList(q), k);
+			}
+			long t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				best = Math.min(best, t);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Times AND queries between keywords of very different list lengths, as in a skewed
+	 * (Zipf) vocabulary, against a plain merge of the fully decoded lists, for uncompressed
+	 * and compressed postings and for keywordsIndex. Also checks that both find the same
+	 * documents.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void booleanSearch(String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		String[] modes = {"uncompressed postings:", "compressed postings:", "keywordsIndex:"};
+		for (int mode=0; mode < modes.length; mode++) {
+			LittleSearchEngine engine = new LittleSearchEngine();
+			engine.setCompactPostings(mode < 2);
+			engine.setCompressedPostings(mode == 1);
+			engine.makeIndex(docsFile, noiseWordsFile);
+			final IndexReader index = mode < 2 ? engine.compactIndex : engine.documentOrder;
+			ArrayList<String> kws = new ArrayList<String>(index.keywords());
+			Collections.sort(kws);
+			final HashMap<String,Integer> sizes = new HashMap<String,Integer>();
+			for (String kw: kws) {
+				sizes.put(kw, index.cursor(kw).size());
+			}
+			Collections.sort(kws, new Comparator<String>() {
+				public int compare(String a, String b) {
+					return sizes.get(b) - sizes.get(a);
+				}
+			});
+			int n = kws.size();
+			List<String> common = kws.subList(0, Math.min(20, n));
+			List<String> middle = kws.subList(n/100, Math.max(n/100, n/20));
+			List<String> rare = kws.subList(n/20, Math.max(n/20, n/4));
+			System.out.println(modes[mode]);
+			System.out.printf("  list lengths: common %d, middle %d, rare %d%n", sizes.get(common.get(common.size()-1)),
+					sizes.get(middle.get(middle.size()/2)), sizes.get(rare.get(rare.size()/2)));
+			String[] mixes = {"common AND common", "middle AND common", "rare AND common", "rare AND middle"};
+			List<List<String>> lefts = Arrays.asList(common, middle, rare, rare);
+			List<List<String>> rights = Arrays.asList(common, common, common, middle);
+			for (int m=0; m < mixes.length; m++) {
+				Random random = new Random(112);
+				ArrayList<String[]> queries = new ArrayList<String[]>();
+				for (int i=0; i < 2000; i++) {
+					List<String> l = lefts.get(m), r = rights.get(m);
+					queries.add(new String[] {l.get(random.nextInt(l.size())), r.get(random.nextInt(r.size()))});
+				}
+				boolean same = true;
+				for (String[] q: queries) {
+					ArrayList<String> found = engine.booleanSearch(q[0] + " AND " + q[1], Integer.MAX_VALUE);
+					same &= (found == null ? 0 : found.size()) == mergeAnd(index, q[0], q[1]);
+				}
+				long skip = Long.MAX_VALUE, merge = Long.MAX_VALUE;
+				for (int run=0; run < WARMUP+RUNS; run++) {
+					long start = System.nanoTime();
+					for (String[] q: queries) {
+						engine.booleanSearch(q[0] + " AND " + q[1], 10);
+					}
+					long t1 = System.nanoTime() - start;
+					start = System.nanoTime();
+					for (String[] q: queries) {
+						mergeAnd(index, q[0], q[1]);
+					}
+					long t2 = System.nanoTime() - start;
+					if (run >= WARMUP) {
+						skip = Math.min(skip, t1);
+						merge = Math.min(merge, t2);
+					}
+				}
+				reportRate("  " + mixes[m] + ", skip", "queries", queries.size(), skip);
+				reportRate("  " + mixes[m] + ", merge", "queries", queries.size(), merge);
+				System.out.println("  same matches: " + same);
+			}
+		}
+	}
+
+	/**
+	 * Counts the documents holding both keywords by decoding both lists whole and merging
+	 * them, the way an intersection without skipping would.
+	 */
+	static int mergeAnd(IndexReader index, String kw1, String kw2) {
+		PostingList a = index.postingsByDocument(kw1), b = index.postingsByDocument(kw2);
+		int i = 0, j = 0, count = 0;
+		while (i < a.size && j < b.size) {
+			if (a.docs[i] < b.docs[j]) {
+				i++;
+			} else if (a.docs[i] > b.docs[j]) {
+				j++;
+			} else {
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Reports the size and build time of the sorted term dictionary, and compares prefix
+	 * expansion through it with a scan of every keyword in the index. Prefixes of one to
+	 * four letters are cut from random keywords. Also times wildcardSearch with k=10,
+	 * and checks it against topK over the keywords the scan found.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void prefixSearch(String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.setCompressedPostings(true);
+		engine.makeIndex(docsFile, noiseWordsFile);
+		Set<String> keywords = engine.compactIndex.keywords();
+		long best = Long.MAX_VALUE;
+		TermDictionary dict = null;
+		for (int run=0; run < WARMUP+RUNS; run++) {
+			long start = System.nanoTime();
+			dict = TermDictionary.build(keywords);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		long utf8 = 0;
+		for (String kw: keywords) {
+			utf8 += kw.getBytes(IndexSegment.UTF8).length;
+		}
+		System.out.println(dict.size() + " keywords");
+		System.out.printf("%-30s %10.2f ms%n", "build dictionary", best/1e6);
+		System.out.printf("%-30s %12d bytes %8.2f bytes/keyword%n", "keyword bytes, UTF-8", utf8, (double)utf8/dict.size());
+		System.out.printf("%-30s %12d bytes %8.2f bytes/keyword%n", "front coded dictionary", dict.bytes(), (double)dict.bytes()/dict.size());
+
+		ArrayList<String> sorted = new ArrayList<String>(keywords);
+		Collections.sort(sorted);
+		Random random = new Random(112);
+		for (int len=1; len <= 4; len++) {
+			ArrayList<String> prefixes = new ArrayList<String>();
+			while (prefixes.size() < 2000) {
+				String kw = sorted.get(random.nextInt(sorted.size()));
+				if (kw.length() >= len) {
+					prefixes.add(kw.substring(0, len));
+				}
+			}
+			long matches = 0, byDict = Long.MAX_VALUE, byScan = Long.MAX_VALUE;
+			boolean same = true;
+			for (int run=0; run < WARMUP+RUNS; run++) {
+				long start = System.nanoTime();
+				for (String p: prefixes) {
+					matches += dict.prefix(p, Integer.MAX_VALUE).size();
+				}
+				byDict = Math.min(byDict, System.nanoTime() - start);
+				start = System.nanoTime();
+				for (String p: prefixes) {
+					for (String kw: keywords) {
+						if (kw.startsWith(p)) {
+							matches--;
+						}
+					}
+				}
+				byScan = Math.min(byScan, System.nanoTime() - start);
+			}
+			same &= matches == 0;
+			String label = "prefix of " + len + ", ";
+			reportRate(label + "dictionary", "prefixes", prefixes.size(), byDict);
+			reportRate(label + "scan", "prefixes", prefixes.size(), byScan);
+			System.out.println("  same matches: " + same);
+		}
+
+		ArrayList<String[]> queries = new ArrayList<String[]>();
+		for (String[] pair: randomQueries(keywords, 5000)) {
+			queries.add(new String[] {pair[0].substring(0, Math.min(3, pair[0].length())) + "*", pair[1]});
+		}
+		long[] times = new long[queries.size()];
+		for (int run=0; run < WARMUP+1; run++) {
+			for (int i=0; i < times.length; i++) {
+				List<String> q = Arrays.asList(queries.get(i));
+				long start = System.nanoTime();
+				engine.wildcardSearch(q, 10);
+				times[i] = System.nanoTime() - start;
+			}
+		}
+		Arrays.sort(times);
+		reportLatencies("wildcardSearch, 3 letters*", times);
+		boolean same = true;
+		for (String[] q: queries) {
+			String p = q[0].substring(0, q[0].length() - 1);
+			ArrayList<String> terms = new ArrayList<String>();
+			for (String kw: sorted) {
+				if (kw.startsWith(p) && !terms.contains(kw)) {
+					terms.add(kw);
+				}
+			}
+			if (!terms.contains(q[1])) {
+				terms.add(q[1]);
+			}
+			same &= String.valueOf(engine.topK(terms, 10)).equals(String.valueOf(engine.wildcardSearch(Arrays.asList(q), 10)));
+		}
+		System.out.println("same results as topK: " + same);
+	}
+
+	/**
+	 * Times fuzzy expansion with one and two edits, through the partition table and the
+	 * Levenshtein automaton, on a synthetic vocabulary of the given size, after reporting
+	 * the time and memory the table takes, and compares it with computing the edit
+	 * distance to every word. Query words are vocabulary words with one or two random
+	 * edits. Then checks fuzzySearch on the index of the docs file against topK over the
+	 * keywords a full scan finds.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @param vocabulary Number of words in the synthetic vocabulary
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void fuzzySearch(String docsFile, String noiseWordsFile, int vocabulary)
+	throws FileNotFoundException {
+		String[] words = new CorpusGenerator(vocabulary, 1.0, 112).vocabulary;
+		TermDictionary dict = TermDictionary.build(Arrays.asList(words));
+		System.out.println(dict.size() + " words, dictionary " + dict.bytes() + " bytes");
+		long built = System.nanoTime();
+		dict.partitions();
+		System.out.printf("partition table built in %.1f ms, dictionary with it %d bytes%n", (System.nanoTime() - built)/1e6, dict.bytes());
+		Random random = new Random(112);
+		ArrayList<String> queries = new ArrayList<String>();
+		for (int i=0; i < 2000; i++) {
+			queries.add(misspell(words[random.nextInt(words.length)], 1 + random.nextInt(2), random));
+		}
+		for (int edits=1; edits <= FuzzySearch.MAX_EDITS; edits++) {
+			long[] times = new long[queries.size()];
+			long matches = 0;
+			for (int run=0; run < WARMUP+1; run++) {
+				matches = 0;
+				for (int i=0; i < times.length; i++) {
+					long start = System.nanoTime();
+					matches += new FuzzySearch(queries.get(i), edits).expand(dict, Integer.MAX_VALUE).size();
+					times[i] = System.nanoTime() - start;
+				}
+			}
+			Arrays.sort(times);
+			reportLatencies("automaton, " + edits + (edits == 1 ? " edit" : " edits"), times);
+			System.out.printf("  %.2f matches/query%n", (double)matches/queries.size());
+
+			boolean same = true;
+			List<String> checked = queries.subList(0, 20);
+			long start = System.nanoTime();
+			for (String q: checked) {
+				TreeSet<String> scanned = new TreeSet<String>();
+				for (String w: words) {
+					if (Math.abs(w.length() - q.length()) <= edits && FuzzySearch.distance(q, w) <= edits) {
+						scanned.add(w);
+					}
+				}
+				same &= scanned.equals(new TreeSet<String>(new FuzzySearch(q, edits).expand(dict, Integer.MAX_VALUE)));
+			}
+			long t = System.nanoTime() - start;
+			System.out.printf("%-30s %10.1f queries/s%n", "  distance to every word", checked.size()/(t/1e9));
+			System.out.println("  same matches: " + same);
+		}
+
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.setCompressedPostings(true);
+		engine.makeIndex(docsFile, noiseWordsFile);
+		ArrayList<String> keywords = new ArrayList<String>(engine.compactIndex.keywords());
+		Collections.sort(keywords);
+		boolean same = true;
+		for (int i=0; i < 500; i++) {
+			String q = misspell(keywords.get(random.nextInt(keywords.size())), 1, random);
+			ArrayList<String> terms = new ArrayList<String>();
+			for (int edits=0; edits <= 1; edits++) {
+				for (String kw: keywords) {
+					if (FuzzySearch.distance(q, kw) == edits) {
+						terms.add(kw);
+					}
+				}
+			}
+			ArrayList<String> expected = terms.isEmpty() ? null : engine.topK(terms, 5);
+			same &= String.valueOf(expected).equals(String.valueOf(engine.fuzzySearch(Arrays.asList(q), 1, 5)));
+		}
+		System.out.println("fuzzySearch same results as topK: " + same);
+	}
+
+	/**
+	 * Makes random edits to a word: substitutions, insertions or deletions of a letter.
+	 */
+	static String misspell(String word, int edits, Random random) {
+		StringBuilder w = new StringBuilder(word);
+		for (int e=0; e < edits; e++) {
+			int kind = w.length() == 0 ? 1 : w.length() > 1 ? random.nextInt(3) : random.nextInt(2);
+			char c = (char)('a' + random.nextInt(26));
+			if (kind == 0) {
+				w.setCharAt(random.nextInt(w.length()), c);
+			} else if (kind == 1) {
+				w.insert(random.nextInt(w.length() + 1), c);
+			} else {
+				w.deleteCharAt(random.nextInt(w.length()));
+			}
+		}
+		return w.toString();
+	}
+
+	/**
+	 * Reports the latency of BM25 ranked search, next to topK's raw frequency ranking, for
+	 * queries of two and four keywords, over uncompressed and compressed postings.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void rankedSearch(String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		for (boolean compress: new boolean[] {false, true}) {
+			LittleSearchEngine engine = new LittleSearchEngine();
+			engine.setCompactPostings(true);
+			engine.setCompressedPostings(compress);
+			long start = System.nanoTime();
+			engine.makeIndex(docsFile, noiseWordsFile);
+			System.out.println(compress ? "compressed postings:" : "uncompressed postings:");
+			System.out.printf("  %-28s %10.2f ms%n", "makeIndex", (System.nanoTime() - start)/1e6);
+
+			ArrayList<String[]> pairs = randomQueries(engine.compactIndex.keywords(), 20000);
+			ArrayList<String[]> quads = new ArrayList<String[]>();
+			for (int i=0; i+1 < pairs.size(); i += 2) {
+				quads.add(new String[] {pairs.get(i)[0], pairs.get(i)[1], pairs.get(i+1)[0], pairs.get(i+1)[1]});
+			}
+			for (ArrayList<String[]> queries: Arrays.asList(pairs, quads)) {
+				String size = queries.get(0).length + " keywords";
+				reportLatencies("  topK, " + size, latencies(engine, queries, false));
+				reportLatencies("  BM25, " + size, latencies(engine, queries, true));
+			}
+		}
+	}
+
+	/**
+	 * Runs every query through topK or rankedSearch with k=10, timing each query alone.
+	 *
+	 * @return Per-query latencies in nanoseconds of the last run, sorted
+	 */
+	static long[] latencies(LittleSearchEngine engine, ArrayList<String[]> queries, boolean ranked) {
+		long[] times = new long[queries.size()];
+		for (int run=0; run < WARMUP+1; run++) {
+			for (int i=0; i < times.length; i++) {
+				List<String> q = Arrays.asList(queries.get(i));
+				long start = System.nanoTime();
+				if (ranked) {
+					engine.rankedSearch(q, 10);
+				} else {
+					engine.topK(q, 10);
+				}
+				times[i] = System.nanoTime() - start;
+			}
+		}
+		Arrays.sort(times);
+		return times;
+	}
+
+	/**
+	 * Prints throughput and latency percentiles from sorted per-query latencies.
+	 */
+	static void reportLatencies(String label, long[] sorted) {
+		long total = 0;
+		for (long t: sorted) {
+			total += t;
+		}
+		System.out.printf("%-30s %10.1f queries/s   p50 %7.1f us   p99 %7.1f us   max %8.1f us%n", label,
+				sorted.length/(total/1e9), percentile(sorted, 0.5)/1e3, percentile(sorted, 0.99)/1e3,
+				sorted[sorted.length-1]/1e3);
+	}
+
+	/**
+	 * Returns a percentile of sorted values, by the nearest rank.
+	 */
+	static long percentile(long[] sorted, double p) {
+		int rank = (int)Math.ceil(p * sorted.length);
+		return sorted[Math.max(0, Math.min(rank, sorted.length) - 1)];
+	}
+
+	/**
+	 * Reports the memory taken by keyword positions next to the postings, the cost of
+	 * keeping them in makeIndex, and the latency of phraseSearch and nearSearch. Phrases
+	 * are pairs and triples of words taken from the documents, so that most of them
+	 * match. A few hundred phrases are also answered by reading the candidate documents
+	 * again, as was needed without positions, and the results compared.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void phraseSearch(String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		LittleSearchEngine plain = new LittleSearchEngine();
+		plain.setCompressedPostings(true);
+		long start = System.nanoTime();
+		plain.makeIndex(docsFile, noiseWordsFile);
+		long plainBuild = System.nanoTime() - start;
+
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.setCompressedPostings(true);
+		engine.setPositions(true);
+		start = System.nanoTime();
+		engine.makeIndex(docsFile, noiseWordsFile);
+		long positionBuild = System.nanoTime() - start;
+
+		long postings = engine.compactIndex.postingCount();
+		long postingBytes = engine.compactIndex.postingBytes();
+		long positionBytes = engine.positionBytes();
+		System.out.printf("%-30s %10.2f ms%n", "makeIndex", plainBuild/1e6);
+		System.out.printf("%-30s %10.2f ms%n", "makeIndex, positions", positionBuild/1e6);
+		System.out.printf("%-30s %12d bytes %8.2f bytes/posting%n", "postings", postingBytes, (double)postingBytes/postings);
+		System.out.printf("%-30s %12d bytes %8.2f bytes/posting%n", "positions", positionBytes, (double)positionBytes/postings);
+		System.out.printf("position overhead: %.2fx the postings%n", (double)positionBytes/postingBytes);
+
+		ArrayList<String> docs = engine.readDocNames(docsFile);
+		Random random = new Random(112);
+		ArrayList<String> phrases = new ArrayList<String>();
+		ArrayList<String> nears = new ArrayList<String>();
+		while (phrases.size() < 2000) {
+			ArrayList<String> words = new ArrayList<String>();
+			Scanner sc = new Scanner(new File(docs.get(random.nextInt(docs.size()))));
+			while (sc.hasNext()) {
+				words.add(sc.next());
+			}
+			if (words.size() < 3) {
+				continue;
+			}
+			int at = random.nextInt(words.size() - 2);
+			int len = 2 + random.nextInt(2);
+			String phrase = String.join(" ", words.subList(at, at + len));
+			String first = engine.getKeyWord(words.get(at)), last = engine.getKeyWord(words.get(at + len - 1));
+			// a lone punctuation mark is the empty keyword, which a query cannot spell
+			if (first != null && last != null && !first.isEmpty() && !last.isEmpty()) {
+				phrases.add(phrase);
+				nears.add(first + " NEAR/" + random.nextInt(5) + " " + last);
+			}
+		}
+		reportLatencies("phraseSearch", phraseLatencies(engine, phrases, false));
+		reportLatencies("nearSearch", phraseLatencies(engine, nears, true));
+
+		boolean same = true;
+		long best = Long.MAX_VALUE;
+		List<String> checked = phrases.subList(0, 200);
+		for (int run=0; run < 2; run++) {
+			start = System.nanoTime();
+			for (String phrase: checked) {
+				ArrayList<String> scanned = scanPhrase(engine, phrase, 10);
+				same &= String.valueOf(scanned).equals(String.valueOf(engine.phraseSearch(phrase, 10)));
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		reportRate("phrase by reading documents", "queries", checked.size(), best);
+		System.out.println("same results: " + same);
+	}
+
+	/**
+	 * Runs every query through phraseSearch or nearSearch with k=10, timing each query
+	 * alone.
+	 *
+	 * @return Per-query latencies in nanoseconds of the last run, sorted
+	 */
+	static long[] phraseLatencies(LittleSearchEngine engine, ArrayList<String> queries, boolean near) {
+		long[] times = new long[queries.size()];
+		for (int run=0; run < WARMUP+1; run++) {
+			for (int i=0; i < times.length; i++) {
+				long start = System.nanoTime();
+				if (near) {
+					engine.nearSearch(queries.get(i), 10);
+				} else {
+					engine.phraseSearch(queries.get(i), 10);
+				}
+				times[i] = System.nanoTime() - start;
+			}
+		}
+		Arrays.sort(times);
+		return times;
+	}
+
+	/**
+	 * Answers a phrase query without positions: reads every document holding all the
+	 * phrase's keywords and counts the phrase in it, word by word.
+	 *
+	 * @return Names of up to k documents, most occurrences first, or null if none match
+	 */
+	static ArrayList<String> scanPhrase(LittleSearchEngine engine, String phrase, int k)
+	throws FileNotFoundException {
+		PhraseSearch.Phrase parsed = PhraseSearch.parsePhrase(engine, phrase);
+		IndexReader reader = engine.compactIndex;
+		BooleanSearch.Clause clause = new BooleanSearch.Clause();
+		for (String kw: parsed.keywords) {
+			if (!clause.required.contains(kw)) {
+				clause.required.add(kw);
+			}
+		}
+		BooleanSearch.Matches candidates = BooleanSearch.evaluate(reader, clause);
+		TopDocs top = new TopDocs(k);
+		int span = parsed.offsets[parsed.offsets.length-1] + 1;
+		for (int c=0; c < candidates.size; c++) {
+			int doc = candidates.docs[c];
+			ArrayList<String> words = new ArrayList<String>();
+			Scanner sc = new Scanner(new File(reader.documentName(doc)));
+			while (sc.hasNext()) {
+				words.add(engine.getKeyWord(sc.next()));
+			}
+			int count = 0;
+			occurrences:
+			for (int at=0; at + span <= words.size(); at++) {
+				for (int i=0; i < parsed.offsets.length; i++) {
+					if (!parsed.keywords.get(i).equals(words.get(at + parsed.offsets[i]))) {
+						continue occurrences;
+					}
+				}
+				count++;
+			}
+			if (count > 0) {
+				top.add(doc, count);
+			}
+		}
+		ArrayList<String> result = top.names(reader);
+		return result.isEmpty() ? null : result;
+	}
+
+	/**
+	 * Times top5search with and without the query cache, on a stream that repeats a few
+	 * hundred keyword pairs, the popular ones far more often than the rest, as a search
+	 * front end would. An update to the index in the middle of the stream invalidates
+	 * the cache.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void queryCache(String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.setCompressedPostings(true);
+		engine.makeIndex(docsFile, noiseWordsFile);
+		ArrayList<String[]> pairs = randomQueries(engine.compactIndex.keywords(), 500);
+		// pair i is asked with probability proportional to 1/(i+1)
+		double[] cumulative = new double[pairs.size()];
+		double sum = 0;
+		for (int i=0; i < cumulative.length; i++) {
+			sum += 1.0 / (i+1);
+			cumulative[i] = sum;
+		}
+		Random random = new Random(112);
+		ArrayList<String[]> stream = new ArrayList<String[]>();
+		for (int i=0; i < 200000; i++) {
+			int p = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+			stream.add(pairs.get(p < 0 ? -p-1 : p));
+		}
+		String doc = engine.readDocNames(docsFile).get(0);
+
+		for (int entries: new int[] {0, 50, 1000}) {
+			engine.setQueryCache(entries, 1 << 20);
+			long best = Long.MAX_VALUE;
+			for (int run=0; run < WARMUP+RUNS; run++) {
+				long start = System.nanoTime();
+				for (int i=0; i < stream.size(); i++) {
+					if (i == stream.size()/2) {
+						engine.addDocument(doc);
+					}
+					String[] q = stream.get(i);
+					engine.top5search(q[0], q[1]);
+				}
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			reportRate(entries == 0 ? "top5search, no cache" : "top5search, " + entries + " entries", "queries", stream.size(), best);
+			if (entries > 0) {
+				System.out.println("  " + engine.queryCache());
+			}
+		}
+	}
+
+	/**
+	 * Compares the query rate of a loop of top5search calls with batchTop5search on one
+	 * thread and on several, over uncompressed and compressed postings, and checks that
+	 * every batch result equals the loop's.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @param threads Number of threads for the parallel batch
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void batchSearch(String docsFile, String noiseWordsFile, int threads)
+	throws FileNotFoundException {
+		for (boolean compress: new boolean[] {false, true}) {
+			LittleSearchEngine engine = new LittleSearchEngine();
+			engine.setCompactPostings(true);
+			engine.setCompressedPostings(compress);
+			engine.makeIndex(docsFile, noiseWordsFile);
+			System.out.println(compress ? "compressed postings:" : "uncompressed postings:");
+			ArrayList<String[]> queries = randomQueries(engine.compactIndex.keywords(), 200000);
+			reportRate("  top5search loop", "queries", queries.size(), timeQueries(engine, queries));
+			ArrayList<ArrayList<String>> batch = null;
+			for (int t: threads == 1 ? new int[] {1} : new int[] {1, threads}) {
+				long best = Long.MAX_VALUE;
+				for (int run=0; run < WARMUP+RUNS; run++) {
+					long start = System.nanoTime();
+					batch = engine.batchTop5search(queries, t);
+					long time = System.nanoTime() - start;
+					if (run >= WARMUP) {
+						best = Math.min(best, time);
+					}
+				}
+				reportRate("  batch, " + t + (t == 1 ? " thread" : " threads"), "queries", queries.size(), best);
+			}
+			boolean same = true;
+			for (int i=0; i < queries.size(); i++) {
+				String[] q = queries.get(i);
+				same &= String.valueOf(engine.top5search(q[0], q[1])).equals(String.valueOf(batch.get(i)));
+			}
+			System.out.println("  same results: " + same);
+		}
+	}
+
+	/**
+	 * Compares a single engine with sharded engines of 1, 2, 4, ... shards: index build time,
+	 * and top5search and topK throughput with several client threads searching at once.
+	 * Checks that every sharded engine builds the same lists and gives the same results.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @param maxShards Largest number of shards
+	 * @param clients Number of client threads
+	 * @throws FileNotFoundException If any input file is not found on disk
+	 */
+	static void shards(String docsFile, String noiseWordsFile, int maxShards, int clients)
+	throws FileNotFoundException {
+		final LittleSearchEngine engine = new LittleSearchEngine();
+		long start = System.nanoTime();
+		engine.makeIndex(docsFile, noiseWordsFile);
+		long build = System.nanoTime() - start;
+		final ArrayList<String[]> pairs = randomQueries(engine.keywordsIndex.keySet(), 100000);
+		final ArrayList<String[]> quads = new ArrayList<String[]>();
+		for (int i=0; i+1 < pairs.size(); i += 2) {
+			quads.add(new String[] {pairs.get(i)[0], pairs.get(i)[1], pairs.get(i+1)[0], pairs.get(i+1)[1]});
+		}
+		System.out.println(clients + " client threads");
+		System.out.println("single engine:");
+		reportRate("  makeIndex", "keywords", engine.keywordsIndex.size(), build);
+		reportRate("  top5search", "queries", pairs.size(), timeClients(pairs, clients, new Query() {
+			void run(String[] q) {
+				engine.top5search(q[0], q[1]);
+			}
+		}));
+		reportRate("  topK, 4 keywords, k=10", "queries", quads.size(), timeClients(quads, clients, new Query() {
+			void run(String[] q) {
+				engine.topK(Arrays.asList(q), 10);
+			}
+		}));
+
+		for (int n=1; n <= maxShards; n *= 2) {
+			final ShardedSearchEngine sharded = new ShardedSearchEngine(n);
+			start = System.nanoTime();
+			sharded.makeIndex(docsFile, noiseWordsFile);
+			build = System.nanoTime() - start;
+			System.out.println(n + (n == 1 ? " shard:" : " shards:"));
+			reportRate("  makeIndex", "keywords", engine.keywordsIndex.size(), build);
+			reportRate("  top5search", "queries", pairs.size(), timeClients(pairs, clients, new Query() {
+				void run(String[] q) {
+					sharded.top5search(q[0], q[1]);
+				}
+			}));
+			reportRate("  topK, 4 keywords, k=10", "queries", quads.size(), timeClients(quads, clients, new Query() {
+				void run(String[] q) {
+					sharded.topK(Arrays.asList(q), 10);
+				}
+			}));
+
+			HashMap<String,ArrayList<Occurrence>> merged = new HashMap<String,ArrayList<Occurrence>>();
+			for (int s=0; s < n; s++) {
+				merged.putAll(sharded.shard(s).keywordsIndex);
+			}
+			boolean same = sameIndex(engine.keywordsIndex, merged);
+			for (String[] q: pairs) {
+				same &= String.valueOf(engine.top5search(q[0], q[1])).equals(String.valueOf(sharded.top5search(q[0], q[1])));
+			}
+			for (String[] q: quads) {
+				same &= String.valueOf(engine.topK(Arrays.asList(q), 10)).equals(String.valueOf(sharded.topK(Arrays.asList(q), 10)));
+			}
+			System.out.println("  same index and results: " + same);
+			sharded.shutdown();
+		}
+	}
+
+	/**
+	 * A query run by a client thread.
+	 */
+	static abstract class Query {
+		abstract void run(String[] q);
+	}
+
+	/**
+	 * Splits queries among client threads that run them at the same time, returning the
+	 * best time over several runs.
+	 *
+	 * @param queries Queries
+	 * @param clients Number of client threads
+	 * @param query How to run a query
+	 * @return Best time in nanoseconds for all the queries
+	 */
+	static long timeClients(final ArrayList<String[]> queries, final int clients, final Query query) {
+		long best = Long.MAX_VALUE;
+		for (int run=0; run < WARMUP+RUNS; run++) {
+			Thread[] threads = new Thread[clients];
+			for (int c=0; c < clients; c++) {
+				final int from = c * queries.size() / clients, to = (c+1) * queries.size() / clients;
+				threads[c] = new Thread() {
+					public void run() {
+						for (int i = from; i < to; i++) {
+							query.run(queries.get(i));
+						}
+					}
+				};
+			}
+			long start = System.nanoTime();
+			for (Thread t: threads) {
+				t.start();
+			}
+			for (Thread t: threads) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return best;
+				}
+			}
+			long t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				best = Math.min(best, t);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Stress test of searching during updates. Writer threads keep replacing batches of
+	 * documents and deleting documents, while reader threads run top5search and check
+	 * that the index they see is consistent: every document that is live in it has all
+	 * of its keywords, with the right frequencies, and every list is in order without
+	 * duplicates or deleted documents. This runs twice, with the lock-based compact index
+	 * and with snapshots, and reports search latency while the writers run.
+	 *
+	 * @param docsFile Docs file
+	 * @param noiseWordsFile Noise words file
+	 * @param readers Number of reader threads
+	 * @param writers Number of writer threads
+	 * @param seconds How long each run lasts
+	 * @throws IOException If any input file is not found on disk
+	 */
+	static void snapshotStress(String docsFile, String noiseWordsFile, int readers, int writers, int seconds)
+	throws IOException {
+		for (final boolean snapshots: new boolean[] {false, true}) {
+			final LittleSearchEngine engine = new LittleSearchEngine();
+			engine.setSnapshots(snapshots);
+			engine.setCompressedPostings(true);
+			engine.makeIndex(docsFile, noiseWordsFile);
+			final ArrayList<String> docs = engine.readDocNames(docsFile);
+			// what each document holds, to check the index against
+			final HashMap<String,HashMap<String,Occurrence>> contents = new HashMap<String,HashMap<String,Occurrence>>();
+			for (String doc: docs) {
+				contents.put(doc, engine.loadKeyWords(doc));
+			}
+			final ArrayList<String[]> queries = randomQueries(engine.reader() instanceof IndexSnapshot
+					? ((IndexSnapshot)engine.reader()).segments[0].keywords() : engine.compactIndex.keywords(), 20000);
+
+			final long end = System.nanoTime() + seconds * 1000000000L;
+			final AtomicLong updates = new AtomicLong(), checks = new AtomicLong(), violations = new AtomicLong();
+			final long[][] latencies = new long[readers][];
+			ArrayList<Thread> threads = new ArrayList<Thread>();
+			for (int w=0; w < writers; w++) {
+				final Random random = new Random(w);
+				threads.add(new Thread() {
+					public void run() {
+						try {
+							while (System.nanoTime() < end) {
+								ArrayList<String> batch = new ArrayList<String>();
+								for (int i=0; i < 8; i++) {
+									batch.add(docs.get(random.nextInt(docs.size())));
+								}
+								engine.deleteDocument(batch.get(0));
+								engine.addDocuments(batch);
+								updates.addAndGet(2);
+							}
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+				});
+			}
+			for (int r=0; r < readers; r++) {
+				final int reader = r;
+				threads.add(new Thread() {
+					public void run() {
+						Random random = new Random(100 + reader);
+						long[] times = new long[1 << 16];
+						int n = 0;
+						while (System.nanoTime() < end) {
+							String[] q = queries.get(random.nextInt(queries.size()));
+							long start = System.nanoTime();
+							engine.top5search(q[0], q[1]);
+							long t = System.nanoTime() - start;
+							if (n == times.length) {
+								times = Arrays.copyOf(times, n*2);
+							}
+							times[n++] = t;
+							if (n % 256 == 0 && snapshots) {
+								checks.incrementAndGet();
+								if (!consistent(engine.snapshot, docs.get(random.nextInt(docs.size())), contents, q[0])) {
+									violations.incrementAndGet();
+								}
+							}
+						}
+						times = Arrays.copyOf(times, n);
+						Arrays.sort(times);
+						latencies[reader] = times;
+					}
+				});
+			}
+			for (Thread t: threads) {
+				t.start();
+			}
+			for (Thread t: threads) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+
+			long[] all = new long[0];
+			for (long[] times: latencies) {
+				int n = all.length;
+				all = Arrays.copyOf(all, n + times.length);
+				System.arraycopy(times, 0, all, n, times.length);
+			}
+			Arrays.sort(all);
+			System.out.println(snapshots ? "snapshots:" : "read/write lock:");
+			System.out.printf("  %d updates, %d searches%n", updates.get(), all.length);
+			reportLatencies("  top5search", all);
+			if (snapshots) {
+				System.out.printf("  %d consistency checks, %d violations, %d segments%n",
+						checks.get(), violations.get(), engine.snapshot.segments.length);
+			}
+		}
+	}
+
+	/**
+	 * Checks one snapshot: a document must either be missing, or have all its keywords
+	 * with their frequencies; and a list must be in descending order of frequency, with
+	 * no document twice and no deleted document.
+	 */
+	static boolean consistent(IndexSnapshot s, String doc, HashMap<String,HashMap<String,Occurrence>> contents, String kw) {
+		int id = s.id(doc);
+		if (id >= 0) {
+			for (Map.Entry<String,Occurrence> e: contents.get(doc).entrySet()) {
+				DocCursor c = s.cursor(e.getKey());
+				if (c == null) {
+					return false;
+				}
+				c.advance(id);
+				if (c.doc() != id || c.frequency() != e.getValue().frequency) {
+					return false;
+				}
+			}
+		}
+		PostingList list = s.postings(kw, Integer.MAX_VALUE);
+		if (list != null) {
+			HashSet<Integer> seen = new HashSet<Integer>();
+			for (int i=0; i < list.size; i++) {
+				if ((i > 0 && list.freqs[i] > list.freqs[i-1]) || s.deleted.get(list.docs[i]) || !seen.add(list.docs[i])) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Makes random two-keyword queries. Keywords are drawn uniformly from the given set,
+	 * so most queries are on rare keywords, with a few on common ones.
+	 *
+	 * @param keywords Keywords to draw from
+	 * @param count Number of queries
+	 * @return Queries, each a pair of keywords
+	 */
+	static ArrayList<String[]> randomQueries(Collection<String> keywords, int count) {
+		ArrayList<String> kws = new ArrayList<String>(keywords);
+		Collections.sort(kws);
+		Random random = new Random(112);
+		ArrayList<String[]> queries = new ArrayList<String[]>(count);
+		for (int i=0; i < count; i++) {
+			queries.add(new String[] {kws.get(random.nextInt(kws.size())), kws.get(random.nextInt(kws.size()))});
+		}
+		return queries;
+	}
+
+	/**
+	 * Runs top5search on every query, returning the best time over several runs.
+	 *
+	 * @param engine Engine to search
+	 * @param queries Queries, each a pair of keywords
+	 * @return Best time in nanoseconds for all the queries
+	 */
+	static long timeQueries(LittleSearchEngine engine, ArrayList<String[]> queries) {
+		long best = Long.MAX_VALUE;
+		for (int run=0; run < WARMUP+RUNS; run++) {
+			long start = System.nanoTime();
+			for (String[] q: queries) {
+				engine.top5search(q[0], q[1]);
+			}
+			long t = System.nanoTime() - start;
+			if (run >= WARMUP) {
+				best = Math.min(best, t);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the heap in use after garbage collection.
+	 */
+	static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i=0; i < 4; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Prints the time and throughput of a run.
+	 */
+	static void reportRate(String label, String unit, long count, long nanos) {
+		System.out.printf("%-30s %10.2f ms %12.1f %s/s%n", label, nanos/1e6, count/(nanos/1e9), unit);
+	}
+
+	/**
+	 * Prints the time and document throughput of a run.
+	 */
+	static void report(String label, int docs, long nanos) {
+		reportRate(label, "docs", docs, nanos);
+	}
+
+	/**
+	 * Checks whether two keyword indexes have the same keywords, with the same occurrences
+	 * in the same order.
+	 */
+	static boolean sameIndex(HashMap<String,ArrayList<Occurrence>> a, HashMap<String,ArrayList<Occurrence>> b) {
+		if (!a.keySet().equals(b.keySet())) {
+			return false;
+		}
+		for (String kw: a.keySet()) {
+			if (!a.get(kw).toString().equals(b.get(kw).toString())) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,415 @@
+package search;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class collects the metrics of a LittleSearchEngine, as its metrics listener, and
+ * exposes them as an MBean. Phase times, document and token counts and top5search
+ * latencies are gathered as the engine reports them, in atomic counters that threads
+ * can update without locking. The keyword count, posting list sizes and cache
+ * statistics are read from the engine when asked for; the posting list sizes are
+ * counted once per generation of the index, since counting them visits every list.
+ *
+ * Documents and tokens per second are over the wall time during which the engine was
+ * tokenizing, merging or sorting: the union of the times of those phases, so phases
+ * run at once on several threads are counted once, and time spent idle between
+ * builds is not counted.
+ *
+ * Latencies are kept in a histogram with 8 buckets per power of two, so percentiles are
+ * within an eighth of the true value, and recording one costs an atomic increment.
+ *
+ */
+public class SearchMetrics implements MetricsListener, SearchMetricsMBean {
+
+	/**
+	 * Engine measured.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * Total time spent in each phase, in nanoseconds, indexed by phase ordinal.
+	 */
+	AtomicLongArray phaseNanos;
+
+	/**
+	 * Wall time, in nanoseconds, covered by the tokenize, merge and sort phases.
+	 */
+	AtomicLong busyNanos;
+
+	/**
+	 * System.nanoTime at the end of the latest tokenize, merge or sort phase reported.
+	 */
+	AtomicLong busyUntil;
+
+	/**
+	 * Number of documents loaded.
+	 */
+	AtomicLong documents;
+
+	/**
+	 * Number of words read from documents.
+	 */
+	AtomicLong tokens;
+
+	/**
+	 * Latencies of top5search, replaced by reset.
+	 */
+	volatile Latencies top5search;
+
+	/**
+	 * Posting list sizes, as last counted.
+	 */
+	volatile Sizes sizes;
+
+	/**
+	 * Name under which this is registered with the platform MBean server, or null.
+	 */
+	ObjectName name;
+
+	/**
+	 * Creates the metrics of an engine. They are only collected once set as the engine's
+	 * metrics listener.
+	 *
+	 * @param engine Engine measured
+	 */
+	public SearchMetrics(LittleSearchEngine engine) {
+		this.engine = engine;
+		phaseNanos = new AtomicLongArray(Phase.values().length);
+		busyNanos = new AtomicLong();
+		busyUntil = new AtomicLong(Long.MIN_VALUE);
+		documents = new AtomicLong();
+		tokens = new AtomicLong();
+		top5search = new Latencies();
+	}
+
+	public void phaseTimed(Phase phase, long nanos) {
+		phaseNanos.addAndGet(phase.ordinal(), nanos);
+		if (phase != Phase.NOISE_WORDS) {
+			busy(System.nanoTime(), nanos);
+		}
+	}
+
+	/**
+	 * Adds the part of a phase, just ended, not already covered by earlier phases to the
+	 * wall time indexing has run for.
+	 *
+	 * @param end System.nanoTime at the end of the phase
+	 * @param nanos Duration of the phase
+	 */
+	private void busy(long end, long nanos) {
+		for (;;) {
+			long until = busyUntil.get();
+			if (end - until <= 0 && until != Long.MIN_VALUE) {
+				// inside a stretch already counted
+				return;
+			}
+			if (busyUntil.compareAndSet(until, end)) {
+				long from = end - nanos;
+				busyNanos.addAndGet(until == Long.MIN_VALUE || from - until >= 0 ? nanos : end - until);
+				return;
+			}
+		}
+	}
+
+	public void documentLoaded(String docFile, int words, int keywords) {
+		documents.incrementAndGet();
+		tokens.addAndGet(words);
+	}
+
+	public void searched(String kind, long nanos) {
+		if (kind.equals("top5search")) {
+			top5search.record(nanos);
+		}
+	}
+
+	/**
+	 * Registers this with the platform MBean server, under
+	 * search:type=LittleSearchEngine,id= followed by the engine's identity hash code.
+	 *
+	 * @return Name registered under
+	 * @throws JMException If it cannot be registered
+	 */
+	public synchronized ObjectName register()
+	throws JMException {
+		if (name == null) {
+			ObjectName n = new ObjectName("search:type=LittleSearchEngine,id=" + Integer.toHexString(System.identityHashCode(engine)));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, n);
+			name = n;
+		}
+		return name;
+	}
+
+	/**
+	 * Unregisters this from the platform MBean server, if it is registered.
+	 *
+	 * @throws JMException If it cannot be unregistered
+	 */
+	public synchronized void unregister()
+	throws JMException {
+		if (name != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			name = null;
+		}
+	}
+
+	public double getNoiseWordLoadMillis() {
+		return millis(Phase.NOISE_WORDS);
+	}
+
+	public double getTokenizeMillis() {
+		return millis(Phase.TOKENIZE);
+	}
+
+	public double getMergeMillis() {
+		return millis(Phase.MERGE);
+	}
+
+	public double getSortMillis() {
+		return millis(Phase.SORT);
+	}
+
+	private double millis(Phase phase) {
+		return phaseNanos.get(phase.ordinal()) / 1e6;
+	}
+
+	public long getDocumentsIndexed() {
+		return documents.get();
+	}
+
+	public long getTokensIndexed() {
+		return tokens.get();
+	}
+
+	public double getDocumentsPerSecond() {
+		return perSecond(documents.get());
+	}
+
+	public double getTokensPerSecond() {
+		return perSecond(tokens.get());
+	}
+
+	/**
+	 * Returns a count per second of wall time spent tokenizing, merging and sorting.
+	 */
+	private double perSecond(long count) {
+		long nanos = busyNanos.get();
+		return nanos == 0 ? 0 : count / (nanos / 1e9);
+	}
+
+	public int getTermCount() {
+		return sizes().terms;
+	}
+
+	public long[] getPostingSizeHistogram() {
+		return sizes().counts.clone();
+	}
+
+	/**
+	 * Returns the posting list sizes of the index, counting them again if the index has
+	 * changed since they were last counted.
+	 */
+	Sizes sizes() {
+		long gen = engine.generation.get();
+		Sizes s = sizes;
+		if (s == null || s.generation != gen) {
+			s = new Sizes(gen);
+			engine.postingSizes(s);
+			sizes = s;
+		}
+		return s;
+	}
+
+	public long getTop5searchCount() {
+		return top5search.count();
+	}
+
+	public double getTop5searchP50Micros() {
+		return top5search.percentile(0.5) / 1e3;
+	}
+
+	public double getTop5searchP90Micros() {
+		return top5search.percentile(0.9) / 1e3;
+	}
+
+	public double getTop5searchP99Micros() {
+		return top5search.percentile(0.99) / 1e3;
+	}
+
+	public double getTop5searchP999Micros() {
+		return top5search.percentile(0.999) / 1e3;
+	}
+
+	public double getTop5searchMaxMicros() {
+		return top5search.max.get() / 1e3;
+	}
+
+	public long getCacheHits() {
+		QueryCache cache = engine.queryCache;
+		return cache == null ? 0 : cache.hits();
+	}
+
+	public long getCacheMisses() {
+		QueryCache cache = engine.queryCache;
+		return cache == null ? 0 : cache.misses();
+	}
+
+	public double getCacheHitRate() {
+		QueryCache cache = engine.queryCache;
+		return cache == null ? 0 : cache.hitRate();
+	}
+
+	public long getCacheEvictions() {
+		QueryCache cache = engine.queryCache;
+		return cache == null ? 0 : cache.evictions();
+	}
+
+	public long getCacheInvalidations() {
+		QueryCache cache = engine.queryCache;
+		return cache == null ? 0 : cache.invalidations();
+	}
+
+	public int getCacheEntries() {
+		QueryCache cache = engine.queryCache;
+		return cache == null ? 0 : cache.size();
+	}
+
+	public long getCacheBytes() {
+		QueryCache cache = engine.queryCache;
+		return cache == null ? 0 : cache.bytes();
+	}
+
+	public void reset() {
+		for (int i=0; i < phaseNanos.length(); i++) {
+			phaseNanos.set(i, 0);
+		}
+		busyNanos.set(0);
+		busyUntil.set(Long.MIN_VALUE);
+		documents.set(0);
+		tokens.set(0);
+		top5search = new Latencies();
+	}
+
+	public String toString() {
+		return String.format("noise words %.1f ms, tokenize %.1f ms, merge %.1f ms, sort %.1f ms; %d documents, %d tokens (%.0f docs/s, %.0f tokens/s); "
+				+ "top5search %d, p50 %.1f us, p99 %.1f us",
+				getNoiseWordLoadMillis(), getTokenizeMillis(), getMergeMillis(), getSortMillis(),
+				getDocumentsIndexed(), getTokensIndexed(), getDocumentsPerSecond(), getTokensPerSecond(),
+				getTop5searchCount(), getTop5searchP50Micros(), getTop5searchP99Micros());
+	}
+
+	/**
+	 * Number of keywords of an index, and of its posting lists by size.
+	 */
+	static class Sizes {
+
+		/**
+		 * Generation of the index counted.
+		 */
+		long generation;
+
+		/**
+		 * Number of keywords.
+		 */
+		int terms;
+
+		/**
+		 * Element i counts the lists with from 2^i to 2^(i+1)-1 postings.
+		 */
+		long[] counts = new long[32];
+
+		Sizes(long generation) {
+			this.generation = generation;
+		}
+
+		/**
+		 * Counts a keyword's posting list.
+		 *
+		 * @param size Number of postings, at least 1
+		 */
+		void add(int size) {
+			terms++;
+			counts[31 - Integer.numberOfLeadingZeros(size)]++;
+		}
+	}
+
+	/**
+	 * Histogram of latencies, with SUB buckets per power of two of nanoseconds.
+	 */
+	static class Latencies {
+
+		static final int SUB = 8;
+
+		AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+
+		AtomicLong max = new AtomicLong();
+
+		void record(long nanos) {
+			counts.incrementAndGet(bucket(nanos));
+			for (long m = max.get(); nanos > m && !max.compareAndSet(m, nanos); m = max.get()) {
+				// another thread raised the maximum; try again against its value
+			}
+		}
+
+		/**
+		 * Returns the bucket of a latency: the latency itself below 2*SUB, otherwise its
+		 * power of two and its next three bits.
+		 */
+		static int bucket(long nanos) {
+			if (nanos < 2*SUB) {
+				return (int)Math.max(nanos, 0);
+			}
+			int e = 63 - Long.numberOfLeadingZeros(nanos);
+			return (e - 2) * SUB + (int)((nanos >>> (e - 3)) & (SUB - 1));
+		}
+
+		/**
+		 * Returns the largest latency in a bucket.
+		 */
+		static long upper(int bucket) {
+			if (bucket < 2*SUB) {
+				return bucket;
+			}
+			int e = bucket / SUB + 2;
+			long width = 1L << (e - 3);
+			return ((SUB + bucket % SUB) << (e - 3)) + width - 1;
+		}
+
+		/**
+		 * Returns the number of latencies recorded.
+		 */
+		long count() {
+			long total = 0;
+			for (int b=0; b < counts.length(); b++) {
+				total += counts.get(b);
+			}
+			return total;
+		}
+
+		/**
+		 * Returns the latency at or below which a fraction of the latencies are, rounded up
+		 * to the top of its bucket, and no more than the maximum.
+		 *
+		 * @param q Fraction, from 0 to 1
+		 * @return Latency in nanoseconds, or 0 if none were recorded
+		 */
+		long percentile(double q) {
+			long total = count();
+			if (total == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long)Math.ceil(q * total));
+			long seen = 0;
+			for (int b=0; b < counts.length(); b++) {
+				seen += counts.get(b);
+				if (seen >= rank) {
+					return Math.min(upper(b), max.get());
+				}
+			}
+			return max.get();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package search;
+
+/**
+ * Management interface of SearchMetrics. Times are in milliseconds unless the name
+ * says otherwise, and rates are per second of indexing work: time spent tokenizing,
+ * merging and sorting, summed over threads.
+ *
+ */
+public interface SearchMetricsMBean {
+
+	double getNoiseWordLoadMillis();
+
+	double getTokenizeMillis();
+
+	double getMergeMillis();
+
+	double getSortMillis();
+
+	long getDocumentsIndexed();
+
+	long getTokensIndexed();
+
+	double getDocumentsPerSecond();
+
+	double getTokensPerSecond();
+
+	/**
+	 * Number of keywords in the index.
+	 */
+	int getTermCount();
+
+	/**
+	 * Number of keywords by posting list size: element i counts the lists with from 2^i
+	 * to 2^(i+1)-1 postings.
+	 */
+	long[] getPostingSizeHistogram();
+
+	long getTop5searchCount();
+
+	double getTop5searchP50Micros();
+
+	double getTop5searchP90Micros();
+
+	double getTop5searchP99Micros();
+
+	double getTop5searchP999Micros();
+
+	double getTop5searchMaxMicros();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	double getCacheHitRate();
+
+	long getCacheEvictions();
+
+	long getCacheInvalidations();
+
+	int getCacheEntries();
+
+	long getCacheBytes();
+
+	/**
+	 * Sets every timing and count back to zero.
+	 */
+	void reset();
+}
@@ -0,0 +1,455 @@
+package search;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class serves top5search over a line protocol on the loopback interface, so that
+ * every client talks to a LittleSearchEngine the same way. Each request and reply is one
+ * line of UTF-8 text:
+ *
+ *   top5 kw1 kw2   answers "ok" followed by the names of up to 5 documents, separated by
+ *                  spaces, as top5search returns them ("ok" alone if none match)
+ *   stats          answers "ok" followed by name=value pairs: requests served, latency
+ *                  percentiles in microseconds, batches, mean batch size and rejections
+ *   quit           closes the connection
+ *
+ * A malformed request is answered with "error" and a message, and a request the server
+ * has no room for with "busy".
+ *
+ * Every connection has its own thread, which parses requests and queues them. A single
+ * batcher thread takes the queued requests, waiting up to a short window after the first
+ * one for others to arrive, and answers them together with batchTop5search, so that a
+ * posting list wanted by several requests in the window is read once. The queue is
+ * bounded: when it is full a connection waits a little for room, then answers "busy",
+ * so a flood of requests is turned away rather than queued without end. The latency of
+ * each request, from the moment it is queued to the moment its answer is ready, is kept
+ * in a histogram.
+ *
+ * Usage: java search.SearchServer docsFile noiseWordsFile [port [windowMicros [maxBatch [queueCapacity]]]]
+ *
+ */
+public class SearchServer {
+
+	/**
+	 * Default port.
+	 */
+	public static final int PORT = 7112;
+
+	/**
+	 * How long, in milliseconds, a connection waits for room in a full queue before it
+	 * answers "busy".
+	 */
+	static final long OFFER_MILLIS = 50;
+
+	/**
+	 * A queued request, with its answer once the batcher has it.
+	 */
+	static class Request {
+
+		/**
+		 * Keywords, lower case.
+		 */
+		String kw1, kw2;
+
+		/**
+		 * When the request was queued, by System.nanoTime.
+		 */
+		long queued;
+
+		/**
+		 * Answer, or null if there are no matching documents.
+		 */
+		ArrayList<String> result;
+
+		/**
+		 * Failure of the search, or null.
+		 */
+		RuntimeException failure;
+
+		/**
+		 * Released when the answer is ready.
+		 */
+		CountDownLatch done = new CountDownLatch(1);
+
+		Request(String kw1, String kw2) {
+			this.kw1 = kw1;
+			this.kw2 = kw2;
+		}
+	}
+
+	/**
+	 * Engine searched.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * Socket connections are accepted on.
+	 */
+	ServerSocket socket;
+
+	/**
+	 * Longest time, in nanoseconds, the batcher waits after a request for more to join it.
+	 */
+	long window;
+
+	/**
+	 * Largest number of requests answered together.
+	 */
+	int maxBatch;
+
+	/**
+	 * Number of threads batchTop5search uses.
+	 */
+	int threads;
+
+	/**
+	 * Requests waiting for the batcher.
+	 */
+	ArrayBlockingQueue<Request> queue;
+
+	/**
+	 * Threads serving connections.
+	 */
+	ExecutorService connections;
+
+	/**
+	 * Thread that accepts connections.
+	 */
+	Thread acceptor;
+
+	/**
+	 * Thread that answers queued requests.
+	 */
+	Thread batcher;
+
+	/**
+	 * Sockets of the open connections, closed by stop.
+	 */
+	Set<Socket> open = Collections.synchronizedSet(new HashSet<Socket>());
+
+	/**
+	 * False once stop is called.
+	 */
+	volatile boolean running = true;
+
+	/**
+	 * Latencies of the requests answered.
+	 */
+	SearchMetrics.Latencies latencies = new SearchMetrics.Latencies();
+
+	/**
+	 * Number of batches answered.
+	 */
+	AtomicLong batches = new AtomicLong();
+
+	/**
+	 * Number of requests answered "busy".
+	 */
+	AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Creates a server for an engine with a built index, listening on the loopback
+	 * interface. Call start to serve.
+	 *
+	 * @param engine Engine to search
+	 * @param port Port, or 0 for any free port
+	 * @param windowMicros Longest time, in microseconds, a request waits for others to batch with
+	 * @param maxBatch Largest number of requests answered together, at least 1
+	 * @param queueCapacity Number of requests that can wait for the batcher, at least 1
+	 * @throws IOException If the port cannot be bound
+	 * @throws IllegalArgumentException If maxBatch or queueCapacity is less than 1, or windowMicros is negative
+	 */
+	public SearchServer(LittleSearchEngine engine, int port, long windowMicros, int maxBatch, int queueCapacity)
+	throws IOException {
+		if (maxBatch < 1 || queueCapacity < 1 || windowMicros < 0) {
+			throw new IllegalArgumentException("Bad window, batch size or queue capacity: " + windowMicros + ", " + maxBatch + ", " + queueCapacity);
+		}
+		this.engine = engine;
+		window = windowMicros * 1000;
+		this.maxBatch = maxBatch;
+		threads = Runtime.getRuntime().availableProcessors();
+		queue = new ArrayBlockingQueue<Request>(queueCapacity);
+		socket = new ServerSocket(port, 256, InetAddress.getLoopbackAddress());
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 */
+	public int port() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * Starts accepting connections and answering requests, on background threads.
+	 */
+	public void start() {
+		connections = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SearchServer-connection");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		batcher = new Thread("SearchServer-batcher") {
+			public void run() {
+				batch();
+			}
+		};
+		batcher.setDaemon(true);
+		batcher.start();
+		acceptor = new Thread("SearchServer-acceptor") {
+			public void run() {
+				accept();
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Stops the server: closes the listening socket and every connection, and fails the
+	 * requests still queued.
+	 */
+	public void stop() {
+		running = false;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		synchronized (open) {
+			for (Socket s: open) {
+				try {
+					s.close();
+				} catch (IOException e) {
+					// closing anyway
+				}
+			}
+		}
+		if (batcher != null) {
+			batcher.interrupt();
+			connections.shutdownNow();
+		}
+		for (Request r; (r = queue.poll()) != null; ) {
+			r.failure = new IllegalStateException("Server stopped");
+			r.done.countDown();
+		}
+	}
+
+	/**
+	 * Accepts connections until the server stops, giving each to a connection thread.
+	 */
+	void accept() {
+		while (running) {
+			final Socket client;
+			try {
+				client = socket.accept();
+			} catch (IOException e) {
+				// the socket was closed by stop, or failed: either way no more connections
+				return;
+			}
+			open.add(client);
+			try {
+				connections.execute(new Runnable() {
+					public void run() {
+						try {
+							serve(client);
+						} catch (IOException e) {
+							// the client went away; nothing to answer
+						} finally {
+							open.remove(client);
+							try {
+								client.close();
+							} catch (IOException e) {
+								// closing anyway
+							}
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// stopped meanwhile
+				open.remove(client);
+				try {
+					client.close();
+				} catch (IOException ioe) {
+					// closing anyway
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads requests from a connection and writes their answers, one at a time, until the
+	 * client quits or goes away.
+	 *
+	 * @param client Connection
+	 * @throws IOException If the connection fails
+	 */
+	void serve(Socket client)
+	throws IOException {
+		client.setTcpNoDelay(true);
+		BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+		Writer out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] words = line.trim().split("\\s+");
+			if (words[0].equals("quit")) {
+				return;
+			}
+			out.write(answer(words));
+			out.write('\n');
+			out.flush();
+		}
+	}
+
+	/**
+	 * Answers a request.
+	 *
+	 * @param words Words of the request line
+	 * @return Answer line, without its line end
+	 */
+	String answer(String[] words) {
+		if (words[0].equals("stats")) {
+			return "ok " + stats();
+		}
+		if (!words[0].equals("top5")) {
+			return "error unknown request: " + words[0];
+		}
+		if (words.length != 3) {
+			return "error top5 takes two keywords";
+		}
+		Request r = new Request(words[1].toLowerCase(), words[2].toLowerCase());
+		r.queued = System.nanoTime();
+		try {
+			if (!queue.offer(r, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+				rejected.incrementAndGet();
+				return "busy";
+			}
+			r.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "error server stopped";
+		}
+		if (r.failure != null) {
+			return "error " + r.failure.getMessage();
+		}
+		StringBuilder sb = new StringBuilder("ok");
+		if (r.result != null) {
+			for (String doc: r.result) {
+				sb.append(' ').append(doc);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Answers queued requests in batches until the server stops. A batch is the first
+	 * request waiting, and every request that arrives within the window after it was
+	 * queued, up to maxBatch.
+	 */
+	void batch() {
+		ArrayList<Request> batch = new ArrayList<Request>(maxBatch);
+		while (running) {
+			try {
+				Request first = queue.take();
+				batch.add(first);
+				long deadline = first.queued + window;
+				while (batch.size() < maxBatch) {
+					long wait = deadline - System.nanoTime();
+					Request r = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+					if (r == null) {
+						break;
+					}
+					batch.add(r);
+				}
+			} catch (InterruptedException e) {
+				// stopped; fail what was taken
+				for (Request r: batch) {
+					r.failure = new IllegalStateException("Server stopped");
+					r.done.countDown();
+				}
+				return;
+			}
+			answer(batch);
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Answers a batch of requests, reading each keyword's list once, and releases them.
+	 *
+	 * @param batch Requests
+	 */
+	void answer(ArrayList<Request> batch) {
+		try {
+			if (batch.size() == 1) {
+				Request r = batch.get(0);
+				r.result = engine.top5search(r.kw1, r.kw2);
+			} else {
+				ArrayList<String[]> queries = new ArrayList<String[]>(batch.size());
+				for (Request r: batch) {
+					queries.add(new String[] {r.kw1, r.kw2});
+				}
+				ArrayList<ArrayList<String>> results = engine.batchTop5search(queries, threads);
+				for (int i=0; i < batch.size(); i++) {
+					batch.get(i).result = results.get(i);
+				}
+			}
+		} catch (RuntimeException e) {
+			for (Request r: batch) {
+				r.failure = e;
+			}
+		}
+		batches.incrementAndGet();
+		long now = System.nanoTime();
+		for (Request r: batch) {
+			latencies.record(now - r.queued);
+			r.done.countDown();
+		}
+	}
+
+	/**
+	 * Returns the server's statistics, as name=value pairs separated by spaces.
+	 */
+	public String stats() {
+		long requests = latencies.count();
+		long b = batches.get();
+		return String.format("requests=%d p50us=%.1f p99us=%.1f p999us=%.1f maxus=%.1f batches=%d meanbatch=%.2f rejected=%d",
+				requests, latencies.percentile(0.5) / 1e3, latencies.percentile(0.99) / 1e3,
+				latencies.percentile(0.999) / 1e3, latencies.max.get() / 1e3,
+				b, b == 0 ? 0.0 : (double)requests / b, rejected.get());
+	}
+
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: java search.SearchServer docsFile noiseWordsFile [port [windowMicros [maxBatch [queueCapacity]]]]");
+			System.exit(1);
+		}
+		int port = args.length > 2 ? Integer.parseInt(args[2]) : PORT;
+		long windowMicros = args.length > 3 ? Long.parseLong(args[3]) : 200;
+		int maxBatch = args.length > 4 ? Integer.parseInt(args[4]) : 256;
+		int capacity = args.length > 5 ? Integer.parseInt(args[5]) : 4096;
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1]);
+		final SearchServer server = new SearchServer(engine, port, windowMicros, maxBatch, capacity);
+		server.start();
+		System.out.println("Serving " + engine.keywordsIndex.size() + " keywords on " + server.socket.getLocalSocketAddress());
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				server.stop();
+				System.out.println(server.stats());
+			}
+		});
+		try {
+			server.acceptor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
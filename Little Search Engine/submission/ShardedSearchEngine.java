@@ -0,0 +1,338 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * This class splits an index over several shards, each a LittleSearchEngine with its own
+ * keyword table and its own worker thread, so that no one table holds the whole index,
+ * and the shards are built at the same time.
+ *
+ * Keywords are partitioned by hash: every keyword, with its whole posting list, lives in
+ * exactly one shard. A document's keywords are split among the shards when it is
+ * indexed, and each shard merges its part in document order, so every list is the list
+ * a single engine would build, with ties in the same places. A query reads as much of
+ * each keyword's list as it needs from the keyword's shard, and merges the lists exactly
+ * as the single engine merges them. Results are therefore the same as the single engine's.
+ *
+ * Each shard runs its indexing tasks one at a time on its worker. Searches do not go
+ * through the workers: a search reads the shards on its own thread, under the read lock,
+ * while makeIndex holds the write lock. Handing every query to the workers cost more than
+ * the lookups it spread, and the hand-off grew with the number of shards; this way
+ * searches run at once on as many threads as call them, whatever the number of shards.
+ *
+ * Shards run in this process only. Running each shard as a worker process reached over
+ * the loopback interface is not supported: SearchServer's line protocol answers whole
+ * top5 queries, and has no request that returns the first occurrences of a keyword,
+ * which is what scatter needs from a shard. Adding that request, and a shard that sends
+ * it to a worker process, is left as a follow-up.
+ *
+ */
+public class ShardedSearchEngine {
+
+	/**
+	 * Maximum number of documents tokenized ahead of the one being split, per shard.
+	 */
+	static final int LOOKAHEAD = 4;
+
+	/**
+	 * The shards.
+	 */
+	LittleSearchEngine[] shards;
+
+	/**
+	 * Worker of each shard.
+	 */
+	ExecutorService[] workers;
+
+	/**
+	 * Held for reading by searches, and for writing by makeIndex.
+	 */
+	ReentrantReadWriteLock indexLock;
+
+	/**
+	 * Creates an engine with a number of shards, each with its own worker thread.
+	 *
+	 * @param shardCount Number of shards, at least 1
+	 * @throws IllegalArgumentException If shardCount is less than 1
+	 */
+	public ShardedSearchEngine(int shardCount) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("Number of shards must be at least 1: " + shardCount);
+		}
+		shards = new LittleSearchEngine[shardCount];
+		workers = new ExecutorService[shardCount];
+		indexLock = new ReentrantReadWriteLock();
+		for (int s=0; s < shardCount; s++) {
+			shards[s] = new LittleSearchEngine();
+			final String name = "ShardedSearchEngine-shard-" + s;
+			workers[s] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, name);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the number of shards.
+	 */
+	public int shardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Returns a shard's engine, whose keywordsIndex holds the keywords of the shard. It must
+	 * not be searched or changed while this engine is in use.
+	 *
+	 * @param s Shard number, from 0 to shardCount()-1
+	 * @return Engine of the shard
+	 */
+	public LittleSearchEngine shard(int s) {
+		return shards[s];
+	}
+
+	/**
+	 * Returns the shard a keyword lives in.
+	 *
+	 * @param kw Keyword, lower case
+	 * @return Shard number
+	 */
+	public int shardOf(String kw) {
+		// spread the bits of the hash code, so that similar keywords land apart
+		int h = kw.hashCode() * 0x9e3779b9;
+		return (h >>> 1) % shards.length;
+	}
+
+	/**
+	 * Indexes a set of documents, as LittleSearchEngine.makeIndex does, into the keywordsIndex
+	 * tables of the shards. Documents are tokenized on the shard workers, each by the worker
+	 * of its position in the docs file modulo the number of shards, and a few documents
+	 * ahead of the one being split, so tokenizing keeps every worker busy. Searches wait
+	 * until the index is built.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, final String noiseWordsFile)
+	throws FileNotFoundException {
+		indexLock.writeLock().lock();
+		try {
+			index(docsFile, noiseWordsFile);
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Indexes a set of documents for makeIndex, holding the write lock.
+	 */
+	private void index(String docsFile, final String noiseWordsFile)
+	throws FileNotFoundException {
+		ArrayList<Future<Void>> done = new ArrayList<Future<Void>>();
+		for (int s=0; s < shards.length; s++) {
+			final LittleSearchEngine shard = shards[s];
+			done.add(workers[s].submit(new Callable<Void>() {
+				public Void call()
+				throws FileNotFoundException {
+					shard.loadNoiseWords(noiseWordsFile);
+					return null;
+				}
+			}));
+		}
+		gather(done);
+
+		final ArrayList<String> docFiles = shards[0].readDocNames(docsFile);
+		ArrayDeque<Future<HashMap<String,Occurrence>>> loading = new ArrayDeque<Future<HashMap<String,Occurrence>>>();
+		int next = 0;
+		done.clear();
+		for (int d=0; d < docFiles.size(); d++) {
+			while (next < docFiles.size() && next < d + LOOKAHEAD * shards.length) {
+				final LittleSearchEngine loader = shards[next % shards.length];
+				final String docFile = docFiles.get(next);
+				loading.add(workers[next % shards.length].submit(new Callable<HashMap<String,Occurrence>>() {
+					public HashMap<String,Occurrence> call()
+					throws FileNotFoundException {
+						return loader.loadKeyWords(docFile);
+					}
+				}));
+				next++;
+			}
+			HashMap<String,Occurrence> kws = gather(loading.poll());
+
+			// each shard merges its part of the document after the parts of the documents before it
+			ArrayList<HashMap<String,Occurrence>> parts = split(kws);
+			for (int s=0; s < shards.length; s++) {
+				final HashMap<String,Occurrence> part = parts.get(s);
+				if (part != null) {
+					final LittleSearchEngine shard = shards[s];
+					done.add(workers[s].submit(new Callable<Void>() {
+						public Void call() {
+							shard.mergeKeyWords(part);
+							return null;
+						}
+					}));
+				}
+			}
+			if (done.size() >= LOOKAHEAD * shards.length * 16) {
+				// let the merges catch up, so finished ones do not pile up here
+				gather(done);
+				done.clear();
+			}
+		}
+		gather(done);
+	}
+
+	/**
+	 * Splits the keywords of a document by shard.
+	 *
+	 * @param kws Keywords of a document
+	 * @return Keywords of each shard, null for a shard with none
+	 */
+	ArrayList<HashMap<String,Occurrence>> split(HashMap<String,Occurrence> kws) {
+		ArrayList<HashMap<String,Occurrence>> parts = new ArrayList<HashMap<String,Occurrence>>(Collections.nCopies(shards.length, (HashMap<String,Occurrence>)null));
+		for (Map.Entry<String,Occurrence> e: kws.entrySet()) {
+			int s = shardOf(e.getKey());
+			HashMap<String,Occurrence> part = parts.get(s);
+			if (part == null) {
+				part = new HashMap<String,Occurrence>();
+				parts.set(s, part);
+			}
+			part.put(e.getKey(), e.getValue());
+		}
+		return parts;
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", exactly as LittleSearchEngine.top5search gives it.
+	 * Each keyword is read from its own shard.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of NAMES of up to 5 documents in which either kw1 or kw2 occurs, arranged in
+	 *         descending order of frequencies, or null if there are no matching documents
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		kw1 = kw1.toLowerCase();
+		kw2 = kw2.toLowerCase();
+		// each list can contribute at most 5 new documents and 5 already taken from the other list
+		ArrayList<ArrayList<Occurrence>> lists = scatter(Arrays.asList(kw1, kw2), 10);
+		return LittleSearchEngine.top5merge(lists.get(0), lists.get(1));
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwn", exactly as LittleSearchEngine.topK gives
+	 * it. Each keyword is read from its own shard, and the lists are merged in the order of
+	 * the keywords in the query.
+	 *
+	 * @param terms Keywords, in order of precedence for ties
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of up to k documents in which any of the keywords occurs, arranged
+	 *         in descending order of frequencies. If there are no matching documents, the result is null.
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> topK(List<String> terms, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		ArrayList<String> kws = new ArrayList<String>(terms.size());
+		for (String term: terms) {
+			String kw = term.toLowerCase();
+			if (!kws.contains(kw)) {
+				kws.add(kw);
+			}
+		}
+		// each list can give at most k new documents, and k already taken from other lists
+		int limit = k > Integer.MAX_VALUE/2 ? Integer.MAX_VALUE : 2*k;
+		ArrayList<ArrayList<Occurrence>> lists = scatter(kws, limit);
+		ArrayList<TopKSearch.Cursor> cursors = new ArrayList<TopKSearch.Cursor>(kws.size());
+		for (int i=0; i < kws.size(); i++) {
+			ArrayList<Occurrence> occs = lists.get(i);
+			if (occs != null) {
+				TopKSearch.Cursor c = new TopKSearch.OccurrenceCursor(occs);
+				c.term = i;
+				cursors.add(c);
+			}
+		}
+		ArrayList<String> result = TopKSearch.merge(cursors, k);
+		return result.isEmpty() ? null : result;
+	}
+
+	/**
+	 * Reads the first occurrences of keywords from their shards, on this thread.
+	 *
+	 * @param kws Keywords, lower case
+	 * @param limit Number of occurrences of each keyword needed
+	 * @return Occurrences of each keyword, in the order of kws; null for a keyword not in
+	 *         the index
+	 */
+	ArrayList<ArrayList<Occurrence>> scatter(List<String> kws, int limit) {
+		ArrayList<ArrayList<Occurrence>> lists = new ArrayList<ArrayList<Occurrence>>(kws.size());
+		indexLock.readLock().lock();
+		try {
+			for (String kw: kws) {
+				LittleSearchEngine shard = shards[shardOf(kw)];
+				lists.add(shard.occurrences(shard.reader(), kw, limit));
+			}
+		} finally {
+			indexLock.readLock().unlock();
+		}
+		return lists;
+	}
+
+	/**
+	 * Stops the shard workers. The engine cannot be used afterwards.
+	 */
+	public void shutdown() {
+		for (ExecutorService worker: workers) {
+			worker.shutdown();
+		}
+	}
+
+	/**
+	 * Waits for indexing tasks, rethrowing the first failure.
+	 */
+	private static void gather(List<Future<Void>> tasks)
+	throws FileNotFoundException {
+		for (Future<Void> f: tasks) {
+			gather(f);
+		}
+	}
+
+	/**
+	 * Waits for an indexing task and returns its result, rethrowing its failure.
+	 */
+	private static <T> T gather(Future<T> task)
+	throws FileNotFoundException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Sharded indexing interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof FileNotFoundException) {
+				throw (FileNotFoundException)e.getCause();
+			}
+			throw unchecked(e);
+		}
+	}
+
+	/**
+	 * Returns the unchecked failure of a task, or wraps a checked one.
+	 */
+	private static RuntimeException unchecked(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof RuntimeException) {
+			return (RuntimeException)cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error)cause;
+		}
+		return new IllegalStateException(cause);
+	}
+}
@@ -0,0 +1,363 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class builds an index segment within a memory budget, for corpora whose index
+ * does not fit in the heap. It works by single-pass in-memory indexing (SPIMI):
+ *
+ * 1. Documents are loaded one at a time, and their postings are appended, in document
+ *    order, to a posting list per keyword in a hash table.
+ * 2. When the estimated size of the table passes the budget, its keywords are sorted and
+ *    written, with their postings, to a temporary run file, and the table is emptied.
+ * 3. When every document is loaded, the runs are merged into the segment, a keyword at a
+ *    time, by a k-way merge over the runs' keywords. Runs hold increasing document ids,
+ *    so a keyword's postings from each run, taken in run order, are in document order.
+ *
+ * Each merged list is put in the frequency order that inserting its postings one at a
+ * time in document order, as makeIndex does, would leave, so ties land in the same
+ * places and the segment is byte for byte the one saveIndex writes for the same
+ * documents. Only one keyword's postings are in memory during the merge. What grows with
+ * the corpus is one name and length per document.
+ *
+ */
+class SpimiIndexer {
+
+	/**
+	 * Estimated heap taken by a keyword in the table, besides its characters: the String,
+	 * the hash table entry, and the posting list with its two arrays.
+	 */
+	static final long TERM_BYTES = 160;
+
+	/**
+	 * Estimated heap taken by a posting: a document id and a frequency, with the slack
+	 * of a growing array.
+	 */
+	static final long POSTING_BYTES = 12;
+
+	/**
+	 * Engine whose loadKeyWords tokenizes the documents.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * Estimated heap the table may take before it is spilled.
+	 */
+	long budget;
+
+	/**
+	 * Directory for the run files.
+	 */
+	File dir;
+
+	/**
+	 * Postings of the keywords since the last spill, in document order.
+	 */
+	HashMap<String,PostingList> postings;
+
+	/**
+	 * Estimated heap taken by postings.
+	 */
+	long used;
+
+	/**
+	 * Document ids, in the order documents are first loaded.
+	 */
+	DocumentDictionary docs;
+
+	/**
+	 * Run files spilled so far, in order.
+	 */
+	ArrayList<File> runs;
+
+	/**
+	 * Creates an indexer.
+	 *
+	 * @param engine Engine with its noise words loaded
+	 * @param budget Estimated heap, in bytes, the postings may take before they are spilled
+	 * @param dir Directory for temporary run files
+	 */
+	SpimiIndexer(LittleSearchEngine engine, long budget, File dir) {
+		this.engine = engine;
+		this.budget = budget;
+		this.dir = dir;
+		postings = new HashMap<String,PostingList>();
+		docs = new DocumentDictionary();
+		runs = new ArrayList<File>();
+	}
+
+	/**
+	 * Indexes documents into a segment file.
+	 *
+	 * @param docFiles Names of the document files, in order
+	 * @param file Segment file, replaced if it exists
+	 * @throws IOException If a document cannot be read, or a run or the segment cannot be written
+	 */
+	void index(List<String> docFiles, File file)
+	throws IOException {
+		try {
+			for (String docFile: docFiles) {
+				HashMap<String,Occurrence> kws = engine.loadKeyWords(docFile);
+				MetricsListener m = engine.metrics;
+				long start = m == null ? 0 : System.nanoTime();
+				add(kws);
+				if (m != null) {
+					m.phaseTimed(MetricsListener.Phase.MERGE, System.nanoTime() - start);
+				}
+				if (used >= budget) {
+					spill();
+				}
+			}
+			spill();
+			MetricsListener m = engine.metrics;
+			long start = m == null ? 0 : System.nanoTime();
+			merge(file);
+			if (m != null) {
+				m.phaseTimed(MetricsListener.Phase.MERGE, System.nanoTime() - start);
+			}
+		} finally {
+			for (File run: runs) {
+				run.delete();
+			}
+		}
+	}
+
+	/**
+	 * Appends the postings of a document to the table.
+	 *
+	 * @param kws Keywords of the document
+	 */
+	void add(HashMap<String,Occurrence> kws) {
+		if (kws.isEmpty()) {
+			// makeIndex gives no id to a document without keywords
+			return;
+		}
+		int doc = docs.add(kws.values().iterator().next().document);
+		for (Map.Entry<String,Occurrence> e: kws.entrySet()) {
+			PostingList list = postings.get(e.getKey());
+			if (list == null) {
+				list = new PostingList(1);
+				postings.put(e.getKey(), list);
+				used += TERM_BYTES + 2L * e.getKey().length();
+			}
+			list.add(doc, e.getValue().frequency);
+			used += POSTING_BYTES;
+		}
+	}
+
+	/**
+	 * Writes the table to a new run file, keywords in ascending order of UTF-8 bytes, and
+	 * empties it. Each keyword is written as its length and bytes, then its number of
+	 * postings, then each posting's document id and frequency, all variable-byte encoded.
+	 *
+	 * @throws IOException If the run cannot be written
+	 */
+	void spill()
+	throws IOException {
+		if (postings.isEmpty()) {
+			return;
+		}
+		MetricsListener m = engine.metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		byte[][] terms = new byte[postings.size()][];
+		int t = 0;
+		for (String kw: postings.keySet()) {
+			terms[t++] = kw.getBytes(IndexSegment.UTF8);
+		}
+		Arrays.sort(terms, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return IndexSegment.compareBytes(a, b);
+			}
+		});
+
+		File run = File.createTempFile("spimi", ".run", dir);
+		runs.add(run);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+		try {
+			out.writeInt(terms.length);
+			for (byte[] term: terms) {
+				PostingList list = postings.get(new String(term, IndexSegment.UTF8));
+				writeVInt(out, term.length);
+				out.write(term);
+				writeVInt(out, list.size);
+				for (int i=0; i < list.size; i++) {
+					writeVInt(out, list.docs[i]);
+					writeVInt(out, list.freqs[i]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		postings = new HashMap<String,PostingList>();
+		used = 0;
+		// the tokenizer's table of words seen grows with the vocabulary; start it afresh too
+		synchronized (engine) {
+			engine.terms = null;
+		}
+		if (m != null) {
+			m.phaseTimed(MetricsListener.Phase.SORT, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Merges the runs into a segment file.
+	 *
+	 * @param file Segment file
+	 * @throws IOException If a run cannot be read or the segment cannot be written
+	 */
+	void merge(File file)
+	throws IOException {
+		PriorityQueue<Run> heads = new PriorityQueue<Run>(Math.max(runs.size(), 1), new Comparator<Run>() {
+			public int compare(Run a, Run b) {
+				int c = IndexSegment.compareBytes(a.term, b.term);
+				return c != 0 ? c : a.number - b.number;
+			}
+		});
+		IndexSegment.Writer out = new IndexSegment.Writer(file, engine.bloomFalsePositiveRate);
+		try {
+			for (int r=0; r < runs.size(); r++) {
+				Run run = new Run(runs.get(r), r);
+				if (run.next()) {
+					heads.add(run);
+				} else {
+					run.close();
+				}
+			}
+			PostingList byDocument = new PostingList();
+			while (!heads.isEmpty()) {
+				// every run that has the smallest keyword, in run order
+				byte[] term = heads.peek().term;
+				byDocument.size = 0;
+				while (!heads.isEmpty() && IndexSegment.compareBytes(heads.peek().term, term) == 0) {
+					Run run = heads.poll();
+					run.readPostings(byDocument);
+					if (run.next()) {
+						heads.add(run);
+					} else {
+						run.close();
+					}
+				}
+				// the order the insertions of makeIndex would leave
+				byDocument.insertAll(0);
+				out.add(term, byDocument);
+			}
+			for (int d=0; d < docs.size(); d++) {
+				String name = docs.name(d);
+				Integer length = engine.documentLengths.get(name);
+				out.addDocument(name, length == null ? 0 : length);
+			}
+			out.finish();
+		} finally {
+			for (Run run: heads) {
+				run.close();
+			}
+			out.close();
+		}
+	}
+
+	/**
+	 * Reader of a run file, one keyword at a time.
+	 */
+	static class Run {
+
+		/**
+		 * Input from the run file.
+		 */
+		DataInputStream in;
+
+		/**
+		 * Position of the run among the runs.
+		 */
+		int number;
+
+		/**
+		 * Number of keywords not yet read.
+		 */
+		int remaining;
+
+		/**
+		 * UTF-8 bytes of the current keyword.
+		 */
+		byte[] term;
+
+		/**
+		 * Opens a run file.
+		 *
+		 * @param file Run file
+		 * @param number Position of the run among the runs
+		 * @throws IOException If the run cannot be read
+		 */
+		Run(File file, int number)
+		throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			this.number = number;
+			remaining = in.readInt();
+		}
+
+		/**
+		 * Moves to the next keyword. Its postings must be read before the keyword after it.
+		 *
+		 * @return False if there are no more keywords
+		 * @throws IOException If the run cannot be read
+		 */
+		boolean next()
+		throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			term = new byte[readVInt(in)];
+			in.readFully(term);
+			return true;
+		}
+
+		/**
+		 * Appends the postings of the current keyword to a list.
+		 *
+		 * @param list Posting list
+		 * @throws IOException If the run cannot be read
+		 */
+		void readPostings(PostingList list)
+		throws IOException {
+			for (int n = readVInt(in); n > 0; n--) {
+				int doc = readVInt(in);
+				list.add(doc, readVInt(in));
+			}
+		}
+
+		void close() {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing more can be done with it
+			}
+		}
+	}
+
+	/**
+	 * Writes a number in the variable-byte encoding of CompressedPostingList.
+	 */
+	static void writeVInt(DataOutput out, int v)
+	throws IOException {
+		while ((v & ~0x7f) != 0) {
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	/**
+	 * Reads a number written by writeVInt.
+	 */
+	static int readVInt(DataInput in)
+	throws IOException {
+		int b = in.readByte();
+		int v = b & 0x7f;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = in.readByte();
+			v |= (b & 0x7f) << shift;
+		}
+		return v;
+	}
+}
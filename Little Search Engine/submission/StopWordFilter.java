@@ -0,0 +1,28 @@
+package search;
+
+/**
+ * This interface is implemented by filters that recognize noise (stop) words.
+ * Tests are case-INsensitive, and must not allocate, since they are made for
+ * every word of every document.
+ *
+ */
+public interface StopWordFilter {
+
+	/**
+	 * Tells whether a word is a stop word.
+	 *
+	 * @param word Word to test
+	 * @return True if word is a stop word, false otherwise
+	 */
+	boolean isStopWord(CharSequence word);
+
+	/**
+	 * Tells whether a range of characters is a stop word.
+	 *
+	 * @param chars Character buffer
+	 * @param off Index of the first character of the word
+	 * @param len Number of characters in the word
+	 * @return True if the word is a stop word, false otherwise
+	 */
+	boolean isStopWord(char[] chars, int off, int len);
+}
@@ -0,0 +1,495 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is a sorted, read-only dictionary of the keywords of an index, for prefix
+ * and wildcard queries, which the keyword hash tables cannot answer without visiting
+ * every key. It sits alongside the hash lookup; exact lookups still go through the index.
+ *
+ * Keywords are kept in ascending order of their UTF-8 bytes, front coded in blocks of
+ * BLOCK keywords, in a single byte array:
+ *
+ * - The first keyword of a block is written whole: its length, then its bytes.
+ * - Every other keyword is written as the number of leading bytes it shares with the
+ *   keyword before it, the number of bytes that follow, then those bytes.
+ *
+ * Sorted keywords share long prefixes, so most cost a few bytes. The offset of each
+ * block is kept uncompressed, so a prefix is found by a binary search over the first
+ * keywords of the blocks, then a scan from the block where it would be. The scan stops at
+ * the first keyword past the prefix, so an expansion costs the binary search, at most one
+ * block of keywords before the first match, and the matches themselves.
+ *
+ * For fuzzy matching, a partition table is built on first use. Every keyword is cut into
+ * PIECES pieces of nearly equal length, and each piece is filed under a hash of its
+ * characters, its number and the keyword's length. A keyword within PIECES-1 edits of a
+ * word has a piece that the edits did not touch, so it is found among the keywords filed
+ * under a few substrings of the word. The table also keeps every keyword's bytes
+ * uncompressed, so the keywords found can be checked without decoding blocks. It takes
+ * some 45 bytes per keyword, several times the dictionary itself, and is built only
+ * when fuzzy matching is used.
+ *
+ */
+class TermDictionary {
+
+	/**
+	 * Number of keywords in a block.
+	 */
+	static final int BLOCK = 16;
+
+	/**
+	 * Number of pieces each keyword is cut into in the partition table. One more than the
+	 * most edits fuzzy matching allows, so that one piece is always left intact.
+	 */
+	static final int PIECES = FuzzySearch.MAX_EDITS + 1;
+
+	/**
+	 * Number of keywords.
+	 */
+	int size;
+
+	/**
+	 * Front coded keywords.
+	 */
+	byte[] data;
+
+	/**
+	 * Offset in data at which each block starts.
+	 */
+	int[] blockOffset;
+
+	/**
+	 * Generation of the index the dictionary was built from.
+	 */
+	long generation;
+
+	/**
+	 * Partition table, or null until fuzzy matching first needs it.
+	 */
+	volatile Partitions partitions;
+
+	/**
+	 * The pieces of every keyword, filed by hash, and the keywords' bytes. Keywords are
+	 * identified by their index in the dictionary. A keyword of n characters, where
+	 * n is at least PIECES, is cut into PIECES pieces: the first PIECES - n % PIECES hold
+	 * n / PIECES characters, the others one more. Keywords of fewer characters are kept
+	 * in a list of their own.
+	 */
+	static class Partitions {
+
+		/**
+		 * UTF-8 bytes of every keyword, in order.
+		 */
+		byte[] terms;
+
+		/**
+		 * Offset in terms of each keyword; one more element holds the end of the last.
+		 */
+		int[] offsets;
+
+		/**
+		 * Hash of every piece, in ascending order as unsigned ints.
+		 */
+		int[] hashes;
+
+		/**
+		 * Index of the keyword of each piece in hashes.
+		 */
+		int[] ids;
+
+		/**
+		 * Index in hashes of the first piece of each bucket, the pieces whose hashes share
+		 * their top bits; one more element holds the number of pieces.
+		 */
+		int[] buckets;
+
+		/**
+		 * Shift that leaves the bucket bits of a hash.
+		 */
+		int shift;
+
+		/**
+		 * Indexes of the keywords of fewer than PIECES characters, ascending.
+		 */
+		int[] shortTerms;
+
+		/**
+		 * Returns the index in hashes of the first piece with a hash, or of the first piece
+		 * of a larger hash if there is none.
+		 */
+		int first(int hash) {
+			int b = hash >>> shift;
+			int i = buckets[b], end = buckets[b+1];
+			while (i < end && Integer.compareUnsigned(hashes[i], hash) < 0) {
+				i++;
+			}
+			return i;
+		}
+
+		/**
+		 * Returns a keyword.
+		 *
+		 * @param id Index of the keyword
+		 * @return The keyword
+		 */
+		String term(int id) {
+			return new String(terms, offsets[id], offsets[id+1] - offsets[id], IndexSegment.UTF8);
+		}
+
+		/**
+		 * Returns the first character of piece i of a keyword of n characters.
+		 */
+		static int pieceStart(int n, int i) {
+			return i * (n / PIECES) + Math.max(0, i - (PIECES - n % PIECES));
+		}
+
+		/**
+		 * Returns the number of characters of piece i of a keyword of n characters.
+		 */
+		static int pieceLength(int n, int i) {
+			return n / PIECES + (i < PIECES - n % PIECES ? 0 : 1);
+		}
+
+		/**
+		 * Returns the hash a piece is filed under.
+		 *
+		 * @param n Number of characters of the keyword
+		 * @param i Number of the piece
+		 * @param chars Characters holding the piece
+		 * @param off Index of the first character of the piece
+		 * @param len Number of characters of the piece
+		 * @return Hash
+		 */
+		static int hash(int n, int i, char[] chars, int off, int len) {
+			int h = n * PIECES + i;
+			for (int j=0; j < len; j++) {
+				h = 31*h + chars[off + j];
+			}
+			// spread the bits, so that the top ones pick the bucket
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			h *= 0xc2b2ae35;
+			return h ^ (h >>> 16);
+		}
+	}
+
+	/**
+	 * Builds a dictionary.
+	 *
+	 * @param keywords Keywords, in any order, without duplicates
+	 * @return Dictionary
+	 */
+	static TermDictionary build(Collection<String> keywords) {
+		byte[][] terms = new byte[keywords.size()][];
+		int t = 0;
+		for (String kw: keywords) {
+			terms[t++] = kw.getBytes(IndexSegment.UTF8);
+		}
+		Arrays.sort(terms, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return IndexSegment.compareBytes(a, b);
+			}
+		});
+
+		TermDictionary dict = new TermDictionary();
+		dict.size = terms.length;
+		dict.blockOffset = new int[(terms.length + BLOCK - 1) / BLOCK];
+		CompressedPostingList.ByteWriter out = new CompressedPostingList.ByteWriter(terms.length * 4);
+		for (int i=0; i < terms.length; i++) {
+			byte[] term = terms[i];
+			int shared = 0;
+			if (i % BLOCK == 0) {
+				dict.blockOffset[i / BLOCK] = out.size;
+			} else {
+				byte[] prev = terms[i-1];
+				int n = Math.min(prev.length, term.length);
+				while (shared < n && prev[shared] == term[shared]) {
+					shared++;
+				}
+				out.writeVInt(shared);
+			}
+			out.writeVInt(term.length - shared);
+			if (out.size + term.length - shared > out.buf.length) {
+				out.buf = Arrays.copyOf(out.buf, Math.max(out.buf.length * 2, out.size + term.length));
+			}
+			System.arraycopy(term, shared, out.buf, out.size, term.length - shared);
+			out.size += term.length - shared;
+		}
+		dict.data = out.toArray();
+		return dict;
+	}
+
+	/**
+	 * Returns the keywords that start with a prefix, in ascending order. An empty prefix
+	 * matches every keyword.
+	 *
+	 * @param prefix Prefix
+	 * @param limit Maximum number of keywords to return
+	 * @return Matching keywords, at most limit of them
+	 */
+	ArrayList<String> prefix(String prefix, int limit) {
+		ArrayList<String> matches = new ArrayList<String>();
+		if (limit < 1) {
+			return matches;
+		}
+		byte[] key = prefix.getBytes(IndexSegment.UTF8);
+		Terms terms = new Terms();
+		terms.seek(key);
+		// keywords with the prefix are all together, from the first one at or after it
+		while (matches.size() < limit && terms.next() && startsWith(terms.term, terms.length, key)) {
+			matches.add(terms.toString());
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns the partition table, building it on first use.
+	 */
+	Partitions partitions() {
+		Partitions p = partitions;
+		if (p == null) {
+			synchronized (this) {
+				p = partitions;
+				if (p == null) {
+					p = buildPartitions();
+					partitions = p;
+				}
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Builds the partition table in one pass over the keywords, then sorts the pieces by hash.
+	 */
+	private Partitions buildPartitions() {
+		Partitions p = new Partitions();
+		p.terms = new byte[Math.max(16, data.length * 2)];
+		p.offsets = new int[size + 1];
+		// each piece as its hash, sign flipped so longs sort it unsigned, then its keyword
+		long[] pieces = new long[size * PIECES];
+		int count = 0, used = 0;
+		int[] shortTerms = new int[16];
+		int shorts = 0;
+		char[] chars = new char[16];
+		Terms terms = new Terms();
+		while (terms.next()) {
+			int id = terms.index;
+			if (used + terms.length > p.terms.length) {
+				p.terms = Arrays.copyOf(p.terms, Math.max(p.terms.length * 2, used + terms.length));
+			}
+			System.arraycopy(terms.term, 0, p.terms, used, terms.length);
+			p.offsets[id] = used;
+			used += terms.length;
+			String kw = terms.toString();
+			int n = kw.length();
+			if (n < PIECES) {
+				if (shorts == shortTerms.length) {
+					shortTerms = Arrays.copyOf(shortTerms, shorts * 2);
+				}
+				shortTerms[shorts++] = id;
+				continue;
+			}
+			if (n > chars.length) {
+				chars = new char[Math.max(n, chars.length * 2)];
+			}
+			kw.getChars(0, n, chars, 0);
+			for (int i=0; i < PIECES; i++) {
+				int h = Partitions.hash(n, i, chars, Partitions.pieceStart(n, i), Partitions.pieceLength(n, i));
+				pieces[count++] = ((long)(h ^ Integer.MIN_VALUE) << 32) | id;
+			}
+		}
+		p.offsets[size] = used;
+		p.terms = Arrays.copyOf(p.terms, used);
+		p.shortTerms = Arrays.copyOf(shortTerms, shorts);
+		Arrays.sort(pieces, 0, count);
+
+		// about two pieces to a bucket
+		int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(1, count / 2)));
+		p.shift = 32 - bits;
+		p.hashes = new int[count];
+		p.ids = new int[count];
+		p.buckets = new int[(1 << bits) + 1];
+		for (int i=0; i < count; i++) {
+			p.hashes[i] = (int)(pieces[i] >>> 32) ^ Integer.MIN_VALUE;
+			p.ids[i] = (int)pieces[i];
+			p.buckets[(p.hashes[i] >>> p.shift) + 1]++;
+		}
+		for (int b=0; b < 1 << bits; b++) {
+			p.buckets[b+1] += p.buckets[b];
+		}
+		return p;
+	}
+
+	/**
+	 * Cursor over the keywords in sorted order, which can seek forward or back to any key.
+	 */
+	class Terms {
+
+		/**
+		 * Bytes of the current keyword; only the first length are used.
+		 */
+		byte[] term = new byte[16];
+
+		/**
+		 * Length in bytes of the current keyword.
+		 */
+		int length;
+
+		/**
+		 * Index of the current keyword, -1 before the first.
+		 */
+		int index = -1;
+
+		/**
+		 * Offset in data of the keyword after the current one.
+		 */
+		int pos;
+
+		/**
+		 * True if seek has already decoded the keyword next is to return.
+		 */
+		boolean pending;
+
+		/**
+		 * Moves to the next keyword.
+		 *
+		 * @return False if there are no more keywords
+		 */
+		boolean next() {
+			if (pending) {
+				pending = false;
+				return true;
+			}
+			if (index + 1 >= size) {
+				return false;
+			}
+			index++;
+			if (index % BLOCK == 0) {
+				pos = blockOffset[index / BLOCK];
+			}
+			int[] p = {pos};
+			int shared = index % BLOCK == 0 ? 0 : CompressedPostingList.readVInt(data, p);
+			int suffix = CompressedPostingList.readVInt(data, p);
+			length = shared + suffix;
+			if (length > term.length) {
+				term = Arrays.copyOf(term, Math.max(term.length * 2, length));
+			}
+			System.arraycopy(data, p[0], term, shared, suffix);
+			pos = p[0] + suffix;
+			return true;
+		}
+
+		/**
+		 * Positions the cursor so that next moves to the first keyword at or after a key,
+		 * in the order of UTF-8 bytes. Finds the block by binary search over the first
+		 * keywords of the blocks, then scans the block.
+		 *
+		 * @param key Key
+		 */
+		void seek(byte[] key) {
+			pending = false;
+			if (size == 0) {
+				return;
+			}
+			// last block whose first keyword is below the key; the keyword is in it or starts the next
+			int low = 0, high = blockOffset.length - 1, block = 0;
+			boolean forward = index >= 0 && compare(term, 0, length, key) < 0;
+			if (forward) {
+				// seeking forward, most often only a few blocks: gallop from the current block
+				low = block = index / BLOCK;
+				for (int step = 1; low + step <= high; step *= 2) {
+					if (headBelow(low + step, key)) {
+						block = low + step;
+					} else {
+						high = low + step - 1;
+						break;
+					}
+				}
+				low = block + 1;
+			}
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (headBelow(mid, key)) {
+					block = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			if (!forward || block != index / BLOCK) {
+				index = block * BLOCK - 1;
+			}
+			// else the keyword is further in the current block: scan on from here
+			while (next()) {
+				if (compare(term, 0, length, key) >= 0) {
+					pending = true;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Tells whether the first keyword of a block is below a key.
+		 */
+		private boolean headBelow(int block, byte[] key) {
+			int[] p = {blockOffset[block]};
+			int len = CompressedPostingList.readVInt(data, p);
+			return compare(data, p[0], len, key) < 0;
+		}
+
+		/**
+		 * Returns the current keyword.
+		 */
+		public String toString() {
+			return new String(term, 0, length, IndexSegment.UTF8);
+		}
+	}
+
+	/**
+	 * Compares bytes of an array with a key, as unsigned bytes.
+	 */
+	private static int compare(byte[] a, int off, int len, byte[] key) {
+		int n = Math.min(len, key.length);
+		for (int i=0; i < n; i++) {
+			int c = (a[off + i] & 0xff) - (key[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return len - key.length;
+	}
+
+	/**
+	 * Tells whether the first len bytes of a term start with a prefix.
+	 */
+	private static boolean startsWith(byte[] term, int len, byte[] prefix) {
+		if (len < prefix.length) {
+			return false;
+		}
+		for (int i=0; i < prefix.length; i++) {
+			if (term[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of keywords.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes taken by the dictionary: the front coded keywords, the
+	 * block offsets, and the partition table if it has been built.
+	 */
+	long bytes() {
+		Partitions p = partitions;
+		long table = p == null ? 0 : p.terms.length + 4L * (p.offsets.length + p.hashes.length + p.ids.length + p.buckets.length + p.shortTerms.length);
+		return data.length + 4L * blockOffset.length + table;
+	}
+}
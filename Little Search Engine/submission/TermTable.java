@@ -0,0 +1,166 @@
+package search;
+
+/**
+ * This class is a hash table of words, looked up directly by a range of characters
+ * so that no String needs to be created to find a word that has been seen before.
+ * Each word is stored once, along with whether it is a keyword or a noise word.
+ *
+ * Lookups do not lock. Additions are synchronized, and a lookup that races with an
+ * addition may miss the new word, in which case the caller falls back to add, which
+ * looks again under the lock.
+ *
+ */
+class TermTable {
+
+	/**
+	 * A word in the table. Instances are immutable, so they can be safely read
+	 * by threads that did not add them.
+	 */
+	static class Term {
+		/**
+		 * The word, lower case, without trailing punctuation.
+		 */
+		final String word;
+
+		/**
+		 * Hash code of word.
+		 */
+		final int hash;
+
+		/**
+		 * True if word is a keyword, false if it is a noise word.
+		 */
+		final boolean keyword;
+
+		Term(String word, int hash, boolean keyword) {
+			this.word = word;
+			this.hash = hash;
+			this.keyword = keyword;
+		}
+	}
+
+	/**
+	 * Open addressing table of terms, size a power of 2. Replaced as a whole on resize.
+	 */
+	volatile Term[] slots;
+
+	/**
+	 * Number of terms in the table.
+	 */
+	int size;
+
+	/**
+	 * Noise word filter the keyword verdicts were made with.
+	 */
+	final StopWordFilter filter;
+
+	/**
+	 * Creates an empty table.
+	 *
+	 * @param filter Noise word filter the verdicts will be made with
+	 */
+	TermTable(StopWordFilter filter) {
+		this.filter = filter;
+		slots = new Term[1024];
+	}
+
+	/**
+	 * Computes the hash of a range of characters. This is the same as the hashCode
+	 * of the String with those characters.
+	 *
+	 * @param chars Character buffer
+	 * @param len Number of characters, starting at index 0
+	 * @return Hash code
+	 */
+	static int hash(char[] chars, int len) {
+		int h = 0;
+		for (int i=0; i < len; i++) {
+			h = 31*h + chars[i];
+		}
+		return h;
+	}
+
+	/**
+	 * Looks up a word without locking.
+	 *
+	 * @param chars Character buffer holding the word, starting at index 0
+	 * @param len Length of the word
+	 * @param hash Hash of the word, as computed by hash(chars, len)
+	 * @return The word's term, or null if it is not (yet visibly) in the table
+	 */
+	Term get(char[] chars, int len, int hash) {
+		Term[] tab = slots;
+		int mask = tab.length - 1;
+		for (int i = mix(hash) & mask; ; i = (i+1) & mask) {
+			Term t = tab[i];
+			if (t == null) {
+				return null;
+			}
+			if (t.hash == hash && matches(t.word, chars, len)) {
+				return t;
+			}
+		}
+	}
+
+	/**
+	 * Adds a word if it is not already in the table.
+	 *
+	 * @param chars Character buffer holding the word, starting at index 0
+	 * @param len Length of the word
+	 * @param hash Hash of the word, as computed by hash(chars, len)
+	 * @return The word's term
+	 */
+	synchronized Term add(char[] chars, int len, int hash) {
+		Term t = get(chars, len, hash);
+		if (t != null) {
+			return t;
+		}
+		String word = new String(chars, 0, len);
+		t = new Term(word, hash, !filter.isStopWord(chars, 0, len));
+		if (2*(size+1) > slots.length) {
+			resize();
+		}
+		insert(slots, t);
+		size++;
+		return t;
+	}
+
+	/**
+	 * Doubles the table. The new table is filled before it is published.
+	 */
+	private void resize() {
+		Term[] tab = new Term[slots.length * 2];
+		for (Term t: slots) {
+			if (t != null) {
+				insert(tab, t);
+			}
+		}
+		slots = tab;
+	}
+
+	private static void insert(Term[] tab, Term t) {
+		int mask = tab.length - 1;
+		int i = mix(t.hash) & mask;
+		while (tab[i] != null) {
+			i = (i+1) & mask;
+		}
+		tab[i] = t;
+	}
+
+	private static int mix(int h) {
+		h *= 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean matches(String word, char[] chars, int len) {
+		if (word.length() != len) {
+			return false;
+		}
+		for (int i=0; i < len; i++) {
+			if (word.charAt(i) != chars[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,107 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class keeps the k best of a stream of scored documents, in a bounded min-heap
+ * whose root is the worst document kept: a new document only goes in if it beats the
+ * root, and then replaces it. Each document is packed into one long, its score in the
+ * high half and its id, inverted, in the low half, so the heap holds no objects and a
+ * greater long is always the better document. Ties in score go to the lower id.
+ *
+ * Scores are ints that order as the scores do: a non-negative count as is, or the bits
+ * of a non-negative float from Float.floatToIntBits, which order as the floats do.
+ *
+ */
+class TopDocs {
+
+	/**
+	 * Packed documents, a min-heap in heap[0..size-1].
+	 */
+	long[] heap;
+
+	int size;
+
+	/**
+	 * Maximum number of documents to keep.
+	 */
+	int k;
+
+	/**
+	 * @param k Maximum number of documents to keep
+	 */
+	TopDocs(int k) {
+		heap = new long[Math.min(k, 1024)];
+		this.k = k;
+	}
+
+	/**
+	 * Offers a document.
+	 *
+	 * @param doc Document id, not negative
+	 * @param score Score, not negative
+	 */
+	void add(int doc, int score) {
+		long v = ((long)score << 32) | (Integer.MAX_VALUE - doc);
+		if (size < k) {
+			if (size == heap.length) {
+				heap = Arrays.copyOf(heap, (int)Math.min(k, 2L*size));
+			}
+			// sift up
+			int c = size++;
+			while (c > 0 && heap[(c-1) >>> 1] > v) {
+				heap[c] = heap[(c-1) >>> 1];
+				c = (c-1) >>> 1;
+			}
+			heap[c] = v;
+		} else if (k > 0 && v > heap[0]) {
+			// replace the worst, and sift down
+			int c = 0;
+			while (true) {
+				int child = 2*c + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child+1 < size && heap[child+1] < heap[child]) {
+					child++;
+				}
+				if (heap[child] >= v) {
+					break;
+				}
+				heap[c] = heap[child];
+				c = child;
+			}
+			heap[c] = v;
+		}
+	}
+
+	/**
+	 * Returns the ids of the documents kept, best first.
+	 *
+	 * @return Document ids
+	 */
+	int[] documents() {
+		long[] sorted = Arrays.copyOf(heap, size);
+		Arrays.sort(sorted);
+		int[] docs = new int[size];
+		for (int i=0; i < size; i++) {
+			docs[i] = Integer.MAX_VALUE - (int)sorted[size-1-i];
+		}
+		return docs;
+	}
+
+	/**
+	 * Returns the names of the documents kept, best first.
+	 *
+	 * @param reader Index that numbered the documents
+	 * @return Document names
+	 */
+	ArrayList<String> names(IndexReader reader) {
+		int[] docs = documents();
+		ArrayList<String> names = new ArrayList<String>(docs.length);
+		for (int doc: docs) {
+			names.add(reader.documentName(doc));
+		}
+		return names;
+	}
+}
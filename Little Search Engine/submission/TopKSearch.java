@@ -0,0 +1,136 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class finds the k documents in which any of several keywords occur most often.
+ * The keywords' lists, each in descending order of frequency, are merged through a heap
+ * that holds the next occurrence of every list. The occurrence with the highest frequency
+ * is taken next; ties go to the keyword that comes first in the query, and within one
+ * keyword to the earlier occurrence, as documented for top5search. A document already
+ * taken through another keyword is skipped.
+ *
+ * Since every list is in descending order of frequency, no occurrence still in the heap
+ * or behind it can beat one already taken, so the merge stops as soon as it has k
+ * documents, without reading the rest of any list.
+ *
+ */
+class TopKSearch {
+
+	/**
+	 * Position in one keyword's list.
+	 */
+	static abstract class Cursor {
+
+		/**
+		 * Position of the keyword in the query.
+		 */
+		int term;
+
+		/**
+		 * Index of the current occurrence in the list.
+		 */
+		int pos;
+
+		abstract int size();
+
+		abstract int frequency();
+
+		abstract String document();
+	}
+
+	/**
+	 * Cursor over a list of Occurrence objects.
+	 */
+	static class OccurrenceCursor extends Cursor {
+		ArrayList<Occurrence> occs;
+
+		OccurrenceCursor(ArrayList<Occurrence> occs) {
+			this.occs = occs;
+		}
+
+		int size() {
+			return occs.size();
+		}
+
+		int frequency() {
+			return occs.get(pos).frequency;
+		}
+
+		String document() {
+			return occs.get(pos).document;
+		}
+	}
+
+	/**
+	 * Cursor over a posting list, with document names from an index reader.
+	 */
+	static class PostingCursor extends Cursor {
+		PostingList list;
+		IndexReader reader;
+
+		PostingCursor(PostingList list, IndexReader reader) {
+			this.list = list;
+			this.reader = reader;
+		}
+
+		int size() {
+			return list.size();
+		}
+
+		int frequency() {
+			return list.freqs[pos];
+		}
+
+		String document() {
+			return reader.documentName(list.docs[pos]);
+		}
+	}
+
+	/**
+	 * Orders cursors by the frequency of their current occurrence, highest first, then
+	 * by the position of their keyword in the query.
+	 */
+	static final Comparator<Cursor> ORDER = new Comparator<Cursor>() {
+		public int compare(Cursor a, Cursor b) {
+			int fa = a.frequency(), fb = b.frequency();
+			if (fa != fb) {
+				return fa > fb ? -1 : 1;
+			}
+			return a.term - b.term;
+		}
+	};
+
+	/**
+	 * Merges keyword lists into the top k documents.
+	 *
+	 * @param cursors One cursor per keyword that is in the index, each with its term set
+	 * @param k Maximum number of documents
+	 * @return Names of up to k documents, in descending order of frequency
+	 */
+	static ArrayList<String> merge(List<Cursor> cursors, int k) {
+		PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(cursors.size(), 1), ORDER);
+		long postings = 0;
+		for (Cursor c: cursors) {
+			if (c.size() > 0) {
+				heap.add(c);
+				postings += c.size();
+			}
+		}
+		// no more documents than postings, whatever k is
+		ArrayList<String> result = new ArrayList<String>((int)Math.min(k, postings));
+		HashSet<String> taken = new HashSet<String>();
+		while (result.size() < k && !heap.isEmpty()) {
+			Cursor c = heap.poll();
+			String doc = c.document();
+			if (taken.add(doc)) {
+				result.add(doc);
+			}
+			c.pos++;
+			if (c.pos < c.size()) {
+				heap.add(c);
+			}
+		}
+		return result;
+	}
+}